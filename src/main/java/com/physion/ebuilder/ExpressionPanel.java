@@ -9,6 +9,9 @@ import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
@@ -97,15 +100,27 @@ public class ExpressionPanel
          * by creating an array "rowPanels" that contains as
          * many of the already existing RowPanels that we can
          * reuse.
+         *
+         * We put the existing RowPanels in a map first, so we
+         * don't have to search through all the components for
+         * every row.
          */
-        ArrayList<RowPanel> rowPanels = new ArrayList<RowPanel>();
-        for (RowData rowData : rootRow.getRows()) {
+        Map<RowData, RowPanel> existingRowPanels =
+            new IdentityHashMap<RowData, RowPanel>();
+        for (Component component : getComponents()) {
+            RowPanel rowPanel = (RowPanel)component;
+            existingRowPanels.put(rowPanel.getRowData(), rowPanel);
+        }
+
+        List<RowData> rows = rootRow.getRows();
+        ArrayList<RowPanel> rowPanels = new ArrayList<RowPanel>(rows.size());
+        for (RowData rowData : rows) {
 
             /**
              * Get the RowPanel that is currently displaying the
              * rowData we want to display.
              */
-            RowPanel rowPanel = getRowPanel(rowData);
+            RowPanel rowPanel = existingRowPanels.get(rowData);
             if (rowPanel == null) {
                 /**
                  * This ExpressionPanel does NOT already have
@@ -139,7 +154,7 @@ public class ExpressionPanel
         removeAll();
 
         GridLayout layout = (GridLayout)getLayout();
-        layout.setRows(rootRow.getDescendentCount()+1);
+        layout.setRows(rows.size());
 
         //int zebraCount = 0;
         for (RowPanel rowPanel : rowPanels) {
@@ -14,6 +14,7 @@ import org.slf4j.LoggerFactory;
 import javax.swing.event.EventListenerList;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.List;
 
@@ -191,6 +192,45 @@ public class RowData
      */
     private int changeLevel;
 
+    /**
+     * This is the cached number of descendents of this RowData.
+     * It is only meaningful if descendentCountValid is true.
+     *
+     * Please see the getDescendentCount() method for more information.
+     */
+    private transient int descendentCount;
+
+    /**
+     * This is a cached array of "offsets" for our direct children.
+     * childOffsets[i] is the index, (as far as the getChild() method
+     * is concerned), of the child at childRows.get(i) relative to
+     * this RowData.  So, childOffsets[0] is always 1.
+     * It is only meaningful if descendentCountValid is true.
+     */
+    private transient int[] childOffsets;
+
+    /**
+     * This is the position of this RowData in its parent row's list
+     * of children.  It is set when the parent row recomputes its
+     * childOffsets array, so it is only meaningful if the parent
+     * row's descendentCountValid flag is true.
+     */
+    private transient int indexInParent;
+
+    /**
+     * This is true if the descendentCount and childOffsets values
+     * are up to date.  It is set to false whenever a row is added
+     * to or removed from this row or any of its descendents.
+     *
+     * Please note, if this flag is false for a row, it is also
+     * false for all of the row's ancestors.  The
+     * invalidateDescendentCount() method relies on this.
+     *
+     * This is transient, so a RowData that was just read in
+     * recomputes its cached values the first time they are needed.
+     */
+    private transient boolean descendentCountValid;
+
 
     /**
      * Create a RowData object that has no values set.
@@ -216,6 +256,7 @@ public class RowData
         collectionOperator = null;
         collectionOperator2 = null;
         changeLevel = 0;
+        descendentCountValid = false;
     }
 
 
@@ -276,14 +317,65 @@ public class RowData
      * their children, and so on.
      * This is NOT the same thing as getting the number of this RowData's
      * "immediate" children.
+     *
+     * The count is cached, and the cached value is thrown away
+     * whenever a row is added to or removed from this RowData
+     * or any of its descendents.  So, calling this method
+     * repeatedly on an unchanged tree is cheap.
      */
     public int getDescendentCount() {
 
-        int count = getChildRows().size();
-        for (RowData childRow : getChildRows()) {
-            count += childRow.getDescendentCount();
+        if (!descendentCountValid)
+            computeDescendentCount();
+        return(descendentCount);
+    }
+
+
+    /**
+     * Recompute the cached descendentCount and childOffsets values
+     * of this RowData.
+     *
+     * Only the children whose own cached values are out of date
+     * get recomputed, so after a single row is added or deleted,
+     * this only does work along the path from the root row down
+     * to the row that changed.
+     */
+    private void computeDescendentCount() {
+
+        List<RowData> rows = getChildRows();
+        int[] offsets = new int[rows.size()];
+
+        int count = 0;
+        for (int index = 0; index < offsets.length; index++) {
+
+            RowData childRow = rows.get(index);
+            childRow.indexInParent = index;
+            offsets[index] = count+1;
+            count += childRow.getDescendentCount()+1;
+        }
+
+        childOffsets = offsets;
+        descendentCount = count;
+        descendentCountValid = true;
+    }
+
+
+    /**
+     * Throw away the cached descendentCount of this RowData and
+     * all its ancestors.  This is called whenever a child row is
+     * added to or removed from this RowData.
+     *
+     * If we hit an ancestor whose cached value is already out of
+     * date, we can stop, because that ancestor's ancestors are
+     * out of date also.
+     */
+    private void invalidateDescendentCount() {
+
+        for (RowData rowData = this;
+             (rowData != null) && rowData.descendentCountValid;
+             rowData = rowData.getParentRow()) {
+            rowData.descendentCountValid = false;
         }
-        return(count);
     }
 
 
@@ -314,26 +406,44 @@ public class RowData
      * So, just to repeat, "this" RowData object is returned if
      * you pass an index of 0.  This RowData's first child is at
      * index 1.
+     *
+     * This method uses the cached childOffsets of each row to do a
+     * binary search at each level of the tree, so it does not need
+     * to look at every row that comes before the one at the passed
+     * in index.
+     *
+     * @return The RowData at the passed in index.  Returns null if
+     * the index is negative or greater than getDescendentCount().
      */
     public RowData getChild(int index) {
 
-        if (index == 0)
-            return(this);
+        if ((index < 0) || (index > getDescendentCount()))
+            return(null);
 
-        for (RowData childRow : childRows) {
+        RowData rowData = this;
+        while (index != 0) {
 
-            index--;
-            RowData rd = childRow.getChild(index);
-            if (rd != null)
-                return(rd);
+            int[] offsets = rowData.childOffsets;
+            int position = Arrays.binarySearch(offsets, index);
+            if (position < 0) {
+                /**
+                 * The index is inside the subtree of the child
+                 * that comes before the insertion point.
+                 */
+                position = -position-2;
+            }
 
-            index -= childRow.getDescendentCount();
+            index -= offsets[position];
+            rowData = rowData.getChildRows().get(position);
 
-            if (index == 0)
-                return(childRow);
+            /**
+             * Make sure the child's cached values are up to date
+             * before we look at its childOffsets.
+             */
+            rowData.getDescendentCount();
         }
 
-        return(null);
+        return(rowData);
     }
 
 
@@ -350,33 +460,71 @@ public class RowData
      * @return The index of the passed in rowData.  Returns -1
      * if the passed in rowData does not exist as a child of
      * this RowData.
+     *
+     * This method walks up from the passed in rowData to this
+     * RowData, adding up the cached childOffsets along the way,
+     * so it does not need to build the list of all rows.
      */
     public int getIndex(RowData rowData) {
 
-        List<RowData> rows = getRows();
+        /**
+         * Make sure the cached values of this RowData and
+         * all its descendents are up to date.
+         */
+        getDescendentCount();
+
         int index = 0;
-        for (RowData rd : rows) {
-            if (rd == rowData)
-                return(index);
-            index++;
+        RowData childRow = rowData;
+        while (childRow != this) {
+
+            if (childRow == null)
+                return(-1);
+
+            RowData parent = childRow.getParentRow();
+            if ((parent == null) || !parent.descendentCountValid)
+                return(-1);
+
+            /**
+             * A row that was removed from its parent still has
+             * its parentRow set, so make sure the parent really
+             * does contain it.
+             */
+            int position = childRow.indexInParent;
+            List<RowData> siblings = parent.getChildRows();
+            if ((position >= siblings.size()) ||
+                (siblings.get(position) != childRow))
+                return(-1);
+
+            index += parent.childOffsets[position];
+            childRow = parent;
         }
-        return(-1);
+
+        return(index);
     }
 
 
     /**
      * Get this RowData and all its descendents as an ArrayList of
-     * RowData objects.
+     * RowData objects.  The rows are in the same order as the
+     * indexes used by the getChild() method.
      */
     public List<RowData> getRows() {
 
-        int count = getDescendentCount()+1;
+        List<RowData> rows = new ArrayList<RowData>(getDescendentCount()+1);
+        addRows(rows);
+        return(rows);
+    }
 
-        List<RowData> rows = new ArrayList<RowData>();
-        for (int index = 0; index < count; index++)
-            rows.add(getChild(index));
 
-        return(rows);
+    /**
+     * Add this RowData and all its descendents, in "getChild() index"
+     * order, to the passed in list.
+     */
+    private void addRows(List<RowData> rows) {
+
+        rows.add(this);
+        for (RowData childRow : getChildRows())
+            childRow.addRows(rows);
     }
 
 
@@ -526,6 +674,7 @@ public class RowData
                          childRow);
         childRows.remove(childRow);
         childRow.removeRowDataListener(this);
+        invalidateDescendentCount();
         fireRowDataEvent(RowDataEvent.TIMING_AFTER,
                          RowDataEvent.TYPE_CHILD_DELETE,
                          childRow);
@@ -722,6 +871,7 @@ public class RowData
         if (!getRootRow().getChildRows().isEmpty()) {
             //System.out.println("INFO:  Clearing all childRows.");
             getRootRow().getChildRows().clear();
+            getRootRow().invalidateDescendentCount();
         }
         fireRowDataEvent(RowDataEvent.TIMING_AFTER, RowDataEvent.TYPE_CUQ);
     }
@@ -1775,6 +1925,7 @@ public class RowData
                          childRow);
         childRow.setParentRow(this);
         childRows.add(childRow);
+        invalidateDescendentCount();
 
         childRow.addRowDataListener(this);
         fireRowDataEvent(RowDataEvent.TIMING_AFTER,
@@ -1805,6 +1956,7 @@ public class RowData
      */
     private void clearChildRows() {
         childRows = new ArrayList<RowData>();
+        invalidateDescendentCount();
     }
 
 
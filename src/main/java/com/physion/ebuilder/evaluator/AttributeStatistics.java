@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Operator;
+
+
+/**
+ * The numbers the QueryPlanner uses to guess how many records a
+ * condition selects.  E.g. what fraction of Epochs have a protocolID
+ * equal to "x", or how many responses an Epoch has on average.
+ *
+ * An implementation only has to know about the attributes it has
+ * statistics for.  Every method may return UNKNOWN, in which case
+ * the QueryPlanner uses its own default guess.
+ *
+ * The classDescription passed to the methods is the class of the
+ * record that owns the attribute.  E.g. for .(epochGroup, label) in
+ * a query on Epochs, it is the EpochGroup class.  It is never null.
+ *
+ * Example of use:
+ *
+ *      QueryPlanner planner = new QueryPlanner(myStatistics);
+ *      ExpressionTree planned = planner.plan(tree);
+ *
+ * @see QueryPlanner
+ */
+public interface AttributeStatistics {
+
+    /**
+     * Returned by the methods below if there are no statistics
+     * for the attribute.
+     */
+    public static final double UNKNOWN = -1.0;
+
+
+    /**
+     * Get the fraction of records for which "attributeName operator
+     * value" is true, from 0.0 to 1.0.  E.g. attributeName = "protocolID",
+     * operator = Operator.EQUALS, value = "x".
+     *
+     * @param value The literal the attribute is compared with.
+     * A Boolean, an Integer, a Double, a String, or a Joda DateTime.
+     * For Operator.IS_TRUE and Operator.IS_FALSE, (a BOOLEAN attribute
+     * used as a condition on its own), this is null.  For the "=~"
+     * operators, this is the regular expression.
+     */
+    public double getSelectivity(ClassDescription classDescription,
+                                 String attributeName, Operator operator,
+                                 Object value);
+
+
+    /**
+     * Get the fraction of records whose attribute is null, (or
+     * whose reference is not set), from 0.0 to 1.0.
+     */
+    public double getNullFraction(ClassDescription classDescription,
+                                  String attributeName);
+
+
+    /**
+     * Get the average number of elements in a collection attribute
+     * of a record.  E.g. attributeName = "responses".  This is also
+     * asked about the per-user and custom reference operators,
+     * e.g. "mykeywords".
+     */
+    public double getFanOut(ClassDescription classDescription,
+                            String attributeName);
+}
@@ -0,0 +1,508 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+
+
+/**
+ * The statistics of one attribute of one class in the DataModel.
+ * E.g. Epoch.protocolID, or Epoch.responses.  What is collected
+ * depends on the attribute's Type:
+ *
+ *      BOOLEAN                 The number of true values.
+ *      UTF_8_STRING            A HyperLogLog distinct count.
+ *      INT_16, INT_32,         A HyperLogLog distinct count, and an
+ *      FLOAT_64, DATE_TIME     EquiDepthHistogram.  (A DATE_TIME
+ *                              is added as milliseconds since the
+ *                              epoch.)
+ *      REFERENCE, TO_ONE       Whether the reference is set.
+ *      REFERENCE, TO_MANY      The number of elements.
+ *
+ * Every attribute also counts its records and its null values.
+ *
+ * A summary is updated one record at a time, and two summaries of
+ * the same attribute, (e.g. collected from two partitions of the
+ * records), can be merged.  An AttributeSummary is not synchronized.
+ *
+ * Example of use:
+ *
+ *      AttributeSummary summary = new AttributeSummary(Type.INT_32,
+ *                                                      Cardinality.N_A);
+ *      for (Object record : records)
+ *          summary.addValue(accessor.getAttribute(record, "sampleBytes"));
+ *      double selectivity = summary.getSelectivity(Operator.LESS_THAN,
+ *                                                  Integer.valueOf(4));
+ *
+ * @see StatisticsCatalog
+ */
+public final class AttributeSummary {
+
+    private final Type type;
+    private final Cardinality cardinality;
+
+    private long recordCount;
+    private long nullCount;
+
+    /**
+     * The number of true values of a BOOLEAN attribute, or the
+     * number of elements of a to-many REFERENCE attribute.
+     */
+    private long total;
+
+    private HyperLogLog distinctValues;
+    private EquiDepthHistogram histogram;
+
+
+    /**
+     * Create an empty summary for an attribute of the passed in
+     * Type and Cardinality.
+     *
+     * @throws IllegalArgumentException If we do not collect statistics
+     * for attributes of the passed in Type.  I.e. the parameters maps
+     * and the per-user and custom reference operators.
+     */
+    public AttributeSummary(Type type, Cardinality cardinality) {
+
+        if (!isSummarized(type)) {
+            throw(new IllegalArgumentException("Attributes of type "+type+
+                " are not summarized."));
+        }
+
+        this.type = type;
+        this.cardinality = cardinality;
+
+        switch (type) {
+            case INT_16:
+            case INT_32:
+            case FLOAT_64:
+            case DATE_TIME:
+                histogram = new EquiDepthHistogram();
+                distinctValues = new HyperLogLog();
+                break;
+            case UTF_8_STRING:
+                distinctValues = new HyperLogLog();
+                break;
+            default:
+                break;
+        }
+    }
+
+
+    /**
+     * Returns true if we collect statistics for attributes of the
+     * passed in Type.  We do not collect them for the parameters maps,
+     * or for the per-user and custom reference operators, whose
+     * values depend on who is asking.
+     */
+    public static boolean isSummarized(Type type) {
+        return(type.isPrimitive() || (type == Type.REFERENCE));
+    }
+
+
+    public Type getType() {
+        return(type);
+    }
+
+
+    public Cardinality getCardinality() {
+        return(cardinality);
+    }
+
+
+    /**
+     * Returns true if this is the summary of a to-many reference.
+     */
+    public boolean isCollection() {
+        return((type == Type.REFERENCE) &&
+               (cardinality == Cardinality.TO_MANY));
+    }
+
+
+    /**
+     * Add the value of a primitive attribute of one record.
+     * The value may be null.  A value that is not of the attribute's
+     * Type is counted as a value, but is otherwise ignored.
+     */
+    public void addValue(Object value) {
+
+        recordCount++;
+        if (value == null) {
+            nullCount++;
+        }
+        else if (value instanceof Boolean) {
+            if (((Boolean)value).booleanValue())
+                total++;
+        }
+        else if (value instanceof String) {
+            if (distinctValues != null)
+                distinctValues.add((String)value);
+        }
+        else if ((value instanceof Number) && (histogram != null)) {
+            double number = ((Number)value).doubleValue();
+            distinctValues.add(number);
+            histogram.add(number);
+        }
+        else if (Values.isTime(value) && (histogram != null)) {
+            long millis = Values.getMillis(value);
+            distinctValues.add(millis);
+            histogram.add(millis);
+        }
+    }
+
+
+    /**
+     * Add the record a to-one reference of one record points at.
+     * The reference may be null.
+     */
+    public void addReference(Object reference) {
+
+        recordCount++;
+        if (reference == null)
+            nullCount++;
+    }
+
+
+    /**
+     * Add the elements of a to-many reference of one record.
+     * The collection may be null.
+     */
+    public void addCollection(Iterable<?> collection) {
+
+        recordCount++;
+        if (collection == null) {
+            nullCount++;
+        }
+        else if (collection instanceof Collection) {
+            total += ((Collection<?>)collection).size();
+        }
+        else {
+            for (Object element : collection)
+                total++;
+        }
+    }
+
+
+    /**
+     * Add the statistics of the passed in summary, (e.g. of another
+     * partition of the records), to this one.  The passed in summary
+     * is not changed.
+     *
+     * @throws IllegalArgumentException If the summaries are of
+     * attributes of different Types.
+     */
+    public void merge(AttributeSummary other) {
+
+        if ((other.type != type) || (other.cardinality != cardinality)) {
+            throw(new IllegalArgumentException("Cannot merge the summary "+
+                "of a "+other.type+" attribute into the summary of a "+
+                type+" attribute."));
+        }
+
+        recordCount += other.recordCount;
+        nullCount += other.nullCount;
+        total += other.total;
+        if (distinctValues != null)
+            distinctValues.merge(other.distinctValues);
+        if (histogram != null)
+            histogram.merge(other.histogram);
+    }
+
+
+    /**
+     * Return a copy of this summary.
+     */
+    public AttributeSummary copy() {
+
+        AttributeSummary copy = new AttributeSummary(type, cardinality);
+        copy.merge(this);
+        return(copy);
+    }
+
+
+    /**
+     * Get the number of records that have been added.
+     */
+    public long getRecordCount() {
+        return(recordCount);
+    }
+
+
+    /**
+     * Get the number of records whose attribute was null.
+     */
+    public long getNullCount() {
+        return(nullCount);
+    }
+
+
+    /**
+     * Get the fraction of the records whose attribute was null,
+     * or AttributeStatistics.UNKNOWN if no records have been added.
+     */
+    public double getNullFraction() {
+
+        if (recordCount == 0)
+            return(AttributeStatistics.UNKNOWN);
+        return((double)nullCount/recordCount);
+    }
+
+
+    /**
+     * Get the estimated number of distinct non-null values of a
+     * string or number attribute, or of a DATE_TIME attribute.
+     * For a BOOLEAN attribute, this is the number of distinct values
+     * seen.  Otherwise it is 0.
+     */
+    public long getDistinctCount() {
+
+        if (distinctValues != null) {
+            return(Math.min(distinctValues.getEstimate(),
+                            recordCount-nullCount));
+        }
+        else if (type == Type.BOOLEAN) {
+            long trueCount = total;
+            long falseCount = recordCount-nullCount-total;
+            return(((trueCount > 0) ? 1 : 0)+((falseCount > 0) ? 1 : 0));
+        }
+        return(0);
+    }
+
+
+    /**
+     * Get the histogram of a number or DATE_TIME attribute, or null.
+     * Do not change it.
+     */
+    public EquiDepthHistogram getHistogram() {
+        return(histogram);
+    }
+
+
+    /**
+     * Get the average number of records a reference attribute points
+     * at.  For a to-many reference this is the average number of
+     * elements, (a null collection counts as empty).  For a to-one
+     * reference it is the fraction of records whose reference is set.
+     * Returns AttributeStatistics.UNKNOWN for any other attribute, or
+     * if no records have been added.
+     */
+    public double getFanOut() {
+
+        if ((type != Type.REFERENCE) || (recordCount == 0))
+            return(AttributeStatistics.UNKNOWN);
+        else if (isCollection())
+            return((double)total/recordCount);
+        return((double)(recordCount-nullCount)/recordCount);
+    }
+
+
+    /**
+     * Get the estimated fraction of records for which "attribute
+     * operator value" is true, with the semantics of the
+     * ExpressionEvaluator.  Returns AttributeStatistics.UNKNOWN if we
+     * can't tell.  E.g. for a regular expression match, or if no
+     * records have been added.
+     *
+     * @param value The literal the attribute is compared with, or
+     * null for Operator.IS_TRUE and Operator.IS_FALSE.
+     */
+    public double getSelectivity(Operator operator, Object value) {
+
+        if (recordCount == 0)
+            return(AttributeStatistics.UNKNOWN);
+
+        double nullFraction = getNullFraction();
+        double nonNullFraction = 1.0-nullFraction;
+
+        switch (operator) {
+            case IS_NULL:
+                return(nullFraction);
+            case IS_NOT_NULL:
+                return(nonNullFraction);
+            case IS_TRUE:
+            case IS_FALSE:
+                if (type != Type.BOOLEAN)
+                    return(AttributeStatistics.UNKNOWN);
+                return(getEqualsSelectivity(Boolean.valueOf(
+                    operator == Operator.IS_TRUE)));
+            case EQUALS:
+                return(getEqualsSelectivity(value));
+            case NOT_EQUALS:
+                /**
+                 * A null attribute is not equal to a non-null literal.
+                 */
+                double equals = getEqualsSelectivity(value);
+                if (equals < 0.0)
+                    return(AttributeStatistics.UNKNOWN);
+                return(1.0-equals);
+            case LESS_THAN:
+            case LESS_THAN_EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_EQUALS:
+                break;
+            default:
+                return(AttributeStatistics.UNKNOWN);
+        }
+
+        /**
+         * A comparison with a null is false.
+         */
+        if (value == null)
+            return(0.0);
+
+        double number = getNumber(value);
+        if ((histogram == null) || Double.isNaN(number))
+            return(AttributeStatistics.UNKNOWN);
+
+        double fraction;
+        switch (operator) {
+            case LESS_THAN:
+                fraction = histogram.getFractionBelow(number, false);
+                break;
+            case LESS_THAN_EQUALS:
+                fraction = histogram.getFractionBelow(number, true);
+                break;
+            case GREATER_THAN:
+                fraction = 1.0-histogram.getFractionBelow(number, true);
+                break;
+            default:
+                fraction = 1.0-histogram.getFractionBelow(number, false);
+                break;
+        }
+        return(fraction*histogram.getCount()/recordCount);
+    }
+
+
+    private double getEqualsSelectivity(Object value) {
+
+        double nullFraction = getNullFraction();
+        if (value == null)
+            return(nullFraction);
+
+        long nonNullCount = recordCount-nullCount;
+        if (nonNullCount == 0)
+            return(0.0);
+
+        if (type == Type.BOOLEAN) {
+            if (!(value instanceof Boolean))
+                return(0.0);
+            long trueCount = total;
+            return((double)(((Boolean)value).booleanValue() ? trueCount :
+                            nonNullCount-trueCount)/recordCount);
+        }
+        else if (type == Type.UTF_8_STRING) {
+            if (!(value instanceof String))
+                return(0.0);
+            return((1.0-nullFraction)/Math.max(getDistinctCount(), 1));
+        }
+        else if (histogram == null) {
+            return(AttributeStatistics.UNKNOWN);
+        }
+
+        double number = getNumber(value);
+        if (Double.isNaN(number))
+            return(0.0);
+
+        /**
+         * A value that has a bucket to itself is common, and we know
+         * how common.  A value outside the range of the histogram
+         * never occurs.  Otherwise assume that all the values occur
+         * equally often.
+         */
+        double scale = (double)histogram.getCount()/recordCount;
+        double equal = histogram.getFractionEqual(number);
+        if (equal > 0.0)
+            return(equal*scale);
+        else if ((histogram.getCount() == 0) ||
+                 (number < histogram.getMin()) ||
+                 (number > histogram.getMax()))
+            return(0.0);
+        return(scale/Math.max(getDistinctCount(), 1));
+    }
+
+
+    /**
+     * Get the number we put in the histogram for the passed in literal,
+     * or NaN if it can't be compared with the attribute.
+     */
+    private double getNumber(Object value) {
+
+        if (type == Type.DATE_TIME) {
+            if (Values.isTime(value))
+                return(Values.getMillis(value));
+        }
+        else if (value instanceof Number) {
+            return(((Number)value).doubleValue());
+        }
+        return(Double.NaN);
+    }
+
+
+    /**
+     * Write the summary in the form read() reads.
+     */
+    public void write(DataOutput out)
+        throws IOException {
+
+        out.writeUTF(type.name());
+        out.writeUTF(cardinality.name());
+        out.writeLong(recordCount);
+        out.writeLong(nullCount);
+        out.writeLong(total);
+        if (distinctValues != null)
+            distinctValues.write(out);
+        if (histogram != null)
+            histogram.write(out);
+    }
+
+
+    /**
+     * Read a summary written by write().
+     *
+     * @throws IOException If the input does not hold a summary.
+     */
+    public static AttributeSummary read(DataInput in)
+        throws IOException {
+
+        AttributeSummary summary;
+        try {
+            summary = new AttributeSummary(Type.valueOf(in.readUTF()),
+                                           Cardinality.valueOf(in.readUTF()));
+        }
+        catch (IllegalArgumentException e) {
+            throw(new IOException("Invalid attribute summary.", e));
+        }
+
+        summary.recordCount = in.readLong();
+        summary.nullCount = in.readLong();
+        summary.total = in.readLong();
+        if (summary.distinctValues != null)
+            summary.distinctValues = HyperLogLog.read(in);
+        if (summary.histogram != null)
+            summary.histogram = EquiDepthHistogram.read(in);
+        return(summary);
+    }
+
+
+    @Override
+    public String toString() {
+
+        StringBuilder s = new StringBuilder();
+        s.append(type).append(": ").append(recordCount).append(" records, ").
+            append(nullCount).append(" null");
+        if ((distinctValues != null) || (type == Type.BOOLEAN))
+            s.append(", ").append(getDistinctCount()).append(" distinct");
+        if (type == Type.REFERENCE)
+            s.append(", fan-out ").append(getFanOut());
+        return(s.toString());
+    }
+}
@@ -0,0 +1,943 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.evaluator.ColumnBatch.BooleanColumn;
+import com.physion.ebuilder.evaluator.ColumnBatch.Column;
+import com.physion.ebuilder.evaluator.ColumnBatch.DoubleColumn;
+import com.physion.ebuilder.evaluator.ColumnBatch.IntColumn;
+import com.physion.ebuilder.evaluator.ColumnBatch.StringColumn;
+import com.physion.ebuilder.evaluator.ColumnBatch.TimeColumn;
+import com.physion.ebuilder.expression.ExpressionTree;
+
+import java.util.Arrays;
+import java.util.Date;
+
+
+/**
+ * This class evaluates an ExpressionTree against a ColumnBatch, a
+ * batch of records stored by column, and returns a bitmap with a bit
+ * set for every record in the batch that satisfies the tree.
+ *
+ * The ExpressionEvaluator tests one record at a time, calling a
+ * RecordAccessor for every attribute of every record.  This class
+ * instead evaluates each comparison in the tree against a whole
+ * column at once, in a tight loop over a primitive array that
+ * produces 64 bits of the result at a time.  The "and", "or", and
+ * "not" operators are then just bitwise operations on the words of
+ * the bitmaps.  Comparisons with strings are done once per distinct
+ * value in the column's dictionary rather than once per record.
+ * The semantics are the same as the ExpressionEvaluator's.  E.g.
+ * a comparison with a null value is false, except for "!=".
+ *
+ * Only the "flat" parts of a query can be evaluated this way.
+ * The tree may contain "and", "or", "not", "is null", and comparisons
+ * or =~ matches between an attribute of the Class Under Qualification
+ * and a literal value.  It may not contain paths, ("."), any/all/count,
+ * or parameters.  Use an ExpressionEvaluator for those queries.
+ *
+ * A BatchEvaluator is never changed after the constructor returns,
+ * so it can evaluate as many batches as you like, in as many threads
+ * as you like.
+ *
+ * Example of use:
+ *
+ *      BatchEvaluator evaluator = new BatchEvaluator(tree);
+ *      ColumnBatch batch = new ColumnBatch(rowCount);
+ *      batch.addStringColumn("protocolID", dictionary, codes, null);
+ *      batch.addTimeColumn("startTime", startMillis, startNulls);
+ *      long[] selected = evaluator.evaluate(batch);
+ *      for (int row = 0; row < rowCount; row++)
+ *          if (ColumnBatch.getBit(selected, row))
+ *              ...
+ *
+ * @see ColumnBatch
+ * @see ExpressionEvaluator
+ */
+public class BatchEvaluator {
+
+    private ExpressionTree expressionTree;
+    private BatchCondition rootCondition;
+
+
+    /**
+     * Compile the passed in ExpressionTree.
+     *
+     * @throws IllegalArgumentException If the ExpressionTree cannot be
+     * evaluated by an ExpressionEvaluator, or if it contains something
+     * that cannot be evaluated against columns.  E.g. a path or an
+     * any/all collection operator.
+     */
+    public BatchEvaluator(ExpressionTree expressionTree) {
+
+        ExpressionEvaluator evaluator = new ExpressionEvaluator(
+            expressionTree, ExpressionEvaluator.NEVER_COMPILE);
+
+        this.expressionTree = expressionTree;
+        rootCondition = compile(evaluator.getRootCondition());
+    }
+
+
+    /**
+     * Get the ExpressionTree that this evaluator was compiled from.
+     */
+    public ExpressionTree getExpressionTree() {
+        return(expressionTree);
+    }
+
+
+    /**
+     * Evaluate the ExpressionTree against every record in the passed
+     * in batch.
+     *
+     * @return A bitmap with the bit set for every record that satisfies
+     * the ExpressionTree.  See ColumnBatch.getBit().
+     *
+     * @throws IllegalArgumentException If a "=~" operator is used on
+     * a date/time column.
+     */
+    public long[] evaluate(ColumnBatch batch) {
+
+        long[] result = ColumnBatch.createBitmap(batch.getRowCount());
+        rootCondition.evaluate(batch, result);
+        return(result);
+    }
+
+
+    /**
+     * Turn the ExpressionEvaluator's tree of nodes into a tree of
+     * BatchConditions.
+     */
+    private static BatchCondition compile(
+        ExpressionEvaluator.Condition condition) {
+
+        if (condition instanceof ExpressionEvaluator.ConstantCondition) {
+            return(new ConstantBatchCondition(
+                ((ExpressionEvaluator.ConstantCondition)condition).value));
+        }
+        else if (condition instanceof ExpressionEvaluator.AndCondition) {
+            return(new AndBatchCondition(compile(
+                ((ExpressionEvaluator.AndCondition)condition).conditions)));
+        }
+        else if (condition instanceof ExpressionEvaluator.OrCondition) {
+            return(new OrBatchCondition(compile(
+                ((ExpressionEvaluator.OrCondition)condition).conditions)));
+        }
+        else if (condition instanceof ExpressionEvaluator.NotCondition) {
+            return(new NotBatchCondition(compile(
+                ((ExpressionEvaluator.NotCondition)condition).condition)));
+        }
+        else if (condition instanceof ExpressionEvaluator.IsNullCondition) {
+
+            ExpressionEvaluator.Value value =
+                ((ExpressionEvaluator.IsNullCondition)condition).value;
+            if (value instanceof ExpressionEvaluator.LiteralValue) {
+                return(new ConstantBatchCondition(
+                    ((ExpressionEvaluator.LiteralValue)value).value == null));
+            }
+            return(new IsNullBatchCondition(getColumnName(value)));
+        }
+        else if (condition instanceof ExpressionEvaluator.ValueCondition) {
+
+            ExpressionEvaluator.Value value =
+                ((ExpressionEvaluator.ValueCondition)condition).value;
+            if (value instanceof ExpressionEvaluator.LiteralValue) {
+                return(new ConstantBatchCondition(Boolean.TRUE.equals(
+                    ((ExpressionEvaluator.LiteralValue)value).value)));
+            }
+            return(new IsTrueBatchCondition(getColumnName(value)));
+        }
+        else if (condition instanceof ExpressionEvaluator.CompareCondition) {
+            return(compileCompare(
+                (ExpressionEvaluator.CompareCondition)condition));
+        }
+        else if (condition instanceof ExpressionEvaluator.MatchCondition) {
+
+            ExpressionEvaluator.MatchCondition match =
+                (ExpressionEvaluator.MatchCondition)condition;
+            if (match.matcher == null) {
+                throw(new IllegalArgumentException(
+                    "The regular expression of a \"=~\" operator must be "+
+                    "a literal value to evaluate it against a ColumnBatch."));
+            }
+            return(new MatchBatchCondition(getColumnName(match.value),
+                                           match.matcher, match.negate));
+        }
+
+        throw(new IllegalArgumentException(
+            "Paths, collection operators, and parameters cannot be "+
+            "evaluated against a ColumnBatch.  Use an ExpressionEvaluator."));
+    }
+
+
+    private static BatchCondition[] compile(
+        ExpressionEvaluator.Condition[] conditions) {
+
+        BatchCondition[] batchConditions =
+            new BatchCondition[conditions.length];
+        for (int index = 0; index < conditions.length; index++)
+            batchConditions[index] = compile(conditions[index]);
+        return(batchConditions);
+    }
+
+
+    /**
+     * A comparison must be between a column and a literal value,
+     * in either order.  (Or between two literals, which is silly,
+     * but easy.)
+     */
+    private static BatchCondition compileCompare(
+        ExpressionEvaluator.CompareCondition compare) {
+
+        boolean lhsIsLiteral = compare.lhs instanceof
+            ExpressionEvaluator.LiteralValue;
+        boolean rhsIsLiteral = compare.rhs instanceof
+            ExpressionEvaluator.LiteralValue;
+
+        if (lhsIsLiteral && rhsIsLiteral) {
+            return(new ConstantBatchCondition(Values.test(compare.operator,
+                ((ExpressionEvaluator.LiteralValue)compare.lhs).value,
+                ((ExpressionEvaluator.LiteralValue)compare.rhs).value)));
+        }
+        else if (rhsIsLiteral) {
+            return(new CompareBatchCondition(getColumnName(compare.lhs),
+                compare.operator,
+                ((ExpressionEvaluator.LiteralValue)compare.rhs).value));
+        }
+        else if (lhsIsLiteral) {
+            return(new CompareBatchCondition(getColumnName(compare.rhs),
+                ExpressionEvaluator.flip(compare.operator),
+                ((ExpressionEvaluator.LiteralValue)compare.lhs).value));
+        }
+
+        throw(new IllegalArgumentException(
+            "One of the operands of a comparison must be a literal value "+
+            "to evaluate it against a ColumnBatch."));
+    }
+
+
+    /**
+     * The value must be a (primitive) attribute of the record itself,
+     * not of something the record refers to.
+     */
+    private static String getColumnName(ExpressionEvaluator.Value value) {
+
+        if ((value instanceof ExpressionEvaluator.AttributeValue) &&
+            (((ExpressionEvaluator.AttributeValue)value).owner instanceof
+             ExpressionEvaluator.ThisValue)) {
+            return(((ExpressionEvaluator.AttributeValue)value).name);
+        }
+
+        throw(new IllegalArgumentException(
+            "Only primitive attributes of the Class Under Qualification "+
+            "can be evaluated against a ColumnBatch.  Use an "+
+            "ExpressionEvaluator."));
+    }
+
+
+    /**
+     * Set every word of the bitmap to all ones or all zeros.
+     */
+    private static void fill(long[] result, boolean value, int rowCount) {
+
+        Arrays.fill(result, value ? -1L : 0L);
+        clearTail(result, rowCount);
+    }
+
+
+    /**
+     * Clear the bits past the last row, so that a "not" of the bitmap
+     * does not select rows that are not there.
+     */
+    private static void clearTail(long[] result, int rowCount) {
+
+        if (((rowCount & 63) != 0) && (result.length > 0))
+            result[result.length-1] &= (1L << rowCount)-1;
+    }
+
+
+    /**
+     * The values of the null rows of a column are garbage, so replace
+     * their bits with nullResult.
+     */
+    private static void mergeNulls(long[] result, long[] nulls,
+                                   boolean nullResult, int rowCount) {
+
+        if (nulls != null) {
+            for (int word = 0; word < result.length; word++) {
+                result[word] = (result[word] & ~nulls[word]) |
+                               (nullResult ? nulls[word] : 0L);
+            }
+        }
+        clearTail(result, rowCount);
+    }
+
+
+    /**
+     * A compiled expression that evaluates to a bitmap.
+     */
+    abstract static class BatchCondition {
+
+        /**
+         * Set every word of the passed in result to the bits for the
+         * rows of the batch that satisfy this condition.  The bits past
+         * the last row must be zero.
+         */
+        abstract void evaluate(ColumnBatch batch, long[] result);
+    }
+
+
+    static class ConstantBatchCondition extends BatchCondition {
+
+        final boolean value;
+
+        ConstantBatchCondition(boolean value) {
+            this.value = value;
+        }
+
+        void evaluate(ColumnBatch batch, long[] result) {
+            fill(result, value, batch.getRowCount());
+        }
+    }
+
+
+    static class AndBatchCondition extends BatchCondition {
+
+        final BatchCondition[] conditions;
+
+        AndBatchCondition(BatchCondition[] conditions) {
+            this.conditions = conditions;
+        }
+
+        void evaluate(ColumnBatch batch, long[] result) {
+
+            /**
+             * and() with no operands is true, as in the
+             * ExpressionEvaluator.  E.g. an empty "All" row.
+             */
+            if (conditions.length == 0) {
+                fill(result, true, batch.getRowCount());
+                return;
+            }
+            conditions[0].evaluate(batch, result);
+
+            long[] operand = new long[result.length];
+            for (int index = 1; index < conditions.length; index++) {
+
+                /**
+                 * Stop if no rows are left.
+                 */
+                if (isEmpty(result))
+                    return;
+
+                conditions[index].evaluate(batch, operand);
+                for (int word = 0; word < result.length; word++)
+                    result[word] &= operand[word];
+            }
+        }
+
+        private static boolean isEmpty(long[] bitmap) {
+
+            for (long word : bitmap) {
+                if (word != 0)
+                    return(false);
+            }
+            return(true);
+        }
+    }
+
+
+    static class OrBatchCondition extends BatchCondition {
+
+        final BatchCondition[] conditions;
+
+        OrBatchCondition(BatchCondition[] conditions) {
+            this.conditions = conditions;
+        }
+
+        void evaluate(ColumnBatch batch, long[] result) {
+
+            /**
+             * or() with no operands is false.
+             */
+            if (conditions.length == 0) {
+                fill(result, false, batch.getRowCount());
+                return;
+            }
+            conditions[0].evaluate(batch, result);
+
+            long[] operand = new long[result.length];
+            for (int index = 1; index < conditions.length; index++) {
+                conditions[index].evaluate(batch, operand);
+                for (int word = 0; word < result.length; word++)
+                    result[word] |= operand[word];
+            }
+        }
+    }
+
+
+    static class NotBatchCondition extends BatchCondition {
+
+        final BatchCondition condition;
+
+        NotBatchCondition(BatchCondition condition) {
+            this.condition = condition;
+        }
+
+        void evaluate(ColumnBatch batch, long[] result) {
+
+            condition.evaluate(batch, result);
+            for (int word = 0; word < result.length; word++)
+                result[word] = ~result[word];
+            clearTail(result, batch.getRowCount());
+        }
+    }
+
+
+    static class IsNullBatchCondition extends BatchCondition {
+
+        final String name;
+
+        IsNullBatchCondition(String name) {
+            this.name = name;
+        }
+
+        void evaluate(ColumnBatch batch, long[] result) {
+
+            Column column = batch.getColumn(name);
+            if (column == null)
+                fill(result, true, batch.getRowCount());
+            else if (column.nulls == null)
+                fill(result, false, batch.getRowCount());
+            else {
+                System.arraycopy(column.nulls, 0, result, 0, result.length);
+                clearTail(result, batch.getRowCount());
+            }
+        }
+    }
+
+
+    /**
+     * A boolean attribute used as a condition.  Only Boolean.TRUE
+     * is true.
+     */
+    static class IsTrueBatchCondition extends BatchCondition {
+
+        final String name;
+
+        IsTrueBatchCondition(String name) {
+            this.name = name;
+        }
+
+        void evaluate(ColumnBatch batch, long[] result) {
+
+            Column column = batch.getColumn(name);
+            if (!(column instanceof BooleanColumn)) {
+                fill(result, false, batch.getRowCount());
+                return;
+            }
+
+            System.arraycopy(((BooleanColumn)column).values, 0, result, 0,
+                             result.length);
+            mergeNulls(result, column.nulls, false, batch.getRowCount());
+        }
+    }
+
+
+    /**
+     * The =~, =~~, !~, and !~~ operators with a literal regular
+     * expression.  For a string column the expression is only
+     * matched against each distinct value in the dictionary.
+     */
+    static class MatchBatchCondition extends BatchCondition {
+
+        final String name;
+        final TextMatcher matcher;
+        final boolean negate;
+
+        MatchBatchCondition(String name, TextMatcher matcher,
+                            boolean negate) {
+            this.name = name;
+            this.matcher = matcher;
+            this.negate = negate;
+        }
+
+        void evaluate(ColumnBatch batch, long[] result) {
+
+            int rowCount = batch.getRowCount();
+            Column column = batch.getColumn(name);
+
+            if (column instanceof StringColumn) {
+
+                StringColumn strings = (StringColumn)column;
+                boolean[] table = new boolean[strings.dictionary.length];
+                for (int index = 0; index < table.length; index++) {
+                    table[index] = (strings.dictionary[index] != null) &&
+                        (matcher.find(strings.dictionary[index]) != negate);
+                }
+                select(table, strings.codes, rowCount, result);
+            }
+            else if (column instanceof TimeColumn) {
+                throw(new IllegalArgumentException("The \""+name+
+                    "\" column is a date/time column.  The \"=~\" "+
+                    "operators can only be evaluated against string, "+
+                    "number, and boolean columns."));
+            }
+            else if (column != null) {
+
+                /**
+                 * Match the String the ExpressionEvaluator would see,
+                 * e.g. Integer.toString().  This is slow, but it's
+                 * not a sensible thing to do anyway.
+                 */
+                for (int row = 0; row < rowCount; row++) {
+
+                    String value;
+                    if (column instanceof IntColumn)
+                        value = Integer.toString(((IntColumn)column).values[row]);
+                    else if (column instanceof DoubleColumn)
+                        value = Double.toString(((DoubleColumn)column).values[row]);
+                    else
+                        value = Boolean.toString(ColumnBatch.getBit(
+                            ((BooleanColumn)column).values, row));
+
+                    if (matcher.find(value) != negate)
+                        ColumnBatch.setBit(result, row);
+                    else
+                        result[row >>> 6] &= ~(1L << row);
+                }
+            }
+            else {
+                fill(result, false, rowCount);
+                return;
+            }
+
+            mergeNulls(result, column.nulls, false, rowCount);
+        }
+    }
+
+
+    /**
+     * A comparison between a column and a literal value.
+     */
+    static class CompareBatchCondition extends BatchCondition {
+
+        final String name;
+        final Operator operator;
+        final Object literal;
+
+        CompareBatchCondition(String name, Operator operator, Object literal) {
+            this.name = name;
+            this.operator = operator;
+            this.literal = literal;
+        }
+
+        void evaluate(ColumnBatch batch, long[] result) {
+
+            int rowCount = batch.getRowCount();
+            Column column = batch.getColumn(name);
+
+            /**
+             * What a null value compares as.  E.g. null != 5 is true.
+             */
+            boolean nullResult = Values.test(operator, null, literal);
+
+            if (column == null) {
+                fill(result, nullResult, rowCount);
+                return;
+            }
+
+            if (column instanceof IntColumn)
+                compareInts(((IntColumn)column).values, rowCount, result);
+            else if (column instanceof DoubleColumn)
+                compareDoubles(((DoubleColumn)column).values, rowCount, result);
+            else if (column instanceof TimeColumn)
+                compareTimes(((TimeColumn)column).millis, rowCount, result);
+            else if (column instanceof BooleanColumn)
+                compareBooleans(((BooleanColumn)column).values, result);
+            else {
+
+                /**
+                 * Compare the literal with each distinct value once.
+                 */
+                StringColumn strings = (StringColumn)column;
+                boolean[] table = new boolean[strings.dictionary.length];
+                for (int index = 0; index < table.length; index++) {
+                    table[index] = Values.test(operator,
+                        strings.dictionary[index], literal);
+                }
+                select(table, strings.codes, rowCount, result);
+            }
+
+            mergeNulls(result, column.nulls, nullResult, rowCount);
+        }
+
+        private void compareInts(int[] values, int rowCount, long[] result) {
+
+            if (!(literal instanceof Number)) {
+                fill(result, Values.test(operator, 0, literal), rowCount);
+                return;
+            }
+
+            Number number = (Number)literal;
+            if (Values.isIntegral(number)) {
+                compare(values, rowCount, operator, number.longValue(),
+                        result);
+                return;
+            }
+
+            /**
+             * Compare the ints with a floating point literal by
+             * rounding the literal to the integer that gives the same
+             * result.  E.g. x < 2.5 is x < 3, x <= 2.5 is x <= 2.
+             * The int values are all well inside the range of a long,
+             * so the infinities turn into Long.MIN_VALUE or MAX_VALUE,
+             * which work too.
+             */
+            double doubleLiteral = number.doubleValue();
+            if (Double.isNaN(doubleLiteral)) {
+                fill(result, Values.test(operator, 0, literal), rowCount);
+                return;
+            }
+
+            long floor = (long)Math.floor(doubleLiteral);
+            long ceiling = (long)Math.ceil(doubleLiteral);
+            switch (operator) {
+                case EQUALS:
+                case NOT_EQUALS:
+                    /**
+                     * No int equals a literal with a fraction.
+                     */
+                    compare(values, rowCount, operator,
+                            (floor == ceiling) ? floor : Long.MIN_VALUE,
+                            result);
+                    break;
+                case LESS_THAN:
+                case GREATER_THAN_EQUALS:
+                    compare(values, rowCount, operator, ceiling, result);
+                    break;
+                default:
+                    compare(values, rowCount, operator, floor, result);
+                    break;
+            }
+        }
+
+        private void compareDoubles(double[] values, int rowCount,
+                                    long[] result) {
+
+            if (!(literal instanceof Number)) {
+                fill(result, Values.test(operator, 0.0, literal), rowCount);
+                return;
+            }
+
+            /**
+             * The kernels compare with the primitive operators, where
+             * NaN == NaN is false.  The ExpressionEvaluator falls back
+             * to Double.equals(), where it is true, so a NaN literal
+             * gives one answer for the NaN values and another for the
+             * rest.
+             */
+            double doubleLiteral = ((Number)literal).doubleValue();
+            if (Double.isNaN(doubleLiteral)) {
+                boolean nanResult = Values.test(operator, Double.NaN, literal);
+                fill(result, Values.test(operator, 0.0, literal), rowCount);
+                for (int row = 0; row < rowCount; row++) {
+                    if (Double.isNaN(values[row])) {
+                        if (nanResult)
+                            ColumnBatch.setBit(result, row);
+                        else
+                            result[row >>> 6] &= ~(1L << row);
+                    }
+                }
+                return;
+            }
+            compare(values, rowCount, operator, doubleLiteral, result);
+        }
+
+        private void compareTimes(long[] millis, int rowCount,
+                                  long[] result) {
+
+            if (!Values.isTime(literal)) {
+                fill(result, Values.test(operator, new Date(0), literal),
+                     rowCount);
+                return;
+            }
+            compare(millis, rowCount, operator, Values.getMillis(literal),
+                    result);
+        }
+
+        /**
+         * A boolean value is either true or false, so there are only
+         * two possible results.  Pick one of them for each bit.
+         */
+        private void compareBooleans(long[] values, long[] result) {
+
+            long trueMask = Values.test(operator, true, literal) ? -1L : 0L;
+            long falseMask = Values.test(operator, false, literal) ? -1L : 0L;
+            for (int word = 0; word < result.length; word++) {
+                result[word] = (values[word] & trueMask) |
+                               (~values[word] & falseMask);
+            }
+        }
+    }
+
+
+    /**
+     * Set the bit for each row whose code is true in the table.
+     */
+    private static void select(boolean[] table, int[] codes, int rowCount,
+                               long[] result) {
+
+        if (table.length == 0) {
+            Arrays.fill(result, 0L);
+            return;
+        }
+
+        for (int word = 0, row = 0; row < rowCount; word++) {
+            int end = Math.min(row+64, rowCount);
+            long bits = 0;
+            for (int bit = 0; row < end; row++, bit++)
+                bits |= (table[codes[row]] ? 1L : 0L) << bit;
+            result[word] = bits;
+        }
+    }
+
+
+    /**
+     * The loops below are where the time goes.  Each one produces a
+     * word of the result at a time, without branches, and always does
+     * 64 rows, so the JIT unrolls it into a few instructions per row.
+     * The last word, if it is only partly used, is done separately.  The int and long versions
+     * do "!=", ">=", and "<=" as the complement of "==", "<", and ">".
+     * The double version cannot, because NaN is neither less than nor
+     * greater than or equal to anything.
+     */
+    private static void compare(int[] values, int rowCount,
+                                Operator operator, long literal,
+                                long[] result) {
+
+        int fullWords = rowCount >>> 6;
+        switch (operator) {
+            case EQUALS:
+            case NOT_EQUALS:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] == literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+            case LESS_THAN:
+            case GREATER_THAN_EQUALS:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] < literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+            default:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] > literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+        }
+
+        if (fullWords < result.length) {
+            long bits = 0;
+            for (int row = fullWords << 6, bit = 0; row < rowCount;
+                 row++, bit++)
+                bits |= (test(values[row], operator, literal) ? 1L : 0L) << bit;
+            result[fullWords] = bits;
+        }
+
+        complementIfNeeded(operator, result, rowCount);
+    }
+
+
+    private static void compare(long[] values, int rowCount,
+                                Operator operator, long literal,
+                                long[] result) {
+
+        int fullWords = rowCount >>> 6;
+        switch (operator) {
+            case EQUALS:
+            case NOT_EQUALS:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] == literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+            case LESS_THAN:
+            case GREATER_THAN_EQUALS:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] < literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+            default:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] > literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+        }
+
+        if (fullWords < result.length) {
+            long bits = 0;
+            for (int row = fullWords << 6, bit = 0; row < rowCount;
+                 row++, bit++)
+                bits |= (test(values[row], operator, literal) ? 1L : 0L) << bit;
+            result[fullWords] = bits;
+        }
+
+        complementIfNeeded(operator, result, rowCount);
+    }
+
+
+    private static void complementIfNeeded(Operator operator, long[] result,
+                                           int rowCount) {
+
+        if ((operator == Operator.NOT_EQUALS) ||
+            (operator == Operator.GREATER_THAN_EQUALS) ||
+            (operator == Operator.LESS_THAN_EQUALS)) {
+            for (int word = 0; word < result.length; word++)
+                result[word] = ~result[word];
+            clearTail(result, rowCount);
+        }
+    }
+
+
+    private static void compare(double[] values, int rowCount,
+                                Operator operator, double literal,
+                                long[] result) {
+
+        int fullWords = rowCount >>> 6;
+        switch (operator) {
+            case EQUALS:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] == literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] != literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+            case LESS_THAN:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] < literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+            case GREATER_THAN:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] > literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+            case LESS_THAN_EQUALS:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] <= literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+            default:
+                for (int word = 0; word < fullWords; word++) {
+                    int base = word << 6;
+                    long bits = 0;
+                    for (int bit = 0; bit < 64; bit++)
+                        bits |= (values[base+bit] >= literal ? 1L : 0L) << bit;
+                    result[word] = bits;
+                }
+                break;
+        }
+
+        if (fullWords < result.length) {
+            long bits = 0;
+            for (int row = fullWords << 6, bit = 0; row < rowCount;
+                 row++, bit++)
+                bits |= (test(values[row], operator, literal) ? 1L : 0L) << bit;
+            result[fullWords] = bits;
+        }
+    }
+
+
+    /**
+     * The comparison for the rows of the last, partly used, word of
+     * an int or long column.  Like the loops, this does "==", "<", or
+     * ">", and leaves the complement to complementIfNeeded().
+     */
+    private static boolean test(long value, Operator operator, long literal) {
+
+        switch (operator) {
+            case EQUALS:
+            case NOT_EQUALS:
+                return(value == literal);
+            case LESS_THAN:
+            case GREATER_THAN_EQUALS:
+                return(value < literal);
+            default:
+                return(value > literal);
+        }
+    }
+
+
+    /**
+     * The comparison for the rows of the last, partly used, word of
+     * a double column.
+     */
+    private static boolean test(double value, Operator operator,
+                                double literal) {
+
+        switch (operator) {
+            case EQUALS:
+                return(value == literal);
+            case NOT_EQUALS:
+                return(value != literal);
+            case LESS_THAN:
+                return(value < literal);
+            case GREATER_THAN:
+                return(value > literal);
+            case LESS_THAN_EQUALS:
+                return(value <= literal);
+            default:
+                return(value >= literal);
+        }
+    }
+}
@@ -0,0 +1,1476 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datatypes.Operator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * This class turns the tree of Condition nodes that the
+ * ExpressionEvaluator compiles an ExpressionTree into, into a Java
+ * class.  The class is a subclass of CompiledCondition whose test()
+ * method does the same thing as the tree of nodes:
+ *
+ *      The "and", "or", and "not" operators become branches.
+ *
+ *      Attribute, reference, collection, and parameter lookups become
+ *      direct calls to the RecordAccessor interface.  (A comparison of
+ *      a parameter with a literal calls its ParameterCompareCondition,
+ *      which reads a ParameterMap slot if it can.)
+ *
+ *      Integer, float, string, and time literals become constants in
+ *      the class's constant pool, and the comparison calls a method
+ *      specialized for that type of literal.  Other literals, (and
+ *      the TextMatchers of the =~ operators), become final fields.
+ *
+ *      The "any" and "all" operators become loops.
+ *
+ * So, instead of a virtual call per node, per record, the JIT gets a
+ * single method that it can inline and optimize as a whole.
+ *
+ * A SharedClass lets the ExpressionEvaluators of queries that only
+ * differ in their literals, (see PreparedQuery), share one generated
+ * class.  Compiled for a SharedClass, every literal becomes a final
+ * field, so the class file only depends on the shape of the query.
+ * The first evaluator defines the class, and the others just create
+ * instances of it with their own field values, which skips loading
+ * and verifying a class, and lets them use the code the JIT already
+ * compiled for it.
+ *
+ * We write the class file bytes ourselves rather than pulling in a
+ * bytecode library.  The class files are version 49, (Java 5), so we
+ * do not have to calculate StackMapTable frames.  Each class is loaded
+ * by its own ClassLoader so it can be garbage collected along with its
+ * ExpressionEvaluator.
+ *
+ * @see CompiledCondition
+ * @see ExpressionEvaluator
+ */
+final class BytecodeCompiler {
+
+    private static final String PACKAGE = "com/physion/ebuilder/evaluator/";
+    private static final String SUPER_CLASS = PACKAGE+"CompiledCondition";
+    private static final String ACCESSOR = PACKAGE+"RecordAccessor";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String TEST_DESCRIPTOR =
+        "(Ljava/lang/Object;L"+ACCESSOR+";)Z";
+    private static final String CONSTRUCTOR_DESCRIPTOR =
+        "([Ljava/lang/Object;)V";
+
+    private static final int CLASS_FILE_VERSION = 49;
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ACONST_NULL = 0x01;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int AALOAD = 0x32;
+    private static final int ASTORE = 0x3a;
+    private static final int ASTORE_0 = 0x4b;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int GETSTATIC = 0xb2;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int CHECKCAST = 0xc0;
+    private static final int WIDE = 0xc4;
+    private static final int IFNULL = 0xc6;
+    private static final int IFNONNULL = 0xc7;
+
+    /**
+     * The local variable slots of the test() method.
+     */
+    private static final int LOCAL_THIS = 0;
+    private static final int LOCAL_RECORD = 1;
+    private static final int LOCAL_ACCESSOR = 2;
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private static Logger logger = LoggerFactory.getLogger(
+        BytecodeCompiler.class.getCanonicalName());
+
+    /**
+     * Set after the first failure is logged.  A bug in this class
+     * would fail the same way for every query, so the later failures
+     * are only logged at debug level.
+     */
+    private static final AtomicBoolean failureReported =
+        new AtomicBoolean();
+
+    /**
+     * The name of every class compiled for a SharedClass.  The name
+     * is part of the class file, so it must not change from one
+     * compile to the next.  Each class has its own ClassLoader, so
+     * there is no conflict.
+     */
+    private static final String SHARED_CLASS_NAME =
+        PACKAGE+"GeneratedSharedCondition";
+
+    /**
+     * True if every literal is put in a field, rather than in the
+     * constant pool or the code.
+     */
+    private final boolean parameterized;
+
+    private String className;
+    private ConstantPool pool = new ConstantPool();
+    private Code code;
+
+    /**
+     * The values and descriptors of the final fields of the
+     * generated class.  The constructor sets the fields from
+     * the array of values it is passed.
+     */
+    private List<Object> fieldValues = new ArrayList<Object>();
+    private List<String> fieldDescriptors = new ArrayList<String>();
+
+
+    private BytecodeCompiler(boolean parameterized) {
+
+        this.parameterized = parameterized;
+        if (parameterized)
+            className = SHARED_CLASS_NAME;
+        else
+            className = PACKAGE+"GeneratedCondition"+
+                classCount.incrementAndGet();
+    }
+
+
+    /**
+     * Generate, load, and instantiate a CompiledCondition class that
+     * does the same thing as the passed in tree of Condition nodes.
+     *
+     * @return The CompiledCondition, or null if the tree could not
+     * be compiled.  E.g. because it is too big to fit in a method.
+     * The caller should just keep using the tree of nodes in that case.
+     */
+    static CompiledCondition compile(ExpressionEvaluator.Condition root) {
+        return(compile(root, null));
+    }
+
+
+    /**
+     * Like compile(root), but if the passed in SharedClass already
+     * holds a class that was compiled from a tree of the same shape,
+     * create an instance of that class instead of generating a new
+     * one.  If it holds no class yet, the generated class is stored
+     * in it.
+     *
+     * @param sharedClass May be null, in which case this is the same
+     * as compile(root).
+     */
+    static CompiledCondition compile(ExpressionEvaluator.Condition root,
+                                     SharedClass sharedClass) {
+
+        BytecodeCompiler compiler = new BytecodeCompiler(sharedClass != null);
+        byte[] classFile;
+        try {
+            classFile = compiler.createClassFile(root);
+        }
+        catch (UnsupportedOperationException e) {
+            /**
+             * The tree is too big, or it contains a node we don't
+             * know how to compile.
+             */
+            return(null);
+        }
+
+        try {
+            Constructor<?> constructor = null;
+            if (sharedClass != null)
+                constructor = sharedClass.getConstructor(classFile);
+
+            if (constructor == null) {
+                GeneratedClassLoader loader = new GeneratedClassLoader();
+                Class<?> generatedClass = loader.define(
+                    compiler.className.replace('/', '.'), classFile);
+                constructor = generatedClass.getConstructor(Object[].class);
+                if (sharedClass != null)
+                    sharedClass.setConstructor(classFile, constructor);
+            }
+            Object[] values = compiler.fieldValues.toArray();
+            return((CompiledCondition)constructor.newInstance(
+                new Object[] {values}));
+        }
+        catch (Exception e) {
+            reportFailure(e);
+            return(null);
+        }
+        catch (LinkageError e) {
+            /**
+             * E.g. a VerifyError.  This means there is a bug
+             * in this class.
+             */
+            reportFailure(e);
+            return(null);
+        }
+    }
+
+
+    /**
+     * Log a generated class that could not be loaded or instantiated.
+     * The evaluator falls back to the tree of nodes, so this is not
+     * an error the caller sees.
+     */
+    private static void reportFailure(Throwable t) {
+
+        if (failureReported.compareAndSet(false, true)) {
+            logger.error("Could not load a compiled ExpressionTree, "+
+                         "using the tree of nodes instead.", t);
+        }
+        else {
+            logger.debug("Could not load a compiled ExpressionTree.", t);
+        }
+    }
+
+
+    /**
+     * Create the bytes of the class file.
+     */
+    private byte[] createClassFile(ExpressionEvaluator.Condition root) {
+
+        /**
+         * Generate the test() method first, because that is what
+         * decides what fields the class has.
+         */
+        code = new Code(3);
+        Label falseLabel = new Label();
+        emitBranch(root, LOCAL_RECORD, falseLabel, false);
+        code.iconst(1);
+        code.op(IRETURN, -1);
+        code.mark(falseLabel);
+        code.iconst(0);
+        code.op(IRETURN, -1);
+        Code testCode = code;
+
+        code = new Code(2);
+        code.op(ALOAD_0, 1);
+        code.invoke(INVOKESPECIAL, SUPER_CLASS, "<init>", "()V");
+        for (int index = 0; index < fieldValues.size(); index++) {
+            String descriptor = fieldDescriptors.get(index);
+            code.op(ALOAD_0, 1);
+            code.aload(1);
+            code.iconst(index);
+            code.op(AALOAD, -1);
+            if (descriptor.length() == 1) {
+                /**
+                 * A primitive field is passed in boxed.
+                 */
+                String box = getBoxName(descriptor);
+                code.typeOp(CHECKCAST, box, 0);
+                code.invoke(INVOKEVIRTUAL, box, getUnboxName(descriptor),
+                            "()"+descriptor);
+            }
+            else {
+                code.typeOp(CHECKCAST, getInternalName(descriptor), 0);
+            }
+            code.fieldOp(PUTFIELD, className, getFieldName(index),
+                         descriptor);
+        }
+        code.op(RETURN, 0);
+        Code constructorCode = code;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            /**
+             * Add everything to the constant pool before we write it.
+             */
+            int thisClass = pool.classRef(className);
+            int superClass = pool.classRef(SUPER_CLASS);
+            int codeName = pool.utf8("Code");
+            int[] fieldNames = new int[fieldValues.size()];
+            int[] fieldTypes = new int[fieldValues.size()];
+            for (int index = 0; index < fieldNames.length; index++) {
+                fieldNames[index] = pool.utf8(getFieldName(index));
+                fieldTypes[index] = pool.utf8(fieldDescriptors.get(index));
+            }
+            int constructorName = pool.utf8("<init>");
+            int constructorType = pool.utf8(CONSTRUCTOR_DESCRIPTOR);
+            int testName = pool.utf8("test");
+            int testType = pool.utf8(TEST_DESCRIPTOR);
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_FILE_VERSION);
+            pool.write(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);  // interfaces
+
+            out.writeShort(fieldNames.length);
+            for (int index = 0; index < fieldNames.length; index++) {
+                out.writeShort(ACC_PRIVATE | ACC_FINAL);
+                out.writeShort(fieldNames[index]);
+                out.writeShort(fieldTypes[index]);
+                out.writeShort(0);  // attributes
+            }
+
+            out.writeShort(2);
+            writeMethod(out, constructorName, constructorType, codeName,
+                        constructorCode);
+            writeMethod(out, testName, testType, codeName, testCode);
+
+            out.writeShort(0);  // attributes
+            out.flush();
+            return(bytes.toByteArray());
+        }
+        catch (IOException e) {
+            /**
+             * This should never happen with a ByteArrayOutputStream.
+             */
+            throw(new IllegalStateException(e));
+        }
+    }
+
+
+    private static void writeMethod(DataOutputStream out, int name,
+                                    int descriptor, int codeName, Code code)
+        throws IOException {
+
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);  // attributes
+        out.writeShort(codeName);
+        out.writeInt(12+code.length);
+        out.writeShort(code.maxStack);
+        out.writeShort(code.maxLocals);
+        out.writeInt(code.length);
+        out.write(code.bytes, 0, code.length);
+        out.writeShort(0);  // exception table
+        out.writeShort(0);  // attributes
+    }
+
+
+    /**
+     * Emit code that jumps to the passed in label if the passed in
+     * condition is equal to jumpIf, and falls through otherwise.
+     *
+     * @param record The local variable that holds the record the
+     * condition is being tested against.
+     */
+    private void emitBranch(ExpressionEvaluator.Condition condition,
+                            int record, Label target, boolean jumpIf) {
+
+        if (condition instanceof ExpressionEvaluator.ConstantCondition) {
+            if (((ExpressionEvaluator.ConstantCondition)condition).value ==
+                jumpIf) {
+                code.branch(GOTO, target);
+            }
+        }
+        else if (condition instanceof ExpressionEvaluator.NotCondition) {
+            emitBranch(((ExpressionEvaluator.NotCondition)condition).condition,
+                       record, target, !jumpIf);
+        }
+        else if ((condition instanceof ExpressionEvaluator.AndCondition) ||
+                 (condition instanceof ExpressionEvaluator.OrCondition)) {
+
+            boolean isAnd =
+                (condition instanceof ExpressionEvaluator.AndCondition);
+            ExpressionEvaluator.Condition[] conditions = isAnd ?
+                ((ExpressionEvaluator.AndCondition)condition).conditions :
+                ((ExpressionEvaluator.OrCondition)condition).conditions;
+
+            if (conditions.length == 0) {
+                /**
+                 * An empty "and" is true, an empty "or" is false.
+                 */
+                if (isAnd == jumpIf)
+                    code.branch(GOTO, target);
+            }
+            else if (isAnd != jumpIf) {
+                /**
+                 * "and" jumping if false, or "or" jumping if true:
+                 * jump as soon as any operand does.
+                 */
+                for (ExpressionEvaluator.Condition operand : conditions)
+                    emitBranch(operand, record, target, jumpIf);
+            }
+            else {
+                /**
+                 * "and" jumping if true, or "or" jumping if false:
+                 * skip the jump as soon as any operand decides the
+                 * result the other way.
+                 */
+                Label skip = new Label();
+                int last = conditions.length-1;
+                for (int index = 0; index < last; index++)
+                    emitBranch(conditions[index], record, skip, !jumpIf);
+                emitBranch(conditions[last], record, target, jumpIf);
+                code.mark(skip);
+            }
+        }
+        else if (condition instanceof ExpressionEvaluator.IsNullCondition) {
+            emitValue(((ExpressionEvaluator.IsNullCondition)condition).value,
+                      record);
+            code.branch(jumpIf ? IFNULL : IFNONNULL, target);
+        }
+        else {
+            emitBoolean(condition, record);
+            code.branch(jumpIf ? IFNE : IFEQ, target);
+        }
+    }
+
+
+    /**
+     * Emit code that pushes the result of the passed in condition,
+     * (an int that is 0 or 1), onto the stack.
+     */
+    private void emitBoolean(ExpressionEvaluator.Condition condition,
+                             int record) {
+
+        if (condition instanceof ExpressionEvaluator.ValueCondition) {
+            emitValue(((ExpressionEvaluator.ValueCondition)condition).value,
+                      record);
+            code.invoke(INVOKESTATIC, SUPER_CLASS, "isTrue",
+                        "(Ljava/lang/Object;)Z");
+        }
+        else if (condition instanceof ExpressionEvaluator.CompareCondition) {
+            emitCompare((ExpressionEvaluator.CompareCondition)condition,
+                        record);
+        }
+        else if (condition instanceof
+                 ExpressionEvaluator.ParameterCompareCondition) {
+            /**
+             * The condition already reads the ParameterMap slot
+             * directly, so just call it.
+             */
+            emitField(condition, "Ljava/lang/Object;");
+            code.aload(record);
+            code.aload(LOCAL_ACCESSOR);
+            code.invoke(INVOKESTATIC, SUPER_CLASS, "testParameter",
+                "(Ljava/lang/Object;Ljava/lang/Object;L"+ACCESSOR+";)Z");
+        }
+        else if (condition instanceof ExpressionEvaluator.MatchCondition) {
+
+            ExpressionEvaluator.MatchCondition match =
+                (ExpressionEvaluator.MatchCondition)condition;
+            emitValue(match.value, record);
+            if (match.matcher != null) {
+                emitField(match.matcher,
+                          "Lcom/physion/ebuilder/evaluator/TextMatcher;");
+                code.iconst(match.negate ? 1 : 0);
+                code.invoke(INVOKESTATIC, SUPER_CLASS, "find",
+                    "(Ljava/lang/Object;" +
+                    "Lcom/physion/ebuilder/evaluator/TextMatcher;Z)Z");
+            }
+            else {
+                emitValue(match.regex, record);
+                code.iconst(match.flags);
+                code.iconst(match.negate ? 1 : 0);
+                code.invoke(INVOKESTATIC, SUPER_CLASS, "find",
+                    "(Ljava/lang/Object;Ljava/lang/Object;IZ)Z");
+            }
+        }
+        else if (condition instanceof ExpressionEvaluator.AnyCondition) {
+            ExpressionEvaluator.AnyCondition any =
+                (ExpressionEvaluator.AnyCondition)condition;
+            emitQuantifier(true, any.elements, any.condition, record);
+        }
+        else if (condition instanceof ExpressionEvaluator.AllCondition) {
+            ExpressionEvaluator.AllCondition all =
+                (ExpressionEvaluator.AllCondition)condition;
+            emitQuantifier(false, all.elements, all.condition, record);
+        }
+        else if ((condition instanceof ExpressionEvaluator.ConstantCondition) ||
+                 (condition instanceof ExpressionEvaluator.NotCondition) ||
+                 (condition instanceof ExpressionEvaluator.AndCondition) ||
+                 (condition instanceof ExpressionEvaluator.OrCondition) ||
+                 (condition instanceof ExpressionEvaluator.IsNullCondition)) {
+
+            Label trueLabel = new Label();
+            Label end = new Label();
+            emitBranch(condition, record, trueLabel, true);
+            code.iconst(0);
+            code.branch(GOTO, end);
+            code.mark(trueLabel);
+            code.iconst(1);
+            code.mark(end);
+        }
+        else {
+            throw(new UnsupportedOperationException(
+                "Cannot compile "+condition.getClass().getName()));
+        }
+    }
+
+
+    /**
+     * Emit a comparison.  If the right hand side is a literal, (which
+     * it always is in an ExpressionTree created by the GUI), call the
+     * compare method that is specialized for that type of literal.
+     */
+    private void emitCompare(ExpressionEvaluator.CompareCondition compare,
+                             int record) {
+
+        int op = getOpCode(compare.operator);
+        emitValue(compare.lhs, record);
+
+        if (compare.rhs instanceof ExpressionEvaluator.LiteralValue) {
+
+            ExpressionEvaluator.LiteralValue literal =
+                (ExpressionEvaluator.LiteralValue)compare.rhs;
+
+            switch (literal.kind) {
+                case ExpressionEvaluator.LiteralValue.LONG:
+                    emitLong(literal.longValue);
+                    code.iconst(op);
+                    code.invoke(INVOKESTATIC, SUPER_CLASS, "compareLong",
+                                "(Ljava/lang/Object;JI)Z");
+                    return;
+                case ExpressionEvaluator.LiteralValue.DOUBLE:
+                    if (parameterized)
+                        emitField(Double.valueOf(literal.doubleValue), "D");
+                    else
+                        code.ldc2(pool.doubleConstant(literal.doubleValue));
+                    code.iconst(op);
+                    code.invoke(INVOKESTATIC, SUPER_CLASS, "compareDouble",
+                                "(Ljava/lang/Object;DI)Z");
+                    return;
+                case ExpressionEvaluator.LiteralValue.STRING:
+                    if (parameterized)
+                        emitField(literal.value, "Ljava/lang/String;");
+                    else
+                        code.ldc(pool.string((String)literal.value));
+                    code.iconst(op);
+                    code.invoke(INVOKESTATIC, SUPER_CLASS, "compareString",
+                                "(Ljava/lang/Object;Ljava/lang/String;I)Z");
+                    return;
+                case ExpressionEvaluator.LiteralValue.TIME:
+                    emitLong(literal.longValue);
+                    code.iconst(op);
+                    code.invoke(INVOKESTATIC, SUPER_CLASS, "compareMillis",
+                                "(Ljava/lang/Object;JI)Z");
+                    return;
+                default:
+                    break;
+            }
+        }
+
+        emitValue(compare.rhs, record);
+        code.iconst(op);
+        code.invoke(INVOKESTATIC, SUPER_CLASS, "compare",
+                    "(Ljava/lang/Object;Ljava/lang/Object;I)Z");
+    }
+
+
+    /**
+     * Emit the loop for an "any" or "all" operator.  The result,
+     * 0 or 1, is left on the stack.
+     */
+    private void emitQuantifier(boolean isAny,
+                                ExpressionEvaluator.Elements elements,
+                                ExpressionEvaluator.Condition condition,
+                                int record) {
+
+        Label loop = new Label();
+        Label done = new Label();
+        Label decided = new Label();
+        Label end = new Label();
+
+        emitElements(elements, record);
+        int iterable = code.newLocal();
+        code.astore(iterable);
+        code.aload(iterable);
+        code.branch(IFNULL, done);
+
+        code.aload(iterable);
+        code.invoke(INVOKEINTERFACE, "java/lang/Iterable", "iterator",
+                    "()Ljava/util/Iterator;");
+        int iterator = code.newLocal();
+        code.astore(iterator);
+
+        code.mark(loop);
+        code.aload(iterator);
+        code.invoke(INVOKEINTERFACE, "java/util/Iterator", "hasNext", "()Z");
+        code.branch(IFEQ, done);
+        code.aload(iterator);
+        code.invoke(INVOKEINTERFACE, "java/util/Iterator", "next",
+                    "()Ljava/lang/Object;");
+        int element = code.newLocal();
+        code.astore(element);
+
+        /**
+         * A null element never satisfies the condition.  So, "any"
+         * skips it, and "all" is false.
+         */
+        code.aload(element);
+        code.branch(IFNULL, isAny ? loop : decided);
+
+        emitBranch(condition, element, decided, isAny);
+        code.branch(GOTO, loop);
+
+        code.mark(done);
+        code.iconst(isAny ? 0 : 1);
+        code.branch(GOTO, end);
+        code.mark(decided);
+        code.iconst(isAny ? 1 : 0);
+        code.mark(end);
+    }
+
+
+    /**
+     * Emit code that pushes the passed in value, (an Object that
+     * might be null), onto the stack.
+     */
+    private void emitValue(ExpressionEvaluator.Value value, int record) {
+
+        if (value instanceof ExpressionEvaluator.ThisValue) {
+            code.aload(record);
+        }
+        else if (value instanceof ExpressionEvaluator.LiteralValue) {
+            emitLiteral(((ExpressionEvaluator.LiteralValue)value).value);
+        }
+        else if (value instanceof ExpressionEvaluator.AttributeValue) {
+            ExpressionEvaluator.AttributeValue attribute =
+                (ExpressionEvaluator.AttributeValue)value;
+            emitAccessorCall(attribute.owner, record, "getAttribute",
+                "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;",
+                attribute.name, null);
+        }
+        else if (value instanceof ExpressionEvaluator.ReferenceValue) {
+            ExpressionEvaluator.ReferenceValue reference =
+                (ExpressionEvaluator.ReferenceValue)value;
+            emitAccessorCall(reference.owner, record, "getReference",
+                "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;",
+                reference.name, null);
+        }
+        else if (value instanceof ExpressionEvaluator.ParameterValue) {
+            ExpressionEvaluator.ParameterValue parameter =
+                (ExpressionEvaluator.ParameterValue)value;
+            emitAccessorCall(parameter.owner, record, "getParameter",
+                "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/String;)"+
+                "Ljava/lang/Object;", parameter.mapName, parameter.key);
+            if (parameter.type != null) {
+                code.iconst(parameter.type.ordinal());
+                code.invoke(INVOKESTATIC, SUPER_CLASS, "ofType",
+                            "(Ljava/lang/Object;I)Ljava/lang/Object;");
+            }
+        }
+        else if (value instanceof ExpressionEvaluator.CountValue) {
+            ExpressionEvaluator.CountValue count =
+                (ExpressionEvaluator.CountValue)value;
+            emitElements(count.elements, record);
+            if (parameterized)
+                emitField(Integer.valueOf(count.limit), "I");
+            else
+                code.iconst(count.limit);
+            code.invoke(INVOKESTATIC, SUPER_CLASS, "count",
+                        "(Ljava/lang/Iterable;I)I");
+            code.invoke(INVOKESTATIC, "java/lang/Integer", "valueOf",
+                        "(I)Ljava/lang/Integer;");
+        }
+        else if (value instanceof ExpressionEvaluator.ConditionValue) {
+            emitBoolean(((ExpressionEvaluator.ConditionValue)value).condition,
+                        record);
+            code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf",
+                        "(Z)Ljava/lang/Boolean;");
+        }
+        else {
+            throw(new UnsupportedOperationException(
+                "Cannot compile "+value.getClass().getName()));
+        }
+    }
+
+
+    /**
+     * Emit code that pushes the passed in collection, (an Iterable
+     * that might be null), onto the stack.
+     */
+    private void emitElements(ExpressionEvaluator.Elements elements,
+                              int record) {
+
+        if (elements instanceof ExpressionEvaluator.CollectionElements) {
+            ExpressionEvaluator.CollectionElements collection =
+                (ExpressionEvaluator.CollectionElements)elements;
+            emitAccessorCall(collection.owner, record, "getCollection",
+                "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Iterable;",
+                collection.name, null);
+        }
+        else if (elements instanceof
+                 ExpressionEvaluator.PerUserParameterElements) {
+            ExpressionEvaluator.PerUserParameterElements parameters =
+                (ExpressionEvaluator.PerUserParameterElements)elements;
+            emitAccessorCall(parameters.owner, record, "getPerUserParameters",
+                "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/String;)"+
+                "Ljava/lang/Iterable;", parameters.mapName, parameters.key);
+            if (parameters.type != null)
+                emitFilter(parameters.type.ordinal());
+        }
+        else if (elements instanceof ExpressionEvaluator.TypeFilterElements) {
+            ExpressionEvaluator.TypeFilterElements filter =
+                (ExpressionEvaluator.TypeFilterElements)elements;
+            emitElements(filter.elements, record);
+            emitFilter(filter.type.ordinal());
+        }
+        else {
+            throw(new UnsupportedOperationException(
+                "Cannot compile "+elements.getClass().getName()));
+        }
+    }
+
+
+    private void emitFilter(int type) {
+
+        code.iconst(type);
+        code.invoke(INVOKESTATIC, SUPER_CLASS, "filter",
+                    "(Ljava/lang/Iterable;I)Ljava/lang/Iterable;");
+    }
+
+
+    /**
+     * Emit a call to one of the RecordAccessor methods, passing it
+     * the record that owner evaluates to and one or two String
+     * arguments.  If the owner record is null, the result is null
+     * and the RecordAccessor is not called.
+     *
+     * @param argument2 The second String argument, or null if the
+     * method only takes one.
+     */
+    private void emitAccessorCall(ExpressionEvaluator.Value owner, int record,
+                                  String method, String descriptor,
+                                  String argument1, String argument2) {
+
+        if (owner instanceof ExpressionEvaluator.ThisValue) {
+            /**
+             * The record is never null, so we don't need to check.
+             */
+            code.aload(LOCAL_ACCESSOR);
+            code.aload(record);
+            emitAccessorArguments(argument1, argument2);
+            code.invoke(INVOKEINTERFACE, ACCESSOR, method, descriptor);
+            return;
+        }
+
+        Label isNull = new Label();
+        Label end = new Label();
+
+        emitValue(owner, record);
+        int ownerRecord = code.newLocal();
+        code.astore(ownerRecord);
+        code.aload(ownerRecord);
+        code.branch(IFNULL, isNull);
+
+        code.aload(LOCAL_ACCESSOR);
+        code.aload(ownerRecord);
+        emitAccessorArguments(argument1, argument2);
+        code.invoke(INVOKEINTERFACE, ACCESSOR, method, descriptor);
+        code.branch(GOTO, end);
+
+        code.mark(isNull);
+        code.op(ACONST_NULL, 1);
+        code.mark(end);
+    }
+
+
+    private void emitAccessorArguments(String argument1, String argument2) {
+
+        code.ldc(pool.string(argument1));
+        if (argument2 != null)
+            code.ldc(pool.string(argument2));
+    }
+
+
+    /**
+     * Emit code that pushes a literal value onto the stack.
+     * Strings and Booleans are constants, (unless every literal is
+     * put in a field), anything else is stored in a final field.
+     */
+    private void emitLiteral(Object literal) {
+
+        if (literal == null) {
+            code.op(ACONST_NULL, 1);
+        }
+        else if (parameterized) {
+            emitField(literal, "Ljava/lang/Object;");
+        }
+        else if (literal instanceof String) {
+            code.ldc(pool.string((String)literal));
+        }
+        else if (literal instanceof Boolean) {
+            code.fieldOp(GETSTATIC, "java/lang/Boolean",
+                         ((Boolean)literal).booleanValue() ? "TRUE" : "FALSE",
+                         "Ljava/lang/Boolean;");
+        }
+        else {
+            emitField(literal, "Ljava/lang/Object;");
+        }
+    }
+
+
+    /**
+     * Emit code that pushes a long literal onto the stack.
+     */
+    private void emitLong(long value) {
+
+        if (parameterized)
+            emitField(Long.valueOf(value), "J");
+        else
+            code.ldc2(pool.longConstant(value));
+    }
+
+
+    /**
+     * Add a final field that holds the passed in value, and
+     * emit code that pushes its value onto the stack.  A field
+     * with a primitive descriptor, (e.g. "J"), is passed its
+     * value boxed, (e.g. as a Long).
+     */
+    private void emitField(Object value, String descriptor) {
+
+        int index = fieldValues.size();
+        fieldValues.add(value);
+        fieldDescriptors.add(descriptor);
+
+        code.aload(LOCAL_THIS);
+        code.fieldOp(GETFIELD, className, getFieldName(index), descriptor);
+    }
+
+
+    private static String getFieldName(int index) {
+        return("constant"+index);
+    }
+
+
+    /**
+     * Turn a field descriptor like "Ljava/lang/Object;" into an
+     * internal class name like "java/lang/Object".
+     */
+    private static String getInternalName(String descriptor) {
+        return(descriptor.substring(1, descriptor.length()-1));
+    }
+
+
+    /**
+     * Get the class a value of the passed in primitive field
+     * descriptor is boxed in.  E.g. "java/lang/Long" for "J".
+     */
+    private static String getBoxName(String descriptor) {
+
+        switch (descriptor.charAt(0)) {
+            case 'I':
+                return("java/lang/Integer");
+            case 'J':
+                return("java/lang/Long");
+            case 'D':
+                return("java/lang/Double");
+            default:
+                throw(new IllegalArgumentException(
+                    "Unhandled field descriptor: "+descriptor));
+        }
+    }
+
+
+    /**
+     * Get the name of the method that unboxes a value of the passed
+     * in primitive field descriptor.  E.g. "longValue" for "J".
+     */
+    private static String getUnboxName(String descriptor) {
+
+        switch (descriptor.charAt(0)) {
+            case 'I':
+                return("intValue");
+            case 'J':
+                return("longValue");
+            case 'D':
+                return("doubleValue");
+            default:
+                throw(new IllegalArgumentException(
+                    "Unhandled field descriptor: "+descriptor));
+        }
+    }
+
+
+    private static int getOpCode(Operator operator) {
+
+        switch (operator) {
+            case EQUALS:
+                return(CompiledCondition.OP_EQUALS);
+            case NOT_EQUALS:
+                return(CompiledCondition.OP_NOT_EQUALS);
+            case LESS_THAN:
+                return(CompiledCondition.OP_LESS_THAN);
+            case GREATER_THAN:
+                return(CompiledCondition.OP_GREATER_THAN);
+            case LESS_THAN_EQUALS:
+                return(CompiledCondition.OP_LESS_THAN_EQUALS);
+            case GREATER_THAN_EQUALS:
+                return(CompiledCondition.OP_GREATER_THAN_EQUALS);
+            default:
+                throw(new UnsupportedOperationException(
+                    "Cannot compile the "+operator+" operator."));
+        }
+    }
+
+
+    /**
+     * Returns the number of stack slots that the arguments in the
+     * passed in method descriptor take up.
+     */
+    private static int getArgumentSlots(String descriptor) {
+
+        int slots = 0;
+        int index = 1;
+        while (descriptor.charAt(index) != ')') {
+            char c = descriptor.charAt(index);
+            if ((c == 'J') || (c == 'D')) {
+                slots += 2;
+                index++;
+            }
+            else {
+                while (descriptor.charAt(index) == '[')
+                    index++;
+                if (descriptor.charAt(index) == 'L')
+                    index = descriptor.indexOf(';', index);
+                index++;
+                slots++;
+            }
+        }
+        return(slots);
+    }
+
+
+    /**
+     * Returns the number of stack slots that the return value of
+     * the passed in method descriptor takes up.
+     */
+    private static int getReturnSlots(String descriptor) {
+
+        char c = descriptor.charAt(descriptor.indexOf(')')+1);
+        if (c == 'V')
+            return(0);
+        else if ((c == 'J') || (c == 'D'))
+            return(2);
+        else
+            return(1);
+    }
+
+
+    /**
+     * A location in the code that branches jump to.
+     */
+    private static class Label {
+
+        /**
+         * The offset of the label in the code, or -1 if
+         * it has not been placed yet.
+         */
+        int position = -1;
+
+        /**
+         * The stack depth at the label, or -1 if we don't know yet.
+         */
+        int stack = -1;
+
+        /**
+         * The offsets of the branch instructions that jump to this
+         * label before the label has been placed.
+         */
+        List<Integer> branches = new ArrayList<Integer>();
+    }
+
+
+    /**
+     * The code of one method.  This keeps track of the stack depth
+     * and the number of local variables as instructions are added.
+     */
+    private class Code {
+
+        byte[] bytes = new byte[256];
+        int length;
+        int stack;
+        int maxStack;
+        int maxLocals;
+
+
+        Code(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+
+        int newLocal() {
+            return(maxLocals++);
+        }
+
+
+        void u1(int value) {
+
+            if (length == bytes.length) {
+                if (length >= MAX_CODE_LENGTH) {
+                    throw(new UnsupportedOperationException(
+                        "The method is too long."));
+                }
+                byte[] newBytes = new byte[bytes.length*2];
+                System.arraycopy(bytes, 0, newBytes, 0, length);
+                bytes = newBytes;
+            }
+            bytes[length++] = (byte)value;
+        }
+
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+
+        void adjust(int delta) {
+            stack += delta;
+            if (stack > maxStack)
+                maxStack = stack;
+        }
+
+
+        void op(int opcode, int delta) {
+            u1(opcode);
+            adjust(delta);
+        }
+
+
+        void iconst(int value) {
+
+            if ((value >= -1) && (value <= 5)) {
+                u1(ICONST_0+value);
+            }
+            else if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE)) {
+                u1(BIPUSH);
+                u1(value);
+            }
+            else if ((value >= Short.MIN_VALUE) &&
+                     (value <= Short.MAX_VALUE)) {
+                u1(SIPUSH);
+                u2(value);
+            }
+            else {
+                ldc(pool.integer(value));
+                return;
+            }
+            adjust(1);
+        }
+
+
+        void ldc(int index) {
+
+            if (index < 256) {
+                u1(LDC);
+                u1(index);
+            }
+            else {
+                u1(LDC_W);
+                u2(index);
+            }
+            adjust(1);
+        }
+
+
+        void ldc2(int index) {
+            u1(LDC2_W);
+            u2(index);
+            adjust(2);
+        }
+
+
+        void aload(int local) {
+            localOp(ALOAD, ALOAD_0, local);
+            adjust(1);
+        }
+
+
+        void astore(int local) {
+            localOp(ASTORE, ASTORE_0, local);
+            adjust(-1);
+        }
+
+
+        private void localOp(int opcode, int opcode0, int local) {
+
+            if (local <= 3) {
+                u1(opcode0+local);
+            }
+            else if (local < 256) {
+                u1(opcode);
+                u1(local);
+            }
+            else {
+                u1(WIDE);
+                u1(opcode);
+                u2(local);
+            }
+        }
+
+
+        void fieldOp(int opcode, String owner, String name,
+                     String descriptor) {
+
+            u1(opcode);
+            u2(pool.fieldRef(owner, name, descriptor));
+            int slots = getReturnSlots("()"+descriptor);
+            if (opcode == GETSTATIC)
+                adjust(slots);
+            else if (opcode == GETFIELD)
+                adjust(slots-1);
+            else
+                adjust(-slots-1);  // PUTFIELD
+        }
+
+
+        void typeOp(int opcode, String internalName, int delta) {
+            u1(opcode);
+            u2(pool.classRef(internalName));
+            adjust(delta);
+        }
+
+
+        void invoke(int opcode, String owner, String name,
+                    String descriptor) {
+
+            int argumentSlots = getArgumentSlots(descriptor);
+            if (opcode == INVOKEINTERFACE) {
+                u1(opcode);
+                u2(pool.interfaceMethodRef(owner, name, descriptor));
+                u1(argumentSlots+1);
+                u1(0);
+            }
+            else {
+                u1(opcode);
+                u2(pool.methodRef(owner, name, descriptor));
+            }
+
+            int receiver = (opcode == INVOKESTATIC) ? 0 : 1;
+            adjust(getReturnSlots(descriptor)-argumentSlots-receiver);
+        }
+
+
+        void branch(int opcode, Label label) {
+
+            int position = length;
+            u1(opcode);
+            u2(0);
+            if (opcode != GOTO)
+                adjust(-1);
+            if (label.stack < 0)
+                label.stack = stack;
+
+            if (label.position >= 0)
+                setOffset(position, label.position-position);
+            else
+                label.branches.add(position);
+        }
+
+
+        void mark(Label label) {
+
+            label.position = length;
+            if (label.stack >= 0)
+                stack = label.stack;
+            else
+                label.stack = stack;
+
+            for (int position : label.branches)
+                setOffset(position, length-position);
+            label.branches.clear();
+        }
+
+
+        private void setOffset(int position, int offset) {
+
+            if ((offset < Short.MIN_VALUE) || (offset > Short.MAX_VALUE)) {
+                throw(new UnsupportedOperationException(
+                    "A branch is too long."));
+            }
+            bytes[position+1] = (byte)(offset >> 8);
+            bytes[position+2] = (byte)offset;
+        }
+    }
+
+
+    /**
+     * The constant pool of the class file.
+     */
+    private static class ConstantPool {
+
+        private static final int CONSTANT_UTF8 = 1;
+        private static final int CONSTANT_INTEGER = 3;
+        private static final int CONSTANT_LONG = 5;
+        private static final int CONSTANT_DOUBLE = 6;
+        private static final int CONSTANT_CLASS = 7;
+        private static final int CONSTANT_STRING = 8;
+        private static final int CONSTANT_FIELDREF = 9;
+        private static final int CONSTANT_METHODREF = 10;
+        private static final int CONSTANT_INTERFACE_METHODREF = 11;
+        private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private DataOutputStream out = new DataOutputStream(bytes);
+        private Map<String,Integer> entries = new HashMap<String,Integer>();
+        private int count = 1;
+
+
+        int utf8(String value) {
+
+            String key = "U"+value;
+            Integer index = entries.get(key);
+            if (index != null)
+                return(index);
+
+            try {
+                out.writeByte(CONSTANT_UTF8);
+                out.writeUTF(value);
+            }
+            catch (IOException e) {
+                /**
+                 * E.g. a string longer than 65535 bytes.
+                 */
+                throw(new UnsupportedOperationException(e.getMessage()));
+            }
+            return(add(key, 1));
+        }
+
+
+        int integer(int value) {
+
+            String key = "I"+value;
+            Integer index = entries.get(key);
+            if (index != null)
+                return(index);
+
+            write(CONSTANT_INTEGER);
+            writeInt(value);
+            return(add(key, 1));
+        }
+
+
+        int longConstant(long value) {
+
+            String key = "J"+value;
+            Integer index = entries.get(key);
+            if (index != null)
+                return(index);
+
+            write(CONSTANT_LONG);
+            writeInt((int)(value >> 32));
+            writeInt((int)value);
+            return(add(key, 2));
+        }
+
+
+        int doubleConstant(double value) {
+
+            long bits = Double.doubleToRawLongBits(value);
+            String key = "D"+bits;
+            Integer index = entries.get(key);
+            if (index != null)
+                return(index);
+
+            write(CONSTANT_DOUBLE);
+            writeInt((int)(bits >> 32));
+            writeInt((int)bits);
+            return(add(key, 2));
+        }
+
+
+        int classRef(String internalName) {
+            return(ref("C", CONSTANT_CLASS, utf8(internalName)));
+        }
+
+
+        int string(String value) {
+            return(ref("S", CONSTANT_STRING, utf8(value)));
+        }
+
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return(ref("F", CONSTANT_FIELDREF, classRef(owner),
+                       nameAndType(name, descriptor)));
+        }
+
+
+        int methodRef(String owner, String name, String descriptor) {
+            return(ref("M", CONSTANT_METHODREF, classRef(owner),
+                       nameAndType(name, descriptor)));
+        }
+
+
+        int interfaceMethodRef(String owner, String name,
+                               String descriptor) {
+            return(ref("I", CONSTANT_INTERFACE_METHODREF, classRef(owner),
+                       nameAndType(name, descriptor)));
+        }
+
+
+        private int nameAndType(String name, String descriptor) {
+            return(ref("N", CONSTANT_NAME_AND_TYPE, utf8(name),
+                       utf8(descriptor)));
+        }
+
+
+        /**
+         * Add an entry that refers to one or two other entries.
+         */
+        private int ref(String prefix, int tag, int... indexes) {
+
+            StringBuilder key = new StringBuilder(prefix);
+            for (int index : indexes)
+                key.append(' ').append(index);
+
+            Integer existing = entries.get(key.toString());
+            if (existing != null)
+                return(existing);
+
+            write(tag);
+            for (int index : indexes) {
+                write(index >> 8);
+                write(index);
+            }
+            return(add(key.toString(), 1));
+        }
+
+
+        private int add(String key, int slots) {
+
+            int index = count;
+            count += slots;
+            if (count > 65535) {
+                throw(new UnsupportedOperationException(
+                    "The constant pool is too big."));
+            }
+            entries.put(key, index);
+            return(index);
+        }
+
+
+        private void write(int value) {
+            bytes.write(value);
+        }
+
+
+        private void writeInt(int value) {
+            write(value >> 24);
+            write(value >> 16);
+            write(value >> 8);
+            write(value);
+        }
+
+
+        void write(DataOutputStream classFile)
+            throws IOException {
+
+            classFile.writeShort(count);
+            bytes.writeTo(classFile);
+        }
+    }
+
+
+    /**
+     * A generated class that the ExpressionEvaluators of queries with
+     * the same shape share.  The class is only used for a tree whose
+     * class file is byte for byte the same as the one it was generated
+     * from.  A tree that compiles to a different class file, (e.g.
+     * count(x) > 2 and count(x) > 300 do not count the same way), gets
+     * a class of its own, which is not shared.
+     *
+     * All of the methods are thread safe.
+     */
+    static final class SharedClass {
+
+        private byte[] classFile;
+        private Constructor<?> constructor;
+        private int classCount;
+
+
+        /**
+         * Get the constructor of the shared class, if it was compiled
+         * from the passed in class file.  Otherwise, return null, and
+         * count the class the caller is about to generate.
+         */
+        synchronized Constructor<?> getConstructor(byte[] classFile) {
+
+            if ((constructor != null) &&
+                Arrays.equals(this.classFile, classFile))
+                return(constructor);
+            classCount++;
+            return(null);
+        }
+
+
+        /**
+         * Share the passed in class, if no class is shared yet.
+         */
+        synchronized void setConstructor(byte[] classFile,
+                                         Constructor<?> constructor) {
+
+            if (this.constructor == null) {
+                this.classFile = classFile;
+                this.constructor = constructor;
+            }
+        }
+
+
+        /**
+         * Returns true if a class is being shared.
+         */
+        synchronized boolean isDefined() {
+            return(constructor != null);
+        }
+
+
+        /**
+         * Get the number of classes that have been generated, (and
+         * not shared), for trees of this shape.
+         */
+        synchronized int getClassCount() {
+            return(classCount);
+        }
+    }
+
+
+    /**
+     * Each generated class gets its own ClassLoader, so the class can
+     * be unloaded when its ExpressionEvaluator is garbage collected.
+     */
+    private static class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader() {
+            super(CompiledCondition.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return(defineClass(name, classFile, 0, classFile.length));
+        }
+    }
+}
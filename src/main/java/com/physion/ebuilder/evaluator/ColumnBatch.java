@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A batch of records stored by column rather than by row, for the
+ * BatchEvaluator.  Each column holds the values of one attribute of
+ * the Class Under Qualification for every record in the batch, and
+ * is keyed by the attribute's query name, (Attribute.getQueryName()),
+ * which is the name that appears in the ExpressionTree.
+ *
+ * The columns are plain primitive arrays:
+ *
+ *      int16, int32            int[]
+ *      float64                 double[]
+ *      date/time               long[] of milliseconds since the epoch
+ *      boolean                 long[] bitmap, (a set bit is true)
+ *      string                  int[] of codes into a String[] dictionary
+ *
+ * Every column may also have a null bitmap.  A set bit in the null
+ * bitmap means that record's value is null, and the value in the
+ * primitive array is ignored.  Pass null for the null bitmap if none
+ * of the values are null.  A column that is not in the batch at all
+ * is treated as a column of nulls.
+ *
+ * A bitmap is a long[] with one bit per record: record N is bit
+ * (N % 64) of word (N / 64).  Use createBitmap(), setBit(), and
+ * getBit() to build and read them.  The BatchEvaluator returns the
+ * records that satisfy an ExpressionTree as a bitmap of the same form.
+ *
+ * The arrays are not copied, so do not change them while the batch
+ * is being evaluated.
+ *
+ * @see BatchEvaluator
+ */
+public class ColumnBatch {
+
+    private int rowCount;
+    private Map<String,Column> columns = new HashMap<String,Column>();
+
+
+    /**
+     * Create an empty batch of rowCount records.  Add the columns
+     * with the add...Column() methods.
+     */
+    public ColumnBatch(int rowCount) {
+
+        if (rowCount < 0) {
+            throw(new IllegalArgumentException(
+                "rowCount may not be negative."));
+        }
+        this.rowCount = rowCount;
+    }
+
+
+    /**
+     * Get the number of records in this batch.
+     */
+    public int getRowCount() {
+        return(rowCount);
+    }
+
+
+    /**
+     * Add a column of int16 or int32 values.
+     */
+    public void addIntColumn(String queryName, int[] values, long[] nulls) {
+
+        checkLength(queryName, values.length, nulls);
+        columns.put(queryName, new IntColumn(values, nulls));
+    }
+
+
+    /**
+     * Add a column of float64 values.
+     */
+    public void addDoubleColumn(String queryName, double[] values,
+                                long[] nulls) {
+
+        checkLength(queryName, values.length, nulls);
+        columns.put(queryName, new DoubleColumn(values, nulls));
+    }
+
+
+    /**
+     * Add a column of date/time values.
+     *
+     * @param millis The number of milliseconds since the epoch.
+     */
+    public void addTimeColumn(String queryName, long[] millis,
+                              long[] nulls) {
+
+        checkLength(queryName, millis.length, nulls);
+        columns.put(queryName, new TimeColumn(millis, nulls));
+    }
+
+
+    /**
+     * Add a column of boolean values.
+     *
+     * @param values A bitmap with the bits of the true values set.
+     */
+    public void addBooleanColumn(String queryName, long[] values,
+                                 long[] nulls) {
+
+        checkLength(queryName, values.length*64, nulls);
+        columns.put(queryName, new BooleanColumn(values, nulls));
+    }
+
+
+    /**
+     * Add a column of dictionary encoded string values.
+     *
+     * @param dictionary The distinct values of the column.
+     * Each one should appear only once.
+     *
+     * @param codes The index into the dictionary of each record's value.
+     * The codes of null values are ignored, but they must still be valid
+     * indexes into the dictionary, (e.g. 0), unless the dictionary is
+     * empty.
+     */
+    public void addStringColumn(String queryName, String[] dictionary,
+                                int[] codes, long[] nulls) {
+
+        checkLength(queryName, codes.length, nulls);
+        columns.put(queryName, new StringColumn(dictionary, codes, nulls));
+    }
+
+
+    /**
+     * Get the column with the passed in query name, or null if
+     * there is no such column in this batch.
+     */
+    Column getColumn(String queryName) {
+        return(columns.get(queryName));
+    }
+
+
+    private void checkLength(String queryName, int length, long[] nulls) {
+
+        if (queryName == null) {
+            throw(new IllegalArgumentException(
+                "queryName may not be null."));
+        }
+
+        if ((length < rowCount) ||
+            ((nulls != null) && (nulls.length < getWordCount(rowCount)))) {
+            throw(new IllegalArgumentException("The \""+queryName+
+                "\" column has fewer than "+rowCount+" values."));
+        }
+    }
+
+
+    /**
+     * Get the number of longs in a bitmap of rowCount bits.
+     */
+    public static int getWordCount(int rowCount) {
+        return((rowCount+63) >>> 6);
+    }
+
+
+    /**
+     * Create a bitmap of rowCount bits, all of them clear.
+     */
+    public static long[] createBitmap(int rowCount) {
+        return(new long[getWordCount(rowCount)]);
+    }
+
+
+    /**
+     * Returns true if the bit for the passed in row is set.
+     */
+    public static boolean getBit(long[] bitmap, int row) {
+        return((bitmap[row >>> 6] & (1L << row)) != 0);
+    }
+
+
+    /**
+     * Set the bit for the passed in row.
+     */
+    public static void setBit(long[] bitmap, int row) {
+        bitmap[row >>> 6] |= (1L << row);
+    }
+
+
+    /**
+     * Get the number of bits that are set in the passed in bitmap.
+     */
+    public static int getCardinality(long[] bitmap) {
+
+        int count = 0;
+        for (long word : bitmap)
+            count += Long.bitCount(word);
+        return(count);
+    }
+
+
+    /**
+     * The superclass of the columns.  The subclasses are only
+     * holders for the arrays.  The BatchEvaluator does the work.
+     */
+    abstract static class Column {
+
+        final long[] nulls;
+
+        Column(long[] nulls) {
+            this.nulls = nulls;
+        }
+    }
+
+
+    static class IntColumn extends Column {
+
+        final int[] values;
+
+        IntColumn(int[] values, long[] nulls) {
+            super(nulls);
+            this.values = values;
+        }
+    }
+
+
+    static class DoubleColumn extends Column {
+
+        final double[] values;
+
+        DoubleColumn(double[] values, long[] nulls) {
+            super(nulls);
+            this.values = values;
+        }
+    }
+
+
+    static class TimeColumn extends Column {
+
+        final long[] millis;
+
+        TimeColumn(long[] millis, long[] nulls) {
+            super(nulls);
+            this.millis = millis;
+        }
+    }
+
+
+    static class BooleanColumn extends Column {
+
+        final long[] values;
+
+        BooleanColumn(long[] values, long[] nulls) {
+            super(nulls);
+            this.values = values;
+        }
+    }
+
+
+    static class StringColumn extends Column {
+
+        final String[] dictionary;
+        final int[] codes;
+
+        StringColumn(String[] dictionary, int[] codes, long[] nulls) {
+            super(nulls);
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+    }
+}
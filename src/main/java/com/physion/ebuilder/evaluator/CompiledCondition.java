@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datatypes.Type;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+
+/**
+ * This is the superclass of the classes that the BytecodeCompiler
+ * generates for an ExpressionTree.  Each generated class has one
+ * method, test(), that does what the ExpressionEvaluator's tree of
+ * Condition nodes does, but with the tree "unrolled" into straight
+ * line code.  Literal values are constants in the generated class,
+ * (or final fields if they are objects such as a TextMatcher), and
+ * attribute access is a direct call to the RecordAccessor.
+ *
+ * Each generated class is loaded by its own ClassLoader, so it is
+ * NOT in the same runtime package as this class, even though it
+ * has the same package name.  That is why this class is public,
+ * and why the helper methods that the generated code calls are
+ * protected rather than package private.  You should not need to
+ * use this class directly.  Use ExpressionEvaluator.
+ *
+ * @see BytecodeCompiler
+ * @see ExpressionEvaluator
+ */
+public abstract class CompiledCondition {
+
+    /**
+     * The comparison operator codes passed to the compare methods.
+     */
+    protected static final int OP_EQUALS = 0;
+    protected static final int OP_NOT_EQUALS = 1;
+    protected static final int OP_LESS_THAN = 2;
+    protected static final int OP_GREATER_THAN = 3;
+    protected static final int OP_LESS_THAN_EQUALS = 4;
+    protected static final int OP_GREATER_THAN_EQUALS = 5;
+
+
+    protected CompiledCondition() {
+    }
+
+
+    /**
+     * Returns true if the passed in record satisfies the
+     * ExpressionTree this class was generated from.
+     * The record is never null.
+     */
+    public abstract boolean test(Object record, RecordAccessor accessor);
+
+
+    /**
+     * Compare two values that are not known until the record is
+     * evaluated.  This has the same semantics as the interpreted
+     * ExpressionEvaluator.CompareCondition.
+     */
+    protected static boolean compare(Object lhs, Object rhs, int op) {
+
+        if (op == OP_EQUALS)
+            return(Values.isEqual(lhs, rhs));
+        else if (op == OP_NOT_EQUALS)
+            return(!Values.isEqual(lhs, rhs));
+        return(result(Values.compare(lhs, rhs), op));
+    }
+
+
+    /**
+     * Compare a value with an integer literal.
+     */
+    protected static boolean compareLong(Object value, long literal, int op) {
+        return(result(Values.compareLong(value, literal), op));
+    }
+
+
+    /**
+     * Compare a value with a floating point literal.
+     */
+    protected static boolean compareDouble(Object value, double literal,
+                                           int op) {
+        return(result(Values.compareDouble(value, literal), op));
+    }
+
+
+    /**
+     * Compare a value with a String literal.
+     */
+    protected static boolean compareString(Object value, String literal,
+                                           int op) {
+        return(result(Values.compareString(value, literal), op));
+    }
+
+
+    /**
+     * Compare a value with a time literal.  The literal is the
+     * number of milliseconds since the epoch.
+     */
+    protected static boolean compareMillis(Object value, long literal,
+                                           int op) {
+        return(result(Values.compareMillis(value, literal), op));
+    }
+
+
+    /**
+     * Turn the result of a comparison into the result of the operator.
+     * Two values that cannot be compared are not equal.
+     */
+    private static boolean result(int result, int op) {
+
+        if (result == Values.INCOMPARABLE)
+            return(op == OP_NOT_EQUALS);
+
+        switch (op) {
+            case OP_EQUALS:
+                return(result == 0);
+            case OP_NOT_EQUALS:
+                return(result != 0);
+            case OP_LESS_THAN:
+                return(result < 0);
+            case OP_GREATER_THAN:
+                return(result > 0);
+            case OP_LESS_THAN_EQUALS:
+                return(result <= 0);
+            case OP_GREATER_THAN_EQUALS:
+                return(result >= 0);
+            default:
+                return(false);
+        }
+    }
+
+
+    /**
+     * Compare a parameter with a literal.  The condition is an
+     * ExpressionEvaluator.ParameterCompareCondition, which is not
+     * visible to the generated class.
+     */
+    protected static boolean testParameter(Object condition, Object record,
+                                           RecordAccessor accessor) {
+        return(((ExpressionEvaluator.ParameterCompareCondition)condition).
+            test(record, accessor));
+    }
+
+
+    /**
+     * The =~ family of operators with a literal regular expression.
+     */
+    protected static boolean find(Object value, TextMatcher matcher,
+                                  boolean negate) {
+
+        if (value == null)
+            return(false);
+        return(matcher.find(value.toString()) != negate);
+    }
+
+
+    /**
+     * The =~ family of operators with a regular expression that
+     * is not a literal.
+     */
+    protected static boolean find(Object value, Object regex, int flags,
+                                  boolean negate) {
+
+        if ((value == null) || (regex == null))
+            return(false);
+        return(find(value, PatternCache.getShared().get(regex.toString(),
+                                                        flags), negate));
+    }
+
+
+    /**
+     * A value used as a condition is true only if it is Boolean.TRUE.
+     */
+    protected static boolean isTrue(Object value) {
+        return(Boolean.TRUE.equals(value));
+    }
+
+
+    /**
+     * Returns the passed in value if it is of the passed in Type,
+     * (given as Type.ordinal()), otherwise returns null.
+     */
+    protected static Object ofType(Object value, int type) {
+
+        if (Values.isOfType(value, Type.values()[type]))
+            return(value);
+        return(null);
+    }
+
+
+    /**
+     * Returns an Iterable over the values of the passed in Iterable
+     * that are of the passed in Type, (given as Type.ordinal()).
+     */
+    protected static Iterable<?> filter(Iterable<?> values, int type) {
+
+        if (values == null)
+            return(null);
+        return(new ExpressionEvaluator.TypeFilterIterable(values,
+                                                          Type.values()[type]));
+    }
+
+
+    /**
+     * Count the elements of the passed in Iterable, but stop at limit.
+     */
+    protected static int count(Iterable<?> values, int limit) {
+
+        if (values == null)
+            return(0);
+
+        if (values instanceof Collection)
+            return(((Collection<?>)values).size());
+
+        int count = 0;
+        Iterator<?> iterator = values.iterator();
+        while ((count < limit) && iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return(count);
+    }
+}
@@ -0,0 +1,534 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * An equi-depth histogram of numbers.  The range of the values is cut
+ * into buckets that each hold about the same number of values, so the
+ * buckets are narrow where the values are dense, and a value that
+ * makes up a large part of the values gets a bucket to itself.
+ * DATE_TIME values are added as milliseconds since the epoch.
+ *
+ * The histogram is updated incrementally.  Added values are kept
+ * exactly until there are a few times as many as there are buckets,
+ * and are then folded into the buckets, which are re-cut so they hold
+ * the same number of values again.  Two histograms can be merged the
+ * same way.  Folding assumes that the values in a bucket are spread
+ * evenly between its low and high values, so after many folds and
+ * merges the bucket boundaries are an approximation.  That is plenty
+ * for estimating how many records a comparison selects.
+ *
+ * NaN and infinite values are ignored.  An EquiDepthHistogram is not
+ * synchronized.
+ *
+ * Example of use:
+ *
+ *      EquiDepthHistogram histogram = new EquiDepthHistogram();
+ *      for (Response response : responses)
+ *          histogram.add(response.getSamplingRate());
+ *      double fraction = histogram.getFractionBelow(10000.0, false);
+ *
+ * @see AttributeSummary
+ */
+public final class EquiDepthHistogram {
+
+    public static final int DEFAULT_BUCKET_COUNT = 64;
+
+    /**
+     * The number of values we keep exactly, as a multiple of the
+     * number of buckets, before folding them into the buckets.
+     */
+    private static final int PENDING_FACTOR = 4;
+
+    private final int maxBucketCount;
+
+    /**
+     * Bucket i holds weights[i] values from lows[i] to highs[i],
+     * inclusive.  The buckets are sorted, and only overlap at their
+     * ends.  If lows[i] == highs[i], every value in the bucket is
+     * that value.
+     */
+    private int size;
+    private double[] lows;
+    private double[] highs;
+    private double[] weights;
+
+    private double[] pending;
+    private int pendingCount;
+
+    private long count;
+
+
+    /**
+     * Create an empty histogram with DEFAULT_BUCKET_COUNT buckets.
+     */
+    public EquiDepthHistogram() {
+        this(DEFAULT_BUCKET_COUNT);
+    }
+
+
+    /**
+     * Create an empty histogram with at most the passed in number
+     * of buckets.
+     *
+     * @throws IllegalArgumentException If bucketCount is less than 1.
+     */
+    public EquiDepthHistogram(int bucketCount) {
+
+        if (bucketCount < 1) {
+            throw(new IllegalArgumentException(
+                "bucketCount must be at least 1, but it is "+
+                bucketCount+"."));
+        }
+
+        maxBucketCount = bucketCount;
+        lows = new double[bucketCount];
+        highs = new double[bucketCount];
+        weights = new double[bucketCount];
+        pending = new double[PENDING_FACTOR*bucketCount];
+    }
+
+
+    /**
+     * Add a value.  NaN and infinite values are ignored.
+     */
+    public void add(double value) {
+
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return;
+
+        pending[pendingCount++] = value;
+        count++;
+        if (pendingCount == pending.length)
+            fold(null);
+    }
+
+
+    /**
+     * Add all the values of the passed in histogram to this one.
+     * The passed in histogram is not changed.
+     */
+    public void merge(EquiDepthHistogram other) {
+
+        if (other.count == 0)
+            return;
+
+        count += other.count;
+        fold(other);
+    }
+
+
+    /**
+     * Get the number of values that have been added.
+     */
+    public long getCount() {
+        return(count);
+    }
+
+
+    /**
+     * Get the maximum number of buckets.
+     */
+    public int getMaxBucketCount() {
+        return(maxBucketCount);
+    }
+
+
+    /**
+     * Get the number of buckets.  Any values that have not been
+     * folded into the buckets yet are folded in first.
+     */
+    public int getBucketCount() {
+
+        if (pendingCount > 0)
+            fold(null);
+        return(size);
+    }
+
+
+    /**
+     * Get the smallest value in a bucket.  Call getBucketCount() first.
+     */
+    public double getLow(int bucket) {
+        return(lows[bucket]);
+    }
+
+
+    /**
+     * Get the largest value in a bucket.  Call getBucketCount() first.
+     */
+    public double getHigh(int bucket) {
+        return(highs[bucket]);
+    }
+
+
+    /**
+     * Get the number of values in a bucket.  This is not a whole
+     * number after buckets have been re-cut.  Call getBucketCount()
+     * first.
+     */
+    public double getWeight(int bucket) {
+        return(weights[bucket]);
+    }
+
+
+    /**
+     * Get the smallest value that has been added, or NaN if none has.
+     */
+    public double getMin() {
+
+        double min = (size > 0) ? lows[0] : Double.NaN;
+        for (int index = 0; index < pendingCount; index++) {
+            if (!(pending[index] >= min))
+                min = pending[index];
+        }
+        return(min);
+    }
+
+
+    /**
+     * Get the largest value that has been added, or NaN if none has.
+     */
+    public double getMax() {
+
+        double max = (size > 0) ? highs[size-1] : Double.NaN;
+        for (int index = 0; index < pendingCount; index++) {
+            if (!(pending[index] <= max))
+                max = pending[index];
+        }
+        return(max);
+    }
+
+
+    /**
+     * Get the estimated fraction of the values that are less than,
+     * (or if inclusive is true, less than or equal to), the passed
+     * in value.  Returns 0 if the histogram is empty.
+     */
+    public double getFractionBelow(double value, boolean inclusive) {
+
+        if (count == 0)
+            return(0.0);
+
+        double below = 0.0;
+        for (int index = 0; index < size; index++) {
+            double low = lows[index];
+            double high = highs[index];
+            if ((high < value) || (inclusive && (high == value)))
+                below += weights[index];
+            else if ((low < value) && (low < high))
+                below += weights[index]*(value-low)/(high-low);
+        }
+
+        for (int index = 0; index < pendingCount; index++) {
+            if ((pending[index] < value) ||
+                (inclusive && (pending[index] == value)))
+                below++;
+        }
+        return(Math.min(below/count, 1.0));
+    }
+
+
+    /**
+     * Get the fraction of the values that are known to be equal to
+     * the passed in value.  That is, the values in buckets that only
+     * hold that value, plus the values that have not been folded into
+     * the buckets yet.  A value that falls in a wider bucket may be
+     * there too, but the histogram can't tell how often.
+     */
+    public double getFractionEqual(double value) {
+
+        if (count == 0)
+            return(0.0);
+
+        double equal = 0.0;
+        for (int index = 0; index < size; index++) {
+            if ((lows[index] == value) && (highs[index] == value))
+                equal += weights[index];
+        }
+        for (int index = 0; index < pendingCount; index++) {
+            if (pending[index] == value)
+                equal++;
+        }
+        return(Math.min(equal/count, 1.0));
+    }
+
+
+    /**
+     * Return a copy of this histogram.
+     */
+    public EquiDepthHistogram copy() {
+
+        EquiDepthHistogram copy = new EquiDepthHistogram(maxBucketCount);
+        copy.size = size;
+        System.arraycopy(lows, 0, copy.lows, 0, size);
+        System.arraycopy(highs, 0, copy.highs, 0, size);
+        System.arraycopy(weights, 0, copy.weights, 0, size);
+        System.arraycopy(pending, 0, copy.pending, 0, pendingCount);
+        copy.pendingCount = pendingCount;
+        copy.count = count;
+        return(copy);
+    }
+
+
+    /**
+     * Write the histogram in the form read() reads.
+     */
+    public void write(DataOutput out)
+        throws IOException {
+
+        out.writeInt(maxBucketCount);
+        out.writeLong(count);
+        out.writeInt(size);
+        for (int index = 0; index < size; index++) {
+            out.writeDouble(lows[index]);
+            out.writeDouble(highs[index]);
+            out.writeDouble(weights[index]);
+        }
+        out.writeInt(pendingCount);
+        for (int index = 0; index < pendingCount; index++)
+            out.writeDouble(pending[index]);
+    }
+
+
+    /**
+     * Read a histogram written by write().
+     *
+     * @throws IOException If the input does not hold a histogram.
+     */
+    public static EquiDepthHistogram read(DataInput in)
+        throws IOException {
+
+        int maxBucketCount = in.readInt();
+        if (maxBucketCount < 1)
+            throw(new IOException("Invalid bucket count: "+maxBucketCount));
+
+        EquiDepthHistogram histogram = new EquiDepthHistogram(maxBucketCount);
+        histogram.count = in.readLong();
+        histogram.size = in.readInt();
+        if ((histogram.size < 0) || (histogram.size > maxBucketCount))
+            throw(new IOException("Invalid bucket count: "+histogram.size));
+
+        for (int index = 0; index < histogram.size; index++) {
+            histogram.lows[index] = in.readDouble();
+            histogram.highs[index] = in.readDouble();
+            histogram.weights[index] = in.readDouble();
+        }
+
+        histogram.pendingCount = in.readInt();
+        if ((histogram.pendingCount < 0) ||
+            (histogram.pendingCount >= histogram.pending.length)) {
+            throw(new IOException("Invalid value count: "+
+                                  histogram.pendingCount));
+        }
+        for (int index = 0; index < histogram.pendingCount; index++)
+            histogram.pending[index] = in.readDouble();
+        return(histogram);
+    }
+
+
+    @Override
+    public String toString() {
+
+        StringBuilder s = new StringBuilder("EquiDepthHistogram(");
+        for (int index = 0; index < getBucketCount(); index++) {
+            if (index > 0)
+                s.append(", ");
+            s.append('[').append(lows[index]).append(", ").
+                append(highs[index]).append("]: ").append(weights[index]);
+        }
+        return(s.append(')').toString());
+    }
+
+
+    /**
+     * Fold the pending values, and the buckets and pending values of
+     * the passed in histogram if it is not null, into our buckets,
+     * and re-cut the buckets so they hold the same number of values.
+     *
+     * Each bucket and each value is a "segment" of weight spread
+     * evenly from lo to hi.  (A value is a segment with lo == hi.)
+     * We sweep the ends of the segments in order, keeping track of
+     * the density of the segments that cover each interval between
+     * them, and start a new bucket whenever the current one holds
+     * its share of the total weight.
+     */
+    private void fold(EquiDepthHistogram other) {
+
+        int otherCount = (other == null) ? 0 : other.size+other.pendingCount;
+        int segmentCount = size+pendingCount+otherCount;
+        double[] segmentLows = new double[segmentCount];
+        double[] segmentHighs = new double[segmentCount];
+        double[] segmentWeights = new double[segmentCount];
+
+        int n = addSegments(this, segmentLows, segmentHighs, segmentWeights,
+                            0);
+        if (other != null)
+            addSegments(other, segmentLows, segmentHighs, segmentWeights, n);
+
+        /**
+         * The distinct segment ends, in order.
+         */
+        double[] xs = new double[2*segmentCount];
+        System.arraycopy(segmentLows, 0, xs, 0, segmentCount);
+        System.arraycopy(segmentHighs, 0, xs, segmentCount, segmentCount);
+        Arrays.sort(xs);
+        int k = 0;
+        for (int index = 0; index < xs.length; index++) {
+            if ((k == 0) || (xs[index] != xs[k-1]))
+                xs[k++] = xs[index];
+        }
+
+        /**
+         * pointWeights[j] is the weight of the values at xs[j], and
+         * densityChanges[j] and activeChanges[j] are the changes in
+         * the density, and in the number of buckets that cover the
+         * interval, at xs[j].
+         */
+        double[] pointWeights = new double[k];
+        double[] densityChanges = new double[k];
+        int[] activeChanges = new int[k];
+        double total = 0.0;
+        for (int index = 0; index < segmentCount; index++) {
+            double lo = segmentLows[index];
+            double hi = segmentHighs[index];
+            double weight = segmentWeights[index];
+            total += weight;
+            if (lo == hi) {
+                pointWeights[Arrays.binarySearch(xs, 0, k, lo)] += weight;
+            }
+            else {
+                double density = weight/(hi-lo);
+                int start = Arrays.binarySearch(xs, 0, k, lo);
+                int end = Arrays.binarySearch(xs, 0, k, hi);
+                densityChanges[start] += density;
+                densityChanges[end] -= density;
+                activeChanges[start]++;
+                activeChanges[end]--;
+            }
+        }
+
+        size = 0;
+        pendingCount = 0;
+        if (total <= 0.0)
+            return;
+
+        double target = total/maxBucketCount;
+        double epsilon = total*1e-9;
+        double low = 0.0;
+        double weight = 0.0;
+        double density = 0.0;
+        int activeCount = 0;
+
+        for (int j = 0; j < k; j++) {
+
+            double x = xs[j];
+            if (pointWeights[j] > 0.0) {
+
+                /**
+                 * A value that fills a bucket by itself gets a bucket
+                 * of its own, so getFractionEqual() can find it, and
+                 * the next fold doesn't spread it out.
+                 */
+                if ((pointWeights[j] >= target-epsilon) && (weight > 0.0) &&
+                    (size < maxBucketCount-2)) {
+                    addBucket(low, x, weight);
+                    weight = 0.0;
+                }
+                if (weight == 0.0)
+                    low = x;
+                weight += pointWeights[j];
+                if ((weight >= target-epsilon) &&
+                    (size < maxBucketCount-1)) {
+                    addBucket(low, x, weight);
+                    weight = 0.0;
+                }
+            }
+
+            /**
+             * When no bucket covers the interval, the density is
+             * exactly 0, whatever rounding error the sum has.
+             */
+            density += densityChanges[j];
+            activeCount += activeChanges[j];
+            if (activeCount == 0)
+                density = 0.0;
+            if ((j == k-1) || (density <= 0.0))
+                continue;
+
+            /**
+             * The interval from x to the next end, cut wherever
+             * the current bucket fills up.
+             */
+            double next = xs[j+1];
+            double position = x;
+            double remaining = density*(next-x);
+            if (weight == 0.0)
+                low = x;
+            while ((weight+remaining >= target-epsilon) &&
+                   (size < maxBucketCount-1)) {
+                double needed = Math.max(target-weight, 0.0);
+                double cut = position+(next-position)*
+                    Math.min(needed/remaining, 1.0);
+                addBucket(low, cut, weight+needed);
+                remaining -= needed;
+                weight = 0.0;
+                position = cut;
+                low = cut;
+                if (remaining <= epsilon) {
+                    remaining = 0.0;
+                    break;
+                }
+            }
+            weight += remaining;
+        }
+
+        if (weight > epsilon)
+            addBucket(low, xs[k-1], weight);
+        else if ((weight > 0.0) && (size > 0))
+            weights[size-1] += weight;
+    }
+
+
+    /**
+     * Add the buckets and pending values of the passed in histogram
+     * to the passed in segment arrays, starting at the passed in
+     * index.  Returns the index after the last one added.
+     */
+    private static int addSegments(EquiDepthHistogram histogram,
+                                   double[] segmentLows,
+                                   double[] segmentHighs,
+                                   double[] segmentWeights, int index) {
+
+        for (int bucket = 0; bucket < histogram.size; bucket++) {
+            segmentLows[index] = histogram.lows[bucket];
+            segmentHighs[index] = histogram.highs[bucket];
+            segmentWeights[index] = histogram.weights[bucket];
+            index++;
+        }
+        for (int value = 0; value < histogram.pendingCount; value++) {
+            segmentLows[index] = histogram.pending[value];
+            segmentHighs[index] = histogram.pending[value];
+            segmentWeights[index] = 1.0;
+            index++;
+        }
+        return(index);
+    }
+
+
+    private void addBucket(double low, double high, double weight) {
+
+        lows[size] = low;
+        highs[size] = high;
+        weights[size] = weight;
+        size++;
+    }
+}
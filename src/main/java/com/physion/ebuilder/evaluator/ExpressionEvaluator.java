@@ -0,0 +1,1715 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IBooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.IClassLiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.IFloat64LiteralValueExpression;
+import com.physion.ebuilder.expression.IInt32LiteralValueExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.IStringLiteralValueExpression;
+import com.physion.ebuilder.expression.ITimeLiteralValueExpression;
+import com.physion.ebuilder.translator.Translator;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+
+/**
+ * This class evaluates an ExpressionTree against objects in memory.
+ * E.g. to filter a list of cached Epochs without asking the database
+ * to run the query.
+ *
+ * The constructor "compiles" the ExpressionTree into a tree of
+ * Condition, Value, and Elements nodes.  The compiled tree does not
+ * look at the Expression objects again, so an ExpressionEvaluator
+ * can be used to test as many records as you like.  (And by as many
+ * threads as you like.  The compiled tree is never changed after the
+ * constructor returns.)
+ *
+ * After a number of calls to evaluate(), (see the compileThreshold
+ * constructor parameter), the tree of nodes is itself compiled into
+ * a Java class by the BytecodeCompiler.  The nodes are a fine way to
+ * test a few records, but the generated class is much faster when
+ * testing millions of them.
+ *
+ * The ExpressionEvaluator knows nothing about the objects it is
+ * testing.  It gets attribute values, references, collections, and
+ * parameters out of a record by calling a RecordAccessor.
+ *
+ * The compiler uses the DataModel to figure out whether an attribute
+ * on a path is a primitive value or a reference to another record.
+ * If the Class Under Qualification is not in the DataModel, attributes
+ * on the left side of a "." are treated as references and the last
+ * attribute of a path is treated as a primitive value.
+ *
+ * Some notes on the semantics:
+ *
+ *      A comparison with a null value is false, except for "==" (which
+ *      is true if both values are null), and "!=" (which is true if
+ *      only one of the values is null).
+ *
+ *      Numbers of different types are compared by value, so the
+ *      Short 3 equals the Integer 3 equals the Double 3.0.
+ *
+ *      The "=~" operators are true if the regular expression matches
+ *      any part of the value.  Use "^" and "$" to match the whole value.
+ *
+ *      "all" of an empty collection is true, "any" of an empty
+ *      collection is false.
+ *
+ *      Collections are only iterated as far as needed.  "any" and
+ *      not(any) stop at the first element that satisfies the
+ *      condition, "all" at the first that doesn't, and a count()
+ *      compared with a literal stops counting when the comparison
+ *      is decided, (e.g. count(epochs) > 5 stops at the sixth).
+ *
+ * Example of use:
+ *
+ *      ExpressionTree tree = RowDataToExpressionTree.translate(rootRow);
+ *      Predicate<Object> predicate = ExpressionEvaluator.createPredicate(
+ *          tree, myRecordAccessor);
+ *      for (Object epoch : cachedEpochs)
+ *          if (predicate.test(epoch))
+ *              ...
+ *
+ * @see RecordAccessor
+ */
+public class ExpressionEvaluator
+    implements Translator {
+
+    /**
+     * This is the "class" of the elements of an elementsOfType()
+     * collection.  The elements are the parameter values themselves,
+     * so the "value" attribute of an element is the element.
+     */
+    private static final ClassDescription PARAMETER_VALUE_CLASS =
+        new ClassDescription("ParameterValue", null);
+
+    /**
+     * The default number of records evaluate() tests using the tree
+     * of nodes before it compiles the tree into bytecode.
+     */
+    public static final int DEFAULT_COMPILE_THRESHOLD = 10000;
+
+    /**
+     * Pass this as the compileThreshold to never compile the tree
+     * into bytecode.
+     */
+    public static final int NEVER_COMPILE = -1;
+
+    private ExpressionTree expressionTree;
+    private Condition rootCondition;
+
+    private int compileThreshold;
+
+    /**
+     * The number of times evaluate() has been called before the
+     * tree was compiled.  This is not synchronized, so if several
+     * threads call evaluate() the count is only approximate.
+     * That does not matter.
+     */
+    private int evaluateCount;
+
+    private volatile CompiledCondition compiledCondition;
+    private boolean compileFailed;
+
+    /**
+     * The class this evaluator shares with the evaluators of queries
+     * of the same shape, or null if it does not share one.
+     */
+    private final BytecodeCompiler.SharedClass sharedClass;
+
+
+    /**
+     * Compile the passed in ExpressionTree.  The first
+     * DEFAULT_COMPILE_THRESHOLD calls to evaluate() use the tree of
+     * nodes, after that the tree is compiled into bytecode.
+     *
+     * @throws IllegalArgumentException If the ExpressionTree contains
+     * an operator we do not know how to evaluate, or an operator has
+     * the wrong number or kind of operands.
+     */
+    public ExpressionEvaluator(ExpressionTree expressionTree) {
+        this(expressionTree, DEFAULT_COMPILE_THRESHOLD);
+    }
+
+
+    /**
+     * Compile the passed in ExpressionTree.
+     *
+     * @param compileThreshold The number of calls to evaluate() that
+     * use the tree of nodes before the tree is compiled into bytecode.
+     * Compiling is not free, (it takes about a millisecond, which is
+     * about as long as testing ten thousand records), so there is no
+     * point in doing it for a query that is only used to test a few
+     * records.  Pass 0 to compile
+     * right away, or NEVER_COMPILE to never compile.
+     *
+     * @throws IllegalArgumentException If the ExpressionTree contains
+     * an operator we do not know how to evaluate, or an operator has
+     * the wrong number or kind of operands.
+     *
+     * @see BytecodeCompiler
+     */
+    public ExpressionEvaluator(ExpressionTree expressionTree,
+                               int compileThreshold) {
+        this(expressionTree, compileThreshold, null);
+    }
+
+
+    /**
+     * Compile the passed in ExpressionTree.  When the tree is compiled
+     * into bytecode, the generated class is shared with the other
+     * evaluators that are passed the same SharedClass.  PreparedQuery
+     * passes each of the evaluators of one query shape the same one.
+     *
+     * @param sharedClass May be null, in which case the generated
+     * class is not shared.
+     */
+    ExpressionEvaluator(ExpressionTree expressionTree, int compileThreshold,
+                        BytecodeCompiler.SharedClass sharedClass) {
+
+        if (expressionTree == null) {
+            throw(new IllegalArgumentException(
+                "expressionTree may not be null."));
+        }
+
+        this.expressionTree = expressionTree;
+        this.compileThreshold = compileThreshold;
+        this.sharedClass = sharedClass;
+
+        ClassDescription cuq = null;
+        if (expressionTree.getClassUnderQualification() != null) {
+            cuq = DataModel.getClassDescription(
+                expressionTree.getClassUnderQualification());
+        }
+
+        rootCondition = compileCondition(expressionTree.getRootExpression(),
+                                         cuq);
+
+        if (compileThreshold == 0)
+            compile();
+    }
+
+
+    /**
+     * Create a Predicate that uses the passed in RecordAccessor to test
+     * records against the passed in ExpressionTree.
+     *
+     * The tree is compiled once, here, so keep the returned Predicate
+     * around and reuse it rather than calling this method for every
+     * record.
+     */
+    public static <T> Predicate<T> createPredicate(
+        ExpressionTree expressionTree, final RecordAccessor accessor) {
+
+        final ExpressionEvaluator evaluator =
+            new ExpressionEvaluator(expressionTree);
+        return(new Predicate<T>() {
+            @Override
+            public boolean test(T record) {
+                return(evaluator.evaluate(record, accessor));
+            }
+        });
+    }
+
+
+    /**
+     * Get the ExpressionTree that this evaluator was compiled from.
+     */
+    public ExpressionTree getExpressionTree() {
+        return(expressionTree);
+    }
+
+
+    /**
+     * Returns true if the passed in record satisfies the ExpressionTree.
+     * A null record never satisfies the ExpressionTree.
+     */
+    public boolean evaluate(Object record, RecordAccessor accessor) {
+
+        if (record == null)
+            return(false);
+
+        CompiledCondition compiled = compiledCondition;
+        if (compiled != null)
+            return(compiled.test(record, accessor));
+
+        if ((compileThreshold >= 0) && !compileFailed &&
+            (evaluateCount++ >= compileThreshold)) {
+            compile();
+            compiled = compiledCondition;
+            if (compiled != null)
+                return(compiled.test(record, accessor));
+        }
+
+        return(rootCondition.test(record, accessor));
+    }
+
+
+    /**
+     * Compile the tree into bytecode now, rather than waiting for
+     * the compileThreshold to be reached.
+     *
+     * @return True if the tree is compiled.  False if it could not
+     * be compiled, in which case evaluate() keeps using the tree
+     * of nodes.
+     */
+    public synchronized boolean compile() {
+
+        if ((compiledCondition == null) && !compileFailed) {
+            compiledCondition = BytecodeCompiler.compile(rootCondition,
+                                                         sharedClass);
+            compileFailed = (compiledCondition == null);
+        }
+        return(compiledCondition != null);
+    }
+
+
+    /**
+     * Returns true if evaluate() is using the compiled bytecode.
+     */
+    public boolean isCompiled() {
+        return(compiledCondition != null);
+    }
+
+
+    /**
+     * Get the root of the tree of nodes the ExpressionTree was
+     * compiled into.  The BatchEvaluator works from this tree.
+     */
+    Condition getRootCondition() {
+        return(rootCondition);
+    }
+
+
+    /**
+     * Compile an expression that evaluates to true or false.
+     *
+     * @param classDescription The class of the record that the
+     * expression will be tested against.  This is null if we do
+     * not know what class it is.
+     */
+    private static Condition compileCondition(
+        IExpression ex, ClassDescription classDescription) {
+
+        if (ex instanceof IBooleanLiteralValueExpression) {
+            Boolean value = (Boolean)((IBooleanLiteralValueExpression)ex).
+                getValue();
+            return(new ConstantCondition(Boolean.TRUE.equals(value)));
+        }
+
+        if (!(ex instanceof IOperatorExpression)) {
+            /**
+             * E.g. a BOOLEAN attribute that is used as a condition
+             * on its own.
+             */
+            return(new ValueCondition(compileValue(ex, classDescription)));
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (OE_AND.equals(name) || OE_OR.equals(name)) {
+
+            Condition[] conditions = new Condition[operands.size()];
+            for (int index = 0; index < conditions.length; index++) {
+                conditions[index] = compileCondition(operands.get(index),
+                                                     classDescription);
+            }
+
+            if (conditions.length == 1)
+                return(conditions[0]);
+            else if (OE_AND.equals(name))
+                return(new AndCondition(conditions));
+            else
+                return(new OrCondition(conditions));
+        }
+        else if (OE_NOT.equals(name)) {
+            checkOperandCount(oe, 1);
+            return(new NotCondition(compileCondition(operands.get(0),
+                                                     classDescription)));
+        }
+        else if (OE_IS_NULL.equals(name)) {
+            checkOperandCount(oe, 1);
+            return(new IsNullCondition(compileValue(operands.get(0),
+                                                    classDescription)));
+        }
+        else if (OE_ANY.equals(name) || OE_ALL.equals(name)) {
+
+            if ((operands.size() != 1) && (operands.size() != 2)) {
+                throw(new IllegalArgumentException("The \""+name+
+                    "\" operator must have one or two operands."));
+            }
+
+            IExpression collection = operands.get(0);
+            Elements elements = compileElements(collection, classDescription);
+
+            /**
+             * any(collection) without a condition is true if the
+             * collection is not empty.
+             */
+            Condition condition = new ConstantCondition(true);
+            if (operands.size() > 1) {
+                condition = compileCondition(operands.get(1),
+                    getPathClass(collection, classDescription));
+            }
+
+            if (OE_ANY.equals(name))
+                return(new AnyCondition(elements, condition));
+            else
+                return(new AllCondition(elements, condition));
+        }
+
+        Operator operator = getOperator(name);
+        if (operator != null) {
+
+            checkOperandCount(oe, 2);
+            Value lhs = compileValue(operands.get(0), classDescription);
+            IExpression rhsEx = operands.get(1);
+
+            switch (operator) {
+                case MATCHES_CASE_SENSITIVE:
+                case MATCHES_CASE_INSENSITIVE:
+                case DOES_NOT_MATCH_CASE_SENSITIVE:
+                case DOES_NOT_MATCH_CASE_INSENSITIVE:
+                    boolean caseInsensitive =
+                        ((operator == Operator.MATCHES_CASE_INSENSITIVE) ||
+                         (operator == Operator.DOES_NOT_MATCH_CASE_INSENSITIVE));
+                    boolean negate =
+                        ((operator == Operator.DOES_NOT_MATCH_CASE_SENSITIVE) ||
+                         (operator == Operator.DOES_NOT_MATCH_CASE_INSENSITIVE));
+                    int flags = caseInsensitive ?
+                        (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE) : 0;
+
+                    /**
+                     * The regular expression is almost always a literal,
+                     * so compile it now rather than once per record.
+                     * If it is literal text, the TextMatcher doesn't
+                     * even use the regular expression engine.
+                     */
+                    if (rhsEx instanceof IStringLiteralValueExpression) {
+                        String regex = (String)((IStringLiteralValueExpression)
+                            rhsEx).getValue();
+                        return(new MatchCondition(lhs, null,
+                            PatternCache.getShared().get(regex, flags), flags,
+                            negate));
+                    }
+                    return(new MatchCondition(lhs,
+                        compileValue(rhsEx, classDescription), null,
+                        flags, negate));
+
+                default:
+                    Value rhs = compileValue(rhsEx, classDescription);
+
+                    /**
+                     * Parameter filters are most of what people write,
+                     * so compare a parameter with a literal without
+                     * boxing it, if the RecordAccessor lets us.
+                     */
+                    if ((lhs instanceof ParameterValue) &&
+                        (rhs instanceof LiteralValue)) {
+                        return(new ParameterCompareCondition(
+                            (ParameterValue)lhs, operator, (LiteralValue)rhs));
+                    }
+                    else if ((rhs instanceof ParameterValue) &&
+                             (lhs instanceof LiteralValue)) {
+                        return(new ParameterCompareCondition(
+                            (ParameterValue)rhs, flip(operator),
+                            (LiteralValue)lhs));
+                    }
+                    return(new CompareCondition(limitCount(lhs, operator, rhs),
+                        limitCount(rhs, flip(operator), lhs), operator));
+            }
+        }
+
+        /**
+         * Anything else, e.g. a "." path to a BOOLEAN attribute, is
+         * a value that we treat as a condition.
+         */
+        return(new ValueCondition(compileValue(ex, classDescription)));
+    }
+
+
+    /**
+     * If value is a count() and other is a number literal, return a
+     * count() that stops counting as soon as "value operator other"
+     * is decided.  Otherwise return value.
+     */
+    private static Value limitCount(Value value, Operator operator,
+                                    Value other) {
+
+        if (!(value instanceof CountValue) ||
+            !(other instanceof LiteralValue) ||
+            !(((LiteralValue)other).value instanceof Number))
+            return(value);
+
+        double k = ((Number)((LiteralValue)other).value).doubleValue();
+        if (Double.isNaN(k))
+            return(value);
+
+        /**
+         * Once the count is above k, the comparison comes out the same
+         * for any bigger count.  For >= and <, that is true as soon
+         * as the count reaches k.
+         */
+        double limit;
+        if ((operator == Operator.GREATER_THAN_EQUALS) ||
+            (operator == Operator.LESS_THAN))
+            limit = Math.ceil(k);
+        else
+            limit = Math.floor(k)+1;
+
+        if (limit >= Integer.MAX_VALUE)
+            return(value);
+        return(new CountValue(((CountValue)value).elements,
+                              (int)Math.max(limit, 0)));
+    }
+
+
+    /**
+     * Compile an expression that evaluates to a value.  E.g. a literal,
+     * an attribute path, count(), or a parameters map value.
+     */
+    private static Value compileValue(IExpression ex,
+                                      ClassDescription classDescription) {
+
+        if (ex instanceof IClassLiteralValueExpression) {
+            throw(new IllegalArgumentException(
+                "A class literal can only be an operand of the \""+
+                OE_AS+"\" or \""+OE_ELEMENTS_OF_TYPE+"\" operators."));
+        }
+        else if (ex instanceof ILiteralValueExpression) {
+            return(LiteralValue.create((ILiteralValueExpression)ex));
+        }
+        else if (ex instanceof IAttributeExpression) {
+            return(compileAttribute(new ThisValue(),
+                                    ((IAttributeExpression)ex).getAttributeName(),
+                                    classDescription));
+        }
+        else if (!(ex instanceof IOperatorExpression)) {
+            throw(new IllegalArgumentException(
+                "Unhandled IExpression subclass: "+ex));
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (OE_DOT.equals(name)) {
+
+            checkOperandCount(oe, 2);
+            IExpression lhs = operands.get(0);
+            String attributeName = getAttributeName(oe, operands.get(1));
+
+            /**
+             * A PARAMETERS_MAP value looks like:
+             *
+             *      .(as(parameter(protocolParameters, "key"), IntValue), value)
+             */
+            if (isOperator(lhs, OE_AS) || isOperator(lhs, OE_PARAMETER)) {
+                if (!AE_VALUE.equals(attributeName)) {
+                    throw(new IllegalArgumentException(
+                        "Expected the \""+AE_VALUE+"\" attribute on the "+
+                        "right of a parameters map value, but got \""+
+                        attributeName+"\"."));
+                }
+                return(compileValue(lhs, classDescription));
+            }
+
+            return(compileAttribute(compileReference(lhs, classDescription),
+                                    attributeName,
+                                    getPathClass(lhs, classDescription)));
+        }
+        else if (OE_COUNT.equals(name)) {
+            checkOperandCount(oe, 1);
+            return(new CountValue(compileElements(operands.get(0),
+                                                  classDescription)));
+        }
+        else if (OE_AS.equals(name)) {
+
+            checkOperandCount(oe, 2);
+            Type type = getType(oe, operands.get(1));
+            if (!isOperator(operands.get(0), OE_PARAMETER)) {
+                throw(new IllegalArgumentException("The first operand of "+
+                    "the \""+OE_AS+"\" operator must be \""+OE_PARAMETER+
+                    "\"."));
+            }
+            return(compileParameter((IOperatorExpression)operands.get(0),
+                                    type, classDescription));
+        }
+        else if (OE_PARAMETER.equals(name)) {
+            return(compileParameter(oe, null, classDescription));
+        }
+        else if (isConditionOperator(name)) {
+            /**
+             * E.g. BOOLEAN attribute == (x < y)
+             */
+            return(new ConditionValue(compileCondition(ex, classDescription)));
+        }
+
+        throw(new IllegalArgumentException("The \""+name+
+            "\" operator does not have a value."));
+    }
+
+
+    /**
+     * Compile the value of the passed in attribute of the records
+     * the passed in owner evaluates to.
+     *
+     * We look in the DataModel to decide whether the attribute is a
+     * primitive value or a to-one reference to another record.
+     */
+    private static Value compileAttribute(Value owner, String attributeName,
+                                          ClassDescription classDescription) {
+
+        if (AE_THIS.equals(attributeName))
+            return(owner);
+
+        if ((classDescription == PARAMETER_VALUE_CLASS) &&
+            AE_VALUE.equals(attributeName)) {
+            return(owner);
+        }
+
+        Attribute attribute = null;
+        if (classDescription != null)
+            attribute = classDescription.getAttribute(attributeName);
+
+        if ((attribute != null) &&
+            (attribute.getType() == Type.REFERENCE) &&
+            (attribute.getCardinality() == Cardinality.TO_ONE)) {
+            return(new ReferenceValue(owner, attributeName));
+        }
+
+        return(new AttributeValue(owner, attributeName));
+    }
+
+
+    /**
+     * Compile an expression that evaluates to a record.  E.g. "this",
+     * "owner", or a path like ".(.(epochGroup, source), parent)".
+     */
+    private static Value compileReference(IExpression ex,
+                                          ClassDescription classDescription) {
+
+        if (ex instanceof IAttributeExpression) {
+            String name = ((IAttributeExpression)ex).getAttributeName();
+            if (AE_THIS.equals(name))
+                return(new ThisValue());
+            else
+                return(new ReferenceValue(new ThisValue(), name));
+        }
+        else if (isOperator(ex, OE_DOT)) {
+            IOperatorExpression oe = (IOperatorExpression)ex;
+            checkOperandCount(oe, 2);
+            IExpression lhs = oe.getOperandList().get(0);
+            String name = getAttributeName(oe, oe.getOperandList().get(1));
+            if (AE_THIS.equals(name))
+                return(compileReference(lhs, classDescription));
+            return(new ReferenceValue(compileReference(lhs, classDescription),
+                                      name));
+        }
+
+        throw(new IllegalArgumentException(
+            "Expected an attribute path, but got:\n"+ex));
+    }
+
+
+    /**
+     * Compile an expression that evaluates to a collection of
+     * records or values.  I.e. the first operand of the "any", "all",
+     * and "count" operators.  For example:
+     *
+     *      responses
+     *      .(epochGroup, epochs)
+     *      mykeywords(this)
+     *      containing_experiments(.(source, parent))
+     *      elementsOfType(properties("key", this), ovation.IntegerValue)
+     */
+    private static Elements compileElements(IExpression ex,
+                                            ClassDescription classDescription) {
+
+        if (ex instanceof IAttributeExpression) {
+            return(new CollectionElements(new ThisValue(),
+                ((IAttributeExpression)ex).getAttributeName()));
+        }
+        else if (!(ex instanceof IOperatorExpression)) {
+            throw(new IllegalArgumentException(
+                "Expected a collection, but got:\n"+ex));
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (OE_DOT.equals(name)) {
+            checkOperandCount(oe, 2);
+            return(new CollectionElements(
+                compileReference(operands.get(0), classDescription),
+                getAttributeName(oe, operands.get(1))));
+        }
+        else if (OE_ELEMENTS_OF_TYPE.equals(name)) {
+
+            checkOperandCount(oe, 2);
+            Type type = getType(oe, operands.get(1));
+            IExpression collection = operands.get(0);
+
+            if (isPerUserParametersMap(collection)) {
+                return(compilePerUserParameters(
+                    (IOperatorExpression)collection, type, classDescription));
+            }
+            return(new TypeFilterElements(
+                compileElements(collection, classDescription), type));
+        }
+        else if (isPerUserParametersMap(ex)) {
+            return(compilePerUserParameters(oe, null, classDescription));
+        }
+        else if (!isBuiltInOperator(name)) {
+
+            /**
+             * A per-user or custom reference operator, e.g.
+             * mykeywords(this) or containing_experiments(source).
+             * The operand is the path to the record whose collection
+             * we want.
+             */
+            if (operands.size() > 1) {
+                throw(new IllegalArgumentException("The \""+name+
+                    "\" operator must have zero or one operands."));
+            }
+
+            Value owner = new ThisValue();
+            if (operands.size() == 1)
+                owner = compileReference(operands.get(0), classDescription);
+            return(new CollectionElements(owner, name));
+        }
+
+        throw(new IllegalArgumentException("The \""+name+
+            "\" operator is not a collection."));
+    }
+
+
+    /**
+     * Compile a "parameter" operator:
+     *
+     *      parameter(protocolParameters, "key")
+     *      parameter(.(epochGroup, someParametersMap), "key")
+     *
+     * @param type The Type from the surrounding "as" operator, or null
+     * if there is no "as" operator, (in which case the value is not
+     * checked).
+     */
+    private static Value compileParameter(IOperatorExpression oe, Type type,
+        ClassDescription classDescription) {
+
+        checkOperandCount(oe, 2);
+        IExpression mapEx = oe.getOperandList().get(0);
+        String key = getKey(oe, oe.getOperandList().get(1));
+
+        Value owner;
+        String mapName;
+        if (isOperator(mapEx, OE_DOT)) {
+            IOperatorExpression dot = (IOperatorExpression)mapEx;
+            checkOperandCount(dot, 2);
+            owner = compileReference(dot.getOperandList().get(0),
+                                     classDescription);
+            mapName = getAttributeName(dot, dot.getOperandList().get(1));
+        }
+        else if (mapEx instanceof IAttributeExpression) {
+            owner = new ThisValue();
+            mapName = ((IAttributeExpression)mapEx).getAttributeName();
+        }
+        else {
+            throw(new IllegalArgumentException("The first operand of the \""+
+                OE_PARAMETER+"\" operator must be an attribute path."));
+        }
+
+        return(new ParameterValue(owner, mapName, key, type));
+    }
+
+
+    /**
+     * Compile a per-user parameters map operator:
+     *
+     *      properties("key", this)
+     *      myproperties("key", .(epochGroup, source))
+     */
+    private static Elements compilePerUserParameters(IOperatorExpression oe,
+        Type type, ClassDescription classDescription) {
+
+        String key = getKey(oe, oe.getOperandList().get(0));
+        Value owner = compileReference(oe.getOperandList().get(1),
+                                       classDescription);
+        return(new PerUserParameterElements(owner, oe.getOperatorName(), key,
+                                            type));
+    }
+
+
+    /**
+     * Get the Attribute at the end of the passed in path, or null
+     * if we don't know what it is.
+     */
+    private static Attribute getPathAttribute(IExpression ex,
+        ClassDescription classDescription) {
+
+        if (ex instanceof IAttributeExpression) {
+            String name = ((IAttributeExpression)ex).getAttributeName();
+            if ((classDescription == null) || AE_THIS.equals(name))
+                return(null);
+            return(classDescription.getAttribute(name));
+        }
+        else if (isOperator(ex, OE_DOT)) {
+            List<IExpression> operands =
+                ((IOperatorExpression)ex).getOperandList();
+            if (operands.size() != 2)
+                return(null);
+            return(getPathAttribute(operands.get(1),
+                getPathClass(operands.get(0), classDescription)));
+        }
+        else if (ex instanceof IOperatorExpression) {
+            IOperatorExpression oe = (IOperatorExpression)ex;
+            if (isBuiltInOperator(oe.getOperatorName()) ||
+                (oe.getOperandList().size() > 1)) {
+                return(null);
+            }
+
+            ClassDescription ownerClass = classDescription;
+            if (oe.getOperandList().size() == 1) {
+                ownerClass = getPathClass(oe.getOperandList().get(0),
+                                          classDescription);
+            }
+            if (ownerClass == null)
+                return(null);
+            return(ownerClass.getAttribute(oe.getOperatorName()));
+        }
+
+        return(null);
+    }
+
+
+    /**
+     * Get the class of the record, (or the class of the elements of the
+     * collection), that the passed in path evaluates to.  Returns null
+     * if we don't know what the class is.
+     */
+    static ClassDescription getPathClass(IExpression ex,
+        ClassDescription classDescription) {
+
+        if ((ex instanceof IAttributeExpression) &&
+            AE_THIS.equals(((IAttributeExpression)ex).getAttributeName())) {
+            return(classDescription);
+        }
+
+        if (isOperator(ex, OE_ELEMENTS_OF_TYPE) ||
+            isPerUserParametersMap(ex)) {
+            return(PARAMETER_VALUE_CLASS);
+        }
+
+        Attribute attribute = getPathAttribute(ex, classDescription);
+        if (attribute == null)
+            return(null);
+        return(attribute.getClassDescription());
+    }
+
+
+    /**
+     * Get the attribute Operator for the passed in comparison operator
+     * name.  Returns null if the name is not a comparison operator.
+     */
+    static Operator getOperator(String name) {
+
+        if (OE_EQUALS.equals(name))
+            return(Operator.EQUALS);
+        else if (OE_NOT_EQUALS.equals(name))
+            return(Operator.NOT_EQUALS);
+        else if (OE_LESS_THAN.equals(name))
+            return(Operator.LESS_THAN);
+        else if (OE_GREATER_THAN.equals(name))
+            return(Operator.GREATER_THAN);
+        else if (OE_LESS_THAN_EQUALS.equals(name))
+            return(Operator.LESS_THAN_EQUALS);
+        else if (OE_GREATER_THAN_EQUALS.equals(name))
+            return(Operator.GREATER_THAN_EQUALS);
+        else if (OE_MATCHES_CASE_SENSITIVE.equals(name))
+            return(Operator.MATCHES_CASE_SENSITIVE);
+        else if (OE_MATCHES_CASE_INSENSITIVE.equals(name))
+            return(Operator.MATCHES_CASE_INSENSITIVE);
+        else if (OE_DOES_NOT_MATCH_CASE_SENSITIVE.equals(name))
+            return(Operator.DOES_NOT_MATCH_CASE_SENSITIVE);
+        else if (OE_DOES_NOT_MATCH_CASE_INSENSITIVE.equals(name))
+            return(Operator.DOES_NOT_MATCH_CASE_INSENSITIVE);
+
+        return(null);
+    }
+
+
+    /**
+     * Get the operator that gives the same answer with its operands
+     * swapped.  E.g. 5 < x is the same as x > 5.
+     */
+    static Operator flip(Operator operator) {
+
+        switch (operator) {
+            case LESS_THAN:
+                return(Operator.GREATER_THAN);
+            case GREATER_THAN:
+                return(Operator.LESS_THAN);
+            case LESS_THAN_EQUALS:
+                return(Operator.GREATER_THAN_EQUALS);
+            case GREATER_THAN_EQUALS:
+                return(Operator.LESS_THAN_EQUALS);
+            default:
+                return(operator);
+        }
+    }
+
+
+    /**
+     * Returns true if the passed in operator name is an operator that
+     * evaluates to true or false.
+     */
+    private static boolean isConditionOperator(String name) {
+
+        return(OE_AND.equals(name) || OE_OR.equals(name) ||
+               OE_NOT.equals(name) || OE_IS_NULL.equals(name) ||
+               OE_ANY.equals(name) || OE_ALL.equals(name) ||
+               (getOperator(name) != null));
+    }
+
+
+    /**
+     * Returns true if the passed in operator name is one of the
+     * operators in the Translator interface that is NOT a per-user
+     * or custom reference operator.  Anything that is not a built
+     * in operator is assumed to be the name of a per-user or custom
+     * operator, e.g. "mykeywords", "containing_experiments".
+     */
+    static boolean isBuiltInOperator(String name) {
+
+        return(isConditionOperator(name) ||
+               OE_COUNT.equals(name) || OE_AS.equals(name) ||
+               OE_PARAMETER.equals(name) || OE_DOT.equals(name) ||
+               OE_ELEMENTS_OF_TYPE.equals(name));
+    }
+
+
+    /**
+     * Returns true if the passed in expression is a per-user parameters
+     * map operator.  E.g. properties("key", this).
+     */
+    static boolean isPerUserParametersMap(IExpression ex) {
+
+        if (!(ex instanceof IOperatorExpression))
+            return(false);
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        return(!isBuiltInOperator(oe.getOperatorName()) &&
+               (oe.getOperandList().size() == 2) &&
+               (oe.getOperandList().get(0) instanceof
+                IStringLiteralValueExpression));
+    }
+
+
+    static boolean isOperator(IExpression ex, String name) {
+
+        return((ex instanceof IOperatorExpression) &&
+               name.equals(((IOperatorExpression)ex).getOperatorName()));
+    }
+
+
+    private static void checkOperandCount(IOperatorExpression oe, int count) {
+
+        if (oe.getOperandList().size() != count) {
+            throw(new IllegalArgumentException("The \""+
+                oe.getOperatorName()+"\" operator must have "+count+
+                " operand(s), but it has "+oe.getOperandList().size()+"."));
+        }
+    }
+
+
+    private static String getAttributeName(IOperatorExpression oe,
+                                           IExpression operand) {
+
+        if (!(operand instanceof IAttributeExpression)) {
+            throw(new IllegalArgumentException("Expected an attribute as "+
+                "an operand of the \""+oe.getOperatorName()+
+                "\" operator, but got:\n"+operand));
+        }
+        return(((IAttributeExpression)operand).getAttributeName());
+    }
+
+
+    private static String getKey(IOperatorExpression oe,
+                                 IExpression operand) {
+
+        if (!(operand instanceof IStringLiteralValueExpression)) {
+            throw(new IllegalArgumentException("Expected a string key as "+
+                "an operand of the \""+oe.getOperatorName()+
+                "\" operator, but got:\n"+operand));
+        }
+        return((String)((IStringLiteralValueExpression)operand).getValue());
+    }
+
+
+    private static Type getType(IOperatorExpression oe, IExpression operand) {
+
+        if (!(operand instanceof IClassLiteralValueExpression)) {
+            throw(new IllegalArgumentException("Expected a class literal as "+
+                "the second operand of the \""+oe.getOperatorName()+
+                "\" operator, but got:\n"+operand));
+        }
+
+        Object value = ((IClassLiteralValueExpression)operand).getValue();
+        return(Values.getTypeForClassName(value == null ? null :
+                                          value.toString()));
+    }
+
+
+    /**
+     * A compiled expression that evaluates to true or false.
+     */
+    abstract static class Condition {
+        abstract boolean test(Object record, RecordAccessor accessor);
+    }
+
+
+    /**
+     * A compiled expression that evaluates to a value.
+     * The value might be null.
+     */
+    abstract static class Value {
+        abstract Object get(Object record, RecordAccessor accessor);
+    }
+
+
+    /**
+     * A compiled expression that evaluates to a collection.
+     * The collection might be null.
+     */
+    abstract static class Elements {
+        abstract Iterable<?> get(Object record, RecordAccessor accessor);
+    }
+
+
+    static class ConstantCondition extends Condition {
+
+        final boolean value;
+
+        ConstantCondition(boolean value) {
+            this.value = value;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+            return(value);
+        }
+    }
+
+
+    static class AndCondition extends Condition {
+
+        final Condition[] conditions;
+
+        AndCondition(Condition[] conditions) {
+            this.conditions = conditions;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+            for (Condition condition : conditions) {
+                if (!condition.test(record, accessor))
+                    return(false);
+            }
+            return(true);
+        }
+    }
+
+
+    static class OrCondition extends Condition {
+
+        final Condition[] conditions;
+
+        OrCondition(Condition[] conditions) {
+            this.conditions = conditions;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+            for (Condition condition : conditions) {
+                if (condition.test(record, accessor))
+                    return(true);
+            }
+            return(false);
+        }
+    }
+
+
+    static class NotCondition extends Condition {
+
+        final Condition condition;
+
+        NotCondition(Condition condition) {
+            this.condition = condition;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+            return(!condition.test(record, accessor));
+        }
+    }
+
+
+    static class IsNullCondition extends Condition {
+
+        final Value value;
+
+        IsNullCondition(Value value) {
+            this.value = value;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+            return(value.get(record, accessor) == null);
+        }
+    }
+
+
+    /**
+     * A value used as a condition is true only if it is Boolean.TRUE.
+     */
+    static class ValueCondition extends Condition {
+
+        final Value value;
+
+        ValueCondition(Value value) {
+            this.value = value;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+            return(Boolean.TRUE.equals(value.get(record, accessor)));
+        }
+    }
+
+
+    /**
+     * A comparison.  If the right hand side is an integer, floating
+     * point, String, or time literal, (which it always is in an
+     * ExpressionTree created by the GUI), the value is compared with
+     * the literal's primitive form, without boxing or looking at what
+     * type of value the literal is.
+     */
+    static class CompareCondition extends Condition {
+
+        final Value lhs;
+        final Value rhs;
+        final Operator operator;
+
+        /**
+         * rhs, if it is a literal we can compare in primitive form,
+         * otherwise null.
+         */
+        private final LiteralValue literal;
+
+        CompareCondition(Value lhs, Value rhs, Operator operator) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+            this.operator = operator;
+
+            if ((rhs instanceof LiteralValue) &&
+                (((LiteralValue)rhs).kind != LiteralValue.OTHER))
+                literal = (LiteralValue)rhs;
+            else
+                literal = null;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+
+            if (literal == null) {
+                return(Values.test(operator, lhs.get(record, accessor),
+                                   rhs.get(record, accessor)));
+            }
+
+            Object value = lhs.get(record, accessor);
+            int result;
+            switch (literal.kind) {
+                case LiteralValue.LONG:
+                    result = Values.compareLong(value, literal.longValue);
+                    break;
+                case LiteralValue.DOUBLE:
+                    result = Values.compareDouble(value, literal.doubleValue);
+                    break;
+                case LiteralValue.STRING:
+                    result = Values.compareString(value,
+                                                  (String)literal.value);
+                    break;
+                default:
+                    result = Values.compareMillis(value, literal.longValue);
+                    break;
+            }
+
+            /**
+             * A value that cannot be compared with the literal is not
+             * equal to it.
+             */
+            if (result == Values.INCOMPARABLE)
+                return(operator == Operator.NOT_EQUALS);
+            return(Values.result(operator, result));
+        }
+    }
+
+
+    /**
+     * A comparison of a parameter with a literal.  If the RecordAccessor
+     * is a ParameterMapAccessor, an integer, floating point, String, or
+     * time value is compared straight out of its ParameterMap slot.
+     * Anything else, (e.g. a Boolean value, or a NaN literal), is
+     * compared the way CompareCondition does it.
+     */
+    static class ParameterCompareCondition extends Condition {
+
+        final ParameterValue parameter;
+        final Operator operator;
+        final LiteralValue literal;
+
+        ParameterCompareCondition(ParameterValue parameter, Operator operator,
+                                  LiteralValue literal) {
+            this.parameter = parameter;
+            this.operator = operator;
+            this.literal = literal;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+
+            if (!(accessor instanceof ParameterMapAccessor)) {
+                return(Values.test(operator, parameter.get(record, accessor),
+                                   literal.value));
+            }
+
+            Object ownerRecord = parameter.owner.get(record, accessor);
+            if (ownerRecord == null)
+                return(Values.test(operator, null, literal.value));
+
+            ParameterMap map = ((ParameterMapAccessor)accessor).
+                getParameterMap(ownerRecord, parameter.mapName);
+            int slot = parameter.getSlot(map);
+            if (slot < 0)
+                return(Values.test(operator, null, literal.value));
+
+            byte tag = map.getTag(slot);
+            int kind = literal.kind;
+            if ((tag == ParameterMap.INT) && (kind == LiteralValue.LONG)) {
+                return(Values.result(operator,
+                    Long.compare(map.getPrimitive(slot), literal.longValue)));
+            }
+            else if (((tag == ParameterMap.INT) ||
+                      (tag == ParameterMap.DOUBLE)) &&
+                     ((kind == LiteralValue.LONG) ||
+                      (kind == LiteralValue.DOUBLE))) {
+                double value = map.getDouble(slot);
+                if (value < literal.doubleValue)
+                    return(Values.result(operator, -1));
+                else if (value > literal.doubleValue)
+                    return(Values.result(operator, 1));
+                else if (value == literal.doubleValue)
+                    return(Values.result(operator, 0));
+                return(operator == Operator.NOT_EQUALS);  // NaN
+            }
+            else if ((tag == ParameterMap.TIME) &&
+                     (kind == LiteralValue.TIME)) {
+                return(Values.result(operator,
+                    Long.compare(map.getPrimitive(slot), literal.longValue)));
+            }
+            else if ((tag == ParameterMap.STRING) &&
+                     (kind == LiteralValue.STRING)) {
+                return(Values.result(operator, Integer.signum(
+                    map.getString(slot).compareTo((String)literal.value))));
+            }
+
+            return(Values.test(operator, map.get(slot), literal.value));
+        }
+    }
+
+
+    /**
+     * The =~, =~~, !~, and !~~ operators.  A null value neither
+     * matches nor fails to match, so the condition is false.
+     */
+    static class MatchCondition extends Condition {
+
+        final Value value;
+        final Value regex;
+        final TextMatcher matcher;
+        final int flags;
+        final boolean negate;
+
+        /**
+         * @param regex The value of the regular expression, if it is not
+         * a literal.  Null if matcher is not null.
+         *
+         * @param matcher The compiled regular expression, if it is a
+         * literal.
+         */
+        MatchCondition(Value value, Value regex, TextMatcher matcher,
+                       int flags, boolean negate) {
+            this.value = value;
+            this.regex = regex;
+            this.matcher = matcher;
+            this.flags = flags;
+            this.negate = negate;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+
+            Object object = value.get(record, accessor);
+            if (object == null)
+                return(false);
+
+            TextMatcher m = matcher;
+            if (m == null) {
+                Object regexValue = regex.get(record, accessor);
+                if (regexValue == null)
+                    return(false);
+                m = PatternCache.getShared().get(regexValue.toString(),
+                                                 flags);
+            }
+
+            return(m.find(object.toString()) != negate);
+        }
+    }
+
+
+    static class AnyCondition extends Condition {
+
+        final Elements elements;
+        final Condition condition;
+
+        AnyCondition(Elements elements, Condition condition) {
+            this.elements = elements;
+            this.condition = condition;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+
+            Iterable<?> iterable = elements.get(record, accessor);
+            if (iterable == null)
+                return(false);
+
+            for (Object element : iterable) {
+                if ((element != null) && condition.test(element, accessor))
+                    return(true);
+            }
+            return(false);
+        }
+    }
+
+
+    static class AllCondition extends Condition {
+
+        final Elements elements;
+        final Condition condition;
+
+        AllCondition(Elements elements, Condition condition) {
+            this.elements = elements;
+            this.condition = condition;
+        }
+
+        boolean test(Object record, RecordAccessor accessor) {
+
+            Iterable<?> iterable = elements.get(record, accessor);
+            if (iterable == null)
+                return(true);
+
+            for (Object element : iterable) {
+                if ((element == null) || !condition.test(element, accessor))
+                    return(false);
+            }
+            return(true);
+        }
+    }
+
+
+    /**
+     * A literal.  The kind says which primitive form of the value,
+     * if any, a comparison can use instead of the value itself:
+     *
+     *      LONG        longValue, (and doubleValue), of an Integer,
+     *                  Short, Long, or Byte
+     *      DOUBLE      doubleValue of a Double or Float that is not NaN
+     *      STRING      value, which is a String
+     *      TIME        longValue, the milliseconds since the epoch
+     *      OTHER       anything else, e.g. a Boolean, NaN, or null
+     */
+    static class LiteralValue extends Value {
+
+        static final int OTHER = 0;
+        static final int LONG = 1;
+        static final int DOUBLE = 2;
+        static final int STRING = 3;
+        static final int TIME = 4;
+
+        final Object value;
+        final int kind;
+        final long longValue;
+        final double doubleValue;
+
+        LiteralValue(Object value) {
+            this.value = value;
+
+            if ((value instanceof Number) && Values.isIntegral((Number)value)) {
+                kind = LONG;
+                longValue = ((Number)value).longValue();
+                doubleValue = (double)longValue;
+            }
+            else if (((value instanceof Double) || (value instanceof Float)) &&
+                     !Double.isNaN(((Number)value).doubleValue())) {
+                kind = DOUBLE;
+                longValue = 0;
+                doubleValue = ((Number)value).doubleValue();
+            }
+            else if (value instanceof String) {
+                kind = STRING;
+                longValue = 0;
+                doubleValue = 0;
+            }
+            else if (Values.isTime(value)) {
+                kind = TIME;
+                longValue = Values.getMillis(value);
+                doubleValue = 0;
+            }
+            else {
+                kind = OTHER;
+                longValue = 0;
+                doubleValue = 0;
+            }
+        }
+
+        private LiteralValue(Object value, int kind, long longValue,
+                             double doubleValue) {
+            this.value = value;
+            this.kind = kind;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+        }
+
+        /**
+         * Create the LiteralValue of the passed in expression, reading
+         * its value with the primitive getter for its kind.
+         */
+        static LiteralValue create(ILiteralValueExpression literal) {
+
+            switch (literal.getLiteralKind()) {
+                case INT32:
+                    int i = ((IInt32LiteralValueExpression)literal).
+                        getIntValue();
+                    return(new LiteralValue(Integer.valueOf(i), LONG, i, i));
+
+                case FLOAT64:
+                    double d = ((IFloat64LiteralValueExpression)literal).
+                        getDoubleValue();
+                    return(new LiteralValue(Double.valueOf(d),
+                        Double.isNaN(d) ? OTHER : DOUBLE, 0, d));
+
+                case TIME:
+                    ITimeLiteralValueExpression time =
+                        (ITimeLiteralValueExpression)literal;
+                    if (time.getZone() == null)
+                        return(new LiteralValue(null, OTHER, 0, 0));
+                    return(new LiteralValue(time.getTimeValue(), TIME,
+                                            time.getMillis(), 0));
+
+                default:
+                    return(new LiteralValue(literal.getValue()));
+            }
+        }
+
+        Object get(Object record, RecordAccessor accessor) {
+            return(value);
+        }
+    }
+
+
+    static class ThisValue extends Value {
+
+        Object get(Object record, RecordAccessor accessor) {
+            return(record);
+        }
+    }
+
+
+    static class AttributeValue extends Value {
+
+        final Value owner;
+        final String name;
+
+        AttributeValue(Value owner, String name) {
+            this.owner = owner;
+            this.name = name;
+        }
+
+        Object get(Object record, RecordAccessor accessor) {
+            Object ownerRecord = owner.get(record, accessor);
+            if (ownerRecord == null)
+                return(null);
+            return(accessor.getAttribute(ownerRecord, name));
+        }
+    }
+
+
+    static class ReferenceValue extends Value {
+
+        final Value owner;
+        final String name;
+
+        ReferenceValue(Value owner, String name) {
+            this.owner = owner;
+            this.name = name;
+        }
+
+        Object get(Object record, RecordAccessor accessor) {
+            Object ownerRecord = owner.get(record, accessor);
+            if (ownerRecord == null)
+                return(null);
+            return(accessor.getReference(ownerRecord, name));
+        }
+    }
+
+
+    /**
+     * The value of a key in a parameters map.  If type is not null,
+     * (i.e. there is an "as" operator), a value of some other type
+     * is treated as null.
+     */
+    static class ParameterValue extends Value {
+
+        final Value owner;
+        final String mapName;
+        final String key;
+        final Type type;
+
+        /**
+         * The ParameterMap key code of key.
+         */
+        final int keyCode;
+
+        ParameterValue(Value owner, String mapName, String key, Type type) {
+            this.owner = owner;
+            this.mapName = mapName;
+            this.key = key;
+            this.type = type;
+            keyCode = ParameterMap.getKeyCode(key);
+        }
+
+        Object get(Object record, RecordAccessor accessor) {
+
+            Object ownerRecord = owner.get(record, accessor);
+            if (ownerRecord == null)
+                return(null);
+
+            if (accessor instanceof ParameterMapAccessor) {
+                ParameterMap map = ((ParameterMapAccessor)accessor).
+                    getParameterMap(ownerRecord, mapName);
+                int slot = getSlot(map);
+                return((slot < 0) ? null : map.get(slot));
+            }
+
+            Object value = accessor.getParameter(ownerRecord, mapName, key);
+            if ((type != null) && !Values.isOfType(value, type))
+                return(null);
+            return(value);
+        }
+
+        /**
+         * Get the slot of our key in the passed in map, or -1 if the
+         * map is null, does not contain the key, or its value is not
+         * of our type.
+         */
+        int getSlot(ParameterMap map) {
+
+            if (map == null)
+                return(-1);
+            int slot = map.find(keyCode);
+            if ((slot >= 0) && (type != null) && !map.isOfType(slot, type))
+                return(-1);
+            return(slot);
+        }
+    }
+
+
+    /**
+     * The count() operator.  It stops counting at limit, (which is
+     * Integer.MAX_VALUE unless the count is compared with a literal),
+     * so count(epochs) > 5 only looks at six Epochs.
+     */
+    static class CountValue extends Value {
+
+        final Elements elements;
+        final int limit;
+
+        CountValue(Elements elements) {
+            this(elements, Integer.MAX_VALUE);
+        }
+
+        CountValue(Elements elements, int limit) {
+            this.elements = elements;
+            this.limit = limit;
+        }
+
+        Object get(Object record, RecordAccessor accessor) {
+
+            Iterable<?> iterable = elements.get(record, accessor);
+            if (iterable == null)
+                return(Integer.valueOf(0));
+
+            if (iterable instanceof Collection)
+                return(Integer.valueOf(((Collection)iterable).size()));
+
+            int count = 0;
+            Iterator<?> iterator = iterable.iterator();
+            while ((count < limit) && iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            return(Integer.valueOf(count));
+        }
+    }
+
+
+    static class ConditionValue extends Value {
+
+        final Condition condition;
+
+        ConditionValue(Condition condition) {
+            this.condition = condition;
+        }
+
+        Object get(Object record, RecordAccessor accessor) {
+            return(Boolean.valueOf(condition.test(record, accessor)));
+        }
+    }
+
+
+    static class CollectionElements extends Elements {
+
+        final Value owner;
+        final String name;
+
+        CollectionElements(Value owner, String name) {
+            this.owner = owner;
+            this.name = name;
+        }
+
+        Iterable<?> get(Object record, RecordAccessor accessor) {
+            Object ownerRecord = owner.get(record, accessor);
+            if (ownerRecord == null)
+                return(null);
+            return(accessor.getCollection(ownerRecord, name));
+        }
+    }
+
+
+    static class PerUserParameterElements extends Elements {
+
+        final Value owner;
+        final String mapName;
+        final String key;
+        final Type type;
+
+        PerUserParameterElements(Value owner, String mapName, String key,
+                                 Type type) {
+            this.owner = owner;
+            this.mapName = mapName;
+            this.key = key;
+            this.type = type;
+        }
+
+        Iterable<?> get(Object record, RecordAccessor accessor) {
+
+            Object ownerRecord = owner.get(record, accessor);
+            if (ownerRecord == null)
+                return(null);
+
+            Iterable<?> values = accessor.getPerUserParameters(ownerRecord,
+                                                               mapName, key);
+            if ((values == null) || (type == null))
+                return(values);
+            return(new TypeFilterIterable(values, type));
+        }
+    }
+
+
+    static class TypeFilterElements extends Elements {
+
+        final Elements elements;
+        final Type type;
+
+        TypeFilterElements(Elements elements, Type type) {
+            this.elements = elements;
+            this.type = type;
+        }
+
+        Iterable<?> get(Object record, RecordAccessor accessor) {
+            Iterable<?> values = elements.get(record, accessor);
+            if (values == null)
+                return(null);
+            return(new TypeFilterIterable(values, type));
+        }
+    }
+
+
+    /**
+     * An Iterable that only returns the values of the passed
+     * in Iterable that are of the passed in Type.
+     */
+    static class TypeFilterIterable implements Iterable<Object> {
+
+        final Iterable<?> values;
+        final Type type;
+
+        TypeFilterIterable(Iterable<?> values, Type type) {
+            this.values = values;
+            this.type = type;
+        }
+
+        public Iterator<Object> iterator() {
+
+            final Iterator<?> iterator = values.iterator();
+            return(new Iterator<Object>() {
+
+                private Object next = advance();
+
+                private Object advance() {
+                    while (iterator.hasNext()) {
+                        Object value = iterator.next();
+                        if (Values.isOfType(value, type))
+                            return(value);
+                    }
+                    return(null);
+                }
+
+                public boolean hasNext() {
+                    return(next != null);
+                }
+
+                public Object next() {
+                    if (next == null)
+                        throw(new NoSuchElementException());
+                    Object value = next;
+                    next = advance();
+                    return(value);
+                }
+            });
+        }
+    }
+}
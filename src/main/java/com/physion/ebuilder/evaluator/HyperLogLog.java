@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * This class estimates the number of distinct values it has been
+ * given, without remembering the values.  It is the HyperLogLog
+ * sketch of Flajolet et al.:  each value is hashed, the first
+ * "precision" bits of the hash pick one of 2^precision registers,
+ * and the register keeps the longest run of leading zeros seen in
+ * the rest of the hash.  The more distinct values, the longer the
+ * runs.
+ *
+ * With the default precision of 11 there are 2048 one byte registers,
+ * and the estimate is usually within 2.3% of the true count, however
+ * many values are added.  Small counts are estimated by counting the
+ * empty registers instead, which is close to exact.
+ *
+ * Two sketches of the same precision can be merged, and the result
+ * is exactly the sketch of all the values added to either one.  So
+ * the values can be counted in partitions, (e.g. by several threads),
+ * and the partitions merged afterwards.
+ *
+ * Numbers are hashed by value, the same way the ExpressionEvaluator
+ * compares them, so the Short 3, the Integer 3 and the Double 3.0
+ * are one distinct value.
+ *
+ * A HyperLogLog is not synchronized.
+ *
+ * Example of use:
+ *
+ *      HyperLogLog sketch = new HyperLogLog();
+ *      for (Epoch epoch : epochs)
+ *          sketch.add(epoch.getProtocolID());
+ *      long protocolCount = sketch.getEstimate();
+ *
+ * @see AttributeSummary
+ */
+public final class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 11;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final int precision;
+    private final byte[] registers;
+
+
+    /**
+     * Create an empty sketch with the DEFAULT_PRECISION.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+
+    /**
+     * Create an empty sketch with 2^precision registers.
+     *
+     * @throws IllegalArgumentException If precision is less than
+     * MIN_PRECISION or greater than MAX_PRECISION.
+     */
+    public HyperLogLog(int precision) {
+
+        if ((precision < MIN_PRECISION) || (precision > MAX_PRECISION)) {
+            throw(new IllegalArgumentException("precision must be from "+
+                MIN_PRECISION+" to "+MAX_PRECISION+", but it is "+
+                precision+"."));
+        }
+
+        this.precision = precision;
+        registers = new byte[1 << precision];
+    }
+
+
+    /**
+     * Get the number of bits of the hash that pick a register.
+     */
+    public int getPrecision() {
+        return(precision);
+    }
+
+
+    /**
+     * Add a string.  A null is ignored.
+     */
+    public void add(String value) {
+
+        if (value != null)
+            addHash(HASH_FUNCTION.hashUnencodedChars(value).asLong());
+    }
+
+
+    /**
+     * Add a number.  The number is hashed by its double value, so
+     * add(3) and add(3.0) add the same value.
+     */
+    public void add(double value) {
+
+        /**
+         * -0.0 == 0.0, but the bits are different.
+         */
+        if (value == 0.0)
+            value = 0.0;
+        addHash(HASH_FUNCTION.hashLong(Double.doubleToLongBits(value)).
+            asLong());
+    }
+
+
+    /**
+     * Add a value that has already been hashed to 64 well mixed bits.
+     */
+    public void addHash(long hash) {
+
+        int index = (int)(hash >>> (64-precision));
+
+        /**
+         * The 1 bit we OR in stops the count at 64-precision+1 if the
+         * rest of the hash is all zeros.
+         */
+        long rest = (hash << precision) | (1L << (precision-1));
+        byte rank = (byte)(Long.numberOfLeadingZeros(rest)+1);
+        if (registers[index] < rank)
+            registers[index] = rank;
+    }
+
+
+    /**
+     * Add all the values the passed in sketch has seen to this one.
+     *
+     * @throws IllegalArgumentException If the sketches do not have
+     * the same precision.
+     */
+    public void merge(HyperLogLog other) {
+
+        if (other.precision != precision) {
+            throw(new IllegalArgumentException("Cannot merge a sketch "+
+                "with precision "+other.precision+" into one with "+
+                "precision "+precision+"."));
+        }
+
+        for (int index = 0; index < registers.length; index++) {
+            if (registers[index] < other.registers[index])
+                registers[index] = other.registers[index];
+        }
+    }
+
+
+    /**
+     * Get the estimated number of distinct values that have been added.
+     */
+    public long getEstimate() {
+
+        int m = registers.length;
+        double sum = 0.0;
+        int emptyCount = 0;
+        for (byte register : registers) {
+            sum += 1.0/(1L << register);
+            if (register == 0)
+                emptyCount++;
+        }
+
+        double alpha;
+        if (m == 16)
+            alpha = 0.673;
+        else if (m == 32)
+            alpha = 0.697;
+        else if (m == 64)
+            alpha = 0.709;
+        else
+            alpha = 0.7213/(1.0+1.079/m);
+
+        double estimate = alpha*m*m/sum;
+
+        /**
+         * The raw estimate is biased for small counts, where
+         * "linear counting" of the empty registers does better.
+         * With 64 bit hashes, there is no need for the large range
+         * correction of the original paper.
+         */
+        if ((estimate <= 2.5*m) && (emptyCount > 0))
+            estimate = m*Math.log((double)m/emptyCount);
+
+        return(Math.round(estimate));
+    }
+
+
+    /**
+     * Write the sketch in the form read() reads.
+     */
+    public void write(DataOutput out)
+        throws IOException {
+
+        out.writeByte(precision);
+        out.write(registers);
+    }
+
+
+    /**
+     * Read a sketch written by write().
+     *
+     * @throws IOException If the input does not hold a sketch.
+     */
+    public static HyperLogLog read(DataInput in)
+        throws IOException {
+
+        int precision = in.readByte();
+        if ((precision < MIN_PRECISION) || (precision > MAX_PRECISION)) {
+            throw(new IOException("Invalid HyperLogLog precision: "+
+                                  precision));
+        }
+
+        HyperLogLog sketch = new HyperLogLog(precision);
+        in.readFully(sketch.registers);
+        return(sketch);
+    }
+
+
+    /**
+     * Return a copy of this sketch.
+     */
+    public HyperLogLog copy() {
+
+        HyperLogLog copy = new HyperLogLog(precision);
+        System.arraycopy(registers, 0, copy.registers, 0, registers.length);
+        return(copy);
+    }
+
+
+    @Override
+    public String toString() {
+        return("HyperLogLog("+getEstimate()+")");
+    }
+}
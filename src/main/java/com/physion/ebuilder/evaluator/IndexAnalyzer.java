@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.expression.BooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IClassLiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.translator.Translator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class splits a query into the part that the available indexes
+ * can answer, and the residual part that has to be tested against
+ * each record the indexes return.  The result is an IndexPlan.
+ *
+ * An index is on an attribute path of the records of one class, e.g.
+ * protocolID of Epoch, or the epochGroup.label of Epoch.  An ordered
+ * index, (e.g. a B-tree, or a SortedColumnIndex), answers ==, <, >,
+ * <=, and >= with a literal.  An index that is not ordered, (e.g. a
+ * hash table), only answers ==.
+ *
+ * Only the conditions that every selected record must satisfy can be
+ * answered by an index.  Those are the operands of the "and" at the
+ * root of the tree, (and of any "and" among them), or the root itself
+ * if it is a comparison.  A condition inside an "or" or a "not" is not
+ * answered by an index, because the records that do not satisfy it
+ * may still be selected.  E.g. not(startTime < t) is true for the
+ * Epochs with no startTime, which are not in an index.  A condition
+ * inside an "any", "all", or "count" is about the elements of a
+ * collection, not about the record, so it is not answered by an index
+ * either, and neither is a path through a to-many attribute.
+ *
+ * Several conditions on the same attribute path are answered by one
+ * Scan of its index, e.g. startTime >= t1 and startTime < t2 is the
+ * range [t1, t2).  The conditions an index answers are removed from
+ * the residual.  A BOOLEAN attribute used as a condition on its own is
+ * answered like attribute == true.
+ *
+ * Normalize the tree first, so nested "and" operators are flattened,
+ * and "not" is pushed down as far as it can be.
+ *
+ * Example of use:
+ *
+ *      IndexAnalyzer analyzer = new IndexAnalyzer();
+ *      analyzer.addIndex("Epoch", "protocolID", false);
+ *      analyzer.addIndex("Epoch", "startTime", true);
+ *      analyzer.addIndex("Epoch", "epochGroup.label", true);
+ *      IndexPlan plan = analyzer.analyze(
+ *          new ExpressionNormalizer().normalize(tree));
+ *      System.out.println(plan);
+ *
+ * @see IndexPlan
+ */
+public class IndexAnalyzer
+    implements Translator {
+
+    /**
+     * The indexes, by class name and attribute path.  The value is
+     * true if the index is ordered.
+     */
+    private final Map<String,Map<String,Boolean>> indexes =
+        new HashMap<String,Map<String,Boolean>>();
+
+
+    /**
+     * Tell the analyzer that there is an index on the passed in
+     * attribute path of the records of the passed in class.  If there
+     * already is one, it is replaced.
+     *
+     * @param attributePath The attribute names, separated by dots.
+     * E.g. "protocolID", or "epochGroup.label".
+     *
+     * @param ordered True if the index answers ranges, (<, >, <=, >=),
+     * as well as ==.
+     *
+     * @throws IllegalArgumentException If the class name or the
+     * attribute path is null or empty.
+     */
+    public void addIndex(String className, String attributePath,
+                         boolean ordered) {
+
+        if ((className == null) || className.isEmpty())
+            throw(new IllegalArgumentException("className is empty."));
+        if ((attributePath == null) || attributePath.isEmpty())
+            throw(new IllegalArgumentException("attributePath is empty."));
+
+        Map<String,Boolean> classIndexes = indexes.get(className);
+        if (classIndexes == null) {
+            classIndexes = new HashMap<String,Boolean>();
+            indexes.put(className, classIndexes);
+        }
+        classIndexes.put(attributePath, Boolean.valueOf(ordered));
+    }
+
+
+    /**
+     * Returns true if there is an index on the passed in attribute
+     * path of the records of the passed in class.
+     */
+    public boolean hasIndex(String className, String attributePath) {
+
+        Map<String,Boolean> classIndexes = indexes.get(className);
+        return((classIndexes != null) &&
+               classIndexes.containsKey(attributePath));
+    }
+
+
+    /**
+     * Split the passed in ExpressionTree into the index Scans that
+     * find the candidate records, and the residual tree the candidates
+     * are tested with.  The passed in tree is not changed.  If no
+     * index can be used, the residual is the passed in tree.
+     */
+    public IndexPlan analyze(ExpressionTree expressionTree) {
+
+        String cuq = expressionTree.getClassUnderQualification();
+        IExpression root = expressionTree.getRootExpression();
+        Map<String,Boolean> classIndexes = indexes.get(cuq);
+        if ((root == null) || (classIndexes == null)) {
+            return(new IndexPlan(cuq, Collections.<IndexPlan.Scan>emptyList(),
+                                 (root == null) ? null : expressionTree));
+        }
+
+        ClassDescription classDescription = DataModel.getClassDescription(
+            cuq);
+
+        List<IExpression> conjuncts = new ArrayList<IExpression>();
+        addConjuncts(root, conjuncts);
+
+        Map<String,Range> ranges = new LinkedHashMap<String,Range>();
+        List<IExpression> residual = new ArrayList<IExpression>();
+        for (IExpression conjunct : conjuncts) {
+            if (!addToRange(conjunct, classDescription, classIndexes,
+                            ranges))
+                residual.add(conjunct);
+        }
+
+        if (ranges.isEmpty()) {
+            return(new IndexPlan(cuq, Collections.<IndexPlan.Scan>emptyList(),
+                                 expressionTree));
+        }
+
+        List<IndexPlan.Scan> scans = new ArrayList<IndexPlan.Scan>();
+        for (Map.Entry<String,Range> entry : ranges.entrySet())
+            scans.add(entry.getValue().toScan(entry.getKey()));
+
+        ExpressionTree residualTree = null;
+        if ((residual.size() == 1) &&
+            (residual.get(0) instanceof IOperatorExpression)) {
+            residualTree = new ExpressionTree(cuq,
+                (IOperatorExpression)residual.get(0));
+        }
+        else if (!residual.isEmpty()) {
+            residualTree = new ExpressionTree(cuq,
+                new OperatorExpression(OE_AND, residual));
+        }
+        return(new IndexPlan(cuq, scans, residualTree));
+    }
+
+
+    /**
+     * Add the conditions that must all be true for the passed in
+     * condition to be true to the passed in list.  I.e. the operands
+     * of an "and", or the condition itself.
+     */
+    private static void addConjuncts(IExpression ex,
+                                     List<IExpression> conjuncts) {
+
+        if (ExpressionEvaluator.isOperator(ex, OE_AND) &&
+            !((IOperatorExpression)ex).getOperandList().isEmpty()) {
+            for (IExpression operand :
+                 ((IOperatorExpression)ex).getOperandList())
+                addConjuncts(operand, conjuncts);
+        }
+        else {
+            conjuncts.add(ex);
+        }
+    }
+
+
+    /**
+     * If an index can answer the passed in condition, add it to the
+     * Range of its attribute path and return true.  Otherwise, return
+     * false.
+     */
+    private static boolean addToRange(IExpression ex,
+                                      ClassDescription classDescription,
+                                      Map<String,Boolean> classIndexes,
+                                      Map<String,Range> ranges) {
+
+        IExpression attribute;
+        Operator operator;
+        ILiteralValueExpression literal;
+
+        if ((ex instanceof IAttributeExpression) ||
+            ExpressionEvaluator.isOperator(ex, OE_DOT)) {
+            /**
+             * A BOOLEAN attribute used as a condition on its own.
+             */
+            attribute = ex;
+            operator = Operator.EQUALS;
+            literal = new BooleanLiteralValueExpression(Boolean.TRUE);
+        }
+        else if (ex instanceof IOperatorExpression) {
+            IOperatorExpression oe = (IOperatorExpression)ex;
+            operator = ExpressionEvaluator.getOperator(oe.getOperatorName());
+            if ((operator == null) || (oe.getOperandList().size() != 2))
+                return(false);
+
+            attribute = oe.getOperandList().get(0);
+            IExpression value = oe.getOperandList().get(1);
+            if (attribute instanceof ILiteralValueExpression) {
+                attribute = value;
+                value = oe.getOperandList().get(0);
+                operator = ExpressionEvaluator.flip(operator);
+            }
+            if (!(value instanceof ILiteralValueExpression) ||
+                (value instanceof IClassLiteralValueExpression))
+                return(false);
+            literal = (ILiteralValueExpression)value;
+        }
+        else {
+            return(false);
+        }
+
+        String path = getAttributePath(attribute, classDescription);
+        if ((path == null) || !classIndexes.containsKey(path))
+            return(false);
+
+        switch (operator) {
+            case EQUALS:
+                break;
+            case LESS_THAN:
+            case GREATER_THAN:
+            case LESS_THAN_EQUALS:
+            case GREATER_THAN_EQUALS:
+                if (!classIndexes.get(path).booleanValue())
+                    return(false);
+                break;
+            default:
+                return(false);
+        }
+
+        Range range = ranges.get(path);
+        if (range == null)
+            range = new Range();
+        if (!range.add(operator, literal, ex))
+            return(false);
+        ranges.put(path, range);
+        return(true);
+    }
+
+
+    /**
+     * Get the attribute path an index would be on, e.g.
+     * "epochGroup.label" for .(epochGroup, label), or null if the
+     * passed in expression is not a path of attribute names.  If we
+     * know the class of the record, a path through a to-many
+     * attribute is not an attribute path either.
+     */
+    private static String getAttributePath(IExpression ex,
+        ClassDescription classDescription) {
+
+        if (ex instanceof IAttributeExpression) {
+            String name = ((IAttributeExpression)ex).getAttributeName();
+            if ((name == null) || AE_THIS.equals(name))
+                return(null);
+            if (classDescription != null) {
+                Attribute attribute = classDescription.getAttribute(name);
+                if ((attribute == null) ||
+                    (attribute.getCardinality() == Cardinality.TO_MANY))
+                    return(null);
+            }
+            return(name);
+        }
+        else if (ExpressionEvaluator.isOperator(ex, OE_DOT)) {
+            List<IExpression> operands =
+                ((IOperatorExpression)ex).getOperandList();
+            if ((operands.size() != 2) ||
+                !(operands.get(1) instanceof IAttributeExpression))
+                return(null);
+
+            String owner = getAttributePath(operands.get(0), classDescription);
+            if (owner == null)
+                return(null);
+            String name = getAttributePath(operands.get(1),
+                (classDescription == null) ? null :
+                ExpressionEvaluator.getPathClass(operands.get(0),
+                                                 classDescription));
+            if (name == null)
+                return(null);
+            return(owner+"."+name);
+        }
+        return(null);
+    }
+
+
+    /**
+     * The range of values that the conditions on one attribute path
+     * allow, and the conditions.
+     */
+    private static class Range {
+
+        ILiteralValueExpression low;
+        boolean lowInclusive;
+        ILiteralValueExpression high;
+        boolean highInclusive;
+        List<IExpression> conditions = new ArrayList<IExpression>();
+
+
+        /**
+         * Narrow the range to the values that satisfy "value operator
+         * literal".  Returns false, and leaves the range as it was,
+         * if the literal can't be compared with the ends of the range.
+         */
+        boolean add(Operator operator, ILiteralValueExpression literal,
+                    IExpression condition) {
+
+            Object value = literal.getValue();
+            if ((value == null) ||
+                (Values.compare(value, value) == Values.INCOMPARABLE))
+                return(false);
+            if ((low != null) && (Values.compare(value, low.getValue()) ==
+                                  Values.INCOMPARABLE))
+                return(false);
+            if ((high != null) && (Values.compare(value, high.getValue()) ==
+                                   Values.INCOMPARABLE))
+                return(false);
+
+            switch (operator) {
+                case EQUALS:
+                    narrowLow(literal, true);
+                    narrowHigh(literal, true);
+                    break;
+                case GREATER_THAN:
+                    narrowLow(literal, false);
+                    break;
+                case GREATER_THAN_EQUALS:
+                    narrowLow(literal, true);
+                    break;
+                case LESS_THAN:
+                    narrowHigh(literal, false);
+                    break;
+                case LESS_THAN_EQUALS:
+                    narrowHigh(literal, true);
+                    break;
+                default:
+                    return(false);
+            }
+            conditions.add(condition);
+            return(true);
+        }
+
+
+        private void narrowLow(ILiteralValueExpression literal,
+                               boolean inclusive) {
+
+            int result = (low == null) ? 1 :
+                Values.compare(literal.getValue(), low.getValue());
+            if ((result > 0) || ((result == 0) && !inclusive)) {
+                low = literal;
+                lowInclusive = inclusive;
+            }
+        }
+
+
+        private void narrowHigh(ILiteralValueExpression literal,
+                                boolean inclusive) {
+
+            int result = (high == null) ? -1 :
+                Values.compare(literal.getValue(), high.getValue());
+            if ((result < 0) || ((result == 0) && !inclusive)) {
+                high = literal;
+                highInclusive = inclusive;
+            }
+        }
+
+
+        IndexPlan.Scan toScan(String attributePath) {
+            return(new IndexPlan.Scan(attributePath, low, lowInclusive,
+                                      high, highInclusive, conditions));
+        }
+    }
+}
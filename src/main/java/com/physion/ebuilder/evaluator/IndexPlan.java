@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.translator.ExpressionTreeToPQL;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The physical plan of a query, as the IndexAnalyzer produces it.
+ * The records that satisfy the query are found in two steps:
+ *
+ *      1.  Look up each Scan in the index of its attribute path, and
+ *          intersect the records the lookups return.  These are the
+ *          candidates.  If there are no Scans, every record of the
+ *          class under qualification is a candidate.
+ *
+ *      2.  Test the residual ExpressionTree against each candidate.
+ *          If there is no residual, every candidate satisfies the
+ *          query.
+ *
+ * A Scan selects the records whose value of an attribute path is in
+ * a range, (an equality is a range with low == high), compared the
+ * way the ExpressionEvaluator compares values.  A record whose path
+ * value is null, (e.g. the Epoch has no epochGroup), is never in a
+ * Scan.  If the conditions of a Scan contradict each other, (e.g.
+ * startTime < t1 and startTime > t2 with t1 < t2), the Scan is empty,
+ * and so is the result of the query.
+ *
+ * An IndexPlan is never changed after it is created.
+ *
+ * Example of use:
+ *
+ *      IndexPlan plan = analyzer.analyze(tree);
+ *      Set<Epoch> candidates = allEpochs;
+ *      for (IndexPlan.Scan scan : plan.getScans())
+ *          candidates.retainAll(myIndexes.lookup(scan));
+ *      if (plan.getResidual() != null) {
+ *          ExpressionEvaluator residual = new ExpressionEvaluator(
+ *              plan.getResidual());
+ *          ...
+ *      }
+ *
+ * @see IndexAnalyzer
+ */
+public final class IndexPlan {
+
+    private final String classUnderQualification;
+    private final List<Scan> scans;
+    private final ExpressionTree residual;
+
+
+    IndexPlan(String classUnderQualification, List<Scan> scans,
+              ExpressionTree residual) {
+
+        this.classUnderQualification = classUnderQualification;
+        this.scans = Collections.unmodifiableList(new ArrayList<Scan>(scans));
+        this.residual = residual;
+    }
+
+
+    /**
+     * Get the name of the class whose records the plan selects.
+     */
+    public String getClassUnderQualification() {
+        return(classUnderQualification);
+    }
+
+
+    /**
+     * Get the index lookups, in the order the conditions they answer
+     * appear in the query.  The list can't be changed.
+     */
+    public List<Scan> getScans() {
+        return(scans);
+    }
+
+
+    /**
+     * Get the part of the query that the indexes can't answer, or
+     * null if they answer all of it.
+     */
+    public ExpressionTree getResidual() {
+        return(residual);
+    }
+
+
+    /**
+     * Returns true if no index can be used, so every record of the
+     * class under qualification has to be tested.
+     */
+    public boolean isFullScan() {
+        return(scans.isEmpty());
+    }
+
+
+    /**
+     * Returns true if one of the Scans is empty, so no record
+     * satisfies the query.
+     */
+    public boolean isEmpty() {
+
+        for (Scan scan : scans) {
+            if (scan.isEmpty())
+                return(true);
+        }
+        return(false);
+    }
+
+
+    /**
+     * Returns the plan, one step per line.  E.g.:
+     *
+     *      index Epoch.protocolID == "p3"
+     *      index Epoch.startTime >= #"2011-01-01T00:00:00.000Z[UTC]"
+     *      filter any(responses, units == "mV")
+     */
+    @Override
+    public String toString() {
+
+        StringBuilder s = new StringBuilder();
+        if (scans.isEmpty())
+            s.append("scan ").append(classUnderQualification).append('\n');
+        for (Scan scan : scans) {
+            s.append("index ").append(classUnderQualification).append('.').
+                append(scan).append('\n');
+        }
+        if (residual != null) {
+            s.append("filter ").append(ExpressionTreeToPQL.translate(
+                residual)).append('\n');
+        }
+        return(s.toString());
+    }
+
+
+    /**
+     * One index lookup:  the records whose value of an attribute path
+     * is in a range.  The low and high ends of the range are values of
+     * the kind the ExpressionEvaluator compares, (e.g. a String, an
+     * Integer, a Double, or a DateTime), or null if the range has no
+     * low or high end.
+     */
+    public static final class Scan {
+
+        private final String attributePath;
+        private final ILiteralValueExpression lowLiteral;
+        private final Object low;
+        private final boolean lowInclusive;
+        private final ILiteralValueExpression highLiteral;
+        private final Object high;
+        private final boolean highInclusive;
+        private final List<IExpression> conditions;
+
+
+        /**
+         * @param lowLiteral The literal of the low end of the range,
+         * or null if it has none.
+         *
+         * @param highLiteral The literal of the high end of the range,
+         * or null if it has none.
+         */
+        Scan(String attributePath, ILiteralValueExpression lowLiteral,
+             boolean lowInclusive, ILiteralValueExpression highLiteral,
+             boolean highInclusive, List<IExpression> conditions) {
+
+            this.attributePath = attributePath;
+            this.lowLiteral = lowLiteral;
+            this.low = (lowLiteral == null) ? null : lowLiteral.getValue();
+            this.lowInclusive = lowInclusive;
+            this.highLiteral = highLiteral;
+            this.high = (highLiteral == null) ? null : highLiteral.getValue();
+            this.highInclusive = highInclusive;
+            this.conditions = Collections.unmodifiableList(
+                new ArrayList<IExpression>(conditions));
+        }
+
+
+        /**
+         * Get the attribute path the index is on, with the attribute
+         * names separated by dots.  E.g. "protocolID", or
+         * "epochGroup.label".
+         */
+        public String getAttributePath() {
+            return(attributePath);
+        }
+
+
+        /**
+         * Get the low end of the range, or null if it has none.
+         */
+        public Object getLow() {
+            return(low);
+        }
+
+
+        public boolean isLowInclusive() {
+            return(lowInclusive);
+        }
+
+
+        /**
+         * Get the high end of the range, or null if it has none.
+         */
+        public Object getHigh() {
+            return(high);
+        }
+
+
+        public boolean isHighInclusive() {
+            return(highInclusive);
+        }
+
+
+        /**
+         * Returns true if the Scan selects the records whose value
+         * equals getLow().
+         */
+        public boolean isEquality() {
+
+            return((low != null) && (high != null) && lowInclusive &&
+                   highInclusive && (Values.compare(low, high) == 0));
+        }
+
+
+        /**
+         * Returns true if no value is in the range.
+         */
+        public boolean isEmpty() {
+
+            if ((low == null) || (high == null))
+                return(false);
+
+            int result = Values.compare(low, high);
+            return((result > 0) ||
+                   ((result == 0) && !(lowInclusive && highInclusive)));
+        }
+
+
+        /**
+         * Returns true if the passed in value of the attribute path is
+         * in the range.  A null is not in any range.
+         */
+        public boolean contains(Object value) {
+
+            if (value == null)
+                return(false);
+            if (low != null) {
+                int result = Values.compare(value, low);
+                if ((result == Values.INCOMPARABLE) || (result < 0) ||
+                    ((result == 0) && !lowInclusive))
+                    return(false);
+            }
+            if (high != null) {
+                int result = Values.compare(value, high);
+                if ((result == Values.INCOMPARABLE) || (result > 0) ||
+                    ((result == 0) && !highInclusive))
+                    return(false);
+            }
+            return(true);
+        }
+
+
+        /**
+         * Get the conditions of the query that the Scan answers.
+         * The list can't be changed.
+         */
+        public List<IExpression> getConditions() {
+            return(conditions);
+        }
+
+
+        /**
+         * Returns the Scan in PQL-like form.  E.g. protocolID == "p3",
+         * or startTime in [#"...", #"...").
+         */
+        @Override
+        public String toString() {
+
+            if (isEquality())
+                return(attributePath+" == "+format(lowLiteral));
+            else if (highLiteral == null)
+                return(attributePath+(lowInclusive ? " >= " : " > ")+
+                       format(lowLiteral));
+            else if (lowLiteral == null)
+                return(attributePath+(highInclusive ? " <= " : " < ")+
+                       format(highLiteral));
+
+            return(attributePath+" in "+(lowInclusive ? "[" : "(")+
+                   format(lowLiteral)+", "+format(highLiteral)+
+                   (highInclusive ? "]" : ")"));
+        }
+
+
+        private static String format(ILiteralValueExpression literal) {
+            return(ExpressionTreeToPQL.translate(literal));
+        }
+    }
+}
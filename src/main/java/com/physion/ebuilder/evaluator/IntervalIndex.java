@@ -0,0 +1,405 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * This class finds the intervals that contain a value.  E.g. which of
+ * the saved queries "startTime >= t1 and startTime < t2",
+ * "startTime > t3", "sampleRate <= 10000" does a new Epoch satisfy.
+ *
+ * Each interval has a low and a high end, each of which may be
+ * inclusive or exclusive.  A one sided range, (e.g. x > 5), is an
+ * interval whose other end is infinite.  The ends are doubles, which
+ * hold every Int32 and Float64 value exactly, and every time, (as
+ * milliseconds since the epoch), for the next 280,000 years.
+ *
+ * The intervals are kept in a "centered" interval tree.  Each node of
+ * the tree has a center value, the intervals that contain the center,
+ * sorted by their low ends and by their high ends, and two subtrees:
+ * the intervals that are entirely below the center, and the ones that
+ * are entirely above it.  The center is the median of the ends, so the
+ * tree is O(log n) deep.  Finding the intervals that contain v visits
+ * one node per level, and at each node, only looks at intervals that
+ * contain v, plus one that doesn't, so it takes O(log n + k) time,
+ * where k is the number of intervals that contain v.
+ *
+ * An IntervalIndex is never changed after it is built, so any number
+ * of threads can use it at once without a lock.  Use a Builder to
+ * create one.  Building takes O(n log n) time.
+ *
+ * Example of use:
+ *
+ *      IntervalIndex.Builder<Query> builder =
+ *          new IntervalIndex.Builder<Query>();
+ *      builder.add(10, true, 20, false, query1);       // [10, 20)
+ *      builder.add(5, false, Double.POSITIVE_INFINITY, false, query2);
+ *      IntervalIndex<Query> index = builder.build();
+ *      List<Query> queries = index.find(12);           // query1, query2
+ *
+ * @param <T> The type of the values the intervals belong to.
+ *
+ * @see SortedColumnIndex
+ */
+public final class IntervalIndex<T> {
+
+    private static final Comparator<Interval<?>> BY_LOW =
+        new Comparator<Interval<?>>() {
+            @Override
+            public int compare(Interval<?> a, Interval<?> b) {
+                int result = Double.compare(a.low, b.low);
+                if (result == 0)
+                    result = Boolean.compare(b.lowInclusive, a.lowInclusive);
+                return(result);
+            }
+        };
+
+    private static final Comparator<Interval<?>> BY_HIGH_DESCENDING =
+        new Comparator<Interval<?>>() {
+            @Override
+            public int compare(Interval<?> a, Interval<?> b) {
+                int result = Double.compare(b.high, a.high);
+                if (result == 0)
+                    result = Boolean.compare(b.highInclusive,
+                                             a.highInclusive);
+                return(result);
+            }
+        };
+
+    private final Node<T> root;
+    private final List<Interval<T>> intervals;
+
+
+    private IntervalIndex(List<Interval<T>> intervals) {
+        this.intervals = intervals;
+        this.root = build(intervals);
+    }
+
+
+    /**
+     * Get the number of intervals in the index.
+     */
+    public int size() {
+        return(intervals.size());
+    }
+
+
+    /**
+     * Get the values of the intervals that contain the passed in value.
+     * The values are not in any particular order.
+     */
+    public List<T> find(double value) {
+
+        List<T> values = new ArrayList<T>();
+        find(value, values);
+        return(values);
+    }
+
+
+    /**
+     * Add the values of the intervals that contain the passed in value
+     * to the passed in collection.  A NaN is not in any interval.
+     */
+    public void find(double value, Collection<? super T> values) {
+
+        if (Double.isNaN(value))
+            return;
+
+        Node<T> node = root;
+        while (node != null) {
+
+            if (value < node.center) {
+                /**
+                 * Every interval here contains the center, which is
+                 * above value, so the interval contains value if its
+                 * low end does.
+                 */
+                for (Interval<T> interval : node.byLow) {
+                    if (!interval.isAboveLow(value))
+                        break;
+                    values.add(interval.value);
+                }
+                node = node.below;
+            }
+            else if (value > node.center) {
+                for (Interval<T> interval : node.byHighDescending) {
+                    if (!interval.isBelowHigh(value))
+                        break;
+                    values.add(interval.value);
+                }
+                node = node.above;
+            }
+            else {
+                for (Interval<T> interval : node.byLow)
+                    values.add(interval.value);
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Return a Builder that has all of the intervals in this index,
+     * so a new index can be built with a few more, (or fewer).
+     */
+    public Builder<T> toBuilder() {
+
+        Builder<T> builder = new Builder<T>();
+        builder.intervals.addAll(intervals);
+        return(builder);
+    }
+
+
+    private static <T> Node<T> build(List<Interval<T>> intervals) {
+
+        if (intervals.isEmpty())
+            return(null);
+
+        /**
+         * The center is the median of the finite ends.  If every end
+         * is infinite, any center will do.
+         */
+        double[] ends = new double[intervals.size()*2];
+        int count = 0;
+        for (Interval<T> interval : intervals) {
+            if (!Double.isInfinite(interval.low))
+                ends[count++] = interval.low;
+            if (!Double.isInfinite(interval.high))
+                ends[count++] = interval.high;
+        }
+        double center = 0;
+        if (count > 0) {
+            Arrays.sort(ends, 0, count);
+            center = ends[count/2];
+        }
+
+        List<Interval<T>> below = new ArrayList<Interval<T>>();
+        List<Interval<T>> above = new ArrayList<Interval<T>>();
+        List<Interval<T>> here = new ArrayList<Interval<T>>();
+        split(intervals, center, below, above, here);
+
+        /**
+         * If no interval contains the median, (e.g. the only interval
+         * is [1, 2), and the median is 2), use a value that one of
+         * them does contain, so each level of the tree holds at least
+         * one interval.  An interval that does not contain any value,
+         * (e.g. (5, 5)), is left out.
+         */
+        if (here.isEmpty()) {
+            center = Double.NaN;
+            for (Interval<T> interval : intervals) {
+                center = interval.getContainedValue();
+                if (!Double.isNaN(center))
+                    break;
+            }
+            if (Double.isNaN(center))
+                return(null);
+
+            below.clear();
+            above.clear();
+            split(intervals, center, below, above, here);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Interval<T>[] byLow = here.toArray(new Interval[here.size()]);
+        Interval<T>[] byHigh = byLow.clone();
+        Arrays.sort(byLow, BY_LOW);
+        Arrays.sort(byHigh, BY_HIGH_DESCENDING);
+
+        return(new Node<T>(center, byLow, byHigh, build(below),
+                           build(above)));
+    }
+
+
+    /**
+     * Put each interval in one of the three lists.  An interval that
+     * does not contain anything might end up in below or above.
+     */
+    private static <T> void split(List<Interval<T>> intervals, double center,
+                                  List<Interval<T>> below,
+                                  List<Interval<T>> above,
+                                  List<Interval<T>> here) {
+
+        for (Interval<T> interval : intervals) {
+            if (!interval.isBelowHigh(center))
+                below.add(interval);
+            else if (!interval.isAboveLow(center))
+                above.add(interval);
+            else
+                here.add(interval);
+        }
+    }
+
+
+    /**
+     * Used to create an IntervalIndex.  A Builder is not thread safe.
+     */
+    public static class Builder<T> {
+
+        private List<Interval<T>> intervals = new ArrayList<Interval<T>>();
+
+
+        /**
+         * Add an interval.
+         *
+         * @param low The low end.  Use Double.NEGATIVE_INFINITY if
+         * there is no low end.
+         *
+         * @param lowInclusive True if the interval contains its low end.
+         *
+         * @param high The high end.  Use Double.POSITIVE_INFINITY if
+         * there is no high end.
+         *
+         * @param highInclusive True if the interval contains its high
+         * end.
+         *
+         * @param value The value that find() returns for this interval.
+         */
+        public Builder<T> add(double low, boolean lowInclusive,
+                              double high, boolean highInclusive, T value) {
+
+            if (Double.isNaN(low) || Double.isNaN(high)) {
+                throw(new IllegalArgumentException(
+                    "The ends of an interval cannot be NaN."));
+            }
+            intervals.add(new Interval<T>(low, lowInclusive, high,
+                                          highInclusive, value));
+            return(this);
+        }
+
+
+        /**
+         * Remove every interval of the passed in value.
+         *
+         * @return The number of intervals that were removed.
+         */
+        public int remove(T value) {
+
+            int count = 0;
+            for (int index = intervals.size()-1; index >= 0; index--) {
+                if (intervals.get(index).value == value) {
+                    intervals.remove(index);
+                    count++;
+                }
+            }
+            return(count);
+        }
+
+
+        /**
+         * Remove every interval whose value is in the passed in
+         * collection.  This uses the collection's contains().
+         *
+         * @return The number of intervals that were removed.
+         */
+        public int removeAll(Collection<?> values) {
+
+            int count = 0;
+            for (int index = intervals.size()-1; index >= 0; index--) {
+                if (values.contains(intervals.get(index).value)) {
+                    intervals.remove(index);
+                    count++;
+                }
+            }
+            return(count);
+        }
+
+
+        public int size() {
+            return(intervals.size());
+        }
+
+
+        public IntervalIndex<T> build() {
+            return(new IntervalIndex<T>(new ArrayList<Interval<T>>(
+                intervals)));
+        }
+    }
+
+
+    private static class Interval<T> {
+
+        private final double low;
+        private final boolean lowInclusive;
+        private final double high;
+        private final boolean highInclusive;
+        private final T value;
+
+        private Interval(double low, boolean lowInclusive, double high,
+                         boolean highInclusive, T value) {
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.value = value;
+        }
+
+        /**
+         * Returns true if the passed in value is not below the low end.
+         */
+        private boolean isAboveLow(double v) {
+            return((v > low) || ((v == low) && lowInclusive));
+        }
+
+        /**
+         * Returns true if the passed in value is not above the high end.
+         */
+        private boolean isBelowHigh(double v) {
+            return((v < high) || ((v == high) && highInclusive));
+        }
+
+        private boolean contains(double v) {
+            return(isAboveLow(v) && isBelowHigh(v));
+        }
+
+        /**
+         * Get a value that this interval contains, or NaN if it does
+         * not contain any.  E.g. (1, Math.nextUp(1)) has no doubles
+         * in it.
+         */
+        private double getContainedValue() {
+
+            double[] tries = {low, high, Math.nextUp(low),
+                              Math.nextDown(high), low/2+high/2, 0};
+            for (double v : tries) {
+                if (contains(v))
+                    return(v);
+            }
+            return(Double.NaN);
+        }
+    }
+
+
+    private static class Node<T> {
+
+        private final double center;
+
+        /**
+         * The intervals that contain the center, sorted by their low
+         * ends, and by their high ends from the highest down.
+         */
+        private final Interval<T>[] byLow;
+        private final Interval<T>[] byHighDescending;
+
+        private final Node<T> below;
+        private final Node<T> above;
+
+        private Node(double center, Interval<T>[] byLow,
+                     Interval<T>[] byHighDescending, Node<T> below,
+                     Node<T> above) {
+            this.center = center;
+            this.byLow = byLow;
+            this.byHighDescending = byHighDescending;
+            this.below = below;
+            this.above = above;
+        }
+    }
+}
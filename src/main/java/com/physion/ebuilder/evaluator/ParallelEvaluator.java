@@ -0,0 +1,317 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.ExpressionTree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * This class evaluates an ExpressionTree against a large collection
+ * of records using several threads.  The collection is split in half,
+ * and the halves are split in half, and so on until the pieces are
+ * no bigger than the minimum partition size.  The pieces are then
+ * evaluated by the threads of a ForkJoinPool.
+ *
+ * The point of splitting the collection into many small pieces, rather
+ * than one piece per thread, is that some records cost much more to
+ * evaluate than others.  E.g. an Epoch with a thousand Responses takes
+ * much longer to test against "responses Any have ..." than an Epoch
+ * with one.  A thread that finishes its pieces early "steals" pieces
+ * that another thread has not gotten to yet, so all the threads stay
+ * busy until the end.
+ *
+ * Each piece writes its results into its own words of a bitmap,
+ * (the pieces are split on 64 record boundaries), so the threads do
+ * not need to synchronize, and the matches come out in the same
+ * order as the records went in.
+ *
+ * The records are tested by one ExpressionEvaluator, which is shared
+ * by all the threads.  The RecordAccessor must also be safe to call
+ * from several threads at once.
+ *
+ * Example of use:
+ *
+ *      ParallelEvaluator evaluator = new ParallelEvaluator(tree, 32, 1024);
+ *      List<Epoch> matches = evaluator.filter(epochs, accessor);
+ *      evaluator.shutdown();
+ *
+ * @see ExpressionEvaluator
+ */
+public class ParallelEvaluator {
+
+    /**
+     * The default minimum number of records in a partition.
+     * Smaller partitions spread the work more evenly, but each one
+     * costs a little to create and schedule.
+     */
+    public static final int DEFAULT_MINIMUM_PARTITION_SIZE = 1024;
+
+    private ExpressionEvaluator evaluator;
+    private ForkJoinPool pool;
+    private boolean ownsPool;
+    private int minimumPartitionSize;
+
+
+    /**
+     * Create a ParallelEvaluator that uses the common ForkJoinPool,
+     * (one thread per processor), and the default minimum partition
+     * size.
+     *
+     * @throws IllegalArgumentException If the ExpressionTree cannot be
+     * evaluated.  See ExpressionEvaluator.
+     */
+    public ParallelEvaluator(ExpressionTree expressionTree) {
+        this(new ExpressionEvaluator(expressionTree),
+             roundPartitionSize(DEFAULT_MINIMUM_PARTITION_SIZE),
+             ForkJoinPool.commonPool(), false);
+    }
+
+
+    /**
+     * Create a ParallelEvaluator with its own ForkJoinPool.  The
+     * ParallelEvaluator owns the pool, so call shutdown() when you
+     * are done with it, or the pool's threads are left running.
+     *
+     * @param parallelism The number of threads to use.
+     *
+     * @param minimumPartitionSize The smallest number of records that
+     * are split off into a separate task.  This is rounded up to a
+     * multiple of 64.
+     *
+     * @throws IllegalArgumentException If the ExpressionTree cannot be
+     * evaluated, or parallelism or minimumPartitionSize is less than 1.
+     */
+    public ParallelEvaluator(ExpressionTree expressionTree, int parallelism,
+                             int minimumPartitionSize) {
+        this(new ExpressionEvaluator(expressionTree),
+             roundPartitionSize(minimumPartitionSize),
+             createPool(parallelism), true);
+    }
+
+
+    /**
+     * Create a ParallelEvaluator that uses the passed in evaluator
+     * and ForkJoinPool.  The pool belongs to the caller, and is not
+     * shut down by shutdown().
+     *
+     * @throws IllegalArgumentException If minimumPartitionSize is
+     * less than 1.
+     */
+    public ParallelEvaluator(ExpressionEvaluator evaluator,
+                             ForkJoinPool pool, int minimumPartitionSize) {
+        this(evaluator, roundPartitionSize(minimumPartitionSize), pool,
+             false);
+    }
+
+
+    /**
+     * The arguments are in this order so that a bad partition size
+     * is caught before createPool() starts any threads.
+     */
+    private ParallelEvaluator(ExpressionEvaluator evaluator,
+                              int minimumPartitionSize, ForkJoinPool pool,
+                              boolean ownsPool) {
+
+        if ((evaluator == null) || (pool == null)) {
+            throw(new IllegalArgumentException(
+                "evaluator and pool may not be null."));
+        }
+
+        this.evaluator = evaluator;
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.minimumPartitionSize = minimumPartitionSize;
+    }
+
+
+    private static ForkJoinPool createPool(int parallelism) {
+
+        if (parallelism < 1) {
+            throw(new IllegalArgumentException(
+                "parallelism must be at least 1."));
+        }
+        return(new ForkJoinPool(parallelism));
+    }
+
+
+    /**
+     * Round the minimum partition size up to a multiple of 64.
+     * A size within 63 of Integer.MAX_VALUE is clamped first, so that
+     * the rounding does not overflow into a negative size, which
+     * would split the records forever.
+     */
+    private static int roundPartitionSize(int minimumPartitionSize) {
+
+        if (minimumPartitionSize < 1) {
+            throw(new IllegalArgumentException(
+                "minimumPartitionSize must be at least 1."));
+        }
+
+        int size = Math.min(minimumPartitionSize, Integer.MAX_VALUE-63);
+        return((size+63) & ~63);
+    }
+
+
+    /**
+     * Shut down the ForkJoinPool, if this ParallelEvaluator created
+     * it.  The common pool, or a pool passed in to the constructor,
+     * belongs to the caller and is left running.  After shutdown(),
+     * an evaluator that owned its pool cannot evaluate any more
+     * records.
+     */
+    public void shutdown() {
+
+        if (ownsPool)
+            pool.shutdown();
+    }
+
+
+    /**
+     * Get the ExpressionEvaluator that tests the records.
+     */
+    public ExpressionEvaluator getExpressionEvaluator() {
+        return(evaluator);
+    }
+
+
+    /**
+     * Get the number of threads the evaluation is spread over.
+     */
+    public int getParallelism() {
+        return(pool.getParallelism());
+    }
+
+
+    /**
+     * Get the minimum partition size, rounded up to a multiple of 64.
+     */
+    public int getMinimumPartitionSize() {
+        return(minimumPartitionSize);
+    }
+
+
+    /**
+     * Evaluate the ExpressionTree against every record in the passed
+     * in collection.
+     *
+     * @return A bitmap with the bit set for every record that satisfies
+     * the ExpressionTree, in the order of the collection's iterator.
+     * See ColumnBatch.getBit().
+     */
+    public long[] select(Collection<?> records, RecordAccessor accessor) {
+        return(select(records.toArray(), accessor));
+    }
+
+
+    /**
+     * Returns the records in the passed in collection that satisfy
+     * the ExpressionTree, in the order of the collection's iterator.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> filter(Collection<T> records,
+                              RecordAccessor accessor) {
+
+        Object[] array = records.toArray();
+        long[] selected = select(array, accessor);
+
+        List<T> matches = new ArrayList<T>(ColumnBatch.getCardinality(
+            selected));
+        for (int word = 0; word < selected.length; word++) {
+            for (long bits = selected[word]; bits != 0; bits &= bits-1) {
+                matches.add((T)array[(word << 6)+
+                                     Long.numberOfTrailingZeros(bits)]);
+            }
+        }
+        return(matches);
+    }
+
+
+    /**
+     * Returns the number of records in the passed in collection that
+     * satisfy the ExpressionTree.
+     */
+    public int count(Collection<?> records, RecordAccessor accessor) {
+        return(ColumnBatch.getCardinality(select(records, accessor)));
+    }
+
+
+    private long[] select(Object[] records, RecordAccessor accessor) {
+
+        long[] selected = ColumnBatch.createBitmap(records.length);
+        if (records.length > 0) {
+            pool.invoke(new EvaluateTask(records, 0, records.length,
+                                         accessor, selected));
+        }
+        return(selected);
+    }
+
+
+    /**
+     * Evaluate the records from start up to, (but not including), end.
+     * start is always a multiple of 64, so no two tasks write to the
+     * same word of the bitmap.
+     */
+    private class EvaluateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] records;
+        private final int start;
+        private final int end;
+        private final RecordAccessor accessor;
+        private final long[] selected;
+
+        EvaluateTask(Object[] records, int start, int end,
+                     RecordAccessor accessor, long[] selected) {
+            this.records = records;
+            this.start = start;
+            this.end = end;
+            this.accessor = accessor;
+            this.selected = selected;
+        }
+
+        @Override
+        protected void compute() {
+
+            int size = end-start;
+            if (size <= minimumPartitionSize) {
+                evaluate();
+                return;
+            }
+
+            /**
+             * Split on a word boundary.
+             */
+            int middle = start+((size >>> 1) & ~63);
+            if (middle == start)
+                middle += 64;
+
+            invokeAll(new EvaluateTask(records, start, middle, accessor,
+                                       selected),
+                      new EvaluateTask(records, middle, end, accessor,
+                                       selected));
+        }
+
+        private void evaluate() {
+
+            for (int word = start >>> 6, row = start; row < end; word++) {
+
+                int wordEnd = Math.min(row+64, end);
+                long bits = 0;
+                for (int bit = 0; row < wordEnd; row++, bit++) {
+                    if (evaluator.evaluate(records[row], accessor))
+                        bits |= 1L << bit;
+                }
+                selected[word] = bits;
+            }
+        }
+    }
+}
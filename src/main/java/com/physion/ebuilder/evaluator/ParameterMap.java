@@ -0,0 +1,510 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datatypes.Type;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * A parameters map, (e.g. an Epoch's protocolParameters), stored so
+ * that the ExpressionEvaluator can read a typed value out of it
+ * without boxing it and without a lookup in a Map of Objects.
+ *
+ * Keys are dictionary encoded: every key String is given an int
+ * "key code" the first time it is seen, and the same key always has
+ * the same code, (in every ParameterMap, for the life of the JVM).
+ * The ExpressionEvaluator looks up the code of the key in a query
+ * once, when it compiles the query, and then finds the key in each
+ * map with a binary search of an int array.
+ *
+ * Each value is stored in a "slot" that holds a type tag and the
+ * value in primitive form:
+ *
+ *      BOOLEAN         true or false
+ *      INT_32          a long, (any Byte, Short, Integer, or Long)
+ *      FLOAT_64        a double, (a Double or Float)
+ *      DATE_TIME       milliseconds since the epoch
+ *      UTF_8_STRING    a String
+ *
+ * So "as(parameter(protocolParameters, "amplitude"),
+ * @ovation.FloatingPointValue).value > 2.5" checks the tag of the slot
+ * and compares a double with 2.5.
+ *
+ * A DATE_TIME value is only its instant in time.  get() returns it as
+ * a DateTime in the default time zone.
+ *
+ * A ParameterMap is never changed after it is built, so any number of
+ * threads can use it at once.
+ *
+ * Example of use:
+ *
+ *      ParameterMap parameters = new ParameterMap.Builder().
+ *          putDouble("amplitude", 2.5).
+ *          putInt("stimFrequency", 10).
+ *          putString("label", "control").
+ *          build();
+ *
+ *      int slot = parameters.find(ParameterMap.getKeyCode("amplitude"));
+ *      if ((slot >= 0) && (parameters.getType(slot) == Type.FLOAT_64))
+ *          amplitude = parameters.getDouble(slot);
+ *
+ * @see ParameterMapAccessor
+ */
+public final class ParameterMap {
+
+    /**
+     * The type tags of the slots.
+     */
+    static final byte BOOLEAN = 0;
+    static final byte INT = 1;
+    static final byte DOUBLE = 2;
+    static final byte TIME = 3;
+    static final byte STRING = 4;
+
+    private static final Type[] TYPES = {Type.BOOLEAN, Type.INT_32,
+        Type.FLOAT_64, Type.DATE_TIME, Type.UTF_8_STRING};
+
+    /**
+     * The key dictionary.  Keys are the names of protocol and
+     * derivation parameters and properties, of which there are a
+     * few thousand at most, so we never forget one.
+     */
+    private static final Map<String, Integer> keyCodes =
+        new ConcurrentHashMap<String, Integer>();
+    private static final List<String> keys = new ArrayList<String>();
+
+    public static final ParameterMap EMPTY = new Builder().build();
+
+    /**
+     * The slots, sorted by key code.  A boolean, int, double, or time
+     * value is in primitives, a String value in strings.
+     */
+    private final int[] codes;
+    private final byte[] tags;
+    private final long[] primitives;
+    private final String[] strings;
+
+
+    private ParameterMap(int[] codes, byte[] tags, long[] primitives,
+                         String[] strings) {
+        this.codes = codes;
+        this.tags = tags;
+        this.primitives = primitives;
+        this.strings = strings;
+    }
+
+
+    /**
+     * Get the code of the passed in key, giving it a new code if it
+     * does not have one yet.
+     */
+    public static int getKeyCode(String key) {
+
+        if (key == null)
+            throw(new IllegalArgumentException("key may not be null."));
+
+        Integer code = keyCodes.get(key);
+        if (code != null)
+            return(code.intValue());
+
+        synchronized (keys) {
+            code = keyCodes.get(key);
+            if (code == null) {
+                code = Integer.valueOf(keys.size());
+                keys.add(key);
+                keyCodes.put(key, code);
+            }
+            return(code.intValue());
+        }
+    }
+
+
+    /**
+     * Get the key that has the passed in code.
+     *
+     * @throws IllegalArgumentException If no key has the code.
+     */
+    public static String getKey(int keyCode) {
+
+        synchronized (keys) {
+            if ((keyCode < 0) || (keyCode >= keys.size())) {
+                throw(new IllegalArgumentException("There is no key with "+
+                    "the code "+keyCode+"."));
+            }
+            return(keys.get(keyCode));
+        }
+    }
+
+
+    /**
+     * Create a ParameterMap that holds the values of the passed in
+     * Map.  Null values are left out.
+     *
+     * @throws IllegalArgumentException If a value is not one of the
+     * types put() accepts.
+     */
+    public static ParameterMap of(Map<String, ?> map) {
+
+        Builder builder = new Builder();
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            if (entry.getValue() != null)
+                builder.put(entry.getKey(), entry.getValue());
+        }
+        return(builder.build());
+    }
+
+
+    /**
+     * Get the number of keys in the map.
+     */
+    public int size() {
+        return(codes.length);
+    }
+
+
+    /**
+     * Get the slot of the key with the passed in code.
+     *
+     * @return The slot, or -1 if the map does not contain the key.
+     */
+    public int find(int keyCode) {
+
+        int index = Arrays.binarySearch(codes, keyCode);
+        return((index >= 0) ? index : -1);
+    }
+
+
+    /**
+     * Get the slot of the passed in key.
+     *
+     * @return The slot, or -1 if the map does not contain the key.
+     */
+    public int find(String key) {
+
+        Integer code = keyCodes.get(key);
+        return((code == null) ? -1 : find(code.intValue()));
+    }
+
+
+    /**
+     * Get the key of the passed in slot.
+     */
+    public String getKeyAt(int slot) {
+        return(getKey(codes[slot]));
+    }
+
+
+    /**
+     * Get the Type of the value in the passed in slot.  One of
+     * BOOLEAN, INT_32, FLOAT_64, DATE_TIME, or UTF_8_STRING.
+     */
+    public Type getType(int slot) {
+        return(TYPES[tags[slot]]);
+    }
+
+
+    /**
+     * Returns true if the value in the passed in slot is of the
+     * passed in Type, the way the "as" operator decides it.
+     */
+    public boolean isOfType(int slot, Type type) {
+        return(isTagOfType(tags[slot], type));
+    }
+
+
+    public boolean getBoolean(int slot) {
+
+        check(slot, BOOLEAN);
+        return(primitives[slot] != 0);
+    }
+
+
+    public long getLong(int slot) {
+
+        check(slot, INT);
+        return(primitives[slot]);
+    }
+
+
+    /**
+     * Get the value of a FLOAT_64 slot, or of an INT_32 slot as a
+     * double.
+     */
+    public double getDouble(int slot) {
+
+        if (tags[slot] == INT)
+            return((double)primitives[slot]);
+        check(slot, DOUBLE);
+        return(Double.longBitsToDouble(primitives[slot]));
+    }
+
+
+    /**
+     * Get the value of a DATE_TIME slot, in milliseconds since the
+     * epoch.
+     */
+    public long getMillis(int slot) {
+
+        check(slot, TIME);
+        return(primitives[slot]);
+    }
+
+
+    public String getString(int slot) {
+
+        check(slot, STRING);
+        return(strings[slot]);
+    }
+
+
+    /**
+     * Get the value in the passed in slot as an Object.  An INT_32
+     * value is an Integer if it fits in one, otherwise a Long.
+     */
+    public Object get(int slot) {
+
+        long primitive = primitives[slot];
+        switch (tags[slot]) {
+            case BOOLEAN:
+                return(Boolean.valueOf(primitive != 0));
+            case INT:
+                if ((primitive >= Integer.MIN_VALUE) &&
+                    (primitive <= Integer.MAX_VALUE))
+                    return(Integer.valueOf((int)primitive));
+                return(Long.valueOf(primitive));
+            case DOUBLE:
+                return(Double.valueOf(Double.longBitsToDouble(primitive)));
+            case TIME:
+                return(new DateTime(primitive));
+            default:
+                return(strings[slot]);
+        }
+    }
+
+
+    /**
+     * Get the value stored under the passed in key, or null if the
+     * map does not contain the key.  This is what a
+     * ParameterMapAccessor's getParameter() should return.
+     */
+    public Object get(String key) {
+
+        int slot = find(key);
+        return((slot < 0) ? null : get(slot));
+    }
+
+
+    /**
+     * Get the type tag of the passed in slot.  This is for the
+     * ExpressionEvaluator.
+     */
+    byte getTag(int slot) {
+        return(tags[slot]);
+    }
+
+
+    /**
+     * Get the raw primitive value of the passed in slot.  For a
+     * FLOAT_64 slot these are the bits of the double.
+     */
+    long getPrimitive(int slot) {
+        return(primitives[slot]);
+    }
+
+
+    static boolean isTagOfType(byte tag, Type type) {
+
+        switch (type) {
+            case BOOLEAN:
+                return(tag == BOOLEAN);
+            case UTF_8_STRING:
+                return(tag == STRING);
+            case INT_16:
+            case INT_32:
+                return(tag == INT);
+            case FLOAT_64:
+                return(tag == DOUBLE);
+            case DATE_TIME:
+                return(tag == TIME);
+            default:
+                return(false);
+        }
+    }
+
+
+    private void check(int slot, byte tag) {
+
+        if (tags[slot] != tag) {
+            throw(new IllegalArgumentException("The value of \""+
+                getKeyAt(slot)+"\" is "+getType(slot)+", not "+
+                TYPES[tag]+"."));
+        }
+    }
+
+
+    @Override
+    public String toString() {
+
+        StringBuilder sb = new StringBuilder("{");
+        for (int slot = 0; slot < codes.length; slot++) {
+            if (slot > 0)
+                sb.append(", ");
+            sb.append(getKeyAt(slot)).append('=').append(get(slot));
+        }
+        return(sb.append('}').toString());
+    }
+
+
+    /**
+     * Builds a ParameterMap.  Putting a key that is already in the
+     * Builder replaces its value.
+     */
+    public static class Builder {
+
+        /**
+         * The slot of each key code in the arrays below.
+         */
+        private final Map<Integer, Integer> slots =
+            new HashMap<Integer, Integer>();
+
+        private int size;
+        private int[] codes = new int[8];
+        private byte[] tags = new byte[8];
+        private long[] primitives = new long[8];
+        private String[] strings = new String[8];
+
+
+        public Builder putBoolean(String key, boolean value) {
+            return(put(key, BOOLEAN, value ? 1 : 0, null));
+        }
+
+
+        public Builder putInt(String key, long value) {
+            return(put(key, INT, value, null));
+        }
+
+
+        public Builder putDouble(String key, double value) {
+            return(put(key, DOUBLE, Double.doubleToRawLongBits(value), null));
+        }
+
+
+        /**
+         * @param millis Milliseconds since the epoch.
+         */
+        public Builder putTime(String key, long millis) {
+            return(put(key, TIME, millis, null));
+        }
+
+
+        public Builder putString(String key, String value) {
+
+            if (value == null)
+                throw(new IllegalArgumentException("value may not be null."));
+            return(put(key, STRING, 0, value));
+        }
+
+
+        /**
+         * Put a Boolean, Byte, Short, Integer, Long, Float, Double,
+         * String, ReadableInstant, or java.util.Date.
+         *
+         * @throws IllegalArgumentException If the value is null or of
+         * any other type.
+         */
+        public Builder put(String key, Object value) {
+
+            if (value instanceof Boolean)
+                return(putBoolean(key, ((Boolean)value).booleanValue()));
+            else if ((value instanceof Number) &&
+                     Values.isIntegral((Number)value))
+                return(putInt(key, ((Number)value).longValue()));
+            else if ((value instanceof Double) || (value instanceof Float))
+                return(putDouble(key, ((Number)value).doubleValue()));
+            else if (Values.isTime(value))
+                return(putTime(key, Values.getMillis(value)));
+            else if (value instanceof String)
+                return(putString(key, (String)value));
+
+            throw(new IllegalArgumentException("A parameters map cannot "+
+                "hold the value "+value+" of \""+key+"\"."));
+        }
+
+
+        public int size() {
+            return(size);
+        }
+
+
+        public ParameterMap build() {
+
+            /**
+             * Sort the slots by key code.
+             */
+            Integer[] order = new Integer[size];
+            for (int index = 0; index < size; index++)
+                order[index] = Integer.valueOf(index);
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return(Integer.compare(codes[a.intValue()],
+                                           codes[b.intValue()]));
+                }
+            });
+
+            int[] sortedCodes = new int[size];
+            byte[] sortedTags = new byte[size];
+            long[] sortedPrimitives = new long[size];
+            String[] sortedStrings = new String[size];
+            for (int index = 0; index < size; index++) {
+                int from = order[index].intValue();
+                sortedCodes[index] = codes[from];
+                sortedTags[index] = tags[from];
+                sortedPrimitives[index] = primitives[from];
+                sortedStrings[index] = strings[from];
+            }
+            return(new ParameterMap(sortedCodes, sortedTags, sortedPrimitives,
+                                    sortedStrings));
+        }
+
+
+        private Builder put(String key, byte tag, long primitive,
+                            String string) {
+
+            int code = getKeyCode(key);
+            Integer slot = slots.get(Integer.valueOf(code));
+            int index;
+            if (slot != null) {
+                index = slot.intValue();
+            }
+            else {
+                if (size == codes.length) {
+                    int length = size*2;
+                    codes = Arrays.copyOf(codes, length);
+                    tags = Arrays.copyOf(tags, length);
+                    primitives = Arrays.copyOf(primitives, length);
+                    strings = Arrays.copyOf(strings, length);
+                }
+                index = size++;
+                slots.put(Integer.valueOf(code), Integer.valueOf(index));
+            }
+
+            codes[index] = code;
+            tags[index] = tag;
+            primitives[index] = primitive;
+            strings[index] = string;
+            return(this);
+        }
+    }
+}
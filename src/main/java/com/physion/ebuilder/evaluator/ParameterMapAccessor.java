@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+
+/**
+ * A RecordAccessor whose records keep their parameters maps as
+ * ParameterMaps.  The ExpressionEvaluator checks whether the
+ * RecordAccessor it is passed implements this interface, and if it
+ * does, compares a parameter with a literal, (e.g.
+ * "as(parameter(protocolParameters, "amplitude"),
+ * @ovation.FloatingPointValue).value > 2.5"), by reading the typed
+ * slot of the ParameterMap instead of calling getParameter().
+ *
+ * getParameter() must still work, and must return the same value as
+ * getParameterMap(record, mapName).get(key).
+ *
+ * Example of use:
+ *
+ *      public ParameterMap getParameterMap(Object record, String mapName) {
+ *          return(((Epoch)record).getParameterMap(mapName));
+ *      }
+ *
+ *      public Object getParameter(Object record, String mapName,
+ *                                 String key) {
+ *          ParameterMap map = getParameterMap(record, mapName);
+ *          return((map == null) ? null : map.get(key));
+ *      }
+ *
+ * @see ParameterMap
+ * @see RecordAccessor
+ */
+public interface ParameterMapAccessor
+    extends RecordAccessor {
+
+    /**
+     * Get the passed in record's parameters map attribute.
+     * E.g. mapName = "protocolParameters".
+     *
+     * Returns null, (or ParameterMap.EMPTY), if the record has no
+     * parameters.
+     */
+    public ParameterMap getParameterMap(Object record, String mapName);
+}
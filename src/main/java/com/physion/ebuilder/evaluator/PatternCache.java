@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+
+/**
+ * This class remembers the TextMatchers of regular expressions, so a
+ * regular expression that is not a literal in the query, (e.g. the
+ * value of an attribute or a parameter, as in "label =~ pattern"), is
+ * not compiled again for every record.
+ *
+ * The key is the regular expression and the flags.  The cache holds
+ * at most maximumSize matchers, and throws away the ones that were
+ * used least recently when it is full.  Any number of threads can use
+ * it at once.
+ *
+ * The ExpressionEvaluator, and the classes the BytecodeCompiler
+ * generates, use getShared().
+ *
+ * Example of use:
+ *
+ *      TextMatcher matcher = PatternCache.getShared().get(regex, flags);
+ *      boolean found = matcher.find(value);
+ *
+ * @see TextMatcher
+ */
+public class PatternCache {
+
+    /**
+     * The size of the shared cache.
+     */
+    public static final int SHARED_SIZE = 1000;
+
+    private static final PatternCache SHARED = new PatternCache(SHARED_SIZE);
+
+    private final Cache<Key, TextMatcher> matchers;
+
+
+    /**
+     * @param maximumSize The most matchers the cache holds.
+     */
+    public PatternCache(int maximumSize) {
+
+        if (maximumSize < 1) {
+            throw(new IllegalArgumentException(
+                "maximumSize must be at least 1."));
+        }
+        matchers = CacheBuilder.newBuilder().maximumSize(maximumSize).
+            recordStats().<Key, TextMatcher>build();
+    }
+
+
+    /**
+     * Get the cache the evaluators share.
+     */
+    public static PatternCache getShared() {
+        return(SHARED);
+    }
+
+
+    /**
+     * Get the matcher of the passed in regular expression, compiling
+     * it if it is not in the cache.
+     *
+     * @param flags The flags of Pattern.compile().
+     *
+     * @throws java.util.regex.PatternSyntaxException If the regular
+     * expression is not valid.
+     */
+    public TextMatcher get(String regex, int flags) {
+
+        Key key = new Key(regex, flags);
+        TextMatcher matcher = matchers.getIfPresent(key);
+        if (matcher == null) {
+            /**
+             * Two threads might both compile the same expression,
+             * which is harmless.
+             */
+            matcher = TextMatcher.compile(regex, flags);
+            matchers.put(key, matcher);
+        }
+        return(matcher);
+    }
+
+
+    /**
+     * Get the approximate number of matchers in the cache.
+     */
+    public long size() {
+        return(matchers.size());
+    }
+
+
+    public long getHitCount() {
+        return(matchers.stats().hitCount());
+    }
+
+
+    public long getMissCount() {
+        return(matchers.stats().missCount());
+    }
+
+
+    public void invalidateAll() {
+        matchers.invalidateAll();
+    }
+
+
+    private static class Key {
+
+        private final String regex;
+        private final int flags;
+
+        private Key(String regex, int flags) {
+            this.regex = regex;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+
+            if (!(object instanceof Key))
+                return(false);
+            Key other = (Key)object;
+            return((flags == other.flags) && regex.equals(other.regex));
+        }
+
+        @Override
+        public int hashCode() {
+            return(regex.hashCode()*31+flags);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.ExpressionNormalizer;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.QueryShape;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A query shape that has been normalized, planned, and compiled once,
+ * so the queries of that shape can be evaluated with new binds without
+ * doing that work again.
+ *
+ * The constructor normalizes the query the QueryShape was created
+ * from, and reorders it with a QueryPlanner.  bind() puts new binds in
+ * the same places in the planned tree.  The plan is chosen with the
+ * binds of the first query, so if the statistics say "p3" is a rare
+ * protocolID but "p4" is not, the plan for "p3" is used for "p4" too.
+ * That is still correct, because the order of the operands of "and"
+ * and "or" only changes how fast the query is.  If the normalizer
+ * dropped or folded one of the binds, (e.g. and(a == 1, a == 1) became
+ * a == 1), the plan depends on the values of the binds, so bind()
+ * normalizes and plans each query again.  isPlanShared() says which.
+ *
+ * The ExpressionEvaluators created by createEvaluator() share one
+ * generated class.  The first one to be compiled into bytecode
+ * generates and loads the class, (see BytecodeCompiler), and the
+ * rest create instances of it with their own binds.  Since that only
+ * costs a few microseconds, and the JIT has already compiled the
+ * class, they are compiled right away instead of after
+ * ExpressionEvaluator.DEFAULT_COMPILE_THRESHOLD records.
+ *
+ * All of the methods are thread safe.
+ *
+ * Example of use:
+ *
+ *      PreparedQuery prepared = new PreparedQuery(QueryShape.of(tree),
+ *                                                 myStatistics);
+ *      for (List<ILiteralValueExpression> binds : bindsOfEachQuery) {
+ *          ExpressionEvaluator evaluator = prepared.createEvaluator(binds);
+ *          ...
+ *      }
+ *
+ * @see QueryShape
+ * @see ShapeCache
+ */
+public class PreparedQuery {
+
+    private final QueryShape shape;
+    private final AttributeStatistics statistics;
+
+    /**
+     * The normalized and planned query, or null if the plan can't
+     * be shared.
+     */
+    private final ExpressionTree planned;
+
+    /**
+     * The bind at index i of the planned tree is the bind at index
+     * bindOrder[i] of the shape.
+     */
+    private final int[] bindOrder;
+
+    private final BytecodeCompiler.SharedClass sharedClass =
+        new BytecodeCompiler.SharedClass();
+
+
+    /**
+     * Prepare the passed in query shape without statistics.
+     */
+    public PreparedQuery(QueryShape shape) {
+        this(shape, null);
+    }
+
+
+    /**
+     * Prepare the passed in query shape.
+     *
+     * @param statistics The statistics the QueryPlanner uses.  May be
+     * null, in which case it only uses its rules of thumb.
+     *
+     * @throws IllegalArgumentException If the query can't be evaluated.
+     */
+    public PreparedQuery(QueryShape shape, AttributeStatistics statistics) {
+
+        this.shape = shape;
+        this.statistics = statistics;
+
+        List<ILiteralValueExpression> binds = shape.getBinds();
+        ExpressionTree tree = plan(shape.bind(binds));
+
+        /**
+         * The normalizer and planner share the literals of the tree
+         * they are passed with the tree they return, so we can find
+         * where each bind went.
+         */
+        Map<ILiteralValueExpression,Integer> indexes =
+            new IdentityHashMap<ILiteralValueExpression,Integer>();
+        for (int index = 0; index < binds.size(); index++)
+            indexes.put(binds.get(index), Integer.valueOf(index));
+
+        List<ILiteralValueExpression> plannedBinds = QueryShape.findBinds(
+            tree.getRootExpression());
+        int[] order = new int[plannedBinds.size()];
+        boolean[] used = new boolean[binds.size()];
+        boolean shared = (indexes.size() == binds.size()) &&
+            (plannedBinds.size() == binds.size());
+        for (int index = 0; shared && (index < order.length); index++) {
+            Integer bind = indexes.get(plannedBinds.get(index));
+            shared = (bind != null) && !used[bind.intValue()];
+            if (shared) {
+                order[index] = bind.intValue();
+                used[bind.intValue()] = true;
+            }
+        }
+
+        planned = shared ? tree : null;
+        bindOrder = shared ? order : null;
+
+        /**
+         * Make sure the query can be evaluated.
+         */
+        new ExpressionEvaluator(tree, ExpressionEvaluator.NEVER_COMPILE);
+    }
+
+
+    /**
+     * Get the shape of the query.
+     */
+    public QueryShape getShape() {
+        return(shape);
+    }
+
+
+    /**
+     * Returns true if bind() reuses the plan, rather than normalizing
+     * and planning each query.
+     */
+    public boolean isPlanShared() {
+        return(planned != null);
+    }
+
+
+    /**
+     * Get the normalized and planned query of this shape that has
+     * the passed in binds.
+     *
+     * @param binds The binds, in the order QueryShape.getBinds()
+     * returns them.
+     *
+     * @throws IllegalArgumentException If the binds are not the
+     * binds of a query of this shape.
+     */
+    public ExpressionTree bind(List<? extends ILiteralValueExpression> binds) {
+
+        shape.checkBinds(binds);
+        if (planned == null)
+            return(plan(shape.bind(binds)));
+
+        List<ILiteralValueExpression> ordered =
+            new ArrayList<ILiteralValueExpression>(bindOrder.length);
+        for (int index : bindOrder)
+            ordered.add(binds.get(index));
+        return(new ExpressionTree(planned.getClassUnderQualification(),
+            (IOperatorExpression)QueryShape.replaceBinds(
+                planned.getRootExpression(), ordered)));
+    }
+
+
+    /**
+     * Create an ExpressionEvaluator for the query of this shape that
+     * has the passed in binds.
+     *
+     * @throws IllegalArgumentException If the binds are not the
+     * binds of a query of this shape.
+     */
+    public ExpressionEvaluator createEvaluator(
+        List<? extends ILiteralValueExpression> binds) {
+
+        int compileThreshold = sharedClass.isDefined() ? 0 :
+            ExpressionEvaluator.DEFAULT_COMPILE_THRESHOLD;
+        return(new ExpressionEvaluator(bind(binds), compileThreshold,
+                                       sharedClass));
+    }
+
+
+    /**
+     * Get the number of classes that have been generated for the
+     * evaluators of this shape.  This is 1 if they all share one
+     * class, and 0 if none of them has been compiled yet.
+     */
+    public int getCompiledClassCount() {
+        return(sharedClass.getClassCount());
+    }
+
+
+    private ExpressionTree plan(ExpressionTree tree) {
+        return(new QueryPlanner(statistics).plan(
+            new ExpressionNormalizer().normalize(tree)));
+    }
+}
@@ -0,0 +1,852 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IBooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.IStringLiteralValueExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.translator.ExpressionTreeToPQL;
+import com.physion.ebuilder.translator.Translator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+
+/**
+ * This class reorders the operands of the "and" and "or" operators
+ * in an ExpressionTree, so the conditions that are cheap to test, and
+ * that are likely to decide the answer, are tested first.
+ *
+ * RowDataToExpressionTree puts the operands in the order of the rows
+ * in the GUI, so a query like:
+ *
+ *      and(any(myderivedResponses, ...), ==(protocolID, "x"))
+ *
+ * iterates over the derived responses of every Epoch, even though the
+ * protocolID test would have rejected most of the Epochs on its own.
+ * The ExpressionEvaluator stops testing the operands of an "and" at
+ * the first one that is false, (and those of an "or" at the first one
+ * that is true), so testing protocolID first skips most of that work.
+ *
+ * The planner estimates a cost, (roughly the number of attribute
+ * lookups and comparisons needed per record), and a selectivity,
+ * (the fraction of records for which the condition is true), for
+ * every condition in the tree.  The operands of an "and" are sorted
+ * by cost/(1-selectivity), and those of an "or" by cost/selectivity,
+ * which gives the lowest expected cost if the operands are independent.
+ * The selectivities come from an AttributeStatistics, if there is one,
+ * and otherwise from rules of thumb.  E.g. "==" selects 10% of the
+ * records, and a collection has 10 elements.
+ *
+ * Only the order of the operands of "and" and "or" is changed, and
+ * operands with the same estimate keep their order.  Testing a
+ * condition has no side effects, and a comparison with a null is
+ * simply false, so the planned tree selects exactly the same records
+ * as the original.  Like the ExpressionNormalizer, the planner does
+ * not change the tree that is passed in, the planned tree shares
+ * the parts it did not reorder with it, and the planned tree is for
+ * evaluating, not for the GUI.  Normalize the tree first, so nested
+ * "and" operators are flattened into one list of operands to sort.
+ *
+ * explain() returns the estimates, one condition per line, in the
+ * order they will be tested.  E.g.:
+ *
+ *      and  cost=4.05 selectivity=0.0651
+ *          protocolID == "x"  cost=2.00 selectivity=0.1000
+ *          any(myderivedResponses)  cost=20.54 selectivity=0.6513
+ *              name == "y"  cost=2.00 selectivity=0.1000
+ *
+ * Example of use:
+ *
+ *      QueryPlanner planner = new QueryPlanner(myStatistics);
+ *      ExpressionTree planned = planner.plan(
+ *          new ExpressionNormalizer().normalize(tree));
+ *      System.out.println(planner.getReport());
+ *      System.out.println(planner.explain(planned));
+ *      ExpressionEvaluator evaluator = new ExpressionEvaluator(planned);
+ *
+ * @see AttributeStatistics
+ */
+public class QueryPlanner
+    implements Translator {
+
+    /**
+     * The costs are in units of about one RecordAccessor call.
+     */
+    private static final double ATTRIBUTE_COST = 1.0;
+    private static final double COMPARE_COST = 1.0;
+    private static final double ELEMENT_COST = 1.0;
+    private static final double PARAMETER_COST = 3.0;
+    private static final double LITERAL_MATCH_COST = 2.0;
+    private static final double REGEX_COST = 10.0;
+
+    /**
+     * The per-user and custom reference operators, (e.g. "mykeywords",
+     * "containing_experiments"), may have to ask the database.
+     */
+    private static final double CUSTOM_OPERATOR_COST = 20.0;
+
+    /**
+     * The guesses we use when there are no statistics.
+     */
+    private static final double DEFAULT_FAN_OUT = 10.0;
+    private static final double DEFAULT_EQUALS_SELECTIVITY = 0.1;
+    private static final double DEFAULT_RANGE_SELECTIVITY = 1.0/3.0;
+    private static final double DEFAULT_MATCH_SELECTIVITY = 0.25;
+    private static final double DEFAULT_NULL_SELECTIVITY = 0.05;
+    private static final double DEFAULT_BOOLEAN_SELECTIVITY = 0.5;
+
+    private final AttributeStatistics statistics;
+
+    private int reorderedCount;
+    private double costBefore;
+    private double costAfter;
+
+
+    /**
+     * Create a planner that has no statistics, and so only uses
+     * its rules of thumb.
+     */
+    public QueryPlanner() {
+        this(null);
+    }
+
+
+    /**
+     * Create a planner that uses the passed in statistics.
+     *
+     * @param statistics May be null, in which case the planner only
+     * uses its rules of thumb.
+     */
+    public QueryPlanner(AttributeStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+
+    /**
+     * Return a copy of the passed in ExpressionTree with the operands
+     * of its "and" and "or" operators in the order they should be
+     * tested.  After this call, getReport(), getReorderedCount(),
+     * getCostBefore(), and getCostAfter() describe what was done.
+     */
+    public ExpressionTree plan(ExpressionTree expressionTree) {
+
+        IExpression root = expressionTree.getRootExpression();
+        ClassDescription cuq = getClassUnderQualification(expressionTree);
+
+        reorderedCount = 0;
+        costBefore = 0.0;
+        costAfter = 0.0;
+        if (root == null)
+            return(expressionTree);
+
+        costBefore = estimate(root, cuq, false).cost;
+        Node planned = estimate(root, cuq, true);
+        costAfter = planned.cost;
+
+        /**
+         * Only the operands of operators are reordered, so the
+         * planned root is still an operator.
+         */
+        return(new ExpressionTree(expressionTree.getClassUnderQualification(),
+                                  (IOperatorExpression)planned.expression));
+    }
+
+
+    /**
+     * Get the estimated cost and selectivity of every condition in
+     * the passed in ExpressionTree, in the order they are tested.
+     * The tree is not reordered, so pass it the tree plan() returned
+     * to see the plan.
+     */
+    public String explain(ExpressionTree expressionTree) {
+
+        IExpression root = expressionTree.getRootExpression();
+        if (root == null)
+            return("");
+
+        StringBuilder out = new StringBuilder();
+        explain(estimate(root, getClassUnderQualification(expressionTree),
+                         false), "", out);
+        return(out.toString());
+    }
+
+
+    /**
+     * Get a one line description of what the last plan() did,
+     * suitable for a log file.
+     */
+    public String getReport() {
+        return("Reordered "+reorderedCount+" operators.  Estimated cost "+
+               format(costBefore)+" before, "+format(costAfter)+" after.");
+    }
+
+
+    /**
+     * Get the number of "and" and "or" operators whose operands the
+     * last plan() reordered.
+     */
+    public int getReorderedCount() {
+        return(reorderedCount);
+    }
+
+
+    /**
+     * Get the estimated cost per record of the tree passed to the
+     * last plan().
+     */
+    public double getCostBefore() {
+        return(costBefore);
+    }
+
+
+    /**
+     * Get the estimated cost per record of the tree the last plan()
+     * returned.
+     */
+    public double getCostAfter() {
+        return(costAfter);
+    }
+
+
+    private static ClassDescription getClassUnderQualification(
+        ExpressionTree expressionTree) {
+
+        if (expressionTree.getClassUnderQualification() == null)
+            return(null);
+        return(DataModel.getClassDescription(
+            expressionTree.getClassUnderQualification()));
+    }
+
+
+    /**
+     * Estimate an expression that evaluates to true or false.
+     *
+     * @param classDescription The class of the record the expression
+     * is tested against, or null if we don't know.
+     *
+     * @param reorder If true, reorder the operands of the "and" and "or"
+     * operators in the expression, and return the estimate of the
+     * reordered expression.
+     */
+    private Node estimate(IExpression ex, ClassDescription classDescription,
+                         boolean reorder) {
+
+        if (ex instanceof IBooleanLiteralValueExpression) {
+            boolean value = Boolean.TRUE.equals(
+                ((IBooleanLiteralValueExpression)ex).getValue());
+            return(new Node(ex, 0.0, value ? 1.0 : 0.0));
+        }
+
+        if (!(ex instanceof IOperatorExpression)) {
+            /**
+             * A BOOLEAN attribute used as a condition on its own.
+             */
+            return(new Node(ex, getValueCost(ex, classDescription)+
+                            COMPARE_COST, getSelectivity(ex, Operator.IS_TRUE,
+                            null, classDescription,
+                            DEFAULT_BOOLEAN_SELECTIVITY)));
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if ((OE_AND.equals(name) || OE_OR.equals(name)) &&
+            !operands.isEmpty()) {
+            return(estimateJunction(oe, classDescription, reorder));
+        }
+        else if (OE_NOT.equals(name) && (operands.size() == 1)) {
+            Node operand = estimate(operands.get(0), classDescription,
+                                    reorder);
+            return(new Node(replaceOperand(oe, 0, operand.expression),
+                            operand.cost, 1.0-operand.selectivity,
+                            Collections.singletonList(operand)));
+        }
+        else if (OE_IS_NULL.equals(name) && (operands.size() == 1)) {
+            IExpression operand = operands.get(0);
+            double selectivity = DEFAULT_NULL_SELECTIVITY;
+            ClassDescription owner = getOwnerClass(operand, classDescription);
+            if ((statistics != null) && (owner != null)) {
+                double fraction = statistics.getNullFraction(owner,
+                    ((IAttributeExpression)getLastAttribute(operand)).
+                    getAttributeName());
+                if (fraction >= 0.0)
+                    selectivity = fraction;
+            }
+            return(new Node(ex, getValueCost(operand, classDescription)+
+                            COMPARE_COST, selectivity));
+        }
+        else if ((OE_ANY.equals(name) || OE_ALL.equals(name)) &&
+                 ((operands.size() == 1) || (operands.size() == 2))) {
+            return(estimateQuantifier(oe, classDescription, reorder));
+        }
+
+        Operator operator = ExpressionEvaluator.getOperator(name);
+        if ((operator != null) && (operands.size() == 2))
+            return(estimateComparison(oe, operator, classDescription));
+
+        /**
+         * Anything else, e.g. a "." path to a BOOLEAN attribute, is
+         * a value that the ExpressionEvaluator treats as a condition.
+         */
+        return(new Node(ex, getValueCost(ex, classDescription)+COMPARE_COST,
+                        getSelectivity(ex, Operator.IS_TRUE, null,
+                                       classDescription,
+                                       DEFAULT_BOOLEAN_SELECTIVITY)));
+    }
+
+
+    /**
+     * Estimate an "and", or an "or", and reorder its operands if
+     * reorder is true.
+     */
+    private Node estimateJunction(IOperatorExpression oe,
+                                  ClassDescription classDescription,
+                                  boolean reorder) {
+
+        final boolean isAnd = OE_AND.equals(oe.getOperatorName());
+
+        List<Node> operands = new ArrayList<Node>();
+        boolean changed = false;
+        for (IExpression operand : oe.getOperandList()) {
+            Node node = estimate(operand, classDescription, reorder);
+            operands.add(node);
+            changed |= (node.expression != operand);
+        }
+
+        if (reorder) {
+            /**
+             * Collections.sort() is stable, so operands with the same
+             * rank stay in the order they were in.
+             */
+            List<Node> sorted = new ArrayList<Node>(operands);
+            Collections.sort(sorted, new Comparator<Node>() {
+                @Override
+                public int compare(Node a, Node b) {
+                    return(Double.compare(getRank(a, isAnd),
+                                          getRank(b, isAnd)));
+                }
+            });
+            if (!sorted.equals(operands)) {
+                reorderedCount++;
+                changed = true;
+                operands = sorted;
+            }
+        }
+
+        /**
+         * An operand is only tested if the operands before it did not
+         * decide the answer.
+         */
+        double cost = 0.0;
+        double reached = 1.0;
+        for (Node node : operands) {
+            cost += reached*node.cost;
+            reached *= isAnd ? node.selectivity : 1.0-node.selectivity;
+        }
+        double selectivity = isAnd ? reached : 1.0-reached;
+
+        IExpression expression = oe;
+        if (changed) {
+            List<IExpression> expressions = new ArrayList<IExpression>();
+            for (Node node : operands)
+                expressions.add(node.expression);
+            expression = new OperatorExpression(oe.getOperatorName(),
+                                                expressions);
+        }
+        return(new Node(expression, cost, selectivity, operands));
+    }
+
+
+    /**
+     * Get the number that the operands of an "and", (if isAnd is
+     * true), or an "or", are sorted by.  This is the cost of the
+     * operand divided by the chance that it decides the answer.
+     */
+    private static double getRank(Node node, boolean isAnd) {
+
+        double decides = isAnd ? 1.0-node.selectivity : node.selectivity;
+        if (decides <= 0.0)
+            return(Double.POSITIVE_INFINITY);
+        return(node.cost/decides);
+    }
+
+
+    /**
+     * Estimate an "any" or an "all".  The ExpressionEvaluator stops
+     * iterating the collection as soon as the answer is decided.
+     */
+    private Node estimateQuantifier(IOperatorExpression oe,
+                                    ClassDescription classDescription,
+                                    boolean reorder) {
+
+        boolean isAny = OE_ANY.equals(oe.getOperatorName());
+        IExpression collection = oe.getOperandList().get(0);
+        double fanOut = getFanOut(collection, classDescription);
+        double collectionCost = getCollectionCost(collection,
+                                                  classDescription);
+
+        /**
+         * any(collection) without a condition is true if the
+         * collection is not empty, and all(collection) is always true.
+         */
+        if (oe.getOperandList().size() == 1) {
+            if (!isAny)
+                return(new Node(oe, collectionCost, 1.0));
+            return(new Node(oe, collectionCost+
+                            Math.min(fanOut, 1.0)*ELEMENT_COST,
+                            Math.min(fanOut, 1.0)));
+        }
+
+        Node condition = estimate(oe.getOperandList().get(1),
+            ExpressionEvaluator.getPathClass(collection, classDescription),
+            reorder);
+
+        /**
+         * stops is the chance that an element ends the iteration,
+         * and none is the chance that no element does.
+         */
+        double stops = isAny ? condition.selectivity :
+            1.0-condition.selectivity;
+        double none = Math.pow(1.0-stops, fanOut);
+        double examined = (stops > 0.0) ? (1.0-none)/stops : fanOut;
+
+        return(new Node(replaceOperand(oe, 1, condition.expression),
+                        collectionCost+
+                        examined*(ELEMENT_COST+condition.cost),
+                        isAny ? 1.0-none : none,
+                        Collections.singletonList(condition)));
+    }
+
+
+    /**
+     * Estimate a comparison operator.  E.g. "==", "<", "=~".
+     */
+    private Node estimateComparison(IOperatorExpression oe,
+                                    Operator operator,
+                                    ClassDescription classDescription) {
+
+        IExpression lhs = oe.getOperandList().get(0);
+        IExpression rhs = oe.getOperandList().get(1);
+
+        double cost = getValueCost(lhs, classDescription)+
+            getValueCost(rhs, classDescription);
+        double defaultSelectivity;
+        boolean isMatch = false;
+        switch (operator) {
+            case EQUALS:
+                cost += COMPARE_COST;
+                defaultSelectivity = DEFAULT_EQUALS_SELECTIVITY;
+                break;
+            case NOT_EQUALS:
+                cost += COMPARE_COST;
+                defaultSelectivity = 1.0-DEFAULT_EQUALS_SELECTIVITY;
+                break;
+            case MATCHES_CASE_SENSITIVE:
+            case MATCHES_CASE_INSENSITIVE:
+                cost += getMatchCost(operator, rhs);
+                defaultSelectivity = DEFAULT_MATCH_SELECTIVITY;
+                isMatch = true;
+                break;
+            case DOES_NOT_MATCH_CASE_SENSITIVE:
+            case DOES_NOT_MATCH_CASE_INSENSITIVE:
+                cost += getMatchCost(operator, rhs);
+                defaultSelectivity = 1.0-DEFAULT_MATCH_SELECTIVITY;
+                isMatch = true;
+                break;
+            default:
+                cost += COMPARE_COST;
+                defaultSelectivity = DEFAULT_RANGE_SELECTIVITY;
+                break;
+        }
+
+        /**
+         * Put the attribute on the left, the way the statistics
+         * expect.  The regular expression is always on the right.
+         */
+        if ((lhs instanceof ILiteralValueExpression) &&
+            !(rhs instanceof ILiteralValueExpression) && !isMatch) {
+            IExpression swap = lhs;
+            lhs = rhs;
+            rhs = swap;
+            operator = ExpressionEvaluator.flip(operator);
+        }
+
+        double selectivity = defaultSelectivity;
+        if (rhs instanceof ILiteralValueExpression) {
+            selectivity = getSelectivity(lhs, operator,
+                ((ILiteralValueExpression)rhs).getValue(), classDescription,
+                defaultSelectivity);
+        }
+        return(new Node(oe, cost, selectivity));
+    }
+
+
+    /**
+     * Get the cost of matching a regular expression.  If it is literal
+     * text, the TextMatcher does not use the regular expression engine.
+     */
+    private static double getMatchCost(Operator operator, IExpression rhs) {
+
+        if (!(rhs instanceof IStringLiteralValueExpression))
+            return(REGEX_COST);
+
+        String regex = (String)((IStringLiteralValueExpression)rhs).
+            getValue();
+        int flags = 0;
+        if ((operator == Operator.MATCHES_CASE_INSENSITIVE) ||
+            (operator == Operator.DOES_NOT_MATCH_CASE_INSENSITIVE))
+            flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+
+        try {
+            if ((regex != null) &&
+                PatternCache.getShared().get(regex, flags).isLiteral())
+                return(LITERAL_MATCH_COST);
+        }
+        catch (PatternSyntaxException e) {
+            /**
+             * The ExpressionEvaluator will complain about it.
+             */
+        }
+        return(REGEX_COST);
+    }
+
+
+    /**
+     * Ask the statistics for the selectivity of "attribute operator
+     * value".  Returns defaultSelectivity if there are no statistics
+     * for the attribute, or if it is not an attribute path.
+     */
+    private double getSelectivity(IExpression attribute, Operator operator,
+                                  Object value,
+                                  ClassDescription classDescription,
+                                  double defaultSelectivity) {
+
+        ClassDescription owner = getOwnerClass(attribute, classDescription);
+        if ((statistics == null) || (owner == null))
+            return(defaultSelectivity);
+
+        double selectivity = statistics.getSelectivity(owner,
+            ((IAttributeExpression)getLastAttribute(attribute)).
+            getAttributeName(), operator, value);
+        if (selectivity < 0.0)
+            return(defaultSelectivity);
+        return(Math.min(selectivity, 1.0));
+    }
+
+
+    /**
+     * If the passed in expression is an attribute path, (e.g.
+     * protocolID or .(epochGroup, label)), get the class of the record
+     * that owns the last attribute of the path.  Otherwise, (or if
+     * we don't know the class), return null.
+     */
+    private static ClassDescription getOwnerClass(IExpression ex,
+        ClassDescription classDescription) {
+
+        IExpression attribute = getLastAttribute(ex);
+        if ((attribute == null) || AE_THIS.equals(
+            ((IAttributeExpression)attribute).getAttributeName()))
+            return(null);
+
+        if (attribute == ex)
+            return(classDescription);
+
+        IExpression owner = ((IOperatorExpression)ex).getOperandList().get(0);
+        if (ExpressionEvaluator.isOperator(owner, OE_AS) ||
+            ExpressionEvaluator.isOperator(owner, OE_PARAMETER))
+            return(null);
+        return(ExpressionEvaluator.getPathClass(owner, classDescription));
+    }
+
+
+    /**
+     * Get the last attribute of the passed in attribute path,
+     * or null if it is not an attribute path.
+     */
+    private static IExpression getLastAttribute(IExpression ex) {
+
+        if (ex instanceof IAttributeExpression)
+            return(ex);
+
+        if (ExpressionEvaluator.isOperator(ex, OE_DOT)) {
+            List<IExpression> operands =
+                ((IOperatorExpression)ex).getOperandList();
+            if ((operands.size() == 2) &&
+                (operands.get(1) instanceof IAttributeExpression))
+                return(operands.get(1));
+        }
+        return(null);
+    }
+
+
+    /**
+     * Get the cost of getting a value.  E.g. a literal, an attribute
+     * path, count(), or a parameters map value.
+     */
+    private double getValueCost(IExpression ex,
+                                ClassDescription classDescription) {
+
+        if (ex instanceof ILiteralValueExpression)
+            return(0.0);
+        else if (ex instanceof IAttributeExpression)
+            return(getReferenceCost(ex));
+        else if (!(ex instanceof IOperatorExpression))
+            return(ATTRIBUTE_COST);
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (OE_DOT.equals(name) && (operands.size() == 2)) {
+            IExpression lhs = operands.get(0);
+            if (ExpressionEvaluator.isOperator(lhs, OE_AS) ||
+                ExpressionEvaluator.isOperator(lhs, OE_PARAMETER))
+                return(getValueCost(lhs, classDescription));
+            return(getReferenceCost(ex));
+        }
+        else if (OE_AS.equals(name) && !operands.isEmpty()) {
+            return(getValueCost(operands.get(0), classDescription));
+        }
+        else if (OE_PARAMETER.equals(name) && !operands.isEmpty()) {
+            IExpression map = operands.get(0);
+            if (ExpressionEvaluator.isOperator(map, OE_DOT) &&
+                (((IOperatorExpression)map).getOperandList().size() == 2)) {
+                return(getReferenceCost(((IOperatorExpression)map).
+                    getOperandList().get(0))+PARAMETER_COST);
+            }
+            return(PARAMETER_COST);
+        }
+        else if (OE_COUNT.equals(name) && (operands.size() == 1)) {
+            return(getCollectionCost(operands.get(0), classDescription)+
+                   getFanOut(operands.get(0), classDescription)*ELEMENT_COST);
+        }
+        else if (!ExpressionEvaluator.isBuiltInOperator(name) ||
+                 OE_ELEMENTS_OF_TYPE.equals(name)) {
+            return(ATTRIBUTE_COST);
+        }
+
+        /**
+         * E.g. BOOLEAN attribute == (x < y)
+         */
+        return(estimate(ex, classDescription, false).cost);
+    }
+
+
+    /**
+     * Get the cost of following an attribute path.  E.g. "this" is
+     * free, and .(epochGroup, label) is two RecordAccessor calls.
+     */
+    private static double getReferenceCost(IExpression ex) {
+
+        if (ex instanceof IAttributeExpression) {
+            if (AE_THIS.equals(((IAttributeExpression)ex).getAttributeName()))
+                return(0.0);
+            return(ATTRIBUTE_COST);
+        }
+        else if (ExpressionEvaluator.isOperator(ex, OE_DOT)) {
+            double cost = 0.0;
+            for (IExpression operand :
+                 ((IOperatorExpression)ex).getOperandList())
+                cost += getReferenceCost(operand);
+            return(cost);
+        }
+        return(ATTRIBUTE_COST);
+    }
+
+
+    /**
+     * Get the cost of getting a collection.  I.e. the first operand
+     * of the "any", "all", and "count" operators.
+     */
+    private static double getCollectionCost(IExpression ex,
+        ClassDescription classDescription) {
+
+        if (!(ex instanceof IOperatorExpression) ||
+            ExpressionEvaluator.isOperator(ex, OE_DOT))
+            return(getReferenceCost(ex));
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        List<IExpression> operands = oe.getOperandList();
+        if (OE_ELEMENTS_OF_TYPE.equals(oe.getOperatorName()) &&
+            !operands.isEmpty())
+            return(getCollectionCost(operands.get(0), classDescription));
+        else if (ExpressionEvaluator.isPerUserParametersMap(ex))
+            return(CUSTOM_OPERATOR_COST+getReferenceCost(operands.get(1)));
+        else if (operands.size() == 1)
+            return(CUSTOM_OPERATOR_COST+getReferenceCost(operands.get(0)));
+        return(CUSTOM_OPERATOR_COST);
+    }
+
+
+    /**
+     * Get the average number of elements in a collection.
+     */
+    private double getFanOut(IExpression ex,
+                             ClassDescription classDescription) {
+
+        ClassDescription owner = classDescription;
+        String name;
+        if (ex instanceof IAttributeExpression) {
+            name = ((IAttributeExpression)ex).getAttributeName();
+        }
+        else if (!(ex instanceof IOperatorExpression)) {
+            return(DEFAULT_FAN_OUT);
+        }
+        else {
+            IOperatorExpression oe = (IOperatorExpression)ex;
+            List<IExpression> operands = oe.getOperandList();
+            name = oe.getOperatorName();
+
+            if (OE_DOT.equals(name)) {
+                IExpression attribute = getLastAttribute(ex);
+                if (attribute == null)
+                    return(DEFAULT_FAN_OUT);
+                name = ((IAttributeExpression)attribute).getAttributeName();
+                owner = ExpressionEvaluator.getPathClass(operands.get(0),
+                                                         classDescription);
+            }
+            else if (OE_ELEMENTS_OF_TYPE.equals(name) &&
+                     !operands.isEmpty()) {
+                return(getFanOut(operands.get(0), classDescription));
+            }
+            else if (ExpressionEvaluator.isPerUserParametersMap(ex)) {
+                owner = ExpressionEvaluator.getPathClass(operands.get(1),
+                                                         classDescription);
+            }
+            else if (operands.size() == 1) {
+                owner = ExpressionEvaluator.getPathClass(operands.get(0),
+                                                         classDescription);
+            }
+        }
+
+        if ((statistics != null) && (owner != null)) {
+            double fanOut = statistics.getFanOut(owner, name);
+            if (fanOut >= 0.0)
+                return(fanOut);
+        }
+        return(DEFAULT_FAN_OUT);
+    }
+
+
+    /**
+     * Return the passed in operator if its operand at the passed in
+     * index is already the passed in operand.  Otherwise return a
+     * copy of it with the operand replaced.
+     */
+    private static IExpression replaceOperand(IOperatorExpression oe,
+                                              int index,
+                                              IExpression operand) {
+
+        if (oe.getOperandList().get(index) == operand)
+            return(oe);
+
+        List<IExpression> operands =
+            new ArrayList<IExpression>(oe.getOperandList());
+        operands.set(index, operand);
+        return(new OperatorExpression(oe.getOperatorName(), operands));
+    }
+
+
+    private static void explain(Node node, String indent, StringBuilder out) {
+
+        out.append(indent).append(getLabel(node)).
+            append("  cost=").append(format(node.cost)).
+            append(" selectivity=").append(String.format(Locale.US, "%.4f",
+                                                         node.selectivity)).
+            append('\n');
+        for (Node child : node.children)
+            explain(child, indent+"    ", out);
+    }
+
+
+    /**
+     * Get the text explain() uses for a node.  A condition that is
+     * not made of other conditions is written as PQL.
+     */
+    private static String getLabel(Node node) {
+
+        IExpression ex = node.expression;
+        if (node.children.isEmpty()) {
+            try {
+                return(ExpressionTreeToPQL.translate(ex));
+            }
+            catch (IllegalArgumentException e) {
+                return(ex.toString());
+            }
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        if (OE_ANY.equals(oe.getOperatorName()) ||
+            OE_ALL.equals(oe.getOperatorName())) {
+            return(oe.getOperatorName()+"("+ExpressionTreeToPQL.translate(
+                oe.getOperandList().get(0))+")");
+        }
+        return(oe.getOperatorName());
+    }
+
+
+    private static String format(double cost) {
+        return(String.format(Locale.US, "%.2f", cost));
+    }
+
+
+    /**
+     * The estimate of a condition.
+     */
+    private static class Node {
+
+        /**
+         * The condition, with its operands reordered if we were asked
+         * to reorder them.
+         */
+        final IExpression expression;
+
+        /**
+         * The estimated cost of testing the condition against one
+         * record.
+         */
+        final double cost;
+
+        /**
+         * The estimated fraction of records for which the condition
+         * is true.
+         */
+        final double selectivity;
+
+        /**
+         * The estimates of the conditions this condition is made of.
+         * E.g. the operands of an "and", or the condition of an "any".
+         */
+        final List<Node> children;
+
+        Node(IExpression expression, double cost, double selectivity) {
+            this(expression, cost, selectivity,
+                 Collections.<Node>emptyList());
+        }
+
+        Node(IExpression expression, double cost, double selectivity,
+             List<Node> children) {
+            this.expression = expression;
+            this.cost = cost;
+            this.selectivity = Math.max(0.0, Math.min(selectivity, 1.0));
+            this.children = children;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.ExpressionNormalizer;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.Fingerprint;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * This class remembers the results of queries, so a query that is run
+ * again, (e.g. an analyst re-running the same Epoch query from the
+ * ExpressionBuilder), can be answered from memory instead of by the
+ * database.
+ *
+ * The key of a result is the Fingerprint of the normalized query.
+ * So two trees that the ExpressionNormalizer turns into the same tree,
+ * (e.g. the GUI's or(a) and a plain a), share one result, but trees
+ * with a different Class Under Qualification never do.  A result is
+ * only returned if the normalized trees are also equal, so a
+ * fingerprint collision can't return the wrong result.
+ *
+ * The cache holds at most maximumSize results.  When it is full, the
+ * result that was used least recently is thrown away.  Each result
+ * also has a time to live, after which it is not returned any more.
+ *
+ * When the objects in the database change, the results that depend on
+ * them must be thrown away with invalidate(entityName).  A result
+ * depends on the Class Under Qualification of its query, plus any
+ * other entity names, (e.g. "Response" for a query on the responses
+ * of an Epoch), that were passed to put().
+ *
+ * All of the methods are thread safe.
+ *
+ * Example of use:
+ *
+ *      QueryResultCache<List<Epoch>> cache =
+ *          new QueryResultCache<List<Epoch>>(100, 10*60*1000);
+ *      List<Epoch> epochs = cache.get(tree);
+ *      if (epochs == null) {
+ *          epochs = database.query(tree);
+ *          cache.put(tree, epochs);
+ *      }
+ *
+ * @param <V> The type of the results.
+ */
+public class QueryResultCache<V> {
+
+    private final int maximumSize;
+    private final long timeToLiveMillis;
+
+    /**
+     * The results, in order from least to most recently used.
+     */
+    private final LinkedHashMap<Fingerprint, Entry<V>> entries;
+
+    /**
+     * The keys of the results that depend on each entity name.
+     */
+    private final Map<String, Set<Fingerprint>> dependents =
+        new HashMap<String, Set<Fingerprint>>();
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expirationCount;
+    private long invalidationCount;
+
+
+    /**
+     * @param maximumSize The most results the cache holds.
+     *
+     * @param timeToLiveMillis How long, in milliseconds, a result is
+     * kept, unless put() is passed a different time.
+     */
+    public QueryResultCache(int maximumSize, long timeToLiveMillis) {
+
+        if (maximumSize < 1) {
+            throw(new IllegalArgumentException(
+                "maximumSize must be at least 1."));
+        }
+        if (timeToLiveMillis <= 0) {
+            throw(new IllegalArgumentException(
+                "timeToLiveMillis must be greater than 0."));
+        }
+
+        this.maximumSize = maximumSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+        entries = new LinkedHashMap<Fingerprint, Entry<V>>(16, 0.75f, true);
+    }
+
+
+    /**
+     * Get the key that the cache uses for the passed in tree.  This
+     * is the fingerprint of the normalized tree.
+     */
+    public static Fingerprint getKey(ExpressionTree expressionTree) {
+        return(normalize(expressionTree).getFingerprint());
+    }
+
+
+    /**
+     * Get the result of the passed in query.
+     *
+     * @return The result, or null if the cache does not have one that
+     * is still alive.
+     */
+    public V get(ExpressionTree expressionTree) {
+
+        ExpressionTree normalized = normalize(expressionTree);
+        Fingerprint key = normalized.getFingerprint();
+
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if ((entry == null) || !entry.query.equals(normalized)) {
+                missCount++;
+                return(null);
+            }
+            if (entry.expires <= currentTimeMillis()) {
+                remove(key);
+                expirationCount++;
+                missCount++;
+                return(null);
+            }
+            hitCount++;
+            return(entry.value);
+        }
+    }
+
+
+    /**
+     * Remember the result of the passed in query, for the default
+     * time to live.
+     */
+    public void put(ExpressionTree expressionTree, V value) {
+        put(expressionTree, value, timeToLiveMillis);
+    }
+
+
+    /**
+     * Remember the result of the passed in query.
+     *
+     * @param timeToLiveMillis How long, in milliseconds, to keep it.
+     *
+     * @param entityNames The names of the classes, other than the
+     * query's Class Under Qualification, whose changes make the
+     * result out of date.
+     */
+    public void put(ExpressionTree expressionTree, V value,
+                    long timeToLiveMillis, String... entityNames) {
+
+        if (value == null) {
+            throw(new IllegalArgumentException(
+                "A QueryResultCache cannot hold a null result."));
+        }
+        if (timeToLiveMillis <= 0) {
+            throw(new IllegalArgumentException(
+                "timeToLiveMillis must be greater than 0."));
+        }
+
+        ExpressionTree normalized = normalize(expressionTree);
+        Fingerprint key = normalized.getFingerprint();
+
+        Set<String> names = new HashSet<String>();
+        names.add(normalized.getClassUnderQualification());
+        for (String entityName : entityNames)
+            names.add(entityName);
+
+        /**
+         * A time to live of e.g. Long.MAX_VALUE means "forever", so
+         * saturate rather than overflow into the past.
+         */
+        long now = currentTimeMillis();
+        long expires = (timeToLiveMillis > Long.MAX_VALUE-now) ?
+            Long.MAX_VALUE : now+timeToLiveMillis;
+
+        synchronized (this) {
+            remove(key);
+            entries.put(key, new Entry<V>(normalized, value, expires, names));
+            for (String name : names) {
+                Set<Fingerprint> keys = dependents.get(name);
+                if (keys == null) {
+                    keys = new HashSet<Fingerprint>();
+                    dependents.put(name, keys);
+                }
+                keys.add(key);
+            }
+
+            /**
+             * Throw away the least recently used results, which are
+             * at the start of the map.
+             */
+            Iterator<Map.Entry<Fingerprint, Entry<V>>> iterator =
+                entries.entrySet().iterator();
+            while (entries.size() > maximumSize) {
+                Map.Entry<Fingerprint, Entry<V>> eldest = iterator.next();
+                iterator.remove();
+                removeDependents(eldest.getKey(),
+                                 eldest.getValue().entityNames);
+                evictionCount++;
+            }
+        }
+    }
+
+
+    /**
+     * Throw away the result of the passed in query, if there is one.
+     */
+    public void invalidate(ExpressionTree expressionTree) {
+
+        Fingerprint key = getKey(expressionTree);
+        synchronized (this) {
+            if (remove(key))
+                invalidationCount++;
+        }
+    }
+
+
+    /**
+     * Throw away every result that depends on the passed in entity.
+     * Call this when objects of that class are added, changed,
+     * or deleted.
+     *
+     * @param entityName The name of a class, e.g. "Epoch".
+     *
+     * @return The number of results that were thrown away.
+     */
+    public synchronized int invalidate(String entityName) {
+
+        Set<Fingerprint> keys = dependents.get(entityName);
+        if (keys == null)
+            return(0);
+
+        /**
+         * remove() changes the set, so copy it first.
+         */
+        int count = 0;
+        for (Fingerprint key : keys.toArray(new Fingerprint[keys.size()])) {
+            if (remove(key))
+                count++;
+        }
+        invalidationCount += count;
+        return(count);
+    }
+
+
+    /**
+     * Throw away every result.
+     */
+    public synchronized void invalidateAll() {
+        invalidationCount += entries.size();
+        entries.clear();
+        dependents.clear();
+    }
+
+
+    /**
+     * Get the number of results the cache holds.  This includes
+     * results whose time to live is up, but that have not been
+     * asked for since.
+     */
+    public synchronized int size() {
+        return(entries.size());
+    }
+
+
+    public synchronized long getHitCount() {
+        return(hitCount);
+    }
+
+
+    public synchronized long getMissCount() {
+        return(missCount);
+    }
+
+
+    /**
+     * Get the number of results that were thrown away because the
+     * cache was full.
+     */
+    public synchronized long getEvictionCount() {
+        return(evictionCount);
+    }
+
+
+    /**
+     * Get the number of results that were thrown away because their
+     * time to live was up.
+     */
+    public synchronized long getExpirationCount() {
+        return(expirationCount);
+    }
+
+
+    /**
+     * Get the number of results that were thrown away by the
+     * invalidate() methods.
+     */
+    public synchronized long getInvalidationCount() {
+        return(invalidationCount);
+    }
+
+
+    /**
+     * Get a one line description of how well the cache is doing,
+     * suitable for a log file.
+     */
+    public synchronized String getReport() {
+        return(entries.size()+" results, "+hitCount+" hits, "+missCount+
+               " misses, "+evictionCount+" evicted, "+expirationCount+
+               " expired, "+invalidationCount+" invalidated.");
+    }
+
+
+    /**
+     * Get the current time in milliseconds.  This is here so a test
+     * can make time pass without waiting.
+     */
+    protected long currentTimeMillis() {
+        return(System.currentTimeMillis());
+    }
+
+
+    private static ExpressionTree normalize(ExpressionTree expressionTree) {
+
+        if (expressionTree == null) {
+            throw(new IllegalArgumentException(
+                "expressionTree cannot be null."));
+        }
+        return(new ExpressionNormalizer().normalize(expressionTree));
+    }
+
+
+    /**
+     * Remove the result with the passed in key.  The caller must
+     * hold the lock.
+     *
+     * @return true if there was a result with that key.
+     */
+    private boolean remove(Fingerprint key) {
+
+        Entry<V> entry = entries.remove(key);
+        if (entry == null)
+            return(false);
+        removeDependents(key, entry.entityNames);
+        return(true);
+    }
+
+
+    /**
+     * Remove the passed in key from the dependents of its entities.
+     */
+    private void removeDependents(Fingerprint key, Set<String> entityNames) {
+
+        for (String entityName : entityNames) {
+            Set<Fingerprint> keys = dependents.get(entityName);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty())
+                    dependents.remove(entityName);
+            }
+        }
+    }
+
+
+    private static class Entry<V> {
+
+        private final ExpressionTree query;
+        private final V value;
+        private final long expires;
+        private final Set<String> entityNames;
+
+        private Entry(ExpressionTree query, V value, long expires,
+                      Set<String> entityNames) {
+            this.query = query;
+            this.value = value;
+            this.expires = expires;
+            this.entityNames = entityNames;
+        }
+    }
+}
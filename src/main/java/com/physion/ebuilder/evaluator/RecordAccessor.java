@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+
+/**
+ * The ExpressionEvaluator does not know anything about the objects
+ * it is evaluating an ExpressionTree against.  It uses a RecordAccessor
+ * to get the values out of a "record".  A record is whatever object
+ * the caller uses to represent an instance of one of the classes
+ * in the DataModel.  E.g. an Epoch, a Source, a Response.
+ *
+ * The methods below map onto the Attribute Types in the DataModel:
+ *
+ *      getAttribute()          BOOLEAN, UTF_8_STRING, INT_16, INT_32,
+ *                              FLOAT_64, DATE_TIME
+ *      getReference()          REFERENCE with Cardinality.TO_ONE
+ *      getCollection()         REFERENCE with Cardinality.TO_MANY, and
+ *                              PER_USER_OR_CUSTOM_REFERENCE_OPERATOR
+ *      getParameter()          PARAMETERS_MAP
+ *      getPerUserParameters()  PER_USER_PARAMETERS_MAP
+ *
+ * The record passed to the methods is never null.
+ *
+ * @see ExpressionEvaluator
+ */
+public interface RecordAccessor {
+
+    /**
+     * Get the value of a primitive attribute of the passed in record.
+     * E.g. "protocolID", "startTime", "excludeFromAnalysis".
+     *
+     * The returned value should be a Boolean, a Short, an Integer,
+     * a Double, a String, or a Joda DateTime, (any Number, ReadableInstant
+     * or java.util.Date will work), or null if the attribute is not set.
+     */
+    public Object getAttribute(Object record, String attributeName);
+
+
+    /**
+     * Get the record that the passed in record's to-one reference
+     * attribute points at.  E.g. "owner", "epochGroup", "nextEpoch".
+     *
+     * Returns null if the reference is not set.
+     */
+    public Object getReference(Object record, String attributeName);
+
+
+    /**
+     * Get the records of a to-many reference attribute of the passed
+     * in record.  E.g. "responses", "epochs".
+     *
+     * This is also used for the per-user and custom reference
+     * operators, in which case attributeName is the name of the
+     * operator.  E.g. "mykeywords", "keywords", "mynotes",
+     * "containing_experiments".  The RecordAccessor is the thing
+     * that knows who the current user is, so it is responsible for
+     * returning only the current user's objects for the "my"
+     * operators.
+     *
+     * Returns an empty Iterable, or null, if there are no records.
+     * The ExpressionEvaluator often stops part way through the
+     * Iterable, so for a big collection, (e.g. the epochs of a
+     * Source), it can be a lazy one, such as a database cursor,
+     * rather than a List of every record.
+     */
+    public Iterable<?> getCollection(Object record, String attributeName);
+
+
+    /**
+     * Get the value stored under the passed in key in the passed
+     * in record's parameters map attribute.
+     * E.g. mapName = "protocolParameters", key = "stimulus.amplitude".
+     *
+     * The returned value should be one of the types listed for
+     * getAttribute(), or null if the map does not contain the key.
+     *
+     * If your records keep their parameters in ParameterMaps, implement
+     * ParameterMapAccessor, and parameter comparisons will not box
+     * the values.
+     */
+    public Object getParameter(Object record, String mapName, String key);
+
+
+    /**
+     * Get all the values stored under the passed in key in the passed
+     * in record's per-user parameters map attribute.  As of October 2011,
+     * mapName is either "properties", (all users' values), or
+     * "myproperties", (only the current user's values).
+     *
+     * Returns an empty Iterable, or null, if there are no values.
+     */
+    public Iterable<?> getPerUserParameters(Object record, String mapName,
+                                            String key);
+}
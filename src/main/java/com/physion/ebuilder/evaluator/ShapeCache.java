@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.QueryShape;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * This class remembers the work done for each query shape, so a query
+ * that only differs from an earlier one in its literals, (e.g. the
+ * same Epoch query for another day, or another protocolID), reuses
+ * that work instead of doing it again.  The value is whatever the
+ * work produced:  a PreparedQuery, a SQL statement, and so on.
+ *
+ * The key of a value is the QueryShape of the query, so the binds of
+ * the query do not matter, but the shape tree does.  Two shapes are
+ * only the same if their trees are equal, so a Fingerprint collision
+ * can't return the wrong value.
+ *
+ * The cache holds at most maximumSize values.  When it is full, the
+ * value that was used least recently is thrown away.  Unlike the
+ * results in a QueryResultCache, the work done for a shape does not
+ * depend on what is in the database, so it never goes out of date.
+ *
+ * All of the methods are thread safe.
+ *
+ * Example of use:
+ *
+ *      ShapeCache<PreparedQuery> cache =
+ *          new ShapeCache<PreparedQuery>(500);
+ *      QueryShape shape = QueryShape.of(tree);
+ *      PreparedQuery prepared = cache.get(shape);
+ *      if (prepared == null) {
+ *          prepared = new PreparedQuery(shape, myStatistics);
+ *          cache.put(shape, prepared);
+ *      }
+ *      ExpressionEvaluator evaluator = prepared.createEvaluator(
+ *          shape.getBinds());
+ *
+ * @param <V> The type of the values.
+ *
+ * @see QueryShape
+ * @see PreparedQuery
+ */
+public class ShapeCache<V> {
+
+    private final int maximumSize;
+
+    /**
+     * The values, in order from least to most recently used.
+     */
+    private final LinkedHashMap<QueryShape,V> entries;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+
+    /**
+     * @param maximumSize The most values the cache holds.
+     */
+    public ShapeCache(int maximumSize) {
+
+        if (maximumSize < 1) {
+            throw(new IllegalArgumentException(
+                "maximumSize must be at least 1."));
+        }
+
+        this.maximumSize = maximumSize;
+        entries = new LinkedHashMap<QueryShape,V>(16, 0.75f, true);
+    }
+
+
+    /**
+     * Get the value for the passed in query shape.
+     *
+     * @return The value, or null if the cache does not have one.
+     */
+    public synchronized V get(QueryShape shape) {
+
+        V value = entries.get(shape);
+        if (value == null)
+            missCount++;
+        else
+            hitCount++;
+        return(value);
+    }
+
+
+    /**
+     * Remember the value for the passed in query shape, replacing
+     * any value it already had.
+     */
+    public synchronized void put(QueryShape shape, V value) {
+
+        if (value == null) {
+            throw(new IllegalArgumentException(
+                "A ShapeCache cannot hold a null value."));
+        }
+
+        entries.put(shape, value);
+
+        /**
+         * Throw away the least recently used values, which are
+         * at the start of the map.
+         */
+        Iterator<Map.Entry<QueryShape,V>> iterator =
+            entries.entrySet().iterator();
+        while (entries.size() > maximumSize) {
+            iterator.next();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+
+    /**
+     * Throw away the value for the passed in query shape, if there
+     * is one.
+     */
+    public synchronized void remove(QueryShape shape) {
+        entries.remove(shape);
+    }
+
+
+    /**
+     * Throw away every value.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+
+    /**
+     * Get the number of values the cache holds.
+     */
+    public synchronized int size() {
+        return(entries.size());
+    }
+
+
+    public synchronized long getHitCount() {
+        return(hitCount);
+    }
+
+
+    public synchronized long getMissCount() {
+        return(missCount);
+    }
+
+
+    /**
+     * Get the number of values that were thrown away because the
+     * cache was full.
+     */
+    public synchronized long getEvictionCount() {
+        return(evictionCount);
+    }
+
+
+    /**
+     * Get a one line description of how well the cache is doing,
+     * suitable for a log file.
+     */
+    public synchronized String getReport() {
+        return(entries.size()+" shapes, "+hitCount+" hits, "+missCount+
+               " misses, "+evictionCount+" evicted.");
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+
+/**
+ * This class finds the records whose value of one attribute is in a
+ * range.  E.g. which of the Epochs in a ColumnBatch have a startTime
+ * between t1 and t2.  It is the other side of an IntervalIndex, which
+ * finds the ranges that hold one value.
+ *
+ * The index is built from a column of the kind a ColumnBatch holds:
+ * an int[] of int16 or int32 values, a double[] of float64 values, or
+ * a long[] of times in milliseconds since the epoch, plus a null
+ * bitmap.  It holds the values, (as doubles), sorted, along with the
+ * row each came from.  A range is found with two binary searches, so
+ * select() takes O(log n + k) time, where k is the number of records
+ * in the range, instead of the O(n) it takes to look at every record.
+ *
+ * A null, or a NaN, is not in any range, which is what the
+ * ExpressionEvaluator does with a comparison.  The values of a time
+ * column are exact for the next 280,000 years.
+ *
+ * A SortedColumnIndex is never changed after it is built, so any
+ * number of threads can use it at once.  Building one takes
+ * O(n log n) time, so it pays when a column is filtered more than a
+ * few times.
+ *
+ * Example of use:
+ *
+ *      SortedColumnIndex index = SortedColumnIndex.forTimes(startTimes,
+ *                                                          null);
+ *      long[] bitmap = index.select(t1, true, t2, false);  // [t1, t2)
+ *      for (int row = 0; row < index.getRowCount(); row++) {
+ *          if (ColumnBatch.getBit(bitmap, row))
+ *              ...
+ *      }
+ *
+ * @see IntervalIndex
+ * @see ColumnBatch
+ */
+public final class SortedColumnIndex {
+
+    private final int rowCount;
+
+    /**
+     * The values that are not null or NaN, from lowest to highest,
+     * and the row each one came from.
+     */
+    private final double[] keys;
+    private final int[] rows;
+
+
+    private SortedColumnIndex(int rowCount, double[] keys, int[] rows) {
+
+        this.rowCount = rowCount;
+        this.keys = keys;
+        this.rows = rows;
+        sort(keys, rows);
+    }
+
+
+    /**
+     * Create an index of a column of int16 or int32 values.
+     *
+     * @param nulls The null bitmap, or null if none of the values
+     * are null.
+     */
+    public static SortedColumnIndex forInts(int[] values, long[] nulls) {
+
+        checkLength(values.length, nulls);
+        int count = countValues(values.length, nulls);
+        double[] keys = new double[count];
+        int[] rows = new int[count];
+        int next = 0;
+        for (int row = 0; row < values.length; row++) {
+            if ((nulls == null) || !ColumnBatch.getBit(nulls, row)) {
+                keys[next] = values[row];
+                rows[next++] = row;
+            }
+        }
+        return(new SortedColumnIndex(values.length, keys, rows));
+    }
+
+
+    /**
+     * Create an index of a column of float64 values.
+     *
+     * @param nulls The null bitmap, or null if none of the values
+     * are null.
+     */
+    public static SortedColumnIndex forDoubles(double[] values,
+                                               long[] nulls) {
+
+        checkLength(values.length, nulls);
+        int count = 0;
+        for (int row = 0; row < values.length; row++) {
+            if (isValue(values[row], row, nulls))
+                count++;
+        }
+
+        double[] keys = new double[count];
+        int[] rows = new int[count];
+        int next = 0;
+        for (int row = 0; row < values.length; row++) {
+            if (isValue(values[row], row, nulls)) {
+                keys[next] = values[row];
+                rows[next++] = row;
+            }
+        }
+        return(new SortedColumnIndex(values.length, keys, rows));
+    }
+
+
+    /**
+     * Create an index of a column of times.
+     *
+     * @param millis The times, in milliseconds since the epoch.
+     *
+     * @param nulls The null bitmap, or null if none of the values
+     * are null.
+     */
+    public static SortedColumnIndex forTimes(long[] millis, long[] nulls) {
+
+        checkLength(millis.length, nulls);
+        int count = countValues(millis.length, nulls);
+        double[] keys = new double[count];
+        int[] rows = new int[count];
+        int next = 0;
+        for (int row = 0; row < millis.length; row++) {
+            if ((nulls == null) || !ColumnBatch.getBit(nulls, row)) {
+                keys[next] = millis[row];
+                rows[next++] = row;
+            }
+        }
+        return(new SortedColumnIndex(millis.length, keys, rows));
+    }
+
+
+    /**
+     * Get the number of records in the column, including the nulls.
+     */
+    public int getRowCount() {
+        return(rowCount);
+    }
+
+
+    /**
+     * Get the number of records whose value is not null or NaN.
+     */
+    public int size() {
+        return(keys.length);
+    }
+
+
+    /**
+     * Get the records whose value is in the passed in range.
+     *
+     * @param low The low end.  Use Double.NEGATIVE_INFINITY if there
+     * is no low end.
+     *
+     * @param lowInclusive True if the range contains its low end.
+     *
+     * @param high The high end.  Use Double.POSITIVE_INFINITY if
+     * there is no high end.
+     *
+     * @param highInclusive True if the range contains its high end.
+     *
+     * @return A bitmap, of the form ColumnBatch uses, with a bit set
+     * for each record in the range.
+     */
+    public long[] select(double low, boolean lowInclusive, double high,
+                         boolean highInclusive) {
+
+        long[] bitmap = ColumnBatch.createBitmap(rowCount);
+        int end = getEnd(high, highInclusive);
+        for (int index = getStart(low, lowInclusive); index < end; index++)
+            ColumnBatch.setBit(bitmap, rows[index]);
+        return(bitmap);
+    }
+
+
+    /**
+     * Get the number of records whose value is in the passed in
+     * range.  This takes O(log n) time.
+     */
+    public int count(double low, boolean lowInclusive, double high,
+                     boolean highInclusive) {
+
+        return(Math.max(0, getEnd(high, highInclusive)-
+                           getStart(low, lowInclusive)));
+    }
+
+
+    /**
+     * Get the index of the first key that is in a range with the
+     * passed in low end.
+     */
+    private int getStart(double low, boolean lowInclusive) {
+
+        if (Double.isNaN(low))
+            return(keys.length);
+
+        int first = 0;
+        int last = keys.length;
+        while (first < last) {
+            int middle = (first+last) >>> 1;
+            if ((keys[middle] < low) ||
+                ((keys[middle] == low) && !lowInclusive))
+                first = middle+1;
+            else
+                last = middle;
+        }
+        return(first);
+    }
+
+
+    /**
+     * Get the index after the last key that is in a range with the
+     * passed in high end.
+     */
+    private int getEnd(double high, boolean highInclusive) {
+
+        if (Double.isNaN(high))
+            return(0);
+
+        int first = 0;
+        int last = keys.length;
+        while (first < last) {
+            int middle = (first+last) >>> 1;
+            if ((keys[middle] < high) ||
+                ((keys[middle] == high) && highInclusive))
+                first = middle+1;
+            else
+                last = middle;
+        }
+        return(first);
+    }
+
+
+    private static boolean isValue(double value, int row, long[] nulls) {
+        return(!Double.isNaN(value) &&
+               ((nulls == null) || !ColumnBatch.getBit(nulls, row)));
+    }
+
+
+    private static int countValues(int rowCount, long[] nulls) {
+        return((nulls == null) ? rowCount :
+               rowCount-ColumnBatch.getCardinality(nulls));
+    }
+
+
+    private static void checkLength(int rowCount, long[] nulls) {
+
+        if ((nulls != null) &&
+            (nulls.length != ColumnBatch.getWordCount(rowCount))) {
+            throw(new IllegalArgumentException(
+                "The null bitmap has "+nulls.length+" words, but "+
+                rowCount+" values need "+ColumnBatch.getWordCount(rowCount)+
+                "."));
+        }
+    }
+
+
+    /**
+     * Sort the keys, and the rows along with them.  This is a merge
+     * sort, so rows with the same value stay in row order.
+     */
+    private static void sort(double[] keys, int[] rows) {
+
+        int length = keys.length;
+        double[] keyBuffer = new double[length];
+        int[] rowBuffer = new int[length];
+
+        for (int width = 1; width < length; width *= 2) {
+            for (int start = 0; start < length; start += 2*width) {
+
+                int middle = Math.min(start+width, length);
+                int end = Math.min(start+2*width, length);
+                int left = start;
+                int right = middle;
+                for (int index = start; index < end; index++) {
+                    if ((left < middle) &&
+                        ((right >= end) || (keys[left] <= keys[right]))) {
+                        keyBuffer[index] = keys[left];
+                        rowBuffer[index] = rows[left++];
+                    }
+                    else {
+                        keyBuffer[index] = keys[right];
+                        rowBuffer[index] = rows[right++];
+                    }
+                }
+            }
+            System.arraycopy(keyBuffer, 0, keys, 0, length);
+            System.arraycopy(rowBuffer, 0, rows, 0, length);
+        }
+    }
+}
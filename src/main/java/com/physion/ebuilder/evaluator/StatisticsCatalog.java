@@ -0,0 +1,401 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+ * This class collects the statistics of the attributes of the
+ * classes in the DataModel, and gives them to the QueryPlanner.
+ *
+ * collect() scans the records of one class, (e.g. all the Epochs),
+ * once, and uses a RecordAccessor to summarize every attribute of
+ * the class that we collect statistics for.  See AttributeSummary
+ * for what is collected.  The parameters maps, and the per-user and
+ * custom reference operators, are not summarized.
+ *
+ * The statistics do not have to be collected all at once:
+ *
+ *      add() adds one more record, e.g. a new Epoch.
+ *
+ *      merge() adds the statistics of another catalog, e.g. one
+ *      collected from another partition of the records by another
+ *      thread.
+ *
+ *      write() saves the catalog in a small binary file, (a few
+ *      kilobytes per class), and read() reads it back, so the records
+ *      do not have to be scanned again the next time the program runs.
+ *
+ * The statistics of a class are looked up by its name, so a catalog
+ * read from a file works with the ClassDescriptions of the DataModel
+ * that is running.  A StatisticsCatalog is not synchronized.  Collect
+ * partitions in separate catalogs, and merge them.
+ *
+ * Example of use:
+ *
+ *      StatisticsCatalog catalog = StatisticsCatalog.read(file);
+ *      catalog.collect(DataModel.getClassDescription("Epoch"),
+ *                      newEpochs, myRecordAccessor);
+ *      catalog.write(file);
+ *      QueryPlanner planner = new QueryPlanner(catalog);
+ *
+ * @see AttributeSummary
+ * @see QueryPlanner
+ */
+public class StatisticsCatalog
+    implements AttributeStatistics {
+
+    /**
+     * "PQST", and the version of the file format.
+     */
+    private static final int MAGIC = 0x50515354;
+    private static final int VERSION = 1;
+
+    /**
+     * The summaries of the attributes of each class, by the names of
+     * the class and attribute.  TreeMaps so write() writes them in
+     * the same order every time.
+     */
+    private final Map<String,Map<String,AttributeSummary>> classes =
+        new TreeMap<String,Map<String,AttributeSummary>>();
+
+
+    /**
+     * Add all the passed in records, which are instances of the passed
+     * in class, to the statistics.
+     */
+    public void collect(ClassDescription classDescription,
+                        Iterable<?> records, RecordAccessor accessor) {
+
+        List<Attribute> attributes = getSummarizedAttributes(
+            classDescription);
+        AttributeSummary[] summaries = getSummaries(classDescription,
+                                                    attributes);
+        for (Object record : records) {
+            if (record != null)
+                add(record, accessor, attributes, summaries);
+        }
+    }
+
+
+    /**
+     * Add one record, which is an instance of the passed in class,
+     * to the statistics.  To add many records, collect() is faster.
+     */
+    public void add(ClassDescription classDescription, Object record,
+                    RecordAccessor accessor) {
+
+        if (record == null)
+            return;
+
+        List<Attribute> attributes = getSummarizedAttributes(
+            classDescription);
+        add(record, accessor, attributes, getSummaries(classDescription,
+                                                       attributes));
+    }
+
+
+    /**
+     * Add all the statistics of the passed in catalog to this one.
+     * The passed in catalog is not changed.
+     *
+     * @throws IllegalArgumentException If the catalogs have summaries
+     * of the same attribute with different Types.
+     */
+    public void merge(StatisticsCatalog other) {
+
+        for (Map.Entry<String,Map<String,AttributeSummary>> entry :
+             other.classes.entrySet()) {
+
+            Map<String,AttributeSummary> summaries = getClassSummaries(
+                entry.getKey());
+            for (Map.Entry<String,AttributeSummary> attributeEntry :
+                 entry.getValue().entrySet()) {
+                AttributeSummary summary = summaries.get(
+                    attributeEntry.getKey());
+                if (summary == null) {
+                    summaries.put(attributeEntry.getKey(),
+                                  attributeEntry.getValue().copy());
+                }
+                else {
+                    summary.merge(attributeEntry.getValue());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Get the summary of an attribute of a class, or null if we have
+     * no statistics for it.  Do not change it.
+     */
+    public AttributeSummary getSummary(ClassDescription classDescription,
+                                       String attributeName) {
+
+        Map<String,AttributeSummary> summaries =
+            classes.get(classDescription.getName());
+        if (summaries == null)
+            return(null);
+        return(summaries.get(attributeName));
+    }
+
+
+    /**
+     * Get the number of records of the passed in class that have
+     * been added.
+     */
+    public long getRecordCount(ClassDescription classDescription) {
+
+        Map<String,AttributeSummary> summaries =
+            classes.get(classDescription.getName());
+        if ((summaries == null) || summaries.isEmpty())
+            return(0);
+
+        /**
+         * Every record is added to every summary of its class.
+         */
+        return(summaries.values().iterator().next().getRecordCount());
+    }
+
+
+    @Override
+    public double getSelectivity(ClassDescription classDescription,
+                                 String attributeName, Operator operator,
+                                 Object value) {
+
+        AttributeSummary summary = getSummary(classDescription,
+                                              attributeName);
+        if (summary == null)
+            return(UNKNOWN);
+        return(summary.getSelectivity(operator, value));
+    }
+
+
+    @Override
+    public double getNullFraction(ClassDescription classDescription,
+                                  String attributeName) {
+
+        AttributeSummary summary = getSummary(classDescription,
+                                              attributeName);
+        if (summary == null)
+            return(UNKNOWN);
+        return(summary.getNullFraction());
+    }
+
+
+    @Override
+    public double getFanOut(ClassDescription classDescription,
+                            String attributeName) {
+
+        AttributeSummary summary = getSummary(classDescription,
+                                              attributeName);
+        if (summary == null)
+            return(UNKNOWN);
+        return(summary.getFanOut());
+    }
+
+
+    /**
+     * Write the catalog in the form read() reads.
+     */
+    public void write(DataOutput out)
+        throws IOException {
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(classes.size());
+        for (Map.Entry<String,Map<String,AttributeSummary>> entry :
+             classes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (Map.Entry<String,AttributeSummary> attributeEntry :
+                 entry.getValue().entrySet()) {
+                out.writeUTF(attributeEntry.getKey());
+                attributeEntry.getValue().write(out);
+            }
+        }
+    }
+
+
+    /**
+     * Write the catalog to the passed in file, replacing whatever
+     * is in it.
+     */
+    public void write(File file)
+        throws IOException {
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file)));
+        try {
+            write(out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Read a catalog written by write().
+     *
+     * @throws IOException If the input is not a catalog, or was
+     * written by a newer version of this class.
+     */
+    public static StatisticsCatalog read(DataInput in)
+        throws IOException {
+
+        if (in.readInt() != MAGIC)
+            throw(new IOException("This is not a statistics file."));
+
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw(new IOException("Unknown statistics file version: "+
+                                  version));
+        }
+
+        StatisticsCatalog catalog = new StatisticsCatalog();
+        int classCount = in.readInt();
+        for (int index = 0; index < classCount; index++) {
+            Map<String,AttributeSummary> summaries =
+                catalog.getClassSummaries(in.readUTF());
+            int attributeCount = in.readInt();
+            for (int attribute = 0; attribute < attributeCount; attribute++)
+                summaries.put(in.readUTF(), AttributeSummary.read(in));
+        }
+        return(catalog);
+    }
+
+
+    /**
+     * Read a catalog from a file written by write().
+     */
+    public static StatisticsCatalog read(File file)
+        throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(file)));
+        try {
+            return(read(in));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+
+    @Override
+    public String toString() {
+
+        StringBuilder s = new StringBuilder();
+        for (Map.Entry<String,Map<String,AttributeSummary>> entry :
+             classes.entrySet()) {
+            for (Map.Entry<String,AttributeSummary> attributeEntry :
+                 entry.getValue().entrySet()) {
+                s.append(entry.getKey()).append('.').
+                    append(attributeEntry.getKey()).append(' ').
+                    append(attributeEntry.getValue()).append('\n');
+            }
+        }
+        return(s.toString());
+    }
+
+
+    /**
+     * Get the attributes of the passed in class that we summarize.
+     * If a subclass has an attribute with the same name as one of its
+     * ancestors, we use the subclass's, like
+     * ClassDescription.getAttribute() does.
+     */
+    private static List<Attribute> getSummarizedAttributes(
+        ClassDescription classDescription) {
+
+        List<Attribute> attributes = new ArrayList<Attribute>();
+        Set<String> names = new HashSet<String>();
+        for (Attribute attribute : classDescription.getAllAttributes()) {
+            if (!attribute.isSpecial() &&
+                AttributeSummary.isSummarized(attribute.getType()) &&
+                names.add(attribute.getQueryName()))
+                attributes.add(attribute);
+        }
+        return(attributes);
+    }
+
+
+    /**
+     * Get the summaries of the passed in attributes of the passed
+     * in class, creating any that do not exist yet.
+     */
+    private AttributeSummary[] getSummaries(ClassDescription classDescription,
+                                            List<Attribute> attributes) {
+
+        Map<String,AttributeSummary> classSummaries = getClassSummaries(
+            classDescription.getName());
+        AttributeSummary[] summaries = new AttributeSummary[attributes.size()];
+        for (int index = 0; index < summaries.length; index++) {
+
+            Attribute attribute = attributes.get(index);
+            AttributeSummary summary = classSummaries.get(
+                attribute.getQueryName());
+            if (summary == null) {
+                summary = new AttributeSummary(attribute.getType(),
+                                               attribute.getCardinality());
+                classSummaries.put(attribute.getQueryName(), summary);
+            }
+            summaries[index] = summary;
+        }
+        return(summaries);
+    }
+
+
+    private Map<String,AttributeSummary> getClassSummaries(String className) {
+
+        Map<String,AttributeSummary> summaries = classes.get(className);
+        if (summaries == null) {
+            summaries = new TreeMap<String,AttributeSummary>();
+            classes.put(className, summaries);
+        }
+        return(summaries);
+    }
+
+
+    private static void add(Object record, RecordAccessor accessor,
+                            List<Attribute> attributes,
+                            AttributeSummary[] summaries) {
+
+        for (int index = 0; index < summaries.length; index++) {
+
+            String name = attributes.get(index).getQueryName();
+            AttributeSummary summary = summaries[index];
+            if (summary.getType() != Type.REFERENCE)
+                summary.addValue(accessor.getAttribute(record, name));
+            else if (summary.getCardinality() == Cardinality.TO_MANY)
+                summary.addCollection(accessor.getCollection(record, name));
+            else
+                summary.addReference(accessor.getReference(record, name));
+        }
+    }
+}
@@ -0,0 +1,956 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.expression.ExpressionNormalizer;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.translator.Translator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * This class matches records against many standing queries at once.
+ * E.g. thousands of saved alerts that each new Epoch has to be
+ * checked against.
+ *
+ * Testing a record against every query would cost N evaluations.
+ * Instead, each query is indexed by one of the conditions it ANDs
+ * together, (its "anchor"), that can be looked up from the record:
+ *
+ *      protocolID == "abc"     The query is filed under the value "abc"
+ *                              of the attribute protocolID.  A record
+ *                              whose protocolID is "xyz" never looks
+ *                              at it.
+ *
+ *      startTime > t           The query is filed in an IntervalIndex
+ *      startTime <= t          of the ranges on startTime.  A record
+ *                              only looks at the queries whose range
+ *                              holds its startTime.
+ *
+ * The ranges on the same attribute in an "and" are put together, so
+ * and(x >= 10, x < 20) is filed under the one range [10, 20], and a
+ * record with x == 50 never looks at it.
+ *
+ * For each record, match() gets the value of each indexed attribute,
+ * collects the queries whose anchors the value satisfies, (the
+ * "candidates"), and then tests each candidate with its own
+ * ExpressionEvaluator.  Equality anchors are preferred to range
+ * anchors, because they usually narrow the candidates more.
+ *
+ * A query that is an "or" at the top is filed under one anchor for
+ * each of its operands, (e.g. or(label == "a", label == "b") is filed
+ * under "a" and "b"), as long as every operand has one.  A query
+ * without an anchor, (e.g. only paths and collection operators), is a
+ * candidate for every record of its class.
+ *
+ * The candidates are tested with the tree of nodes, not bytecode.
+ * Each query only sees a few of the records, and thousands of
+ * generated classes, (one per query), are slower than the nodes
+ * and fill up the JVM's code cache.
+ *
+ * The query is normalized first, so the or(a) and not(not(a))
+ * operators the GUI creates do not hide the anchors.
+ *
+ * register() and unregister() may be called at any time, from any
+ * thread, while other threads call match().  They take a lock that
+ * only other calls to register() and unregister() wait for.  match()
+ * never takes a lock: the index is made of ConcurrentHashMaps and
+ * arrays that are copied, not changed, when a query is added or
+ * removed.  A match() that runs at the same time as a register() or
+ * unregister() might or might not see that query.
+ *
+ * Example of use:
+ *
+ *      SubscriptionMatcher<Alert> matcher =
+ *          new SubscriptionMatcher<Alert>();
+ *      for (Alert alert : alerts)
+ *          matcher.register(alert, alert.getExpressionTree());
+ *      ...
+ *      for (Alert alert : matcher.match("Epoch", newEpoch, accessor))
+ *          alert.fire(newEpoch);
+ *
+ * @param <S> The type of the subscribers that own the queries.
+ *
+ * @see ExpressionEvaluator
+ */
+public class SubscriptionMatcher<S>
+    implements Translator {
+
+    /**
+     * The kinds of anchors.
+     */
+    private static final int ANCHOR_EQUALS = 1;
+    private static final int ANCHOR_RANGE = 2;
+
+    /**
+     * The subscriptions, by subscriber.
+     */
+    private final Map<S, Subscription<S>> subscriptions =
+        new ConcurrentHashMap<S, Subscription<S>>();
+
+    /**
+     * The index of the subscriptions of each Class Under Qualification.
+     */
+    private final Map<String, ClassIndex<S>> classIndexes =
+        new ConcurrentHashMap<String, ClassIndex<S>>();
+
+    /**
+     * The lock for register() and unregister().
+     */
+    private final Object writeLock = new Object();
+
+
+    /**
+     * Add a query.  If the subscriber already has a query, it is
+     * replaced.
+     *
+     * @throws IllegalArgumentException If the query has no Class
+     * Under Qualification, or the ExpressionEvaluator cannot evaluate
+     * it.
+     */
+    public void register(S subscriber, ExpressionTree query) {
+
+        if ((subscriber == null) || (query == null)) {
+            throw(new IllegalArgumentException(
+                "subscriber and query may not be null."));
+        }
+        if (query.getClassUnderQualification() == null) {
+            throw(new IllegalArgumentException(
+                "The query has no Class Under Qualification."));
+        }
+
+        /**
+         * Do the slow part, normalizing and compiling the query,
+         * before taking the lock.
+         */
+        ExpressionTree normalized = new ExpressionNormalizer().normalize(
+            query);
+        ExpressionEvaluator evaluator = new ExpressionEvaluator(normalized,
+            ExpressionEvaluator.NEVER_COMPILE);
+        Subscription<S> subscription = new Subscription<S>(subscriber,
+            evaluator, normalized.getClassUnderQualification(),
+            findAnchors(normalized));
+
+        synchronized (writeLock) {
+            remove(subscriptions.get(subscriber));
+            subscriptions.put(subscriber, subscription);
+
+            ClassIndex<S> classIndex = classIndexes.get(subscription.cuq);
+            if (classIndex == null) {
+                classIndex = new ClassIndex<S>();
+                classIndexes.put(subscription.cuq, classIndex);
+            }
+            classIndex.add(subscription);
+        }
+    }
+
+
+    /**
+     * Remove the passed in subscriber's query.
+     *
+     * @return true if the subscriber had a query.
+     */
+    public boolean unregister(S subscriber) {
+
+        synchronized (writeLock) {
+            Subscription<S> subscription = subscriptions.remove(subscriber);
+            remove(subscription);
+            return(subscription != null);
+        }
+    }
+
+
+    /**
+     * Get the number of registered queries.
+     */
+    public int size() {
+        return(subscriptions.size());
+    }
+
+
+    /**
+     * Get the subscribers whose queries the passed in record satisfies.
+     *
+     * @param className The class of the record, e.g. "Epoch".  Only
+     * the queries with this Class Under Qualification are tested.
+     *
+     * @throws IllegalArgumentException If className is null.
+     */
+    public List<S> match(String className, Object record,
+                         RecordAccessor accessor) {
+
+        List<S> matches = new ArrayList<S>();
+        match(className, record, accessor, matches);
+        return(matches);
+    }
+
+
+    /**
+     * Add the subscribers whose queries the passed in record satisfies
+     * to the passed in collection.
+     *
+     * @return The number of subscribers that were added.
+     */
+    public int match(String className, Object record,
+                     RecordAccessor accessor, Collection<? super S> matches) {
+
+        List<Subscription<S>> candidates = getCandidates(className, record,
+                                                         accessor);
+        int count = 0;
+        for (Subscription<S> subscription : candidates) {
+            if (subscription.evaluator.evaluate(record, accessor)) {
+                matches.add(subscription.subscriber);
+                count++;
+            }
+        }
+        return(count);
+    }
+
+
+    /**
+     * Get the number of queries that match() would test the passed in
+     * record against.  This is for tuning, and for the tests.
+     */
+    public int countCandidates(String className, Object record,
+                               RecordAccessor accessor) {
+
+        return(getCandidates(className, record, accessor).size());
+    }
+
+
+    private List<Subscription<S>> getCandidates(String className,
+                                                Object record,
+                                                RecordAccessor accessor) {
+
+        if (className == null) {
+            throw(new IllegalArgumentException(
+                "className may not be null."));
+        }
+
+        List<Subscription<S>> candidates = new ArrayList<Subscription<S>>();
+        ClassIndex<S> classIndex = classIndexes.get(className);
+        if ((classIndex == null) || (record == null))
+            return(candidates);
+
+        classIndex.addCandidates(record, accessor, candidates);
+
+        /**
+         * A query with several anchors might be a candidate more
+         * than once.
+         */
+        if (classIndex.multipleAnchorCount > 0) {
+            Set<Subscription<S>> seen = Collections.newSetFromMap(
+                new IdentityHashMap<Subscription<S>, Boolean>());
+            Iterator<Subscription<S>> iterator = candidates.iterator();
+            while (iterator.hasNext()) {
+                Subscription<S> candidate = iterator.next();
+                if ((candidate.anchors.length > 1) && !seen.add(candidate))
+                    iterator.remove();
+            }
+        }
+        return(candidates);
+    }
+
+
+    /**
+     * Remove the passed in subscription from the index.  The caller
+     * must hold the writeLock.
+     */
+    private void remove(Subscription<S> subscription) {
+
+        if (subscription == null)
+            return;
+
+        ClassIndex<S> classIndex = classIndexes.get(subscription.cuq);
+        if (classIndex != null)
+            classIndex.remove(subscription);
+    }
+
+
+    /**
+     * Find the anchors for the passed in query.  This returns one
+     * anchor for most queries, one for each operand of an "or", and
+     * none if the query has no anchor.
+     */
+    private static Anchor[] findAnchors(ExpressionTree query) {
+
+        ClassDescription cuq = null;
+        if (query.getClassUnderQualification() != null) {
+            cuq = DataModel.getClassDescription(
+                query.getClassUnderQualification());
+        }
+
+        IExpression root = query.getRootExpression();
+        if (!isOperator(root, OE_OR)) {
+            Anchor anchor = findAnchor(root, cuq);
+            return((anchor == null) ? new Anchor[0] : new Anchor[] {anchor});
+        }
+
+        List<IExpression> operands = ((IOperatorExpression)root).
+            getOperandList();
+        Anchor[] anchors = new Anchor[operands.size()];
+        for (int index = 0; index < anchors.length; index++) {
+            anchors[index] = findAnchor(operands.get(index), cuq);
+            if (anchors[index] == null)
+                return(new Anchor[0]);
+        }
+        return(anchors);
+    }
+
+
+    /**
+     * Find the best anchor for the passed in condition.  If it is an
+     * "and", this is the first equality anchor of its operands, or
+     * the narrowest range anchor if there is no equality anchor.
+     * The ranges on the same attribute are put together first.
+     *
+     * An equality with a Boolean, (e.g. excludeFromAnalysis == false),
+     * is only used if there is nothing else, because half of the
+     * records usually satisfy it.
+     *
+     * @return The anchor, or null if the condition has none.
+     */
+    private static Anchor findAnchor(IExpression condition,
+                                     ClassDescription cuq) {
+
+        if (!isOperator(condition, OE_AND))
+            return(getAnchor(condition, cuq));
+
+        List<Anchor> anchors = new ArrayList<Anchor>();
+        for (IExpression operand :
+             ((IOperatorExpression)condition).getOperandList()) {
+            Anchor anchor = getAnchor(operand, cuq);
+            if (anchor == null)
+                continue;
+
+            for (int index = 0; index < anchors.size(); index++) {
+                Anchor other = anchors.get(index);
+                if ((anchor.kind == ANCHOR_RANGE) &&
+                    (other.kind == ANCHOR_RANGE) &&
+                    anchor.attribute.equals(other.attribute) &&
+                    (anchor.isTime == other.isTime)) {
+                    anchor = new Anchor(anchor.attribute, anchor.isTime,
+                        Math.max(anchor.low, other.low),
+                        Math.min(anchor.high, other.high));
+                    anchors.remove(index);
+                    break;
+                }
+            }
+            anchors.add(anchor);
+        }
+
+        Anchor best = null;
+        for (Anchor anchor : anchors) {
+            if (getRank(anchor) > getRank(best))
+                best = anchor;
+        }
+        return(best);
+    }
+
+
+    /**
+     * Returns a bigger number for an anchor that is likely to narrow
+     * the candidates more.
+     */
+    private static int getRank(Anchor anchor) {
+
+        if (anchor == null)
+            return(0);
+        else if (anchor.value instanceof Boolean)
+            return(1);
+        else if (anchor.kind == ANCHOR_EQUALS)
+            return(4);
+        else if (Double.isInfinite(anchor.low) ||
+                 Double.isInfinite(anchor.high))
+            return(2);
+        else
+            return(3);
+    }
+
+
+    /**
+     * If the passed in condition is a comparison of an attribute of
+     * the record with a literal, return it as an anchor.
+     *
+     * @return The anchor, or null if the condition is not one.
+     */
+    private static Anchor getAnchor(IExpression condition,
+                                    ClassDescription cuq) {
+
+        if (!(condition instanceof IOperatorExpression))
+            return(null);
+        IOperatorExpression oe = (IOperatorExpression)condition;
+        if (oe.getOperandList().size() != 2)
+            return(null);
+
+        String name = oe.getOperatorName();
+        IExpression lhs = oe.getOperandList().get(0);
+        IExpression rhs = oe.getOperandList().get(1);
+
+        /**
+         * Put the attribute on the left.  5 < x is the same as x > 5.
+         */
+        if ((lhs instanceof ILiteralValueExpression) &&
+            (rhs instanceof IAttributeExpression)) {
+            IExpression swap = lhs;
+            lhs = rhs;
+            rhs = swap;
+            if (OE_LESS_THAN.equals(name))
+                name = OE_GREATER_THAN;
+            else if (OE_GREATER_THAN.equals(name))
+                name = OE_LESS_THAN;
+            else if (OE_LESS_THAN_EQUALS.equals(name))
+                name = OE_GREATER_THAN_EQUALS;
+            else if (OE_GREATER_THAN_EQUALS.equals(name))
+                name = OE_LESS_THAN_EQUALS;
+        }
+
+        if (!(lhs instanceof IAttributeExpression) ||
+            !(rhs instanceof ILiteralValueExpression))
+            return(null);
+
+        String attributeName = ((IAttributeExpression)lhs).getAttributeName();
+        Object value = ((ILiteralValueExpression)rhs).getValue();
+        if (!isPrimitiveAttribute(attributeName, cuq) || (value == null))
+            return(null);
+
+        if (OE_EQUALS.equals(name))
+            return(new Anchor(ANCHOR_EQUALS, attributeName,
+                              getEqualityKey(value)));
+
+        Object bound = getBound(value);
+        if (bound == null)
+            return(null);
+
+        /**
+         * The bound is compared as a double, which can round two
+         * different times to the same value, so the range always
+         * includes its ends, even for < and >.  The evaluator has the
+         * last word.
+         */
+        boolean isTime = (bound instanceof Long);
+        double d = ((Number)bound).doubleValue();
+        if (OE_GREATER_THAN.equals(name) ||
+            OE_GREATER_THAN_EQUALS.equals(name))
+            return(new Anchor(attributeName, isTime, d,
+                              Double.POSITIVE_INFINITY));
+        else if (OE_LESS_THAN.equals(name) ||
+                 OE_LESS_THAN_EQUALS.equals(name))
+            return(new Anchor(attributeName, isTime,
+                              Double.NEGATIVE_INFINITY, d));
+        else
+            return(null);
+    }
+
+
+    private static boolean isOperator(IExpression expression, String name) {
+        return((expression instanceof IOperatorExpression) &&
+               name.equals(((IOperatorExpression)expression).
+                           getOperatorName()));
+    }
+
+
+    /**
+     * Returns true if the ExpressionEvaluator gets the value of the
+     * passed in attribute with RecordAccessor.getAttribute().
+     */
+    private static boolean isPrimitiveAttribute(String attributeName,
+                                                ClassDescription cuq) {
+
+        if ((attributeName == null) || AE_THIS.equals(attributeName))
+            return(false);
+        if (cuq == null)
+            return(true);
+
+        Attribute attribute = cuq.getAttribute(attributeName);
+        return((attribute == null) ||
+               (attribute.getType() != Type.REFERENCE) ||
+               (attribute.getCardinality() != Cardinality.TO_ONE));
+    }
+
+
+    /**
+     * Get the key that a value is filed under in an equality index.
+     * Values.isEqual() treats numbers of different types as equal if
+     * they have the same value, so all numbers are filed as Doubles.
+     * (Two different longs that round to the same Double share a key.
+     * That only adds a candidate; the evaluator has the last word.)
+     * Times are filed as their milliseconds.
+     */
+    static Object getEqualityKey(Object value) {
+
+        if (value instanceof Number) {
+            double d = ((Number)value).doubleValue();
+            return(Double.valueOf((d == 0.0) ? 0.0 : d));
+        }
+        else if (Values.isTime(value)) {
+            return(Long.valueOf(Values.getMillis(value)));
+        }
+        return(value);
+    }
+
+
+    /**
+     * Get the value a range index uses for the passed in value:
+     * a Double for a number, a Long for a time, or null if a
+     * range index can't hold it.
+     */
+    static Object getBound(Object value) {
+
+        if (value instanceof Number) {
+            double d = ((Number)value).doubleValue();
+            return(Double.isNaN(d) ? null : Double.valueOf(d));
+        }
+        else if (Values.isTime(value)) {
+            return(Long.valueOf(Values.getMillis(value)));
+        }
+        return(null);
+    }
+
+
+    /**
+     * A condition that a query is filed under.
+     */
+    private static class Anchor {
+
+        private final int kind;
+        private final String attribute;
+
+        /**
+         * The equality key of an ANCHOR_EQUALS.
+         */
+        private final Object value;
+
+        /**
+         * The ends of an ANCHOR_RANGE, which includes both of them.
+         */
+        private final boolean isTime;
+        private final double low;
+        private final double high;
+
+        private Anchor(int kind, String attribute, Object value) {
+            this.kind = kind;
+            this.attribute = attribute;
+            this.value = value;
+            this.isTime = false;
+            this.low = Double.NaN;
+            this.high = Double.NaN;
+        }
+
+        private Anchor(String attribute, boolean isTime, double low,
+                       double high) {
+            this.kind = ANCHOR_RANGE;
+            this.attribute = attribute;
+            this.value = null;
+            this.isTime = isTime;
+            this.low = low;
+            this.high = high;
+        }
+
+        private boolean contains(double key) {
+            return((key >= low) && (key <= high));
+        }
+    }
+
+
+    private static class Subscription<S> {
+
+        private final S subscriber;
+        private final ExpressionEvaluator evaluator;
+        private final String cuq;
+
+        /**
+         * Empty if the query has no anchor.
+         */
+        private final Anchor[] anchors;
+
+        private Subscription(S subscriber, ExpressionEvaluator evaluator,
+                             String cuq, Anchor[] anchors) {
+            this.subscriber = subscriber;
+            this.evaluator = evaluator;
+            this.cuq = cuq;
+            this.anchors = anchors;
+        }
+    }
+
+
+    /**
+     * The index of the subscriptions of one Class Under Qualification.
+     * Every array in it is copied, not changed, so a reader that got
+     * an array from one of the maps can use it without a lock.
+     */
+    private static class ClassIndex<S> {
+
+        /**
+         * attribute name -> equality key -> subscriptions
+         */
+        private final Map<String, Map<Object, Subscription<S>[]>> equalities =
+            new ConcurrentHashMap<String, Map<Object, Subscription<S>[]>>();
+
+        /**
+         * attribute name -> ranges
+         */
+        private final Map<String, RangeIndex<S>> ranges =
+            new ConcurrentHashMap<String, RangeIndex<S>>();
+
+        private volatile Subscription<S>[] unanchored = newArray(0);
+
+        /**
+         * The number of subscriptions with more than one anchor.
+         * If there are none, match() does not need to look for
+         * duplicate candidates.
+         */
+        private volatile int multipleAnchorCount;
+
+
+        private void addCandidates(Object record, RecordAccessor accessor,
+                                   List<Subscription<S>> candidates) {
+
+            for (Map.Entry<String, Map<Object, Subscription<S>[]>> entry :
+                 equalities.entrySet()) {
+                Object value = accessor.getAttribute(record, entry.getKey());
+                if (value == null)
+                    continue;
+                Subscription<S>[] bucket = entry.getValue().get(
+                    getEqualityKey(value));
+                if (bucket != null)
+                    candidates.addAll(Arrays.asList(bucket));
+            }
+
+            for (Map.Entry<String, RangeIndex<S>> entry : ranges.entrySet()) {
+                Object value = accessor.getAttribute(record, entry.getKey());
+                if (value != null)
+                    entry.getValue().addCandidates(value, candidates);
+            }
+
+            candidates.addAll(Arrays.asList(unanchored));
+        }
+
+
+        private void add(Subscription<S> subscription) {
+
+            if (subscription.anchors.length == 0)
+                unanchored = with(unanchored, subscription);
+            else if (subscription.anchors.length > 1)
+                multipleAnchorCount++;
+
+            for (Anchor anchor : subscription.anchors) {
+                if (anchor.kind == ANCHOR_EQUALS) {
+                    Map<Object, Subscription<S>[]> byValue =
+                        equalities.get(anchor.attribute);
+                    if (byValue == null) {
+                        byValue = new ConcurrentHashMap<Object,
+                            Subscription<S>[]>();
+                        equalities.put(anchor.attribute, byValue);
+                    }
+                    byValue.put(anchor.value, with(byValue.get(anchor.value),
+                                                   subscription));
+                }
+                else {
+                    RangeIndex<S> range = ranges.get(anchor.attribute);
+                    if (range == null)
+                        range = new RangeIndex<S>();
+                    ranges.put(anchor.attribute,
+                               range.with(anchor, subscription));
+                }
+            }
+        }
+
+
+        private void remove(Subscription<S> subscription) {
+
+            if (subscription.anchors.length == 0)
+                unanchored = without(unanchored, subscription);
+
+            for (Anchor anchor : subscription.anchors) {
+                if (anchor.kind == ANCHOR_EQUALS) {
+                    Map<Object, Subscription<S>[]> byValue =
+                        equalities.get(anchor.attribute);
+                    Subscription<S>[] bucket = without(byValue.get(
+                        anchor.value), subscription);
+                    if (bucket.length > 0) {
+                        byValue.put(anchor.value, bucket);
+                    }
+                    else {
+                        byValue.remove(anchor.value);
+                        if (byValue.isEmpty())
+                            equalities.remove(anchor.attribute);
+                    }
+                }
+                else {
+                    RangeIndex<S> range = ranges.get(anchor.attribute).
+                        without(anchor, subscription);
+                    if (range.isEmpty())
+                        ranges.remove(anchor.attribute);
+                    else
+                        ranges.put(anchor.attribute, range);
+                }
+            }
+
+            /**
+             * Only once the anchors are gone, (as add() counts the
+             * subscription before filing it), so a match() running
+             * now never finds it twice without removing duplicates.
+             */
+            if (subscription.anchors.length > 1)
+                multipleAnchorCount--;
+        }
+    }
+
+
+    /**
+     * The ranges on one attribute.  A number is never compared with
+     * a time, so they are kept apart.
+     *
+     * A RangeIndex is never changed.  with() and without() return a
+     * new one.
+     */
+    private static class RangeIndex<S> {
+
+        private final Ranges<S> numbers;
+        private final Ranges<S> times;
+
+        private RangeIndex() {
+            this(new Ranges<S>(), new Ranges<S>());
+        }
+
+        private RangeIndex(Ranges<S> numbers, Ranges<S> times) {
+            this.numbers = numbers;
+            this.times = times;
+        }
+
+
+        private boolean isEmpty() {
+            return((numbers.count == 0) && (times.count == 0));
+        }
+
+
+        /**
+         * Add the subscriptions whose ranges hold the passed in value
+         * to the list of candidates.
+         */
+        private void addCandidates(Object value,
+                                   List<Subscription<S>> candidates) {
+
+            if (value instanceof Number)
+                numbers.addCandidates(((Number)value).doubleValue(),
+                                      candidates);
+            else if (Values.isTime(value))
+                times.addCandidates(Values.getMillis(value), candidates);
+        }
+
+
+        private RangeIndex<S> with(Anchor anchor,
+                                   Subscription<S> subscription) {
+            if (anchor.isTime)
+                return(new RangeIndex<S>(numbers, times.with(anchor,
+                    subscription)));
+            else
+                return(new RangeIndex<S>(numbers.with(anchor, subscription),
+                                         times));
+        }
+
+
+        private RangeIndex<S> without(Anchor anchor,
+                                      Subscription<S> subscription) {
+            if (anchor.isTime)
+                return(new RangeIndex<S>(numbers, times.without(
+                    subscription)));
+            else
+                return(new RangeIndex<S>(numbers.without(subscription),
+                                         times));
+        }
+    }
+
+
+    /**
+     * The ranges of numbers, or of times, on one attribute.
+     *
+     * Building an IntervalIndex takes O(n log n) time, which is too
+     * slow to do for every query that is registered.  So the ranges
+     * that were added since the index was built are kept in a short
+     * array that is searched one by one, and the subscriptions that
+     * were removed are kept in a set that the index's results are
+     * checked against.  When those get longer than the square root
+     * of the number of ranges, the index is built again.
+     *
+     * A Ranges is never changed.
+     */
+    private static class Ranges<S> {
+
+        private static final int MINIMUM_PENDING = 32;
+
+        private final IntervalIndex<Subscription<S>> index;
+        private final Anchor[] addedAnchors;
+        private final Subscription<S>[] added;
+        private final Set<Subscription<S>> removed;
+
+        /**
+         * The number of ranges, not counting the removed ones.
+         */
+        private final int count;
+
+        private Ranges() {
+            this(new IntervalIndex.Builder<Subscription<S>>().build(),
+                 new Anchor[0], SubscriptionMatcher.<S>newArray(0),
+                 SubscriptionMatcher.<S>newIdentitySet(), 0);
+        }
+
+        private Ranges(IntervalIndex<Subscription<S>> index,
+                       Anchor[] addedAnchors, Subscription<S>[] added,
+                       Set<Subscription<S>> removed, int count) {
+            this.index = index;
+            this.addedAnchors = addedAnchors;
+            this.added = added;
+            this.removed = removed;
+            this.count = count;
+        }
+
+
+        private void addCandidates(double key,
+                                   List<Subscription<S>> candidates) {
+
+            if (Double.isNaN(key))
+                return;
+
+            int start = candidates.size();
+            index.find(key, candidates);
+            if (!removed.isEmpty()) {
+                int end = start;
+                for (int from = start; from < candidates.size(); from++) {
+                    Subscription<S> candidate = candidates.get(from);
+                    if (!removed.contains(candidate))
+                        candidates.set(end++, candidate);
+                }
+                candidates.subList(end, candidates.size()).clear();
+            }
+
+            for (int i = 0; i < added.length; i++) {
+                if (addedAnchors[i].contains(key))
+                    candidates.add(added[i]);
+            }
+        }
+
+
+        private Ranges<S> with(Anchor anchor, Subscription<S> subscription) {
+
+            Anchor[] newAnchors = Arrays.copyOf(addedAnchors,
+                                                addedAnchors.length+1);
+            newAnchors[addedAnchors.length] = anchor;
+            return(pack(new Ranges<S>(index, newAnchors,
+                SubscriptionMatcher.with(added, subscription), removed,
+                count+1)));
+        }
+
+
+        /**
+         * Remove one range of the passed in subscription.  This is
+         * called once for each of its anchors on this attribute.
+         */
+        private Ranges<S> without(Subscription<S> subscription) {
+
+            List<Anchor> newAnchors = new ArrayList<Anchor>();
+            List<Subscription<S>> newAdded = new ArrayList<Subscription<S>>();
+            for (int i = 0; i < added.length; i++) {
+                if (added[i] != subscription) {
+                    newAnchors.add(addedAnchors[i]);
+                    newAdded.add(added[i]);
+                }
+            }
+
+            Set<Subscription<S>> newRemoved = newIdentitySet();
+            newRemoved.addAll(removed);
+            newRemoved.add(subscription);
+
+            return(pack(new Ranges<S>(index,
+                newAnchors.toArray(new Anchor[newAnchors.size()]),
+                newAdded.toArray(SubscriptionMatcher.<S>newArray(0)),
+                newRemoved, count-1)));
+        }
+
+
+        /**
+         * Build the IntervalIndex again if there are too many added
+         * or removed ranges.
+         */
+        private static <S> Ranges<S> pack(Ranges<S> ranges) {
+
+            int pending = ranges.added.length+ranges.removed.size();
+            if (pending <= Math.max(MINIMUM_PENDING,
+                                    (int)Math.sqrt(ranges.count)))
+                return(ranges);
+
+            IntervalIndex.Builder<Subscription<S>> builder =
+                ranges.index.toBuilder();
+            builder.removeAll(ranges.removed);
+            for (int i = 0; i < ranges.added.length; i++) {
+                Anchor anchor = ranges.addedAnchors[i];
+                builder.add(anchor.low, true, anchor.high, true,
+                            ranges.added[i]);
+            }
+            return(new Ranges<S>(builder.build(), new Anchor[0],
+                SubscriptionMatcher.<S>newArray(0),
+                SubscriptionMatcher.<S>newIdentitySet(), ranges.count));
+        }
+    }
+
+
+    private static <S> Set<Subscription<S>> newIdentitySet() {
+        return(Collections.newSetFromMap(
+            new IdentityHashMap<Subscription<S>, Boolean>()));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static <S> Subscription<S>[] newArray(int length) {
+        return((Subscription<S>[])new Subscription<?>[length]);
+    }
+
+
+    private static <S> Subscription<S>[] with(Subscription<S>[] array,
+                                              Subscription<S> subscription) {
+
+        if (array == null)
+            array = newArray(0);
+        Subscription<S>[] newArray = Arrays.copyOf(array, array.length+1);
+        newArray[array.length] = subscription;
+        return(newArray);
+    }
+
+
+    private static <S> Subscription<S>[] without(Subscription<S>[] array,
+                                                 Subscription<S> subscription) {
+
+        for (int index = 0; index < array.length; index++) {
+            if (array[index] == subscription) {
+                Subscription<S>[] newArray = newArray(array.length-1);
+                System.arraycopy(array, 0, newArray, 0, index);
+                System.arraycopy(array, index+1, newArray, index,
+                                 array.length-index-1);
+                return(newArray);
+            }
+        }
+        return(array);
+    }
+}
@@ -0,0 +1,370 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import java.util.regex.Pattern;
+
+
+/**
+ * This class does what Pattern.matcher(text).find() does, which is
+ * what the =~, =~~, !~, and !~~ operators test, but faster for the
+ * regular expressions people usually type.
+ *
+ * compile() looks at the regular expression, and if it is only
+ * literal text, (e.g. "abc", "^abc", "abc$", "^abc$", "a\.b",
+ * "\Qa.b\E", ".*abc.*"), returns a matcher that uses indexOf(),
+ * startsWith(), or endsWith(), instead of the regular expression
+ * engine.  A case insensitive match, (=~~), of literal text compares
+ * the characters one by one, without creating lower case copies of
+ * the strings.  Any other regular expression gets a matcher that uses
+ * its Pattern.
+ *
+ * A literal matcher gives exactly the same answer as the Pattern:
+ *
+ *      A $ at the end matches before a line terminator at the end of
+ *      the text, too.  Text that ends with a line terminator is
+ *      handed to the Pattern.
+ *
+ *      The only flags a literal matcher handles are CASE_INSENSITIVE
+ *      and UNICODE_CASE, and then only if the literal text is ASCII.
+ *      (The text being matched may be anything.)
+ *
+ * A TextMatcher is never changed after it is created, so any number
+ * of threads can use it at once.
+ *
+ * Example of use:
+ *
+ *      TextMatcher matcher = TextMatcher.compile("^2011-", 0);
+ *      if (matcher.find(protocolID))
+ *          ...
+ *
+ * @see PatternCache
+ */
+public abstract class TextMatcher {
+
+    private static final int CASE_FLAGS =
+        Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+
+    /**
+     * The characters that mean something in a regular expression.
+     */
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    /**
+     * How a LiteralMatcher compares characters.
+     */
+    private static final int CASE_SENSITIVE = 0;
+    private static final int ASCII_CASE_INSENSITIVE = 1;
+    private static final int UNICODE_CASE_INSENSITIVE = 2;
+
+    private final Pattern pattern;
+
+
+    private TextMatcher(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+
+    /**
+     * Create a matcher for the passed in regular expression.
+     *
+     * @param flags The flags of Pattern.compile().
+     *
+     * @throws java.util.regex.PatternSyntaxException If the regular
+     * expression is not valid, just like Pattern.compile().
+     */
+    public static TextMatcher compile(String regex, int flags) {
+
+        /**
+         * Compile the Pattern even if it is not needed, so an invalid
+         * expression still throws, and a literal matcher has it to
+         * fall back on.
+         */
+        Pattern pattern = Pattern.compile(regex, flags);
+        if ((flags & ~CASE_FLAGS) != 0)
+            return(new PatternMatcher(pattern));
+
+        String body = regex;
+        boolean anchoredStart = false;
+        boolean anchoredEnd = false;
+
+        /**
+         * A leading or trailing .* does not change what find()
+         * finds, because it can match nothing.
+         */
+        if (body.startsWith("^")) {
+            anchoredStart = true;
+            body = body.substring(1);
+        }
+        else if (body.startsWith(".*")) {
+            body = body.substring(2);
+        }
+
+        /**
+         * A $ in a \Q quote without an \E is literal, so don't look
+         * for anchors at the end of one.
+         */
+        if (!body.contains("\\Q")) {
+            if (body.endsWith("$") && !isEscaped(body, body.length()-1)) {
+                anchoredEnd = true;
+                body = body.substring(0, body.length()-1);
+            }
+            else if (body.endsWith(".*") &&
+                     !isEscaped(body, body.length()-2)) {
+                body = body.substring(0, body.length()-2);
+            }
+        }
+
+        String literal = getLiteral(body);
+        if (literal == null)
+            return(new PatternMatcher(pattern));
+
+        int caseMode = CASE_SENSITIVE;
+        if ((flags & Pattern.CASE_INSENSITIVE) != 0) {
+            if (!isAscii(literal))
+                return(new PatternMatcher(pattern));
+            caseMode = ((flags & Pattern.UNICODE_CASE) != 0) ?
+                UNICODE_CASE_INSENSITIVE : ASCII_CASE_INSENSITIVE;
+        }
+
+        return(new LiteralMatcher(pattern, literal, caseMode, anchoredStart,
+                                  anchoredEnd));
+    }
+
+
+    /**
+     * Returns true if the regular expression is found in the passed
+     * in text.  This is the same as pattern.matcher(text).find().
+     */
+    public abstract boolean find(String text);
+
+
+    /**
+     * Returns true if find() does not use the regular expression
+     * engine.  This is for the tests.
+     */
+    public abstract boolean isLiteral();
+
+
+    /**
+     * Get the compiled regular expression.
+     */
+    public Pattern getPattern() {
+        return(pattern);
+    }
+
+
+    @Override
+    public String toString() {
+        return(pattern.pattern());
+    }
+
+
+    /**
+     * If the passed in regular expression only matches literal text,
+     * return the text, otherwise null.
+     */
+    private static String getLiteral(String regex) {
+
+        StringBuilder literal = new StringBuilder();
+        int length = regex.length();
+        int index = 0;
+        while (index < length) {
+
+            char c = regex.charAt(index);
+            if (c != '\\') {
+                if (METACHARACTERS.indexOf(c) >= 0)
+                    return(null);
+                literal.append(c);
+                index++;
+                continue;
+            }
+
+            if (index+1 >= length)
+                return(null);
+            char next = regex.charAt(index+1);
+
+            if (next == 'Q') {
+                int end = regex.indexOf("\\E", index+2);
+                if (end < 0) {
+                    literal.append(regex, index+2, length);
+                    index = length;
+                }
+                else {
+                    literal.append(regex, index+2, end);
+                    index = end+2;
+                }
+            }
+            else if (Character.isLetterOrDigit(next)) {
+                /**
+                 * \d, \n, \1, and so on.
+                 */
+                return(null);
+            }
+            else {
+                literal.append(next);
+                index += 2;
+            }
+        }
+        return(literal.toString());
+    }
+
+
+    /**
+     * Returns true if the character at the passed in index is escaped
+     * by a backslash, (that is not itself escaped).
+     */
+    private static boolean isEscaped(String regex, int index) {
+
+        int backslashes = 0;
+        while ((index-backslashes > 0) &&
+               (regex.charAt(index-backslashes-1) == '\\'))
+            backslashes++;
+        return((backslashes % 2) == 1);
+    }
+
+
+    private static boolean isAscii(String s) {
+
+        for (int index = 0; index < s.length(); index++) {
+            if (s.charAt(index) > 127)
+                return(false);
+        }
+        return(true);
+    }
+
+
+    private static boolean isLineTerminator(char c) {
+        return((c == '\n') || (c == '\r') || (c == '\u0085') ||
+               (c == '\u2028') || (c == '\u2029'));
+    }
+
+
+    /**
+     * A matcher that uses the regular expression engine.
+     */
+    private static class PatternMatcher extends TextMatcher {
+
+        private PatternMatcher(Pattern pattern) {
+            super(pattern);
+        }
+
+        @Override
+        public boolean find(String text) {
+            return(getPattern().matcher(text).find());
+        }
+
+        @Override
+        public boolean isLiteral() {
+            return(false);
+        }
+    }
+
+
+    /**
+     * A matcher for literal text, possibly anchored at the start
+     * or end.
+     */
+    private static class LiteralMatcher extends TextMatcher {
+
+        private final String literal;
+
+        /**
+         * The literal, folded the way caseMode compares characters.
+         */
+        private final char[] folded;
+
+        private final int caseMode;
+        private final boolean anchoredStart;
+        private final boolean anchoredEnd;
+
+        private LiteralMatcher(Pattern pattern, String literal, int caseMode,
+                               boolean anchoredStart, boolean anchoredEnd) {
+            super(pattern);
+            this.literal = literal;
+            this.caseMode = caseMode;
+            this.anchoredStart = anchoredStart;
+            this.anchoredEnd = anchoredEnd;
+
+            folded = new char[literal.length()];
+            for (int index = 0; index < folded.length; index++)
+                folded[index] = fold(literal.charAt(index));
+        }
+
+        @Override
+        public boolean find(String text) {
+
+            int length = text.length();
+            int n = folded.length;
+
+            if (anchoredEnd && (length > 0) &&
+                isLineTerminator(text.charAt(length-1)))
+                return(getPattern().matcher(text).find());
+
+            if (anchoredStart && anchoredEnd)
+                return((length == n) && regionMatches(text, 0));
+            else if (anchoredStart)
+                return((length >= n) && regionMatches(text, 0));
+            else if (anchoredEnd)
+                return((length >= n) && regionMatches(text, length-n));
+            else if (caseMode == CASE_SENSITIVE)
+                return(text.indexOf(literal) >= 0);
+
+            for (int start = 0; start <= length-n; start++) {
+                if (regionMatches(text, start))
+                    return(true);
+            }
+            return(false);
+        }
+
+        @Override
+        public boolean isLiteral() {
+            return(true);
+        }
+
+        private boolean regionMatches(String text, int start) {
+
+            if (caseMode == CASE_SENSITIVE)
+                return(text.startsWith(literal, start));
+
+            for (int index = 0; index < folded.length; index++) {
+                char c = text.charAt(start+index);
+                char f = folded[index];
+                if (c == f)
+                    continue;
+
+                /**
+                 * The literal is ASCII, so an ASCII character only
+                 * matches its lower case letter, and anything else
+                 * only matches if Unicode folds it to ASCII, (e.g. the
+                 * Kelvin sign to k).
+                 */
+                if (c < 128) {
+                    if ((c < 'A') || (c > 'Z') || (c+('a'-'A') != f))
+                        return(false);
+                }
+                else if ((caseMode != UNICODE_CASE_INSENSITIVE) ||
+                         (fold(c) != f)) {
+                    return(false);
+                }
+            }
+            return(true);
+        }
+
+        /**
+         * Fold a character the way the regular expression engine
+         * does for our caseMode.
+         */
+        private char fold(char c) {
+
+            if (caseMode == UNICODE_CASE_INSENSITIVE)
+                return(Character.toLowerCase(Character.toUpperCase(c)));
+            else if ((caseMode == ASCII_CASE_INSENSITIVE) &&
+                     (c >= 'A') && (c <= 'Z'))
+                return((char)(c+('a'-'A')));
+            return(c);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.translator.Translator;
+import org.joda.time.ReadableInstant;
+
+import java.util.Date;
+
+
+/**
+ * Static methods the ExpressionEvaluator uses to compare the values
+ * it gets from a RecordAccessor with each other and with the values
+ * of literals in an ExpressionTree.
+ *
+ * Values are compared the way a user would expect, not the way
+ * Object.equals() would do it.  E.g. the Short 3 is equal to the
+ * Integer 3 and the Double 3.0.  A Joda DateTime is equal to a
+ * java.util.Date that is the same instant in time.
+ */
+final class Values
+    implements Translator {
+
+    /**
+     * Returned by compare() if the two values cannot be compared.
+     * E.g. one of them is null, or one is a String and the other
+     * is a Number.
+     */
+    static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+
+    private Values() {
+    }
+
+
+    /**
+     * Returns true if the passed in values are equal.
+     * Two nulls are equal.  A null is not equal to anything else.
+     */
+    static boolean isEqual(Object lhs, Object rhs) {
+
+        if ((lhs == null) || (rhs == null))
+            return(lhs == rhs);
+
+        int result = compare(lhs, rhs);
+        if (result != INCOMPARABLE)
+            return(result == 0);
+
+        return(lhs.equals(rhs));
+    }
+
+
+    /**
+     * Returns the result of the passed in comparison operator, (one
+     * of ==, !=, <, >, <=, >=), applied to the passed in values.
+     * Values that cannot be compared are not equal, and are neither
+     * less than nor greater than each other.
+     */
+    static boolean test(Operator operator, Object lhs, Object rhs) {
+
+        if (operator == Operator.EQUALS)
+            return(isEqual(lhs, rhs));
+        else if (operator == Operator.NOT_EQUALS)
+            return(!isEqual(lhs, rhs));
+
+        int result = compare(lhs, rhs);
+        if (result == INCOMPARABLE)
+            return(false);
+        return(result(operator, result));
+    }
+
+
+    /**
+     * Turn the result of comparing two values, (a negative number,
+     * zero, or a positive number, but not INCOMPARABLE), into the
+     * result of the passed in comparison operator.
+     */
+    static boolean result(Operator operator, int result) {
+
+        switch (operator) {
+            case EQUALS:
+                return(result == 0);
+            case NOT_EQUALS:
+                return(result != 0);
+            case LESS_THAN:
+                return(result < 0);
+            case GREATER_THAN:
+                return(result > 0);
+            case LESS_THAN_EQUALS:
+                return(result <= 0);
+            case GREATER_THAN_EQUALS:
+                return(result >= 0);
+            default:
+                return(false);
+        }
+    }
+
+
+    /**
+     * Compare the two passed in values.
+     *
+     * @return A negative number, zero, or a positive number if lhs is
+     * less than, equal to, or greater than rhs.  INCOMPARABLE if the
+     * two values cannot be compared.
+     */
+    static int compare(Object lhs, Object rhs) {
+
+        if ((lhs == null) || (rhs == null))
+            return(INCOMPARABLE);
+
+        if ((lhs instanceof Number) && (rhs instanceof Number)) {
+
+            Number lhsNumber = (Number)lhs;
+            Number rhsNumber = (Number)rhs;
+            if (isIntegral(lhsNumber) && isIntegral(rhsNumber)) {
+                return(Long.compare(lhsNumber.longValue(),
+                                    rhsNumber.longValue()));
+            }
+
+            double lhsDouble = lhsNumber.doubleValue();
+            double rhsDouble = rhsNumber.doubleValue();
+            if (lhsDouble < rhsDouble)
+                return(-1);
+            else if (lhsDouble > rhsDouble)
+                return(1);
+            else if (lhsDouble == rhsDouble)
+                return(0);
+            else
+                return(INCOMPARABLE);  // NaN
+        }
+        else if ((lhs instanceof String) && (rhs instanceof String)) {
+            return(Integer.signum(((String)lhs).compareTo((String)rhs)));
+        }
+        else if (isTime(lhs) && isTime(rhs)) {
+            return(Long.compare(getMillis(lhs), getMillis(rhs)));
+        }
+        else if ((lhs instanceof Boolean) && (rhs instanceof Boolean)) {
+            return(((Boolean)lhs).compareTo((Boolean)rhs));
+        }
+
+        return(INCOMPARABLE);
+    }
+
+
+    /**
+     * Compare a value with an integer literal.  This gives the same
+     * answer as compare(value, literal), without boxing the literal.
+     */
+    static int compareLong(Object value, long literal) {
+
+        if (!(value instanceof Number))
+            return(INCOMPARABLE);
+
+        Number number = (Number)value;
+        if (isIntegral(number))
+            return(Long.compare(number.longValue(), literal));
+        return(compareDouble(value, (double)literal));
+    }
+
+
+    /**
+     * Compare a value with a floating point literal.
+     */
+    static int compareDouble(Object value, double literal) {
+
+        if (!(value instanceof Number))
+            return(INCOMPARABLE);
+
+        double doubleValue = ((Number)value).doubleValue();
+        if (doubleValue < literal)
+            return(-1);
+        else if (doubleValue > literal)
+            return(1);
+        else if (doubleValue == literal)
+            return(0);
+        else
+            return(INCOMPARABLE);  // NaN
+    }
+
+
+    /**
+     * Compare a value with a String literal.
+     */
+    static int compareString(Object value, String literal) {
+
+        if (!(value instanceof String))
+            return(INCOMPARABLE);
+        return(Integer.signum(((String)value).compareTo(literal)));
+    }
+
+
+    /**
+     * Compare a value with a time literal, given as milliseconds
+     * since the epoch.
+     */
+    static int compareMillis(Object value, long literal) {
+
+        if (!isTime(value))
+            return(INCOMPARABLE);
+        return(Long.compare(getMillis(value), literal));
+    }
+
+
+    /**
+     * Returns true if the passed in Number is a whole number type.
+     */
+    static boolean isIntegral(Number number) {
+
+        return((number instanceof Integer) ||
+               (number instanceof Short) ||
+               (number instanceof Long) ||
+               (number instanceof Byte));
+    }
+
+
+    /**
+     * Returns true if the passed in value is one of the
+     * types we treat as a DATE_TIME value.
+     */
+    static boolean isTime(Object value) {
+        return((value instanceof ReadableInstant) || (value instanceof Date));
+    }
+
+
+    /**
+     * Get the milliseconds since the epoch of the passed in DATE_TIME
+     * value.  Only call this if isTime(value) returns true.
+     */
+    static long getMillis(Object value) {
+
+        if (value instanceof ReadableInstant)
+            return(((ReadableInstant)value).getMillis());
+        else
+            return(((Date)value).getTime());
+    }
+
+
+    /**
+     * Returns true if the passed in value is of the passed in primitive
+     * Type.  This is what the "as" and "elementsOfType" operators use
+     * to decide whether a value in a parameters map is the type of
+     * value the user asked for.
+     */
+    static boolean isOfType(Object value, Type type) {
+
+        if (value == null)
+            return(false);
+
+        switch (type) {
+            case BOOLEAN:
+                return(value instanceof Boolean);
+            case UTF_8_STRING:
+                return(value instanceof String);
+            case INT_16:
+            case INT_32:
+                return((value instanceof Number) &&
+                       isIntegral((Number)value));
+            case FLOAT_64:
+                return((value instanceof Double) || (value instanceof Float));
+            case DATE_TIME:
+                return(isTime(value));
+            default:
+                return(false);
+        }
+    }
+
+
+    /**
+     * Get the Type for the passed in class name from an
+     * IClassLiteralValueExpression.  E.g. "ovation.DateValue".
+     */
+    static Type getTypeForClassName(String name) {
+
+        if (CLVE_BOOLEAN.equals(name))
+            return(Type.BOOLEAN);
+        else if (CLVE_STRING.equals(name))
+            return(Type.UTF_8_STRING);
+        else if (CLVE_INTEGER.equals(name))
+            return(Type.INT_32);
+        else if (CLVE_FLOAT.equals(name))
+            return(Type.FLOAT_64);
+        else if (CLVE_DATE.equals(name))
+            return(Type.DATE_TIME);
+        else {
+            String s = "Bad IClassLiteralValue class name: \""+name+"\"";
+            throw(new IllegalArgumentException(s));
+        }
+    }
+}
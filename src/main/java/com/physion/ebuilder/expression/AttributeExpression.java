@@ -5,6 +5,7 @@
 package com.physion.ebuilder.expression;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 
 /**
@@ -46,10 +47,36 @@ public class AttributeExpression
     }
 
 
+    @Override
+    public void accept(IExpressionVisitor expressionVisitor) {
+        expressionVisitor.visitAttributeValue(this);
+    }
+
+
     /**
      * Convert this object to a string for testing/debugging purposes.
      */
     public String toString(String indent) {
         return(indent+"AttributeExpression("+attributeName+")");
     }
+
+
+    /**
+     * Two AttributeExpressions are equal if they have the same
+     * attributeName.
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if ((object == null) || (object.getClass() != getClass()))
+            return(false);
+        return(Objects.equals(attributeName,
+                              ((AttributeExpression)object).attributeName));
+    }
+
+
+    @Override
+    public int hashCode() {
+        return(Objects.hashCode(attributeName));
+    }
 }
@@ -34,7 +34,7 @@ public class BooleanLiteralValueExpression
      */
     @Override
     public Object getValue() {
-        return(new Boolean(value));
+        return(Boolean.valueOf(value));
     }
 
 
@@ -43,10 +43,47 @@ public class BooleanLiteralValueExpression
     }
 
 
+    @Override
+    public LiteralKind getLiteralKind() {
+        return(LiteralKind.BOOLEAN);
+    }
+
+
+    @Override
+    public boolean getBooleanValue() {
+        return(value);
+    }
+
+
+    @Override
+    public void accept(IExpressionVisitor expressionVisitor) {
+        expressionVisitor.visitBooleanLiteralValue(this);
+    }
+
+
     /**
      * Convert this object to a string for testing/debugging purposes.
      */
     public String toString(String indent) {
         return(indent+"BooleanLiteralValueExpression("+value+")");
     }
+
+
+    /**
+     * Two BooleanLiteralValueExpressions are equal if they have the same
+     * value.
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if ((object == null) || (object.getClass() != getClass()))
+            return(false);
+        return(value == ((BooleanLiteralValueExpression)object).value);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return(Boolean.hashCode(value));
+    }
 }
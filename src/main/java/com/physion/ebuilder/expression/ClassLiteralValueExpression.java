@@ -6,6 +6,7 @@ package com.physion.ebuilder.expression;
 
 
 import java.io.Serializable;
+import java.util.Objects;
 
 
 /**
@@ -48,10 +49,41 @@ public class ClassLiteralValueExpression
         this.value = value;
     }
 
+    @Override
+    public LiteralKind getLiteralKind() {
+        return(LiteralKind.CLASS);
+    }
+
+    @Override
+    public void accept(IExpressionVisitor expressionVisitor) {
+        expressionVisitor.visitClassLiteralValue(this);
+    }
+
+
     /**
      * Convert this object to a string for testing/debugging purposes.
      */
     public String toString(String indent) {
         return(indent+"ClassLiteralValueExpression("+value+")");
     }
+
+
+    /**
+     * Two ClassLiteralValueExpressions are equal if they have the same
+     * class name.
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if ((object == null) || (object.getClass() != getClass()))
+            return(false);
+        return(Objects.equals(value,
+                              ((ClassLiteralValueExpression)object).value));
+    }
+
+
+    @Override
+    public int hashCode() {
+        return(Objects.hashCode(value));
+    }
 }
@@ -26,8 +26,9 @@ public class Expression
 	private static final long serialVersionUID = 1L;
 
 	/**
-     * Required by Expression interface, but not needed for
-     * current work.
+     * Required by the IExpression interface.  Every subclass in this
+     * package overrides it to call the IExpressionVisitor method for
+     * its kind of node.
      */
     @Override
     public void accept(IExpressionVisitor expressionVisitor) {
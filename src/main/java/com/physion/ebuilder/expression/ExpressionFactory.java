@@ -0,0 +1,337 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression;
+
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class creates Expression nodes that are "hash consed".
+ * I.e. the factory keeps one copy of every node it has created, and
+ * if you ask it for a node that is structurally equal to one it already
+ * has, (same class, same value or operator name, and the same operand
+ * nodes), you get the existing node rather than a new one.
+ *
+ * So if a query library holds thousands of ExpressionTrees that were
+ * interned by the same factory, the nodes they have in common, such as
+ * AttributeExpression("value"), ClassLiteralValueExpression(
+ * "ovation.FloatingPointValue"), and the "." paths that use them, exist
+ * only once in memory.  And two interned expressions are structurally
+ * equal if and only if they are the same object, so you can compare
+ * them with "==".
+ *
+ * The operand list of an interned OperatorExpression is unmodifiable,
+ * (addOperand() throws an UnsupportedOperationException), because the
+ * node might be shared by many trees.  If you want to change a tree,
+ * build a new one.
+ *
+ * The factory holds on to every node it creates until you call clear(),
+ * so keep it for as long as the trees that use it, (e.g. as a member of
+ * the query library), not forever.
+ *
+ * All of the methods are thread safe.
+ *
+ * Example of use:
+ *
+ *      ExpressionFactory factory = new ExpressionFactory();
+ *      ExpressionTree tree = factory.intern(
+ *          RowDataToExpressionTree.translate(rootRow));
+ */
+public class ExpressionFactory {
+
+    /**
+     * The nodes we have created, keyed by their structure.
+     */
+    private Map<Object,IExpression> nodes = new HashMap<Object,IExpression>();
+
+    /**
+     * The same nodes, so we can tell quickly if a node passed to
+     * intern() is already one of ours.
+     */
+    private Map<IExpression,IExpression> internedNodes =
+        new IdentityHashMap<IExpression,IExpression>();
+
+
+    /**
+     * Get the OperatorExpression with the passed in name and operands.
+     * The operands are interned first if they are not already.
+     */
+    public IOperatorExpression createOperator(String operatorName,
+                                              IExpression... operands) {
+
+        List<IExpression> list = new ArrayList<IExpression>(operands.length);
+        for (IExpression operand : operands)
+            list.add(operand);
+        return(createOperator(operatorName, list));
+    }
+
+
+    /**
+     * Get the OperatorExpression with the passed in name and operands.
+     * The operands are interned first if they are not already.
+     * The passed in list is not kept.
+     */
+    public synchronized IOperatorExpression createOperator(
+        String operatorName, List<IExpression> operands) {
+
+        List<IExpression> interned =
+            new ArrayList<IExpression>(operands.size());
+        for (IExpression operand : operands)
+            interned.add(intern(operand));
+
+        OperatorKey key = new OperatorKey(operatorName, interned);
+        IOperatorExpression node = (IOperatorExpression)nodes.get(key);
+        if (node == null) {
+            node = new OperatorExpression(operatorName,
+                Collections.unmodifiableList(interned));
+            key = new OperatorKey(operatorName, node.getOperandList());
+            add(key, node);
+        }
+        return(node);
+    }
+
+
+    public IAttributeExpression createAttribute(String attributeName) {
+        return((IAttributeExpression)createLeaf(AttributeExpression.class,
+                                                attributeName));
+    }
+
+
+    public IBooleanLiteralValueExpression createBoolean(Boolean value) {
+        return((IBooleanLiteralValueExpression)createLeaf(
+            BooleanLiteralValueExpression.class, value));
+    }
+
+
+    public IInt32LiteralValueExpression createInt32(int value) {
+        return((IInt32LiteralValueExpression)createLeaf(
+            Int32LiteralValueExpression.class, value));
+    }
+
+
+    public IFloat64LiteralValueExpression createFloat64(double value) {
+        return((IFloat64LiteralValueExpression)createLeaf(
+            Float64LiteralValueExpression.class, value));
+    }
+
+
+    public IStringLiteralValueExpression createString(String value) {
+        return((IStringLiteralValueExpression)createLeaf(
+            StringLiteralValueExpression.class, value));
+    }
+
+
+    public ITimeLiteralValueExpression createTime(DateTime value) {
+        return((ITimeLiteralValueExpression)createLeaf(
+            TimeLiteralValueExpression.class, value));
+    }
+
+
+    public IClassLiteralValueExpression createClass(String className) {
+        return((IClassLiteralValueExpression)createLeaf(
+            ClassLiteralValueExpression.class, className));
+    }
+
+
+    /**
+     * Get the interned version of the passed in ExpressionTree.
+     * The passed in tree is not changed.
+     */
+    public ExpressionTree intern(ExpressionTree expressionTree) {
+
+        return(new ExpressionTree(expressionTree.getClassUnderQualification(),
+            (IOperatorExpression)intern(expressionTree.getRootExpression())));
+    }
+
+
+    /**
+     * Get the interned version of the passed in expression and all
+     * of its operands.  If the passed in expression was created by
+     * this factory, it is returned as is.
+     *
+     * @throws IllegalArgumentException If the expression, or one of
+     * its operands, is not one of the classes in this package.
+     */
+    public synchronized IExpression intern(IExpression expression) {
+
+        if (internedNodes.containsKey(expression))
+            return(expression);
+
+        if (expression instanceof IOperatorExpression) {
+            IOperatorExpression oe = (IOperatorExpression)expression;
+            return(createOperator(oe.getOperatorName(), oe.getOperandList()));
+        }
+        else if (expression instanceof IAttributeExpression) {
+            return(createAttribute(
+                ((IAttributeExpression)expression).getAttributeName()));
+        }
+        else if (expression instanceof ITimeLiteralValueExpression) {
+            return(createTime(
+                ((ITimeLiteralValueExpression)expression).getTimeValue()));
+        }
+        else if ((expression instanceof IBooleanLiteralValueExpression) ||
+                 (expression instanceof IInt32LiteralValueExpression) ||
+                 (expression instanceof IFloat64LiteralValueExpression) ||
+                 (expression instanceof IStringLiteralValueExpression) ||
+                 (expression instanceof IClassLiteralValueExpression)) {
+            return(createLeaf(expression.getClass(),
+                ((ILiteralValueExpression)expression).getValue()));
+        }
+
+        throw(new IllegalArgumentException("Cannot intern an expression of "+
+            "class "+(expression == null ? null :
+                      expression.getClass().getName())+"."));
+    }
+
+
+    /**
+     * Get the number of distinct nodes this factory holds.
+     */
+    public synchronized int size() {
+        return(nodes.size());
+    }
+
+
+    /**
+     * Forget all of the nodes this factory has created.  The nodes
+     * themselves are not changed, so the trees that use them are
+     * still fine, but they will not be shared with new trees.
+     */
+    public synchronized void clear() {
+        nodes.clear();
+        internedNodes.clear();
+    }
+
+
+    private synchronized IExpression createLeaf(Class<?> nodeClass,
+                                                Object value) {
+
+        LeafKey key = new LeafKey(nodeClass, value);
+        IExpression node = nodes.get(key);
+        if (node == null) {
+
+            if (nodeClass == AttributeExpression.class)
+                node = new AttributeExpression((String)value);
+            else if (nodeClass == BooleanLiteralValueExpression.class)
+                node = new BooleanLiteralValueExpression((Boolean)value);
+            else if (nodeClass == Int32LiteralValueExpression.class)
+                node = new Int32LiteralValueExpression((Integer)value);
+            else if (nodeClass == Float64LiteralValueExpression.class)
+                node = new Float64LiteralValueExpression((Double)value);
+            else if (nodeClass == StringLiteralValueExpression.class)
+                node = new StringLiteralValueExpression((String)value);
+            else if (nodeClass == TimeLiteralValueExpression.class)
+                node = new TimeLiteralValueExpression((DateTime)value);
+            else if (nodeClass == ClassLiteralValueExpression.class)
+                node = new ClassLiteralValueExpression((String)value);
+            else {
+                throw(new IllegalArgumentException("Cannot intern an "+
+                    "expression of class "+nodeClass.getName()+"."));
+            }
+
+            add(key, node);
+        }
+        return(node);
+    }
+
+
+    private void add(Object key, IExpression node) {
+        nodes.put(key, node);
+        internedNodes.put(node, node);
+    }
+
+
+    private static boolean equals(Object lhs, Object rhs) {
+        return((lhs == null) ? (rhs == null) : lhs.equals(rhs));
+    }
+
+
+    /**
+     * The key of an attribute or literal node.
+     */
+    private static class LeafKey {
+
+        private final Class<?> nodeClass;
+        private final Object value;
+        private final int hashCode;
+
+        LeafKey(Class<?> nodeClass, Object value) {
+            this.nodeClass = nodeClass;
+            this.value = value;
+            hashCode = nodeClass.hashCode()*31+
+                       (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public int hashCode() {
+            return(hashCode);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+
+            if (!(object instanceof LeafKey))
+                return(false);
+            LeafKey other = (LeafKey)object;
+            return((nodeClass == other.nodeClass) &&
+                   ExpressionFactory.equals(value, other.value));
+        }
+    }
+
+
+    /**
+     * The key of an operator node.  The operands are interned, so
+     * they are compared by identity, and the key is cheap to compare
+     * no matter how big the subtrees under the operands are.
+     */
+    private static class OperatorKey {
+
+        private final String operatorName;
+        private final List<IExpression> operands;
+        private final int hashCode;
+
+        OperatorKey(String operatorName, List<IExpression> operands) {
+
+            this.operatorName = operatorName;
+            this.operands = operands;
+
+            int hash = (operatorName == null) ? 0 : operatorName.hashCode();
+            for (IExpression operand : operands)
+                hash = hash*31+System.identityHashCode(operand);
+            hashCode = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return(hashCode);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+
+            if (!(object instanceof OperatorKey))
+                return(false);
+
+            OperatorKey other = (OperatorKey)object;
+            if ((hashCode != other.hashCode) ||
+                !ExpressionFactory.equals(operatorName, other.operatorName) ||
+                (operands.size() != other.operands.size()))
+                return(false);
+
+            for (int index = 0; index < operands.size(); index++) {
+                if (operands.get(index) != other.operands.get(index))
+                    return(false);
+            }
+            return(true);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression;
+
+import com.physion.ebuilder.translator.Translator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class rewrites an ExpressionTree into a smaller tree that
+ * means the same thing.
+ *
+ * RowDataToExpressionTree produces a tree that mirrors the rows of
+ * the GUI.  E.g. every "Any" row becomes an "or", and every "None" row
+ * becomes "not(or)", even if it only has one child row, and even if
+ * it is the only child row of another "Any".  That is what the GUI
+ * needs to turn the tree back into the same rows, but the database,
+ * and the ExpressionEvaluator, have to do more work than they need to.
+ * The normalizer:
+ *
+ *      Pushes "not" down toward the leaves, using De Morgan's laws.
+ *      E.g. not(or(a, b)) becomes and(not(a), not(b)).  not(not(a))
+ *      becomes a, and not(==(a, b)) becomes !=(a, b).
+ *
+ *      Flattens nested "and" and "or" operators.  E.g. or(a, or(b, c))
+ *      becomes or(a, b, c).  An "and" or "or" with one operand becomes
+ *      the operand.
+ *
+ *      Removes duplicate operands of "and" and "or".  E.g. and(a, b, a)
+ *      becomes and(a, b).
+ *
+ *      Folds the branches that are always true or always false.
+ *      E.g. and(a, false) becomes false, or(a, false) becomes a, and
+ *      and(a, not(a)) becomes false.  (But or(a, not(a)) is left alone.
+ *      See normalizeJunction().)
+ *
+ * "not" is not pushed into an "any" or "all", (any(x, not(p)) is not
+ * the same as not(all(x, p)) when the collection contains nulls), or
+ * into the other comparison operators, (not(<(a, b)) is not >=(a, b)
+ * when a is null).
+ *
+ * The normalized tree is for evaluating, not for the GUI.
+ * ExpressionTreeToRowData may not be able to turn it back into rows.
+ * The normalizer does not change the tree that is passed in, but the
+ * normalized tree shares the attribute and literal leaves with it.
+ *
+ * Example of use:
+ *
+ *      ExpressionNormalizer normalizer = new ExpressionNormalizer();
+ *      ExpressionTree normalized = normalizer.normalize(tree);
+ *      System.out.println(normalizer.getReport());
+ */
+public class ExpressionNormalizer
+    implements Translator {
+
+    private int nodeCountBefore;
+    private int nodeCountAfter;
+
+
+    /**
+     * Return a normalized copy of the passed in ExpressionTree.
+     * After this call, getNodeCountBefore() and getNodeCountAfter()
+     * return the sizes of the passed in and returned trees.
+     *
+     * The root of an ExpressionTree must be an operator, so if the
+     * whole tree folds into a literal, or an attribute, the root of
+     * the returned tree is an "and" with that one operand.
+     */
+    public ExpressionTree normalize(ExpressionTree expressionTree) {
+
+        IExpression root = expressionTree.getRootExpression();
+        IExpression normalized = normalize(root);
+
+        if (!(normalized instanceof IOperatorExpression)) {
+            OperatorExpression and = new OperatorExpression(OE_AND);
+            and.addOperand(normalized);
+            normalized = and;
+            nodeCountAfter++;
+        }
+
+        return(new ExpressionTree(expressionTree.getClassUnderQualification(),
+                                  (IOperatorExpression)normalized));
+    }
+
+
+    /**
+     * Return a normalized copy of the passed in expression.
+     * After this call, getNodeCountBefore() and getNodeCountAfter()
+     * return the sizes of the passed in and returned expressions.
+     */
+    public IExpression normalize(IExpression expression) {
+
+        IExpression normalized = normalize(expression, false);
+        nodeCountBefore = countNodes(expression);
+        nodeCountAfter = countNodes(normalized);
+        return(normalized);
+    }
+
+
+    /**
+     * Get the number of nodes in the tree that was last normalized.
+     */
+    public int getNodeCountBefore() {
+        return(nodeCountBefore);
+    }
+
+
+    /**
+     * Get the number of nodes in the last normalized tree.
+     */
+    public int getNodeCountAfter() {
+        return(nodeCountAfter);
+    }
+
+
+    /**
+     * Get a one line description of what the last normalize() did,
+     * suitable for a log file.
+     */
+    public String getReport() {
+        return("Normalized "+nodeCountBefore+" nodes into "+
+               nodeCountAfter+" nodes.");
+    }
+
+
+    /**
+     * Count the nodes, (operators, attributes, and literals),
+     * in the passed in expression.
+     */
+    public static int countNodes(IExpression expression) {
+
+        int count = 1;
+        if (expression instanceof IOperatorExpression) {
+            for (IExpression operand :
+                 ((IOperatorExpression)expression).getOperandList())
+                count += countNodes(operand);
+        }
+        return(count);
+    }
+
+
+    /**
+     * Normalize the passed in expression.
+     *
+     * @param negate If true, return the normalized version of
+     * not(expression) instead.
+     */
+    private static IExpression normalize(IExpression expression,
+                                         boolean negate) {
+
+        if (expression instanceof IBooleanLiteralValueExpression) {
+            boolean value = Boolean.TRUE.equals(
+                ((IBooleanLiteralValueExpression)expression).getValue());
+            if (negate)
+                return(new BooleanLiteralValueExpression(!value));
+            return(expression);
+        }
+
+        if (!(expression instanceof IOperatorExpression))
+            return(negate ? not(expression) : expression);
+
+        IOperatorExpression oe = (IOperatorExpression)expression;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (OE_NOT.equals(name) && (operands.size() == 1))
+            return(normalize(operands.get(0), !negate));
+
+        if (OE_AND.equals(name) || OE_OR.equals(name)) {
+            boolean isAnd = OE_AND.equals(name) != negate;
+            return(normalizeJunction(operands, isAnd, negate));
+        }
+
+        if (negate && (operands.size() == 2) &&
+            (OE_EQUALS.equals(name) || OE_NOT_EQUALS.equals(name))) {
+            name = OE_EQUALS.equals(name) ? OE_NOT_EQUALS : OE_EQUALS;
+            negate = false;
+        }
+
+        /**
+         * Any other operator.  Normalize its operands, (e.g. the
+         * condition of an "any"), but leave the operator alone.
+         */
+        OperatorExpression copy = new OperatorExpression(name);
+        for (IExpression operand : operands)
+            copy.addOperand(normalize(operand, false));
+        return(negate ? not(copy) : copy);
+    }
+
+
+    /**
+     * Normalize an "and", (if isAnd is true), or an "or", whose
+     * operands have already had any "not" pushed into them.
+     */
+    private static IExpression normalizeJunction(List<IExpression> operands,
+                                                 boolean isAnd,
+                                                 boolean negate) {
+
+        String name = isAnd ? OE_AND : OE_OR;
+
+        /**
+         * An operand that is this value decides the result on its own.
+         * E.g. false for an "and".  An operand that is the other value
+         * can be dropped.
+         */
+        boolean decidingValue = !isAnd;
+
+        List<IExpression> result = new ArrayList<IExpression>();
+        List<IExpression> pending = new ArrayList<IExpression>();
+        for (IExpression operand : operands)
+            pending.add(normalize(operand, negate));
+
+        for (int index = 0; index < pending.size(); index++) {
+
+            IExpression operand = pending.get(index);
+
+            if (operand instanceof IBooleanLiteralValueExpression) {
+                boolean value = Boolean.TRUE.equals(
+                    ((IBooleanLiteralValueExpression)operand).getValue());
+                if (value == decidingValue)
+                    return(new BooleanLiteralValueExpression(decidingValue));
+                continue;
+            }
+
+            /**
+             * Flatten.  The nested operands are already normalized,
+             * so add them to the end of the list to be checked for
+             * duplicates, in place of the nested operator.
+             */
+            if ((operand instanceof IOperatorExpression) &&
+                name.equals(((IOperatorExpression)operand).getOperatorName())) {
+                pending.addAll(index+1,
+                    ((IOperatorExpression)operand).getOperandList());
+                continue;
+            }
+
+            if (contains(result, operand))
+                continue;
+
+            /**
+             * a and not(a) is false.  We do NOT turn a or not(a) into
+             * true.  If a is a comparison with a null, the database
+             * treats both a and not(a) as "unknown", so neither one
+             * selects the record.  "and" has no such problem, because
+             * the "not" operators have all been pushed below it.
+             */
+            if (isAnd && contains(result, complement(operand)))
+                return(new BooleanLiteralValueExpression(false));
+
+            result.add(operand);
+        }
+
+        if (result.isEmpty())
+            return(new BooleanLiteralValueExpression(!decidingValue));
+        else if (result.size() == 1)
+            return(result.get(0));
+
+        return(new OperatorExpression(name, result));
+    }
+
+
+    private static IExpression not(IExpression expression) {
+
+        OperatorExpression not = new OperatorExpression(OE_NOT);
+        not.addOperand(expression);
+        return(not);
+    }
+
+
+    /**
+     * Get the expression that is true exactly when the passed in
+     * expression is false, if that is easy to do.  Otherwise null.
+     */
+    private static IExpression complement(IExpression expression) {
+
+        if (!(expression instanceof IOperatorExpression))
+            return(not(expression));
+
+        IOperatorExpression oe = (IOperatorExpression)expression;
+        String name = oe.getOperatorName();
+        if (OE_NOT.equals(name) && (oe.getOperandList().size() == 1))
+            return(oe.getOperandList().get(0));
+        else if (OE_EQUALS.equals(name))
+            return(new OperatorExpression(OE_NOT_EQUALS, oe.getOperandList()));
+        else if (OE_NOT_EQUALS.equals(name))
+            return(new OperatorExpression(OE_EQUALS, oe.getOperandList()));
+        else if (OE_AND.equals(name) || OE_OR.equals(name))
+            return(null);
+        return(not(expression));
+    }
+
+
+    /**
+     * Uses the structural equals() of the expression classes.
+     */
+    private static boolean contains(List<IExpression> expressions,
+                                    IExpression expression) {
+
+        if (expression == null)
+            return(false);
+        return(expressions.contains(expression));
+    }
+}
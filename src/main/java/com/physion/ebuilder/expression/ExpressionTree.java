@@ -13,6 +13,7 @@ import java.io.ObjectOutputStream;
 import java.io.FileNotFoundException;
 import java.io.Serializable;
 import java.io.IOException;
+import java.util.Objects;
 
 
 /**
@@ -61,6 +62,15 @@ public class ExpressionTree
      */
     private IOperatorExpression rootExpression;
 
+    /**
+     * The structural fingerprint of this tree.  It is computed
+     * the first time getFingerprint() is called.  It is not saved
+     * when the tree is serialized, because it is cheap to compute
+     * again, and that way it does not depend on the version of the
+     * code that wrote the file.
+     */
+    private transient volatile Fingerprint fingerprint;
+
 
     /**
      * Create an ExpressionTree with the passed in values.
@@ -109,6 +119,29 @@ public class ExpressionTree
     }
 
 
+    /**
+     * Get the 128 bit structural fingerprint of this tree.
+     * Trees that are equal() have the same fingerprint, so it can be
+     * used as the key of a cache of query results, or query plans,
+     * instead of the tree itself.
+     *
+     * The fingerprint is computed once and cached, so do not change
+     * the OperatorExpressions in the tree after you call this method.
+     * (Build a new tree instead.)
+     *
+     * @see Fingerprint
+     */
+    public Fingerprint getFingerprint() {
+
+        Fingerprint result = fingerprint;
+        if (result == null) {
+            result = Fingerprint.of(this);
+            fingerprint = result;
+        }
+        return(result);
+    }
+
+
     /**
      * Write out this ExpressionTree to the passed in outputStream.
      *
@@ -250,7 +283,7 @@ public class ExpressionTree
 
         writeExpressionTree(SAVE_FILE_NAME);
         ExpressionTree expressionTree = readExpressionTree(SAVE_FILE_NAME);
-        boolean same = expressionTree.toString().equals(this.toString());
+        boolean same = this.equals(expressionTree);
 
         if (same)
             System.err.println("ExpressionTree written and read versions are "+
@@ -263,6 +296,48 @@ public class ExpressionTree
     }
 
 
+    /**
+     * Two ExpressionTrees are equal if they have the same Class
+     * Under Qualification and their root expressions are equal.
+     * I.e. the trees have the same structure and the same values,
+     * not that they print the same.
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if (object == this)
+            return(true);
+        if ((object == null) || (object.getClass() != getClass()))
+            return(false);
+
+        ExpressionTree other = (ExpressionTree)object;
+        if (!Objects.equals(classUnderQualification,
+                            other.classUnderQualification))
+            return(false);
+
+        /**
+         * If both fingerprints have already been computed, they
+         * are a quick way to find out that the trees are different.
+         */
+        Fingerprint lhs = fingerprint;
+        Fingerprint rhs = other.fingerprint;
+        if ((lhs != null) && (rhs != null) && !lhs.equals(rhs))
+            return(false);
+
+        return(Objects.equals(rootExpression, other.rootExpression));
+    }
+
+
+    /**
+     * The hash code is taken from the fingerprint, so it is only
+     * computed once, no matter how big the tree is.
+     */
+    @Override
+    public int hashCode() {
+        return(getFingerprint().hashCode());
+    }
+
+
     /**
      * Get a string version of this class that can be used
      * for debugging purposes.
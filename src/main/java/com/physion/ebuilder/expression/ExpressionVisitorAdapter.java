@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression;
+
+
+/**
+ * An IExpressionVisitor whose methods do nothing, (visitOperator()
+ * returns true, so every node is visited).  Extend this class and
+ * override the methods for the kinds of nodes you care about.
+ *
+ * Example of use:
+ *
+ *      final Set<String> names = new HashSet<String>();
+ *      new ExpressionWalker().walk(tree.getRootExpression(),
+ *          new ExpressionVisitorAdapter() {
+ *              public void visitAttributeValue(IAttributeExpression e) {
+ *                  names.add(e.getAttributeName());
+ *              }
+ *          });
+ */
+public class ExpressionVisitorAdapter
+    implements IExpressionVisitor {
+
+    @Override
+    public boolean visitOperator(IOperatorExpression e) {
+        return(true);
+    }
+
+
+    @Override
+    public void endOperator(IOperatorExpression e) {
+    }
+
+
+    @Override
+    public void visitAttributeValue(IAttributeExpression e) {
+    }
+
+
+    @Override
+    public void visitBooleanLiteralValue(IBooleanLiteralValueExpression e) {
+    }
+
+
+    @Override
+    public void visitInt32LiteralValue(IInt32LiteralValueExpression e) {
+    }
+
+
+    @Override
+    public void visitFloat64LiteralValue(IFloat64LiteralValueExpression e) {
+    }
+
+
+    @Override
+    public void visitStringLiteralValue(IStringLiteralValueExpression e) {
+    }
+
+
+    @Override
+    public void visitTimeLiteralValue(ITimeLiteralValueExpression e) {
+    }
+
+
+    @Override
+    public void visitClassLiteralValue(IClassLiteralValueExpression e) {
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * This class walks an expression tree and passes every node to an
+ * IExpressionVisitor, in the same order as IExpression.accept():
+ * depth first, left to right, with visitOperator() before an
+ * operator's operands and endOperator() after them.
+ *
+ * Unlike accept(), which recurses once per level of the tree, the
+ * walker keeps its own stack of the operators it is inside of, so it
+ * can walk a tree of any depth without a StackOverflowError.  The
+ * stack is made of arrays that are kept between calls to walk(), and
+ * the operands are reached with List.get() rather than an Iterator,
+ * so once the stack has grown to the depth of the deepest tree you
+ * walk, walking a tree does not allocate anything.
+ *
+ * An ExpressionWalker is not thread safe.  Use one per thread.
+ * It is cheap to create.
+ *
+ * Example of use:
+ *
+ *      ExpressionWalker walker = new ExpressionWalker();
+ *      for (ExpressionTree tree : trees)
+ *          walker.walk(tree, visitor);
+ */
+public class ExpressionWalker {
+
+    private static final int INITIAL_DEPTH = 16;
+
+    /**
+     * The operators we are inside of, their operand lists, and the
+     * index of the next operand of each one to visit.  The innermost
+     * operator is at depth-1.
+     */
+    private IOperatorExpression[] operators =
+        new IOperatorExpression[INITIAL_DEPTH];
+    private List<?>[] operandLists = new List<?>[INITIAL_DEPTH];
+    private int[] nextOperands = new int[INITIAL_DEPTH];
+    private int depth;
+
+
+    /**
+     * Walk the root expression of the passed in tree.
+     */
+    public void walk(ExpressionTree expressionTree,
+                     IExpressionVisitor visitor) {
+        walk(expressionTree.getRootExpression(), visitor);
+    }
+
+
+    /**
+     * Pass the passed in expression, and all of the nodes below it,
+     * to the visitor.  The operands of an operator are skipped if
+     * visitOperator() returns false.
+     *
+     * A node that is not an IOperatorExpression is passed to the
+     * visitor by calling its accept() method.
+     */
+    public void walk(IExpression expression, IExpressionVisitor visitor) {
+
+        depth = 0;
+        try {
+            enter(expression, visitor);
+
+            while (depth > 0) {
+
+                int top = depth-1;
+                List<?> operands = operandLists[top];
+                int index = nextOperands[top];
+
+                if (index == operands.size()) {
+                    IOperatorExpression operator = operators[top];
+                    operators[top] = null;
+                    operandLists[top] = null;
+                    depth = top;
+                    visitor.endOperator(operator);
+                }
+                else {
+                    nextOperands[top] = index+1;
+                    enter((IExpression)operands.get(index), visitor);
+                }
+            }
+        }
+        finally {
+            /**
+             * If the visitor threw an exception, do not hold on to
+             * the tree.
+             */
+            while (depth > 0) {
+                depth--;
+                operators[depth] = null;
+                operandLists[depth] = null;
+            }
+        }
+    }
+
+
+    /**
+     * Visit the passed in node.  If it is an operator whose operands
+     * the visitor wants to see, push it on the stack.
+     */
+    private void enter(IExpression expression, IExpressionVisitor visitor) {
+
+        if (!(expression instanceof IOperatorExpression)) {
+            expression.accept(visitor);
+            return;
+        }
+
+        IOperatorExpression operator = (IOperatorExpression)expression;
+        if (!visitor.visitOperator(operator)) {
+            visitor.endOperator(operator);
+            return;
+        }
+
+        if (depth == operators.length) {
+            int length = depth*2;
+            operators = Arrays.copyOf(operators, length);
+            operandLists = Arrays.copyOf(operandLists, length);
+            nextOperands = Arrays.copyOf(nextOperands, length);
+        }
+        operators[depth] = operator;
+        operandLists[depth] = operator.getOperandList();
+        nextOperands[depth] = 0;
+        depth++;
+    }
+}
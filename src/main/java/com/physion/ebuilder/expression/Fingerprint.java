@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+
+/**
+ * A 128 bit hash of the structure of an expression, or an ExpressionTree.
+ * Two expressions that are equal have the same Fingerprint, and two
+ * expressions that are not equal are, for all practical purposes,
+ * certain to have different Fingerprints.  So a Fingerprint can be
+ * used in place of the expression as the key of a cache, or to find
+ * duplicate queries, and comparing two Fingerprints is much cheaper
+ * than comparing two trees.
+ *
+ * The Fingerprint is computed with the 128 bit MurmurHash3 function
+ * from the nodes' classes and values, not from anything that depends
+ * on the JVM, (e.g. System.identityHashCode()).  So the Fingerprint of
+ * a tree is the same every time the program is run, and can be stored
+ * in a file or a database.
+ *
+ * A Fingerprint is immutable.
+ *
+ * @see ExpressionTree#getFingerprint()
+ */
+public final class Fingerprint
+    implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The tags that are hashed in front of each kind of node, so
+     * that e.g. AttributeExpression("x") and
+     * StringLiteralValueExpression("x") do not hash the same.
+     */
+    private static final byte TAG_TREE = 1;
+    private static final byte TAG_OPERATOR = 2;
+    private static final byte TAG_ATTRIBUTE = 3;
+    private static final byte TAG_BOOLEAN = 4;
+    private static final byte TAG_INT32 = 5;
+    private static final byte TAG_FLOAT64 = 6;
+    private static final byte TAG_STRING = 7;
+    private static final byte TAG_TIME = 8;
+    private static final byte TAG_CLASS = 9;
+    private static final byte TAG_OTHER = 10;
+
+    private final long high;
+    private final long low;
+
+
+    /**
+     * Create a Fingerprint with the passed in 128 bits.
+     */
+    public Fingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+
+    /**
+     * Compute the Fingerprint of the passed in ExpressionTree.
+     * This includes the Class Under Qualification.
+     *
+     * Use ExpressionTree.getFingerprint() instead, which only computes
+     * the Fingerprint once.
+     */
+    public static Fingerprint of(ExpressionTree expressionTree) {
+
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putByte(TAG_TREE);
+        putString(hasher, expressionTree.getClassUnderQualification());
+        put(hasher, expressionTree.getRootExpression());
+        return(create(hasher.hash().asBytes()));
+    }
+
+
+    /**
+     * Compute the Fingerprint of the passed in expression.
+     */
+    public static Fingerprint of(IExpression expression) {
+
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        put(hasher, expression);
+        return(create(hasher.hash().asBytes()));
+    }
+
+
+    /**
+     * Get the first 64 bits.
+     */
+    public long getHigh() {
+        return(high);
+    }
+
+
+    /**
+     * Get the last 64 bits.
+     */
+    public long getLow() {
+        return(low);
+    }
+
+
+    @Override
+    public boolean equals(Object object) {
+
+        if (!(object instanceof Fingerprint))
+            return(false);
+        Fingerprint other = (Fingerprint)object;
+        return((high == other.high) && (low == other.low));
+    }
+
+
+    @Override
+    public int hashCode() {
+        return((int)(high^(high >>> 32)));
+    }
+
+
+    /**
+     * Get the Fingerprint as 32 hexadecimal digits.
+     */
+    @Override
+    public String toString() {
+        return(String.format("%016x%016x", high, low));
+    }
+
+
+    private static Fingerprint create(byte[] bytes) {
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+        return(new Fingerprint(buffer.getLong(), buffer.getLong()));
+    }
+
+
+    /**
+     * Hash the passed in node, and all of its operands.
+     * The operand count is hashed too, so that e.g. or(a, b), c
+     * and or(a), b, c do not hash the same.
+     */
+    private static void put(Hasher hasher, IExpression expression) {
+
+        if (expression instanceof IOperatorExpression) {
+
+            IOperatorExpression oe = (IOperatorExpression)expression;
+            List<IExpression> operands = oe.getOperandList();
+            hasher.putByte(TAG_OPERATOR);
+            putString(hasher, oe.getOperatorName());
+            hasher.putInt(operands.size());
+            for (IExpression operand : operands)
+                put(hasher, operand);
+        }
+        else if (expression instanceof IAttributeExpression) {
+            hasher.putByte(TAG_ATTRIBUTE);
+            putString(hasher,
+                      ((IAttributeExpression)expression).getAttributeName());
+        }
+        else if (expression instanceof ILiteralValueExpression) {
+            putLiteral(hasher, (ILiteralValueExpression)expression);
+        }
+        else {
+            /**
+             * Some other implementation of IExpression.
+             */
+            hasher.putByte(TAG_OTHER);
+            putString(hasher, (expression == null) ? null :
+                      expression.getClass().getName());
+            putString(hasher, String.valueOf(expression));
+        }
+    }
+
+
+    /**
+     * Hash a literal's kind tag followed by its primitive value.
+     */
+    private static void putLiteral(Hasher hasher,
+                                   ILiteralValueExpression literal) {
+
+        switch (literal.getLiteralKind()) {
+            case BOOLEAN:
+                hasher.putByte(TAG_BOOLEAN);
+                hasher.putBoolean(((IBooleanLiteralValueExpression)literal).
+                    getBooleanValue());
+                break;
+
+            case INT32:
+                hasher.putByte(TAG_INT32);
+                hasher.putInt(((IInt32LiteralValueExpression)literal).
+                    getIntValue());
+                break;
+
+            case FLOAT64:
+                hasher.putByte(TAG_FLOAT64);
+                hasher.putLong(Double.doubleToLongBits(
+                    ((IFloat64LiteralValueExpression)literal).
+                    getDoubleValue()));
+                break;
+
+            case STRING:
+                hasher.putByte(TAG_STRING);
+                putString(hasher, (String)literal.getValue());
+                break;
+
+            case TIME:
+                /**
+                 * Two times are equal if they are the same instant in
+                 * the same time zone, so hash both.
+                 */
+                ITimeLiteralValueExpression time =
+                    (ITimeLiteralValueExpression)literal;
+                hasher.putByte(TAG_TIME);
+                hasher.putLong(time.getMillis());
+                putString(hasher, (time.getZone() == null) ? null :
+                                  time.getZone().getID());
+                break;
+
+            default:
+                hasher.putByte(TAG_CLASS);
+                putString(hasher, (String)literal.getValue());
+                break;
+        }
+    }
+
+
+    /**
+     * Hash a String that might be null.  The length is hashed first,
+     * so that e.g. ("ab", "c") and ("a", "bc") do not hash the same.
+     */
+    private static void putString(Hasher hasher, String string) {
+
+        if (string == null) {
+            hasher.putInt(-1);
+            return;
+        }
+        hasher.putInt(string.length());
+        hasher.putString(string, StandardCharsets.UTF_8);
+    }
+}
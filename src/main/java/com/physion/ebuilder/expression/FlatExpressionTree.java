@@ -0,0 +1,525 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * This class is a compact, immutable copy of an ExpressionTree.
+ *
+ * An ExpressionTree is made of one object per node, every
+ * OperatorExpression has its own ArrayList, the numeric literals are
+ * boxed, and every TimeLiteralValueExpression holds a time zone.  So a
+ * small query takes a few dozen objects.  A FlatExpressionTree stores
+ * the whole tree in a handful of arrays, no matter how many nodes it
+ * has:
+ *
+ *      opcodes         One byte per node, saying what kind of node it
+ *                      is.  E.g. OPERATOR, ATTRIBUTE, INT32.
+ *
+ *      arguments       One int per node.  For an INT32 node it is the
+ *                      value.  For a BOOLEAN node it is 0 or 1.  For
+ *                      an OPERATOR, ATTRIBUTE, STRING, or CLASS node,
+ *                      it is the index of the name or value in the
+ *                      string table.  For a FLOAT64 node it is the
+ *                      index in the double pool, and for a TIME node
+ *                      it is the index in the long pool.
+ *
+ *      operandCounts   One int per node.  The number of operands an
+ *                      OPERATOR node has.  Zero for the other nodes.
+ *
+ *      longPool        For each TIME node, the milliseconds since the
+ *                      epoch, followed by the index of the time zone
+ *                      ID in the string table.
+ *
+ *      doublePool      The FLOAT64 values.
+ *
+ *      strings         The distinct Strings used by the tree, (e.g.
+ *                      operator names and attribute names), each one
+ *                      stored once.
+ *
+ * The nodes are in postfix order, (the operands of a node come
+ * before the node, in order, and the root is the last node), so a
+ * stack machine can walk the tree with one loop over the nodes, and
+ * no recursion.
+ *
+ * A null String, DateTime, or Boolean value is stored as NULL_INDEX.
+ *
+ * Example of use:
+ *
+ *      FlatExpressionTree flat = new FlatExpressionTree(expressionTree);
+ *      ...
+ *      for (int node = 0; node < flat.getNodeCount(); node++) {
+ *          switch (flat.getOpcode(node)) {
+ *          case FlatExpressionTree.OPERATOR:
+ *              // Pop flat.getOperandCount(node) values...
+ *          ...
+ *      }
+ *      ...
+ *      ExpressionTree copy = flat.toExpressionTree();
+ */
+public final class FlatExpressionTree
+    implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The opcodes.  These values are stored in files, so do not
+     * change them.
+     */
+    public static final byte OPERATOR = 1;
+    public static final byte ATTRIBUTE = 2;
+    public static final byte BOOLEAN = 3;
+    public static final byte INT32 = 4;
+    public static final byte FLOAT64 = 5;
+    public static final byte STRING = 6;
+    public static final byte TIME = 7;
+    public static final byte CLASS = 8;
+
+    /**
+     * The argument of a node whose value is null.
+     */
+    public static final int NULL_INDEX = -1;
+
+    private final String classUnderQualification;
+    private final byte[] opcodes;
+    private final int[] arguments;
+    private final int[] operandCounts;
+    private final long[] longPool;
+    private final double[] doublePool;
+    private final String[] strings;
+
+
+    /**
+     * Create a FlatExpressionTree that is a copy of the passed in
+     * ExpressionTree.
+     *
+     * @throws IllegalArgumentException If the tree contains an
+     * implementation of IExpression that is not in this package.
+     */
+    public FlatExpressionTree(ExpressionTree expressionTree) {
+
+        Builder builder = new Builder();
+        new ExpressionWalker().walk(expressionTree, builder);
+
+        /**
+         * A node of some other implementation of IExpression does not
+         * call any of our visit methods.  Every node but the root is
+         * the operand of one operator, so a missing node shows up as
+         * one operand too many.
+         */
+        if (builder.nodeCount != builder.operandTotal+1) {
+            throw(new IllegalArgumentException("Cannot flatten a tree "+
+                "that contains an expression that is not one of the "+
+                "classes in this package."));
+        }
+
+        int nodeCount = builder.nodeCount;
+        classUnderQualification = expressionTree.getClassUnderQualification();
+        opcodes = Arrays.copyOf(builder.opcodes, nodeCount);
+        arguments = Arrays.copyOf(builder.arguments, nodeCount);
+        operandCounts = Arrays.copyOf(builder.operandCounts, nodeCount);
+        longPool = Arrays.copyOf(builder.longPool, builder.longCount);
+        doublePool = Arrays.copyOf(builder.doublePool, builder.doubleCount);
+        strings = builder.strings.toArray(new String[builder.strings.size()]);
+    }
+
+
+    public String getClassUnderQualification() {
+        return(classUnderQualification);
+    }
+
+
+    /**
+     * Get the number of nodes in the tree.  The root is the node
+     * at getNodeCount()-1.
+     */
+    public int getNodeCount() {
+        return(opcodes.length);
+    }
+
+
+    /**
+     * Get the opcode, (e.g. OPERATOR, INT32), of the passed in node.
+     */
+    public byte getOpcode(int node) {
+        return(opcodes[node]);
+    }
+
+
+    /**
+     * Get the number of operands of the passed in OPERATOR node.
+     * They are the getOperandCount(node) subtrees that end just
+     * before the node.
+     */
+    public int getOperandCount(int node) {
+        return(operandCounts[node]);
+    }
+
+
+    /**
+     * Get the operator name of an OPERATOR node, the attribute name
+     * of an ATTRIBUTE node, or the value of a STRING or CLASS node.
+     */
+    public String getString(int node) {
+
+        int index = arguments[node];
+        return((index == NULL_INDEX) ? null : strings[index]);
+    }
+
+
+    public int getInt(int node) {
+        return(arguments[node]);
+    }
+
+
+    public double getDouble(int node) {
+        return(doublePool[arguments[node]]);
+    }
+
+
+    /**
+     * Get the value of a BOOLEAN node.  Null is returned as false.
+     * Use isNull() to tell the difference.
+     */
+    public boolean getBoolean(int node) {
+        return(arguments[node] == 1);
+    }
+
+
+    /**
+     * Get the milliseconds since the epoch of a TIME node.
+     */
+    public long getMillis(int node) {
+        return(longPool[arguments[node]]);
+    }
+
+
+    /**
+     * Get the time zone of a TIME node.
+     */
+    public DateTimeZone getZone(int node) {
+        return(DateTimeZone.forID(strings[(int)longPool[arguments[node]+1]]));
+    }
+
+
+    /**
+     * Returns true if the passed in BOOLEAN, STRING, CLASS, or TIME
+     * node has a null value.
+     */
+    public boolean isNull(int node) {
+
+        byte opcode = opcodes[node];
+        return(((opcode == BOOLEAN) || (opcode == STRING) ||
+                (opcode == CLASS) || (opcode == TIME)) &&
+               (arguments[node] == NULL_INDEX));
+    }
+
+
+    /**
+     * Create an ExpressionTree that is equal to the one this
+     * FlatExpressionTree was made from.
+     *
+     * TIME values are recreated in the ISO chronology, which is the
+     * one the GUI uses.
+     */
+    public ExpressionTree toExpressionTree() {
+
+        IExpression[] stack = new IExpression[opcodes.length];
+        int top = 0;
+
+        for (int node = 0; node < opcodes.length; node++) {
+
+            IExpression expression;
+            switch (opcodes[node]) {
+
+            case OPERATOR:
+                int count = operandCounts[node];
+                List<IExpression> operands = new ArrayList<IExpression>(count);
+                for (int index = top-count; index < top; index++)
+                    operands.add(stack[index]);
+                top -= count;
+                expression = new OperatorExpression(getString(node), operands);
+                break;
+
+            case ATTRIBUTE:
+                expression = new AttributeExpression(getString(node));
+                break;
+
+            case BOOLEAN:
+                expression = new BooleanLiteralValueExpression(
+                    isNull(node) ? null : Boolean.valueOf(getBoolean(node)));
+                break;
+
+            case INT32:
+                expression = new Int32LiteralValueExpression(getInt(node));
+                break;
+
+            case FLOAT64:
+                expression = new Float64LiteralValueExpression(
+                    getDouble(node));
+                break;
+
+            case STRING:
+                expression = new StringLiteralValueExpression(getString(node));
+                break;
+
+            case TIME:
+                expression = isNull(node) ?
+                    new TimeLiteralValueExpression(0, null) :
+                    new TimeLiteralValueExpression(getMillis(node),
+                                                   getZone(node));
+                break;
+
+            case CLASS:
+                expression = new ClassLiteralValueExpression(getString(node));
+                break;
+
+            default:
+                throw(new IllegalStateException("Unknown opcode "+
+                    opcodes[node]+" at node "+node+"."));
+            }
+            stack[top++] = expression;
+        }
+
+        return(new ExpressionTree(classUnderQualification,
+                                  (IOperatorExpression)stack[0]));
+    }
+
+
+    /**
+     * Two FlatExpressionTrees are equal if they were made from
+     * equal ExpressionTrees.
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if (object == this)
+            return(true);
+        if (!(object instanceof FlatExpressionTree))
+            return(false);
+
+        FlatExpressionTree other = (FlatExpressionTree)object;
+        return(Objects.equals(classUnderQualification,
+                              other.classUnderQualification) &&
+               Arrays.equals(opcodes, other.opcodes) &&
+               Arrays.equals(arguments, other.arguments) &&
+               Arrays.equals(operandCounts, other.operandCounts) &&
+               Arrays.equals(longPool, other.longPool) &&
+               Arrays.equals(doublePool, other.doublePool) &&
+               Arrays.equals(strings, other.strings));
+    }
+
+
+    @Override
+    public int hashCode() {
+
+        int hash = Objects.hashCode(classUnderQualification);
+        hash = hash*31+Arrays.hashCode(opcodes);
+        hash = hash*31+Arrays.hashCode(arguments);
+        hash = hash*31+Arrays.hashCode(operandCounts);
+        hash = hash*31+Arrays.hashCode(longPool);
+        hash = hash*31+Arrays.hashCode(doublePool);
+        return(hash);
+    }
+
+
+    /**
+     * Get a string version of this class that can be used
+     * for debugging purposes.  One line per node.
+     */
+    public String toString() {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("CUQ: ").append(classUnderQualification);
+        for (int node = 0; node < opcodes.length; node++) {
+
+            builder.append("\n").append(node).append(": ");
+            switch (opcodes[node]) {
+            case OPERATOR:
+                builder.append("OPERATOR ").append(getString(node)).
+                    append(" ").append(operandCounts[node]);
+                break;
+            case ATTRIBUTE:
+                builder.append("ATTRIBUTE ").append(getString(node));
+                break;
+            case BOOLEAN:
+                builder.append("BOOLEAN ").append(isNull(node) ? null :
+                    Boolean.valueOf(getBoolean(node)));
+                break;
+            case INT32:
+                builder.append("INT32 ").append(getInt(node));
+                break;
+            case FLOAT64:
+                builder.append("FLOAT64 ").append(getDouble(node));
+                break;
+            case STRING:
+                builder.append("STRING ").append(getString(node));
+                break;
+            case TIME:
+                builder.append("TIME ").append(isNull(node) ? null :
+                    new DateTime(getMillis(node), getZone(node)));
+                break;
+            case CLASS:
+                builder.append("CLASS ").append(getString(node));
+                break;
+            }
+        }
+        return(builder.toString());
+    }
+
+
+    /**
+     * The state used while a FlatExpressionTree is being built.
+     */
+    private static class Builder
+        implements IExpressionVisitor {
+
+        /**
+         * The node arrays grow as the walker visits the tree, so the
+         * tree is only walked once, and without recursion.
+         */
+        byte[] opcodes = new byte[16];
+        int[] arguments = new int[16];
+        int[] operandCounts = new int[16];
+        int nodeCount;
+
+        /**
+         * The sum of operandCounts.
+         */
+        int operandTotal;
+
+        long[] longPool = new long[4];
+        int longCount;
+        double[] doublePool = new double[4];
+        int doubleCount;
+
+        List<String> strings = new ArrayList<String>();
+        Map<String,Integer> stringIndexes = new HashMap<String,Integer>();
+
+
+        @Override
+        public boolean visitOperator(IOperatorExpression e) {
+            return(true);
+        }
+
+
+        /**
+         * The operands have all been added, so add the operator.
+         */
+        @Override
+        public void endOperator(IOperatorExpression e) {
+            addNode(OPERATOR, addString(e.getOperatorName()),
+                    e.getOperandList().size());
+        }
+
+
+        @Override
+        public void visitAttributeValue(IAttributeExpression e) {
+            addNode(ATTRIBUTE, addString(e.getAttributeName()), 0);
+        }
+
+
+        @Override
+        public void visitBooleanLiteralValue(
+            IBooleanLiteralValueExpression e) {
+
+            Object value = e.getValue();
+            addNode(BOOLEAN, (value == null) ? NULL_INDEX :
+                    (Boolean.TRUE.equals(value) ? 1 : 0), 0);
+        }
+
+
+        @Override
+        public void visitInt32LiteralValue(IInt32LiteralValueExpression e) {
+            addNode(INT32, ((Number)e.getValue()).intValue(), 0);
+        }
+
+
+        @Override
+        public void visitFloat64LiteralValue(
+            IFloat64LiteralValueExpression e) {
+
+            if (doubleCount == doublePool.length)
+                doublePool = Arrays.copyOf(doublePool, doubleCount*2);
+            doublePool[doubleCount] = ((Number)e.getValue()).doubleValue();
+            addNode(FLOAT64, doubleCount++, 0);
+        }
+
+
+        @Override
+        public void visitStringLiteralValue(IStringLiteralValueExpression e) {
+            addNode(STRING, addString((String)e.getValue()), 0);
+        }
+
+
+        @Override
+        public void visitTimeLiteralValue(ITimeLiteralValueExpression e) {
+
+            DateTimeZone zone = e.getZone();
+            if (zone == null) {
+                addNode(TIME, NULL_INDEX, 0);
+            }
+            else {
+                if (longCount+2 > longPool.length)
+                    longPool = Arrays.copyOf(longPool, longCount*2+2);
+                longPool[longCount] = e.getMillis();
+                longPool[longCount+1] = addString(zone.getID());
+                addNode(TIME, longCount, 0);
+                longCount += 2;
+            }
+        }
+
+
+        @Override
+        public void visitClassLiteralValue(IClassLiteralValueExpression e) {
+            addNode(CLASS, addString((String)e.getValue()), 0);
+        }
+
+
+        private void addNode(byte opcode, int argument, int operandCount) {
+
+            if (nodeCount == opcodes.length) {
+                opcodes = Arrays.copyOf(opcodes, nodeCount*2);
+                arguments = Arrays.copyOf(arguments, nodeCount*2);
+                operandCounts = Arrays.copyOf(operandCounts, nodeCount*2);
+            }
+            operandTotal += operandCount;
+            opcodes[nodeCount] = opcode;
+            arguments[nodeCount] = argument;
+            operandCounts[nodeCount] = operandCount;
+            nodeCount++;
+        }
+
+
+        /**
+         * Get the index of the passed in String in the string table,
+         * adding it if it is not there already.
+         */
+        private int addString(String string) {
+
+            if (string == null)
+                return(NULL_INDEX);
+
+            Integer index = stringIndexes.get(string);
+            if (index == null) {
+                index = Integer.valueOf(strings.size());
+                strings.add(string);
+                stringIndexes.put(string, index);
+            }
+            return(index.intValue());
+        }
+    }
+}
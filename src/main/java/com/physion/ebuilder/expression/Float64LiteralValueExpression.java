@@ -34,7 +34,7 @@ public class Float64LiteralValueExpression
      */
     @Override
     public Object getValue() {
-        return(new Double(value));
+        return(Double.valueOf(value));
     }
 
 
@@ -43,10 +43,49 @@ public class Float64LiteralValueExpression
     }
 
 
+    @Override
+    public LiteralKind getLiteralKind() {
+        return(LiteralKind.FLOAT64);
+    }
+
+
+    @Override
+    public double getDoubleValue() {
+        return(value);
+    }
+
+
+    @Override
+    public void accept(IExpressionVisitor expressionVisitor) {
+        expressionVisitor.visitFloat64LiteralValue(this);
+    }
+
+
     /**
      * Convert this object to a string for testing/debugging purposes.
      */
     public String toString(String indent) {
         return(indent+"Float64LiteralValueExpression("+value+")");
     }
+
+
+    /**
+     * Two Float64LiteralValueExpressions are equal if they have the same
+     * value.  (As with Double.equals(), NaN is equal to NaN, and 0.0 is
+     * not equal to -0.0).
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if ((object == null) || (object.getClass() != getClass()))
+            return(false);
+        return(Double.compare(value,
+            ((Float64LiteralValueExpression)object).value) == 0);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return(Double.hashCode(value));
+    }
 }
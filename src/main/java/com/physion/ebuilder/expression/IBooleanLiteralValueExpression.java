@@ -20,4 +20,7 @@ package com.physion.ebuilder.expression;
  */
 public interface IBooleanLiteralValueExpression
     extends ILiteralValueExpression {
+
+    //Retrieve the value without boxing it
+    boolean getBooleanValue();
 }
@@ -21,12 +21,11 @@ package com.physion.ebuilder.expression;
 public interface IExpression {
 
     /**
-     * This method is not implemented or used in the current,
-     * November 2011, version of the code.  It is declared only
-     * because the C++ version of the library has this method.
-     * It will eventually end up getting used if Objectivity
-     * does not create a Java version of the library for
-     * Physion to use.
+     * Call the method of the passed in visitor that matches
+     * this kind of node.  An operator also passes the visitor to
+     * its operands, depth first, if visitOperator() returns true.
+     *
+     * @see ExpressionWalker
      */
     public void accept(IExpressionVisitor expressionVisitor);
 }
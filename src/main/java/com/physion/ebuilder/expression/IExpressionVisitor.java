@@ -18,23 +18,32 @@ package com.physion.ebuilder.expression;
  * some point in the future, this ...ebuilder.expression package
  * will be replaced with a Java version of the Objectivity library.
  *
- * This interface is currently empty.  It is not needed
- * for developing the API to set/get RowData objects
- * from the GUI.
+ * An IExpressionVisitor is passed to IExpression.accept(), or to an
+ * ExpressionWalker, and it has one method for every kind of node.
+ * The nodes are visited depth first, left to right.  For an operator,
+ * visitOperator() is called before its operands are visited, and
+ * endOperator() is called after them.
+ *
+ * If you only care about a few kinds of nodes, extend
+ * ExpressionVisitorAdapter instead of implementing this interface.
+ *
+ * @see ExpressionWalker
+ * @see ExpressionVisitorAdapter
  */
 public interface IExpressionVisitor {
 
     /**
      * Return true to indicate visitor needs to see operands.
+     * endOperator() is called either way.
      */
     boolean visitOperator(IOperatorExpression e);
     void endOperator(IOperatorExpression e);
 
-    void visitAttributeValue();
-    void visitIntLiteralValue();
-    void visitUIntLiteralValue();
-    void visitFloatLiteralValue();
-    void visitStringLiteralValue();
-    void visitBoolLiteralValue();
-    // visit methods for all expression types...
+    void visitAttributeValue(IAttributeExpression e);
+    void visitBooleanLiteralValue(IBooleanLiteralValueExpression e);
+    void visitInt32LiteralValue(IInt32LiteralValueExpression e);
+    void visitFloat64LiteralValue(IFloat64LiteralValueExpression e);
+    void visitStringLiteralValue(IStringLiteralValueExpression e);
+    void visitTimeLiteralValue(ITimeLiteralValueExpression e);
+    void visitClassLiteralValue(IClassLiteralValueExpression e);
 }
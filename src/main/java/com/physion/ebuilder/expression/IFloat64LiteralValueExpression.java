@@ -20,4 +20,7 @@ package com.physion.ebuilder.expression;
  */
 public interface IFloat64LiteralValueExpression
     extends ILiteralValueExpression {
+
+    //Retrieve the value without boxing it
+    double getDoubleValue();
 }
@@ -20,4 +20,7 @@ package com.physion.ebuilder.expression;
  */
 public interface IInt32LiteralValueExpression
     extends ILiteralValueExpression {
+
+    //Retrieve the value without boxing it
+    int getIntValue();
 }
@@ -29,4 +29,12 @@ public interface ILiteralValueExpression
      * object is actually returned.
      */
     public Object getValue();
+
+
+    /**
+     * Get the kind of literal this is, so you can switch on it and
+     * call the primitive getter of the kind, instead of unboxing
+     * getValue().
+     */
+    public LiteralKind getLiteralKind();
 }
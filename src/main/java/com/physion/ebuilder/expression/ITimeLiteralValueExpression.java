@@ -6,6 +6,7 @@ package com.physion.ebuilder.expression;
 
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
 /**
  * The com.physion.ebuilder.expression package consists
@@ -25,4 +26,10 @@ public interface ITimeLiteralValueExpression
 
     //Retrieve the time value as a DateTime
     DateTime getTimeValue();
+
+    //Retrieve the time value as milliseconds since the epoch
+    long getMillis();
+
+    //Retrieve the time zone of the time value
+    DateTimeZone getZone();
 }
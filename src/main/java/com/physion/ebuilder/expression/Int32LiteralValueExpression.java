@@ -35,7 +35,7 @@ public class Int32LiteralValueExpression
      */
     @Override
     public Object getValue() {
-        return(new Integer(value));
+        return(Integer.valueOf(value));
     }
 
 
@@ -44,10 +44,47 @@ public class Int32LiteralValueExpression
     }
 
 
+    @Override
+    public LiteralKind getLiteralKind() {
+        return(LiteralKind.INT32);
+    }
+
+
+    @Override
+    public int getIntValue() {
+        return(value);
+    }
+
+
+    @Override
+    public void accept(IExpressionVisitor expressionVisitor) {
+        expressionVisitor.visitInt32LiteralValue(this);
+    }
+
+
     /**
      * Convert this object to a string for testing/debugging purposes.
      */
     public String toString(String indent) {
         return(indent+"Int32LiteralValueExpression("+value+")");
     }
+
+
+    /**
+     * Two Int32LiteralValueExpressions are equal if they have the same
+     * value.
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if ((object == null) || (object.getClass() != getClass()))
+            return(false);
+        return(value == ((Int32LiteralValueExpression)object).value);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return(Integer.hashCode(value));
+    }
 }
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression;
+
+
+/**
+ * What kind of literal an ILiteralValueExpression is.  Switch on
+ * ILiteralValueExpression.getLiteralKind() and call the matching
+ * primitive getter, rather than testing the expression with a chain
+ * of instanceofs and unboxing getValue():
+ *
+ *      BOOLEAN     IBooleanLiteralValueExpression.getBooleanValue()
+ *      INT32       IInt32LiteralValueExpression.getIntValue()
+ *      FLOAT64     IFloat64LiteralValueExpression.getDoubleValue()
+ *      STRING      (String)getValue()
+ *      TIME        ITimeLiteralValueExpression.getMillis() and getZone()
+ *      CLASS       (String)getValue()
+ *
+ * Example of use:
+ *
+ *      switch (literal.getLiteralKind()) {
+ *          case INT32:
+ *              int i = ((IInt32LiteralValueExpression)literal).getIntValue();
+ *              ...
+ *      }
+ */
+public enum LiteralKind {
+    BOOLEAN,
+    INT32,
+    FLOAT64,
+    STRING,
+    TIME,
+    CLASS
+}
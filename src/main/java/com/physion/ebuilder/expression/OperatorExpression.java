@@ -8,6 +8,7 @@ import java.io.Serializable;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 
 /**
@@ -131,6 +132,22 @@ public class OperatorExpression
     }
 
 
+    /**
+     * Visit this operator and, if the visitor wants them, its operands.
+     * This recurses once per level of the tree.  Use an ExpressionWalker
+     * for trees that might be very deep.
+     */
+    @Override
+    public void accept(IExpressionVisitor expressionVisitor) {
+
+        if (expressionVisitor.visitOperator(this)) {
+            for (int index = 0; index < operandList.size(); index++)
+                operandList.get(index).accept(expressionVisitor);
+        }
+        expressionVisitor.endOperator(this);
+    }
+
+
     /**
      * Get a string version of this class that can be used
      * for testing/debugging purposes.
@@ -140,12 +157,62 @@ public class OperatorExpression
      */
     public String toString(String indent) {
 
-        String string = indent;
-        string += "OperatorExpression("+getOperatorName()+")";
+        StringBuilder builder = new StringBuilder();
+        toString(indent, builder);
+        return(builder.toString());
+    }
+
+
+    /**
+     * Append the string version of this OperatorExpression, and its
+     * operands, to the passed in StringBuilder.  This is what
+     * toString(String indent) does, but without building a new String
+     * for every level of the tree.
+     */
+    private void toString(String indent, StringBuilder builder) {
+
+        builder.append(indent).append("OperatorExpression(").
+            append(getOperatorName()).append(")");
 
+        String operandIndent = indent+INDENT;
         for (IExpression expression : getOperandList()) {
-            string += "\n"+((Expression)expression).toString(indent+INDENT);
+            builder.append("\n");
+            if (expression instanceof OperatorExpression) {
+                ((OperatorExpression)expression).toString(operandIndent,
+                                                          builder);
+            }
+            else {
+                builder.append(((Expression)expression).toString(
+                    operandIndent));
+            }
         }
-        return(string);
+    }
+
+
+    /**
+     * Two OperatorExpressions are equal if they have the same
+     * operatorName and their operands are equal, in the same order.
+     *
+     * Please note, an OperatorExpression can be changed after it is
+     * created, (see addOperand()), so do not change one that you have
+     * used as a key in a HashMap.
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if (object == this)
+            return(true);
+        if ((object == null) || (object.getClass() != getClass()))
+            return(false);
+
+        OperatorExpression other = (OperatorExpression)object;
+        return(Objects.equals(operatorName, other.operatorName) &&
+               operandList.equals(other.operandList));
+    }
+
+
+    @Override
+    public int hashCode() {
+        return(Objects.hashCode(operatorName)*31+operandList.hashCode());
     }
 }
@@ -0,0 +1,323 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression;
+
+import org.joda.time.DateTimeZone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The shape of a query:  an ExpressionTree with its literals taken
+ * out.  E.g. these two queries have the same shape:
+ *
+ *      and(protocolID == "p1", startTime > #"2011-01-01...")
+ *      and(protocolID == "p7", startTime > #"2011-06-30...")
+ *
+ * and the literals of each, ("p1" and the first time, or "p7" and the
+ * second), are its "binds".  Work that only depends on the shape of a
+ * query, (e.g. planning it, compiling it, or generating SQL for it),
+ * can be done once per shape and reused with the binds of every query
+ * of that shape.  See PreparedQuery and ShapeCache.
+ *
+ * Every literal is a bind except the class literals, (e.g. the
+ * ovation.IntegerValue of elementsOfType()), which say what the query
+ * does rather than what it compares with.  The binds are in the order
+ * they appear in the tree, depth first, left to right.  The kind of
+ * each bind, (see LiteralKind), is part of the shape, because e.g. an
+ * int and a string are compared differently.
+ *
+ * The shape tree is the query with each bind replaced by a placeholder
+ * literal of the same kind:  false, 0, 0.0, "", or the time 0 in UTC.
+ * Its Fingerprint is the Fingerprint of the shape, which is the same
+ * every time the program runs, so it can be stored or logged.
+ *
+ * A QueryShape is immutable, as long as the tree it was created from
+ * is not changed.
+ *
+ * Example of use:
+ *
+ *      QueryShape shape = QueryShape.of(tree);
+ *      Fingerprint key = shape.getFingerprint();
+ *      List<ILiteralValueExpression> binds = shape.getBinds();
+ *      ...
+ *      ExpressionTree other = shape.bind(otherBinds);
+ *
+ * @see Fingerprint
+ */
+public final class QueryShape {
+
+    private final ExpressionTree template;
+    private final ExpressionTree shapeTree;
+    private final List<ILiteralValueExpression> binds;
+
+
+    private QueryShape(ExpressionTree template, ExpressionTree shapeTree,
+                       List<ILiteralValueExpression> binds) {
+
+        this.template = template;
+        this.shapeTree = shapeTree;
+        this.binds = Collections.unmodifiableList(binds);
+    }
+
+
+    /**
+     * Get the shape of the passed in ExpressionTree, and its binds.
+     */
+    public static QueryShape of(ExpressionTree expressionTree) {
+
+        IExpression root = expressionTree.getRootExpression();
+        List<ILiteralValueExpression> binds = findBinds(root);
+
+        List<ILiteralValueExpression> placeholders =
+            new ArrayList<ILiteralValueExpression>(binds.size());
+        for (ILiteralValueExpression bind : binds)
+            placeholders.add(getPlaceholder(bind.getLiteralKind()));
+
+        ExpressionTree shapeTree = new ExpressionTree(
+            expressionTree.getClassUnderQualification(),
+            (IOperatorExpression)replaceBinds(root, placeholders));
+        return(new QueryShape(expressionTree, shapeTree, binds));
+    }
+
+
+    /**
+     * Get the Class Under Qualification of the query.
+     */
+    public String getClassUnderQualification() {
+        return(shapeTree.getClassUnderQualification());
+    }
+
+
+    /**
+     * Get the query with each bind replaced by a placeholder.
+     * Do not change it.
+     */
+    public ExpressionTree getShapeTree() {
+        return(shapeTree);
+    }
+
+
+    /**
+     * Get the Fingerprint of the shape.  All the queries of this
+     * shape have the same one, whatever their binds are.
+     */
+    public Fingerprint getFingerprint() {
+        return(shapeTree.getFingerprint());
+    }
+
+
+    /**
+     * Get the binds of the query this shape was created from.
+     * The list can't be changed.
+     */
+    public List<ILiteralValueExpression> getBinds() {
+        return(binds);
+    }
+
+
+    /**
+     * Get the number of binds a query of this shape has.
+     */
+    public int getBindCount() {
+        return(binds.size());
+    }
+
+
+    /**
+     * Get the kind of the bind at the passed in index.
+     */
+    public LiteralKind getBindKind(int index) {
+        return(binds.get(index).getLiteralKind());
+    }
+
+
+    /**
+     * Get the query of this shape that has the passed in binds.
+     * The returned tree shares everything but the binds, and the
+     * operators above them, with the tree this shape was created
+     * from.
+     *
+     * @throws IllegalArgumentException If the number of binds, or
+     * the kind of one of them, is not what this shape needs.
+     */
+    public ExpressionTree bind(List<? extends ILiteralValueExpression> values) {
+
+        checkBinds(values);
+        return(new ExpressionTree(template.getClassUnderQualification(),
+            (IOperatorExpression)replaceBinds(template.getRootExpression(),
+                                              values)));
+    }
+
+
+    /**
+     * Throw an IllegalArgumentException if the passed in binds
+     * can't be the binds of a query of this shape.
+     */
+    public void checkBinds(List<? extends ILiteralValueExpression> values) {
+
+        if (values.size() != binds.size()) {
+            throw(new IllegalArgumentException("The query has "+
+                binds.size()+" binds, but "+values.size()+
+                " were passed in."));
+        }
+        for (int index = 0; index < values.size(); index++) {
+            LiteralKind kind = binds.get(index).getLiteralKind();
+            if (values.get(index).getLiteralKind() != kind) {
+                throw(new IllegalArgumentException("Bind "+index+
+                    " must be a "+kind+" literal, but it is a "+
+                    values.get(index).getLiteralKind()+" literal."));
+            }
+        }
+    }
+
+
+    /**
+     * Get the binds of the passed in expression, in order.
+     */
+    public static List<ILiteralValueExpression> findBinds(IExpression ex) {
+
+        List<ILiteralValueExpression> binds =
+            new ArrayList<ILiteralValueExpression>();
+        findBinds(ex, binds);
+        return(binds);
+    }
+
+
+    /**
+     * Returns true if the passed in expression is a bind.  I.e. a
+     * literal that is not a class literal.
+     */
+    public static boolean isBind(IExpression ex) {
+
+        return((ex instanceof ILiteralValueExpression) &&
+               (((ILiteralValueExpression)ex).getLiteralKind() !=
+                LiteralKind.CLASS));
+    }
+
+
+    /**
+     * Return a copy of the passed in expression, with its binds
+     * replaced by the passed in literals, in order.  The parts of
+     * the expression that have no binds are shared, not copied.
+     *
+     * @throws IllegalArgumentException If the number of literals is
+     * not the number of binds.
+     */
+    public static IExpression replaceBinds(IExpression ex,
+        List<? extends ILiteralValueExpression> values) {
+
+        int[] next = {0};
+        IExpression result = replaceBinds(ex, values, next);
+        if (next[0] != values.size()) {
+            throw(new IllegalArgumentException("The expression has "+
+                next[0]+" binds, but "+values.size()+" were passed in."));
+        }
+        return(result);
+    }
+
+
+    /**
+     * Two QueryShapes are equal if their shape trees are equal.
+     * The binds do not matter.
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if (object == this)
+            return(true);
+        if (!(object instanceof QueryShape))
+            return(false);
+        return(shapeTree.equals(((QueryShape)object).shapeTree));
+    }
+
+
+    @Override
+    public int hashCode() {
+        return(shapeTree.hashCode());
+    }
+
+
+    @Override
+    public String toString() {
+        return("QueryShape("+getFingerprint()+", "+binds.size()+" binds)");
+    }
+
+
+    private static void findBinds(IExpression ex,
+                                  List<ILiteralValueExpression> binds) {
+
+        if (isBind(ex)) {
+            binds.add((ILiteralValueExpression)ex);
+        }
+        else if (ex instanceof IOperatorExpression) {
+            for (IExpression operand :
+                 ((IOperatorExpression)ex).getOperandList())
+                findBinds(operand, binds);
+        }
+    }
+
+
+    /**
+     * @param next The index of the next literal to use.
+     */
+    private static IExpression replaceBinds(IExpression ex,
+        List<? extends ILiteralValueExpression> values, int[] next) {
+
+        if (isBind(ex)) {
+            if (next[0] >= values.size()) {
+                throw(new IllegalArgumentException("The expression has "+
+                    "more than "+values.size()+" binds."));
+            }
+            return(values.get(next[0]++));
+        }
+        else if (!(ex instanceof IOperatorExpression)) {
+            return(ex);
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        List<IExpression> operands = oe.getOperandList();
+        List<IExpression> replaced = null;
+        for (int index = 0; index < operands.size(); index++) {
+            IExpression operand = replaceBinds(operands.get(index), values,
+                                               next);
+            if ((operand != operands.get(index)) && (replaced == null))
+                replaced = new ArrayList<IExpression>(operands.subList(0,
+                                                                       index));
+            if (replaced != null)
+                replaced.add(operand);
+        }
+
+        if (replaced == null)
+            return(ex);
+        return(new OperatorExpression(oe.getOperatorName(), replaced));
+    }
+
+
+    /**
+     * Get the literal that stands for the binds of the passed in
+     * kind in a shape tree.
+     */
+    private static ILiteralValueExpression getPlaceholder(LiteralKind kind) {
+
+        switch (kind) {
+            case BOOLEAN:
+                return(new BooleanLiteralValueExpression(Boolean.FALSE));
+            case INT32:
+                return(new Int32LiteralValueExpression(0));
+            case FLOAT64:
+                return(new Float64LiteralValueExpression(0.0));
+            case STRING:
+                return(new StringLiteralValueExpression(""));
+            case TIME:
+                return(new TimeLiteralValueExpression(0, DateTimeZone.UTC));
+            default:
+                throw(new IllegalArgumentException(
+                    "A "+kind+" literal is not a bind."));
+        }
+    }
+}
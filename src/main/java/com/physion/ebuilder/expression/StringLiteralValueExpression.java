@@ -5,6 +5,7 @@
 package com.physion.ebuilder.expression;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 
 /**
@@ -43,10 +44,42 @@ public class StringLiteralValueExpression
     }
 
 
+    @Override
+    public LiteralKind getLiteralKind() {
+        return(LiteralKind.STRING);
+    }
+
+
+    @Override
+    public void accept(IExpressionVisitor expressionVisitor) {
+        expressionVisitor.visitStringLiteralValue(this);
+    }
+
+
     /**
      * Convert this object to a string for testing/debugging purposes.
      */
     public String toString(String indent) {
         return(indent+"StringLiteralValueExpression("+value+")");
     }
+
+
+    /**
+     * Two StringLiteralValueExpressions are equal if they have the same
+     * value.
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if ((object == null) || (object.getClass() != getClass()))
+            return(false);
+        return(Objects.equals(value,
+                              ((StringLiteralValueExpression)object).value));
+    }
+
+
+    @Override
+    public int hashCode() {
+        return(Objects.hashCode(value));
+    }
 }
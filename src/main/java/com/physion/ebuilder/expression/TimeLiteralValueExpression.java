@@ -5,8 +5,14 @@
 package com.physion.ebuilder.expression;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Objects;
 
 
 /**
@@ -21,6 +27,23 @@ import java.io.Serializable;
  * interface to the Objectivity library.  It is assumed that at
  * some point in the future, this ...ebuilder.expression package
  * will be replaced with a Java version of the Objectivity library.
+ *
+ * The value is stored as milliseconds since the epoch plus a time
+ * zone, (always in the ISO chronology), so comparing it with another
+ * time is a long compare and does not create any objects.  A DateTime
+ * is only created by getTimeValue() and getValue(), for the GUI and
+ * for serialization.  A null value has a null time zone.
+ *
+ * This class used to return new DateTime(value), so there are two
+ * differences that callers, (e.g. the GUI and ExpressionTreeToRowData),
+ * can see:
+ *
+ *      getTimeValue() and getValue() return the time in the zone it
+ *      was created with, not in the default time zone.  The instant
+ *      is the same, but the fields, (e.g. getHourOfDay()), and
+ *      DateTime.equals() can differ.
+ *
+ *      A null value is returned as null, not as the current time.
  */
 public class TimeLiteralValueExpression
     extends Expression
@@ -28,25 +51,80 @@ public class TimeLiteralValueExpression
 
 	private static final long serialVersionUID = 1L;
 
-	private DateTime value;
+    /**
+     * The serialized form is still the DateTime this class used to
+     * hold, so old serialized trees can be read and vice versa.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("value", DateTime.class)};
+
+	private transient long millis;
+	private transient DateTimeZone zone;
 
 
     /**
-     * Get the value as a Date object.
+     * Get the value as a DateTime object.
      */
     @Override
     public Object getValue() {
         return getTimeValue();
     }
 
+    /**
+     * Create a DateTime with the value.  This creates a new object
+     * every time, so use getMillis() to compare times.
+     */
     @Override
     public DateTime getTimeValue() {
-        return(new DateTime(value));
+        return((zone == null) ? null : new DateTime(millis, zone));
+    }
+
+    /**
+     * Get the value in milliseconds since the epoch.  This is 0 if
+     * the value is null.
+     */
+    @Override
+    public long getMillis() {
+        return(millis);
+    }
+
+    /**
+     * Get the time zone of the value, or null if the value is null.
+     */
+    @Override
+    public DateTimeZone getZone() {
+        return(zone);
     }
 
 
     public TimeLiteralValueExpression(DateTime dateTime) {
-        this.value = dateTime;
+
+        if (dateTime != null) {
+            millis = dateTime.getMillis();
+            zone = dateTime.getZone();
+        }
+    }
+
+
+    /**
+     * @param millis Milliseconds since the epoch.
+     * @param zone The time zone, or null for a null value.
+     */
+    public TimeLiteralValueExpression(long millis, DateTimeZone zone) {
+        this.millis = (zone == null) ? 0 : millis;
+        this.zone = zone;
+    }
+
+
+    @Override
+    public LiteralKind getLiteralKind() {
+        return(LiteralKind.TIME);
+    }
+
+
+    @Override
+    public void accept(IExpressionVisitor expressionVisitor) {
+        expressionVisitor.visitTimeLiteralValue(this);
     }
 
 
@@ -54,6 +132,47 @@ public class TimeLiteralValueExpression
      * Convert this object to a string for testing/debugging purposes.
      */
     public String toString(String indent) {
-        return(indent+"TimeLiteralValueExpression("+value+")");
+        return(indent+"TimeLiteralValueExpression("+getTimeValue()+")");
+    }
+
+
+    /**
+     * Two TimeLiteralValueExpressions are equal if they have the same
+     * value.  (As with DateTime.equals(), that means the same instant in
+     * the same time zone).
+     */
+    @Override
+    public boolean equals(Object object) {
+
+        if ((object == null) || (object.getClass() != getClass()))
+            return(false);
+        TimeLiteralValueExpression other = (TimeLiteralValueExpression)object;
+        return((millis == other.millis) && Objects.equals(zone, other.zone));
+    }
+
+
+    @Override
+    public int hashCode() {
+        return(Long.hashCode(millis)*31+Objects.hashCode(zone));
+    }
+
+
+    private void writeObject(ObjectOutputStream out)
+        throws IOException {
+
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("value", getTimeValue());
+        out.writeFields();
+    }
+
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+
+        DateTime value = (DateTime)in.readFields().get("value", null);
+        if (value != null) {
+            millis = value.getMillis();
+            zone = value.getZone();
+        }
     }
 }
@@ -0,0 +1,443 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator;
+
+import com.physion.ebuilder.expression.*;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.IOException;
+import java.util.List;
+
+
+/**
+ * This class is used to translate an ExpressionTree into PQL text.
+ * PQLToExpressionTree turns the text back into an equal tree.
+ *
+ * The syntax is:
+ *
+ *      A comparison operator, (==, !=, <, >, <=, >=, =~, =~~, !~, !~~),
+ *      with two operands is written between them:
+ *
+ *          protocolID == "abc"
+ *
+ *      A "." operator whose second operand is an attribute is written
+ *      as a path:
+ *
+ *          epochGroup.source.label
+ *
+ *      Every other operator is written as a call, with its operands
+ *      separated by commas.  This includes "and" and "or", because
+ *      the trees the GUI creates often have an "or" with one operand,
+ *      and a comparison or "." with some other number of operands is
+ *      written this way too, e.g. ==(a).
+ *
+ *          or(protocolID == "abc", not(isnull(label)))
+ *          as(parameter(protocolParameters, "amplitude"),
+ *             @ovation.FloatingPointValue).value > 2.5
+ *
+ *      An attribute is written as its name.  A name that is not a
+ *      Java style identifier, or that is one of the words true, false,
+ *      NaN, or Infinity, is written between back quotes.  E.g. `my key`.
+ *      So is an operator name that is not an identifier or one of the
+ *      operators above.
+ *
+ *      Literals are written as:
+ *
+ *          Boolean     true, false
+ *          Int32       12, -3
+ *          Float64     2.5, 1.0E10, -0.5, NaN, Infinity, -Infinity
+ *                      (There is always a "." or an exponent, so a
+ *                      Float64 can be told from an Int32.)
+ *          String      "abc", with \", \\, \n, \r, \t and \\uXXXX escapes
+ *          Time        #"2011-01-01T00:00:00.000-05:00[America/New_York]"
+ *          Class       @ovation.FloatingPointValue, or @"..." if the
+ *                      name is not a dotted identifier.
+ *
+ * A comparison operand that is itself a comparison, and a class
+ * literal on the left of a ".", are put in parentheses.
+ *
+ * The text is written to an Appendable, (e.g. a Writer or a
+ * StringBuilder), in one pass over the tree, so a caller that is
+ * writing many queries to a file does not need a String for each one.
+ *
+ * @see PQLToExpressionTree
+ */
+public class ExpressionTreeToPQL
+    implements Translator {
+
+    private static final DateTimeFormatter TIME_FORMATTER =
+        ISODateTimeFormat.dateTime();
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+    /**
+     * Return the PQL for the root expression of the passed in tree.
+     * The Class Under Qualification is not part of the text.
+     */
+    public static String translate(ExpressionTree expressionTree) {
+        return(translate(expressionTree.getRootExpression()));
+    }
+
+
+    /**
+     * Return the PQL for the passed in expression.
+     *
+     * @throws IllegalArgumentException If the expression contains
+     * something that cannot be written as PQL, such as a null
+     * operator name or literal value.
+     */
+    public static String translate(IExpression expression) {
+
+        StringBuilder builder = new StringBuilder(128);
+        try {
+            translate(expression, builder);
+        }
+        catch (IOException e) {
+            /**
+             * A StringBuilder never throws an IOException.
+             */
+            throw(new IllegalStateException(e));
+        }
+        return(builder.toString());
+    }
+
+
+    /**
+     * Write the PQL for the passed in expression to the passed in
+     * Appendable.
+     *
+     * @throws IOException If the Appendable throws one.
+     *
+     * @throws IllegalArgumentException If the expression contains
+     * something that cannot be written as PQL, such as a null
+     * operator name or literal value.
+     */
+    public static void translate(IExpression expression, Appendable out)
+        throws IOException {
+
+        if (expression instanceof IOperatorExpression) {
+            writeOperator((IOperatorExpression)expression, out);
+        }
+        else if (expression instanceof IAttributeExpression) {
+            writeName(((IAttributeExpression)expression).getAttributeName(),
+                      true, out);
+        }
+        else if (expression instanceof ILiteralValueExpression) {
+            writeLiteral((ILiteralValueExpression)expression, out);
+        }
+        else {
+            throw(new IllegalArgumentException("Cannot translate an "+
+                "expression of class "+(expression == null ? null :
+                expression.getClass().getName())+" into PQL."));
+        }
+    }
+
+
+    private static void writeOperator(IOperatorExpression oe, Appendable out)
+        throws IOException {
+
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (isInfix(oe)) {
+            writeComparisonOperand(operands.get(0), out);
+            out.append(' ').append(name).append(' ');
+            writeComparisonOperand(operands.get(1), out);
+        }
+        else if (isPath(oe)) {
+            IExpression left = operands.get(0);
+            boolean parentheses = isInfix(left) ||
+                (left instanceof IClassLiteralValueExpression);
+            if (parentheses)
+                out.append('(');
+            translate(left, out);
+            if (parentheses)
+                out.append(')');
+            out.append('.').append(((IAttributeExpression)operands.get(1)).
+                                   getAttributeName());
+        }
+        else {
+            if (name == null) {
+                throw(new IllegalArgumentException("Cannot translate an "+
+                    "OperatorExpression with a null operatorName into PQL."));
+            }
+            if (isComparison(name) || OE_DOT.equals(name))
+                out.append(name);
+            else
+                writeName(name, false, out);
+
+            out.append('(');
+            for (int index = 0; index < operands.size(); index++) {
+                if (index > 0)
+                    out.append(", ");
+                translate(operands.get(index), out);
+            }
+            out.append(')');
+        }
+    }
+
+
+    private static void writeComparisonOperand(IExpression operand,
+                                               Appendable out)
+        throws IOException {
+
+        if (isInfix(operand)) {
+            out.append('(');
+            translate(operand, out);
+            out.append(')');
+        }
+        else {
+            translate(operand, out);
+        }
+    }
+
+
+    /**
+     * Write an attribute or operator name, in back quotes if it is
+     * not a plain identifier.
+     */
+    private static void writeName(String name, boolean isAttribute,
+                                  Appendable out)
+        throws IOException {
+
+        if (name == null) {
+            throw(new IllegalArgumentException("Cannot translate an "+
+                "AttributeExpression with a null attributeName into PQL."));
+        }
+
+        if (isIdentifier(name) && !(isAttribute && isKeyword(name))) {
+            out.append(name);
+            return;
+        }
+
+        out.append('`');
+        for (int index = 0; index < name.length(); index++) {
+            char c = name.charAt(index);
+            if ((c == '`') || (c == '\\'))
+                out.append('\\');
+            out.append(c);
+        }
+        out.append('`');
+    }
+
+
+    private static void writeString(String value, Appendable out)
+        throws IOException {
+
+        if (value == null) {
+            throw(new IllegalArgumentException("Cannot translate a null "+
+                "String literal into PQL."));
+        }
+
+        out.append('"');
+        int start = 0;
+        int length = value.length();
+        for (int index = 0; index < length; index++) {
+
+            char c = value.charAt(index);
+            if ((c >= ' ') && (c != '"') && (c != '\\') && (c != 0x7f))
+                continue;
+
+            /**
+             * Write the run of plain characters before this one
+             * in one call.
+             */
+            out.append(value, start, index);
+            start = index+1;
+            switch (c) {
+                case '"':  out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    out.append("\\u").append(HEX_DIGITS[(c >> 12) & 0xf]).
+                        append(HEX_DIGITS[(c >> 8) & 0xf]).
+                        append(HEX_DIGITS[(c >> 4) & 0xf]).
+                        append(HEX_DIGITS[c & 0xf]);
+            }
+        }
+        out.append(value, start, length);
+        out.append('"');
+    }
+
+
+    private static void writeLiteral(ILiteralValueExpression literal,
+                                     Appendable out)
+        throws IOException {
+
+        switch (literal.getLiteralKind()) {
+            case BOOLEAN:
+                out.append(((IBooleanLiteralValueExpression)literal).
+                    getBooleanValue() ? "true" : "false");
+                break;
+
+            case INT32:
+                out.append(Integer.toString(
+                    ((IInt32LiteralValueExpression)literal).getIntValue()));
+                break;
+
+            case FLOAT64:
+                out.append(Double.toString(
+                    ((IFloat64LiteralValueExpression)literal).
+                    getDoubleValue()));
+                break;
+
+            case STRING:
+                writeString((String)getValue(literal), out);
+                break;
+
+            case TIME:
+                ITimeLiteralValueExpression time =
+                    (ITimeLiteralValueExpression)literal;
+                if (time.getZone() == null) {
+                    throw(new IllegalArgumentException("Cannot translate "+
+                        "a null literal value into PQL."));
+                }
+                out.append("#\"");
+                TIME_FORMATTER.withZone(time.getZone()).printTo(out,
+                    time.getMillis());
+                out.append('[').append(time.getZone().getID()).append("]\"");
+                break;
+
+            default:
+                String value = (String)getValue(literal);
+                out.append('@');
+                if (isQualifiedName(value))
+                    out.append(value);
+                else
+                    writeString(value, out);
+                break;
+        }
+    }
+
+
+    private static Object getValue(IExpression expression) {
+
+        Object value = ((ILiteralValueExpression)expression).getValue();
+        if (value == null) {
+            throw(new IllegalArgumentException("Cannot translate a null "+
+                "literal value into PQL."));
+        }
+        return(value);
+    }
+
+
+    /**
+     * Returns true if the passed in expression is a comparison that
+     * is written between its two operands.
+     */
+    static boolean isInfix(IExpression expression) {
+
+        if (!(expression instanceof IOperatorExpression))
+            return(false);
+        IOperatorExpression oe = (IOperatorExpression)expression;
+        return(isComparison(oe.getOperatorName()) &&
+               (oe.getOperandList().size() == 2));
+    }
+
+
+    /**
+     * Returns true if the passed in operator is a "." that is
+     * written as a path.  E.g. epochGroup.label
+     */
+    private static boolean isPath(IOperatorExpression oe) {
+
+        if (!OE_DOT.equals(oe.getOperatorName()) ||
+            (oe.getOperandList().size() != 2))
+            return(false);
+
+        IExpression right = oe.getOperandList().get(1);
+        return((right instanceof IAttributeExpression) &&
+               isIdentifier(((IAttributeExpression)right).getAttributeName()));
+    }
+
+
+    static boolean isComparison(String name) {
+
+        if (name == null)
+            return(false);
+
+        switch (name) {
+            case OE_EQUALS:
+            case OE_NOT_EQUALS:
+            case OE_LESS_THAN:
+            case OE_GREATER_THAN:
+            case OE_LESS_THAN_EQUALS:
+            case OE_GREATER_THAN_EQUALS:
+            case OE_MATCHES_CASE_SENSITIVE:
+            case OE_MATCHES_CASE_INSENSITIVE:
+            case OE_DOES_NOT_MATCH_CASE_SENSITIVE:
+            case OE_DOES_NOT_MATCH_CASE_INSENSITIVE:
+                return(true);
+            default:
+                return(false);
+        }
+    }
+
+
+    /**
+     * The words that are literals, so they cannot be used as
+     * attribute names without back quotes.
+     */
+    static boolean isKeyword(String name) {
+        return("true".equals(name) || "false".equals(name) ||
+               "NaN".equals(name) || "Infinity".equals(name));
+    }
+
+
+    static boolean isIdentifier(String name) {
+
+        if ((name == null) || name.isEmpty() ||
+            !isIdentifierStart(name.charAt(0)))
+            return(false);
+        for (int index = 1; index < name.length(); index++) {
+            if (!isIdentifierPart(name.charAt(index)))
+                return(false);
+        }
+        return(true);
+    }
+
+
+    /**
+     * Returns true if the passed in name is identifiers separated
+     * by dots.  E.g. ovation.FloatingPointValue
+     */
+    static boolean isQualifiedName(String name) {
+
+        if ((name == null) || name.isEmpty())
+            return(false);
+
+        boolean start = true;
+        for (int index = 0; index < name.length(); index++) {
+            char c = name.charAt(index);
+            if (start) {
+                if (!isIdentifierStart(c))
+                    return(false);
+                start = false;
+            }
+            else if (c == '.') {
+                start = true;
+            }
+            else if (!isIdentifierPart(c)) {
+                return(false);
+            }
+        }
+        return(!start);
+    }
+
+
+    static boolean isIdentifierStart(char c) {
+        return(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) ||
+               (c == '_'));
+    }
+
+
+    static boolean isIdentifierPart(char c) {
+        return(isIdentifierStart(c) || ((c >= '0') && (c <= '9')));
+    }
+}
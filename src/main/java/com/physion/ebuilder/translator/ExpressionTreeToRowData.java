@@ -1376,43 +1376,37 @@ public class ExpressionTreeToRowData
          * whether the attributeValue should be an Integer or a
          * Short object.  (INT_16 or INT_32)
          */
-        if ((lve instanceof ITimeLiteralValueExpression) ||
-            (lve instanceof IStringLiteralValueExpression) ||
-            (lve instanceof IFloat64LiteralValueExpression)) {
-            return(lve.getValue());
-        }
-        else if (lve instanceof IBooleanLiteralValueExpression) {
-            /**
-             * We should not be passed an IBooleanLiteralValueExpression
-             * to turn into an attributeValue, because booleans are
-             * handled via the special Operator.IS_TRUE
-             * The caller should have figured that out and not called us.
-             */
-            (new Exception("Unhandled ILiteralValueExpression subclass")).
-                printStackTrace();
-            return(null);
-        }
-        else if (lve instanceof IInt32LiteralValueExpression) {
-            /**
-             * Look at the DataModel to figure out whether this
-             * should be a Short or an Integer.
-             */
-            if (type == Type.INT_16) {
-                int value = (Integer)lve.getValue();
-                return(new Short((short)value));
-            }
-            else {
+        switch (lve.getLiteralKind()) {
+            case TIME:
+            case STRING:
+            case FLOAT64:
+                return(lve.getValue());
+
+            case BOOLEAN:
                 /**
-                 * The value is already an Integer object.
-                 * (Or at least it should be!)
+                 * We should not be passed an IBooleanLiteralValueExpression
+                 * to turn into an attributeValue, because booleans are
+                 * handled via the special Operator.IS_TRUE
+                 * The caller should have figured that out and not called us.
                  */
-                return(lve.getValue());
-            }
-        }
-        else {
-            (new Exception("Unhandled ILiteralValueExpression subclass")).
-                printStackTrace();
-            return(new String("ERROR"));
+                (new Exception("Unhandled ILiteralValueExpression subclass")).
+                    printStackTrace();
+                return(null);
+
+            case INT32:
+                /**
+                 * Look at the DataModel to figure out whether this
+                 * should be a Short or an Integer.
+                 */
+                int value = ((IInt32LiteralValueExpression)lve).getIntValue();
+                if (type == Type.INT_16)
+                    return(Short.valueOf((short)value));
+                return(Integer.valueOf(value));
+
+            default:
+                (new Exception("Unhandled ILiteralValueExpression subclass")).
+                    printStackTrace();
+                return(new String("ERROR"));
         }
     }
 
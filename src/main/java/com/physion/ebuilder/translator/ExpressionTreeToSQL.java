@@ -0,0 +1,895 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.evaluator.ShapeCache;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IBooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.IClassLiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.QueryShape;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class is used to translate an ExpressionTree into a SQL query
+ * on a relational copy of the Ovation database.  The tables are laid
+ * out the way getCreateTableStatements() creates them:
+ *
+ *      Each class, (e.g. Epoch), has a table of the same name, with an
+ *      "id" column, a column for each primitive attribute, and an
+ *      "<attribute>_id" column for each to-one reference, (e.g.
+ *      "epochGroup_id"), that holds the "id" of the record it refers
+ *      to.  A DATE_TIME attribute is a TIMESTAMP.
+ *
+ *      Each to-many reference has a table named "<class>_<attribute>",
+ *      (e.g. "Epoch_responses"), with an "owner_id" and an
+ *      "element_id" column.
+ *
+ * The query is translated like this:
+ *
+ *      A path, (e.g. epochGroup.source.label), is a LEFT JOIN of the
+ *      table of each record on the path, so a record whose epochGroup
+ *      is null has a null label.  A path that is used more than once
+ *      is only joined once.
+ *
+ *      any(responses, units == "mV") is an EXISTS subquery on the
+ *      Epoch_responses and Response tables, all() is a NOT EXISTS
+ *      subquery, and count() is a COUNT(*) subquery.
+ *
+ *      The regular expression operators use REGEXP_LIKE(), which
+ *      most databases have, but with their own regular expression
+ *      syntax.  Simple expressions work the same as in Java.
+ *      !~ and !~~ compare REGEXP_LIKE() with FALSE.
+ *
+ *      Every literal other than a class literal is a "?", in the
+ *      order QueryShape.getBinds() returns them.  So the SQL only
+ *      depends on the shape of the query, and a PreparedStatement can
+ *      be reused for every query of that shape.  See SQLStatement.
+ *
+ * SQL has three valued logic, where a comparison with NULL is
+ * "unknown" rather than false.  So that not() and != select the
+ * records the ExpressionEvaluator does, every condition is written
+ * so that it is never unknown.  E.g. protocolID != "p1" is
+ *
+ *      (t0."protocolID" IS NULL OR t0."protocolID" <> ?)
+ *
+ * because the evaluator says that null != "p1".  The evaluator's other
+ * rules are followed too:  a comparison with null is false, any() of
+ * no records is false, all() of no records is true, and a BOOLEAN
+ * used as a condition is only true if it is true.  Strings are
+ * compared with the database's collation, which may not be Java's
+ * String.compareTo() order.
+ *
+ * Parameters maps, per-user attributes, and custom reference operators
+ * such as containing_experiments, are not in the relational copy, so
+ * a query that uses them can't be translated.
+ *
+ * Translating a query takes a few microseconds, so translate() keeps
+ * the SQLStatement of each query shape it translated in a ShapeCache.
+ *
+ * Example of use:
+ *
+ *      SQLStatement sql = ExpressionTreeToSQL.translate(tree);
+ *      PreparedStatement statement = connection.prepareStatement(
+ *          sql.getSQL());
+ *      sql.setBinds(statement, tree);
+ *      ResultSet ids = statement.executeQuery();
+ *
+ * @see SQLStatement
+ * @see QueryShape
+ */
+public class ExpressionTreeToSQL
+    implements Translator {
+
+    /**
+     * The size of the shared cache.
+     */
+    public static final int SHARED_CACHE_SIZE = 1000;
+
+    private static final ShapeCache<SQLStatement> SHARED_CACHE =
+        new ShapeCache<SQLStatement>(SHARED_CACHE_SIZE);
+
+    /**
+     * The number of the next table alias.  The alias of the Class
+     * Under Qualification's table is "t0".
+     */
+    private int aliasCount;
+
+    /**
+     * The number of "?"s written so far.
+     */
+    private int bindCount;
+
+
+    private ExpressionTreeToSQL() {
+    }
+
+
+    /**
+     * Get the cache of SQLStatements that translate(ExpressionTree)
+     * uses.
+     */
+    public static ShapeCache<SQLStatement> getSharedCache() {
+        return(SHARED_CACHE);
+    }
+
+
+    /**
+     * Get the SQL for the passed in query, from the shared cache if
+     * a query of the same shape was translated before.
+     *
+     * @throws IllegalArgumentException If the query can't be
+     * translated into SQL.
+     */
+    public static SQLStatement translate(ExpressionTree expressionTree) {
+        return(translate(expressionTree, SHARED_CACHE));
+    }
+
+
+    /**
+     * Get the SQL for the passed in query.
+     *
+     * @param cache The cache to get the SQL from, and put the SQL in.
+     * May be null, in which case the query is always translated.
+     *
+     * @throws IllegalArgumentException If the query can't be
+     * translated into SQL.
+     */
+    public static SQLStatement translate(ExpressionTree expressionTree,
+                                         ShapeCache<SQLStatement> cache) {
+
+        QueryShape shape = QueryShape.of(expressionTree);
+        SQLStatement statement = (cache == null) ? null : cache.get(shape);
+        if (statement == null) {
+            statement = new ExpressionTreeToSQL().translate(shape);
+            if (cache != null)
+                cache.put(shape, statement);
+        }
+        return(statement);
+    }
+
+
+    /**
+     * Get the SQL statements that create the tables of the passed in
+     * class, and of its to-many references, the way translate()
+     * expects them to be.
+     */
+    public static List<String> getCreateTableStatements(
+        ClassDescription classDescription) {
+
+        /**
+         * A subclass may have an attribute with the same name as
+         * one in its parent class.  The table only has one column.
+         */
+        Map<String,String> columns = new LinkedHashMap<String,String>();
+        columns.put("id", "VARCHAR(64) PRIMARY KEY");
+        List<String> statements = new ArrayList<String>();
+        for (Attribute attribute : classDescription.getAllAttributes()) {
+
+            String name = attribute.getQueryName();
+            if (attribute.isPrimitive() && !columns.containsKey(name)) {
+                columns.put(name, getSQLType(attribute.getType()));
+            }
+            else if (attribute.getType() == Type.REFERENCE) {
+                if (attribute.getCardinality() == Cardinality.TO_ONE)
+                    columns.put(name+"_id", "VARCHAR(64)");
+                else if (attribute.getCardinality() == Cardinality.TO_MANY) {
+                    statements.add("CREATE TABLE "+quote(getLinkTable(
+                        classDescription, name))+" (\"owner_id\" VARCHAR(64) "+
+                        "NOT NULL, \"element_id\" VARCHAR(64) NOT NULL)");
+                }
+            }
+        }
+
+        StringBuilder table = new StringBuilder();
+        table.append("CREATE TABLE ").append(quote(classDescription.getName())).
+            append(" (");
+        String separator = "";
+        for (Map.Entry<String,String> column : columns.entrySet()) {
+            table.append(separator).append(quote(column.getKey())).
+                append(' ').append(column.getValue());
+            separator = ", ";
+        }
+        table.append(')');
+        statements.add(0, table.toString());
+        return(statements);
+    }
+
+
+    /**
+     * Translate the shape tree of the passed in shape, so the SQL
+     * can't depend on the binds.
+     */
+    private SQLStatement translate(QueryShape shape) {
+
+        ExpressionTree tree = shape.getShapeTree();
+        String cuq = tree.getClassUnderQualification();
+        ClassDescription classDescription = (cuq == null) ? null :
+            DataModel.getClassDescription(cuq);
+        if (classDescription == null) {
+            throw(new IllegalArgumentException("The Class Under "+
+                "Qualification \""+cuq+"\" is not in the DataModel."));
+        }
+
+        Scope scope = new Scope(classDescription, newAlias());
+        String where = translateCondition(tree.getRootExpression(), scope);
+
+        /**
+         * The "?"s must be the binds.
+         */
+        if (bindCount != shape.getBindCount()) {
+            throw(new IllegalStateException("The SQL has "+bindCount+
+                " binds, but the query has "+shape.getBindCount()+"."));
+        }
+
+        return(new SQLStatement(shape, scope.getFromClause(), where));
+    }
+
+
+    /**
+     * Translate an expression that evaluates to true or false into
+     * a SQL condition that is never unknown.  A condition that is not
+     * a single comparison is in parentheses.
+     */
+    private String translateCondition(IExpression ex, Scope scope) {
+
+        if (ex instanceof IBooleanLiteralValueExpression) {
+            bindCount++;
+            return("CAST(? AS BOOLEAN) = TRUE");
+        }
+        else if (!(ex instanceof IOperatorExpression)) {
+            /**
+             * E.g. a BOOLEAN attribute that is used as a condition
+             * on its own.
+             */
+            return(translateValueCondition(translateValue(ex, scope)));
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (OE_AND.equals(name) || OE_OR.equals(name)) {
+
+            if (operands.isEmpty())
+                return(OE_AND.equals(name) ? "1 = 1" : "1 = 0");
+            else if (operands.size() == 1)
+                return(translateCondition(operands.get(0), scope));
+
+            StringBuilder condition = new StringBuilder("(");
+            String separator = OE_AND.equals(name) ? " AND " : " OR ";
+            for (int index = 0; index < operands.size(); index++) {
+                if (index > 0)
+                    condition.append(separator);
+                condition.append(translateCondition(operands.get(index),
+                                                    scope));
+            }
+            return(condition.append(')').toString());
+        }
+        else if (OE_NOT.equals(name)) {
+            checkOperandCount(oe, 1);
+            return("NOT "+parenthesize(translateCondition(operands.get(0),
+                                                          scope)));
+        }
+        else if (OE_IS_NULL.equals(name)) {
+            checkOperandCount(oe, 1);
+            Value value = translateValue(operands.get(0), scope);
+            return(value.nullable ? (value.sql+" IS NULL") : "1 = 0");
+        }
+        else if (OE_ANY.equals(name) || OE_ALL.equals(name)) {
+            return(translateAnyOrAll(oe, scope));
+        }
+        else if (isMatchOperator(name)) {
+            return(translateMatch(oe, scope));
+        }
+
+        String operator = getSQLOperator(name);
+        if (operator != null) {
+            checkOperandCount(oe, 2);
+            Value lhs = translateValue(operands.get(0), scope);
+            Value rhs = translateValue(operands.get(1), scope);
+            return(translateComparison(lhs, operator, rhs));
+        }
+
+        /**
+         * Anything else, e.g. a "." path to a BOOLEAN attribute, is
+         * a value that we treat as a condition.
+         */
+        return(translateValueCondition(translateValue(ex, scope)));
+    }
+
+
+    /**
+     * A value used as a condition is true only if it is true.
+     */
+    private String translateValueCondition(Value value) {
+
+        if (value.type != Type.BOOLEAN) {
+            throw(new IllegalArgumentException("A "+value.type+
+                " value can't be used as a condition in SQL."));
+        }
+        if (value.nullable) {
+            return("("+value.sql+" IS NOT NULL AND "+value.sql+
+                   " = TRUE)");
+        }
+        return(value.sql+" = TRUE");
+    }
+
+
+    /**
+     * any() is true if an element satisfies the condition, and all()
+     * is true if no element does not.
+     */
+    private String translateAnyOrAll(IOperatorExpression oe, Scope scope) {
+
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+        if ((operands.size() != 1) && (operands.size() != 2)) {
+            throw(new IllegalArgumentException("The \""+name+
+                "\" operator must have one or two operands."));
+        }
+
+        Collection collection = translateCollection(operands.get(0),
+                                                    scope);
+        if (operands.size() == 1) {
+            /**
+             * any(collection) without a condition is true if the
+             * collection is not empty, and all(collection) is true.
+             */
+            if (OE_ALL.equals(name))
+                return("1 = 1");
+            return("EXISTS (SELECT 1 FROM "+collection.getFromClause()+
+                   " WHERE "+collection.getWhereClause()+")");
+        }
+
+        Scope elementScope = new Scope(collection.elementClass, newAlias());
+        String condition = translateCondition(operands.get(1), elementScope);
+        String from = collection.getFromClause()+" JOIN "+
+            quote(collection.elementClass.getName())+" "+elementScope.alias+
+            " ON "+elementScope.alias+".\"id\" = "+collection.alias+
+            ".\"element_id\""+elementScope.joins;
+
+        if (OE_ANY.equals(name)) {
+            return("EXISTS (SELECT 1 FROM "+from+" WHERE "+
+                   collection.getWhereClause()+" AND "+
+                   parenthesize(condition)+")");
+        }
+        return("NOT EXISTS (SELECT 1 FROM "+from+" WHERE "+
+               collection.getWhereClause()+" AND NOT "+
+               parenthesize(condition)+")");
+    }
+
+
+    /**
+     * A value that is null never matches, even with !~.
+     */
+    private String translateMatch(IOperatorExpression oe, Scope scope) {
+
+        checkOperandCount(oe, 2);
+        String name = oe.getOperatorName();
+        Value value = translateValue(oe.getOperandList().get(0), scope);
+        Value regex = translateValue(oe.getOperandList().get(1), scope);
+
+        boolean caseInsensitive = OE_MATCHES_CASE_INSENSITIVE.equals(name) ||
+            OE_DOES_NOT_MATCH_CASE_INSENSITIVE.equals(name);
+        boolean negate = OE_DOES_NOT_MATCH_CASE_SENSITIVE.equals(name) ||
+            OE_DOES_NOT_MATCH_CASE_INSENSITIVE.equals(name);
+
+        String match = "REGEXP_LIKE("+value.sql+", "+regex.sql+
+            (caseInsensitive ? ", 'i')" : ")");
+
+        /**
+         * Not "NOT REGEXP_LIKE(...)":  H2 fails with a
+         * NullPointerException on that when it is inside another NOT,
+         * as in not(x !~ "a") or all(c, x !~ "a").
+         */
+        if (negate)
+            match = "("+match+" = FALSE)";
+        return(whereNotNull(match, value, regex));
+    }
+
+
+    /**
+     * A comparison is false if either value is null, except that
+     * null == null, and null != a value that is not null.
+     */
+    private String translateComparison(Value lhs, String operator,
+                                       Value rhs) {
+
+        /**
+         * The database can't tell what type a "?" is when both
+         * operands are "?"s.
+         */
+        if (lhs.isBind && rhs.isBind) {
+            lhs = new Value("CAST(? AS "+getSQLType(lhs.type)+")", false,
+                            lhs.type, true);
+            rhs = new Value("CAST(? AS "+getSQLType(rhs.type)+")", false,
+                            rhs.type, true);
+        }
+
+        String comparison = lhs.sql+" "+operator+" "+rhs.sql;
+        if ("=".equals(operator) || "<>".equals(operator)) {
+
+            /**
+             * Only a column can be null, and a column has no "?"s, so
+             * writing it more than once does not add a bind.
+             */
+            if (lhs.nullable && rhs.nullable) {
+                String equal = "(("+lhs.sql+" IS NULL AND "+rhs.sql+
+                    " IS NULL) OR ("+lhs.sql+" IS NOT NULL AND "+rhs.sql+
+                    " IS NOT NULL AND "+lhs.sql+" = "+rhs.sql+"))";
+                return("=".equals(operator) ? equal : ("NOT "+equal));
+            }
+            else if ("<>".equals(operator) && (lhs.nullable || rhs.nullable)) {
+                return("("+(lhs.nullable ? lhs : rhs).sql+" IS NULL OR "+
+                       comparison+")");
+            }
+        }
+        return(whereNotNull(comparison, lhs, rhs));
+    }
+
+
+    /**
+     * Return the condition, and'ed with "IS NOT NULL" for each of the
+     * values that can be null.
+     */
+    private static String whereNotNull(String condition, Value... values) {
+
+        StringBuilder builder = new StringBuilder();
+        for (Value value : values) {
+            if (value.nullable)
+                builder.append(value.sql).append(" IS NOT NULL AND ");
+        }
+        if (builder.length() == 0)
+            return(condition);
+        return("("+builder+condition+")");
+    }
+
+
+    /**
+     * Translate an expression that evaluates to a value.  E.g. a
+     * literal, an attribute path, or count().
+     */
+    private Value translateValue(IExpression ex, Scope scope) {
+
+        if (ex instanceof IClassLiteralValueExpression) {
+            throw(new IllegalArgumentException(
+                "A class literal can't be translated into SQL."));
+        }
+        else if (ex instanceof ILiteralValueExpression) {
+            bindCount++;
+            return(new Value("?", false, getType((ILiteralValueExpression)ex),
+                             true));
+        }
+        else if (ex instanceof IAttributeExpression) {
+            return(translateColumn(scope.table, getAttributeName(ex),
+                                   scope));
+        }
+        else if (!(ex instanceof IOperatorExpression)) {
+            throw(new IllegalArgumentException(
+                "Unhandled IExpression subclass: "+ex));
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)ex;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (OE_DOT.equals(name)) {
+            checkOperandCount(oe, 2);
+            return(translateColumn(translateReference(operands.get(0), scope),
+                                   getAttributeName(operands.get(1)), scope));
+        }
+        else if (OE_COUNT.equals(name)) {
+            checkOperandCount(oe, 1);
+            Collection collection = translateCollection(operands.get(0),
+                                                        scope);
+            return(new Value("(SELECT COUNT(*) FROM "+
+                collection.getFromClause()+" WHERE "+
+                collection.getWhereClause()+")", false, Type.INT_32, false));
+        }
+        else if (isConditionOperator(name)) {
+            /**
+             * E.g. BOOLEAN attribute == (x < y)
+             */
+            return(new Value("CASE WHEN "+translateCondition(ex, scope)+
+                " THEN TRUE ELSE FALSE END", false, Type.BOOLEAN, false));
+        }
+
+        throw(new IllegalArgumentException("The \""+name+
+            "\" operator can't be translated into SQL."));
+    }
+
+
+    /**
+     * Get the column of the passed in attribute of the passed in table.
+     * A to-one reference is its "_id" column.
+     */
+    private Value translateColumn(Table table, String attributeName,
+                                  Scope scope) {
+
+        Attribute attribute = getAttribute(table, attributeName);
+        if (attribute.isPrimitive()) {
+            return(new Value(table.alias+"."+quote(attributeName), true,
+                             attribute.getType(), false));
+        }
+        else if ((attribute.getType() == Type.REFERENCE) &&
+                 (attribute.getCardinality() == Cardinality.TO_ONE)) {
+            return(new Value(table.alias+"."+quote(attributeName+"_id"),
+                             true, Type.REFERENCE, false));
+        }
+
+        throw(new IllegalArgumentException("The "+attribute.getType()+
+            " attribute \""+attributeName+"\" of "+
+            table.classDescription.getName()+" can't be translated into "+
+            "SQL as a value."));
+    }
+
+
+    /**
+     * Get the table of the record a path like "epochGroup.source"
+     * evaluates to, joining the tables on the path.
+     */
+    private Table translateReference(IExpression ex, Scope scope) {
+
+        if (ex instanceof IAttributeExpression) {
+            String name = getAttributeName(ex);
+            if (AE_THIS.equals(name))
+                return(scope.table);
+            return(join(scope.table, name, scope));
+        }
+        else if (isOperator(ex, OE_DOT)) {
+            IOperatorExpression oe = (IOperatorExpression)ex;
+            checkOperandCount(oe, 2);
+            Table owner = translateReference(oe.getOperandList().get(0),
+                                             scope);
+            String name = getAttributeName(oe.getOperandList().get(1));
+            if (AE_THIS.equals(name))
+                return(owner);
+            return(join(owner, name, scope));
+        }
+
+        throw(new IllegalArgumentException(
+            "Expected an attribute path, but got:\n"+ex));
+    }
+
+
+    /**
+     * LEFT JOIN the table that the passed in to-one reference of the
+     * passed in table refers to, unless it is already joined.
+     */
+    private Table join(Table owner, String attributeName, Scope scope) {
+
+        Attribute attribute = getAttribute(owner, attributeName);
+        if ((attribute.getType() != Type.REFERENCE) ||
+            (attribute.getCardinality() != Cardinality.TO_ONE)) {
+            throw(new IllegalArgumentException("The attribute \""+
+                attributeName+"\" of "+owner.classDescription.getName()+
+                " is not a to-one reference."));
+        }
+
+        String path = owner.path+"."+attributeName;
+        Table table = scope.tables.get(path);
+        if (table == null) {
+            table = new Table(newAlias(), attribute.getClassDescription(),
+                              path);
+            scope.tables.put(path, table);
+            scope.joins.append(" LEFT JOIN ").
+                append(quote(table.classDescription.getName())).append(' ').
+                append(table.alias).append(" ON ").append(table.alias).
+                append(".\"id\" = ").append(owner.alias).append('.').
+                append(quote(attributeName+"_id"));
+        }
+        return(table);
+    }
+
+
+    /**
+     * Get the link table of a to-many reference, e.g. "responses" or
+     * "epochGroup.epochs".
+     */
+    private Collection translateCollection(IExpression ex, Scope scope) {
+
+        Table owner;
+        String name;
+        if (ex instanceof IAttributeExpression) {
+            owner = scope.table;
+            name = getAttributeName(ex);
+        }
+        else if (isOperator(ex, OE_DOT)) {
+            IOperatorExpression oe = (IOperatorExpression)ex;
+            checkOperandCount(oe, 2);
+            owner = translateReference(oe.getOperandList().get(0), scope);
+            name = getAttributeName(oe.getOperandList().get(1));
+        }
+        else {
+            throw(new IllegalArgumentException("The collection "+ex+
+                " can't be translated into SQL."));
+        }
+
+        Attribute attribute = getAttribute(owner, name);
+        if ((attribute.getType() != Type.REFERENCE) ||
+            (attribute.getCardinality() != Cardinality.TO_MANY)) {
+            throw(new IllegalArgumentException("The attribute \""+name+
+                "\" of "+owner.classDescription.getName()+
+                " is not a to-many reference."));
+        }
+
+        return(new Collection(getLinkTable(owner.classDescription, name),
+                              newAlias(), owner.alias,
+                              attribute.getClassDescription()));
+    }
+
+
+    private String newAlias() {
+        return("t"+(aliasCount++));
+    }
+
+
+    private static Attribute getAttribute(Table table, String name) {
+
+        Attribute attribute = table.classDescription.getAttribute(name);
+        if (attribute == null) {
+            throw(new IllegalArgumentException(
+                table.classDescription.getName()+" does not have an "+
+                "attribute named \""+name+"\"."));
+        }
+        return(attribute);
+    }
+
+
+    private static String getAttributeName(IExpression ex) {
+
+        if (!(ex instanceof IAttributeExpression)) {
+            throw(new IllegalArgumentException(
+                "Expected an attribute, but got:\n"+ex));
+        }
+        return(((IAttributeExpression)ex).getAttributeName());
+    }
+
+
+    private static String getLinkTable(ClassDescription classDescription,
+                                       String attributeName) {
+        return(classDescription.getName()+"_"+attributeName);
+    }
+
+
+    private static Type getType(ILiteralValueExpression literal) {
+
+        switch (literal.getLiteralKind()) {
+            case BOOLEAN:
+                return(Type.BOOLEAN);
+            case INT32:
+                return(Type.INT_32);
+            case FLOAT64:
+                return(Type.FLOAT_64);
+            case TIME:
+                return(Type.DATE_TIME);
+            default:
+                return(Type.UTF_8_STRING);
+        }
+    }
+
+
+    private static String getSQLType(Type type) {
+
+        switch (type) {
+            case BOOLEAN:
+                return("BOOLEAN");
+            case INT_16:
+                return("SMALLINT");
+            case INT_32:
+                return("INTEGER");
+            case FLOAT_64:
+                return("DOUBLE PRECISION");
+            case DATE_TIME:
+                return("TIMESTAMP");
+            default:
+                return("VARCHAR");
+        }
+    }
+
+
+    /**
+     * Get the SQL comparison operator of the passed in operator name,
+     * or null if it is not a comparison.
+     */
+    private static String getSQLOperator(String name) {
+
+        if (OE_EQUALS.equals(name))
+            return("=");
+        else if (OE_NOT_EQUALS.equals(name))
+            return("<>");
+        else if (OE_LESS_THAN.equals(name) ||
+                 OE_GREATER_THAN.equals(name) ||
+                 OE_LESS_THAN_EQUALS.equals(name) ||
+                 OE_GREATER_THAN_EQUALS.equals(name))
+            return(name);
+        return(null);
+    }
+
+
+    private static boolean isMatchOperator(String name) {
+
+        return(OE_MATCHES_CASE_SENSITIVE.equals(name) ||
+               OE_MATCHES_CASE_INSENSITIVE.equals(name) ||
+               OE_DOES_NOT_MATCH_CASE_SENSITIVE.equals(name) ||
+               OE_DOES_NOT_MATCH_CASE_INSENSITIVE.equals(name));
+    }
+
+
+    private static boolean isConditionOperator(String name) {
+
+        return(OE_AND.equals(name) || OE_OR.equals(name) ||
+               OE_NOT.equals(name) || OE_IS_NULL.equals(name) ||
+               OE_ANY.equals(name) || OE_ALL.equals(name) ||
+               isMatchOperator(name) || (getSQLOperator(name) != null));
+    }
+
+
+    private static boolean isOperator(IExpression ex, String name) {
+        return((ex instanceof IOperatorExpression) &&
+               name.equals(((IOperatorExpression)ex).getOperatorName()));
+    }
+
+
+    private static void checkOperandCount(IOperatorExpression oe, int count) {
+
+        if (oe.getOperandList().size() != count) {
+            throw(new IllegalArgumentException("The \""+
+                oe.getOperatorName()+"\" operator must have "+count+
+                " operand"+((count == 1) ? "" : "s")+"."));
+        }
+    }
+
+
+    /**
+     * Put the passed in condition in parentheses, unless it already is.
+     */
+    private static String parenthesize(String condition) {
+
+        if (condition.startsWith("(")) {
+            /**
+             * Find the parenthesis that closes the first one.  There
+             * are no parentheses inside quotes, since the only quoted
+             * text is names and the 'i' flag.
+             */
+            int depth = 0;
+            for (int index = 0; index < condition.length(); index++) {
+                char c = condition.charAt(index);
+                if (c == '(')
+                    depth++;
+                else if ((c == ')') && (--depth == 0))
+                    return((index == condition.length()-1) ? condition :
+                           ("("+condition+")"));
+            }
+        }
+        return("("+condition+")");
+    }
+
+
+    /**
+     * Quote a table or column name, so it keeps its case.
+     */
+    private static String quote(String name) {
+        return("\""+name.replace("\"", "\"\"")+"\"");
+    }
+
+
+    /**
+     * A value in the SQL.
+     */
+    private static class Value {
+
+        final String sql;
+
+        /**
+         * True if the value can be NULL.  Only a column can.
+         */
+        final boolean nullable;
+
+        /**
+         * The type of the value.
+         */
+        final Type type;
+
+        /**
+         * True if the value is a "?".
+         */
+        final boolean isBind;
+
+        Value(String sql, boolean nullable, Type type, boolean isBind) {
+            this.sql = sql;
+            this.nullable = nullable;
+            this.type = type;
+            this.isBind = isBind;
+        }
+    }
+
+
+    /**
+     * A table in a FROM clause.
+     */
+    private static class Table {
+
+        final String alias;
+        final ClassDescription classDescription;
+
+        /**
+         * The path from the scope's table, e.g. ".epochGroup.source".
+         */
+        final String path;
+
+        Table(String alias, ClassDescription classDescription, String path) {
+            this.alias = alias;
+            this.classDescription = classDescription;
+            this.path = path;
+        }
+    }
+
+
+    /**
+     * The link table of a to-many reference.
+     */
+    private static class Collection {
+
+        final String linkTable;
+        final String alias;
+        final String ownerAlias;
+        final ClassDescription elementClass;
+
+        Collection(String linkTable, String alias, String ownerAlias,
+                   ClassDescription elementClass) {
+            this.linkTable = linkTable;
+            this.alias = alias;
+            this.ownerAlias = ownerAlias;
+            this.elementClass = elementClass;
+        }
+
+        String getFromClause() {
+            return(quote(linkTable)+" "+alias);
+        }
+
+        String getWhereClause() {
+            return(alias+".\"owner_id\" = "+ownerAlias+".\"id\"");
+        }
+    }
+
+
+    /**
+     * The records a condition is about:  the records of the Class
+     * Under Qualification, or the elements of an any() or all(), and
+     * the tables that are joined to them.
+     */
+    private static class Scope {
+
+        final Table table;
+        final String alias;
+        final StringBuilder joins = new StringBuilder();
+        final Map<String,Table> tables = new HashMap<String,Table>();
+
+        Scope(ClassDescription classDescription, String alias) {
+            this.table = new Table(alias, classDescription, "");
+            this.alias = alias;
+        }
+
+        String getFromClause() {
+            return(quote(table.classDescription.getName())+" "+alias+joins);
+        }
+    }
+}
@@ -0,0 +1,530 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator;
+
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datamodel.RowDataEvent;
+import com.physion.ebuilder.datamodel.RowDataListener;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.EventListenerList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * This class keeps an ExpressionTree up to date with a RowData tree
+ * as the user edits it.  It is meant for things like a live preview
+ * of the query, which would lag on a large query if the whole RowData
+ * tree was translated with RowDataToExpressionTree.translate() after
+ * every keystroke.
+ *
+ * It listens to the root row, and remembers which expression was
+ * created for each row.  When a row changes, only that row is
+ * translated again, (along with its child rows), and the new
+ * expression replaces the old one in its parent's operand list.
+ * When a child row is added to or removed from a row, only that
+ * row's list of child expressions is changed.  Everything else in
+ * the tree is left as it is.
+ *
+ * The expressions are never changed in place.  A change copies the
+ * operators on the path from the changed row up to the root, and
+ * the copies share every other node with the old tree.  So each
+ * ExpressionTree returned by getExpressionTree() is a snapshot that
+ * stays the same, (along with its fingerprint and hashCode), after
+ * later changes, and an update still only costs the depth of the
+ * row in the tree.
+ *
+ * Some changes, such as changing the Class Under Qualification or
+ * the collection operator of the root row, cause the whole tree to
+ * be translated again.  So does any event that this class does not
+ * expect, so the tree is always the same as the one that
+ * RowDataToExpressionTree.translate() would return.
+ *
+ * ChangeListeners are told after the tree has been updated.  A
+ * GUI that listens to the RowData tree directly might be told about
+ * a change before this class has updated the tree.
+ *
+ * Call dispose() to stop listening to the root row.
+ */
+public class LiveExpressionTree
+    implements RowDataListener, Translator {
+
+    private static Logger logger = LoggerFactory.getLogger(
+        LiveExpressionTree.class.getCanonicalName());
+
+    private final RowData rootRow;
+
+    /**
+     * What we know about each row in the RowData tree.
+     */
+    private final Map<RowData, Node> nodes =
+        new IdentityHashMap<RowData, Node>();
+
+    private final Recorder recorder = new Recorder();
+
+    private OperatorExpression rootExpression;
+
+    /**
+     * The tree that getExpressionTree() returns.  This is set to
+     * null after each change, so a new ExpressionTree, with a new
+     * fingerprint, is created the next time it is needed.
+     */
+    private ExpressionTree expressionTree;
+
+    private EventListenerList changeListenerList = new EventListenerList();
+
+    private int updateCount;
+    private int rebuildCount;
+
+
+    /**
+     * Translate the passed in RowData tree and start listening to it.
+     *
+     * @param rootRow The root row of the RowData tree.
+     */
+    public LiveExpressionTree(RowData rootRow) {
+
+        if ((rootRow == null) || !rootRow.isRootRow()) {
+            throw(new IllegalArgumentException(
+                "rootRow must be the root of a RowData tree."));
+        }
+
+        this.rootRow = rootRow;
+        rebuild();
+        rootRow.addRowDataListener(this);
+    }
+
+
+    /**
+     * Stop listening to the RowData tree.  The tree returned by
+     * getExpressionTree() will not change after this.
+     */
+    public void dispose() {
+        rootRow.removeRowDataListener(this);
+    }
+
+
+    public RowData getRootRow() {
+        return(rootRow);
+    }
+
+
+    /**
+     * Get the ExpressionTree for the current state of the RowData tree.
+     * This returns the same object until the RowData tree changes.
+     *
+     * @return The tree, or null if the RowData tree could not be
+     * translated.
+     */
+    public ExpressionTree getExpressionTree() {
+
+        if ((expressionTree == null) && (rootExpression != null)) {
+            expressionTree = new ExpressionTree(
+                rootRow.getClassUnderQualification().getName(),
+                rootExpression);
+        }
+        return(expressionTree);
+    }
+
+
+    /**
+     * The number of changes that were handled by translating only
+     * the rows that changed.
+     */
+    public int getUpdateCount() {
+        return(updateCount);
+    }
+
+
+    /**
+     * The number of times the whole RowData tree was translated,
+     * including the first time, in the constructor.
+     */
+    public int getRebuildCount() {
+        return(rebuildCount);
+    }
+
+
+    public void addChangeListener(ChangeListener listener) {
+        changeListenerList.add(ChangeListener.class, listener);
+    }
+
+
+    public void removeChangeListener(ChangeListener listener) {
+        changeListenerList.remove(ChangeListener.class, listener);
+    }
+
+
+    /**
+     * This is called after, (and before), every change to the RowData
+     * tree.  We only care about the events that are sent after the
+     * change has been made.
+     */
+    @Override
+    public void rowDataChanged(RowDataEvent event) {
+
+        if (event.getTiming() != RowDataEvent.TIMING_AFTER)
+            return;
+
+        boolean updated;
+        RuntimeException failure = null;
+        try {
+            updated = update(event.getOriginalRowData(),
+                             event.getChangeType());
+        }
+        catch (RuntimeException e) {
+            /**
+             * Usually a row that is not finished yet.  See rebuild().
+             */
+            updated = false;
+            failure = e;
+        }
+
+        if (updated) {
+            updateCount++;
+        }
+        else {
+            rebuild();
+
+            /**
+             * If the whole tree could be translated, the row was
+             * finished, and the failure was a bug in update().
+             */
+            if ((failure != null) && (rootExpression != null)) {
+                logger.warn("Could not update the ExpressionTree for "+
+                            "a change to one row.  Translated the whole "+
+                            "tree instead.", failure);
+            }
+        }
+
+        expressionTree = null;
+        fireStateChanged();
+    }
+
+
+    /**
+     * Translate the whole RowData tree.
+     */
+    private void rebuild() {
+
+        nodes.clear();
+        rootExpression = null;
+        expressionTree = null;
+        rebuildCount++;
+
+        try {
+            ExpressionTree tree = RowDataToExpressionTree.translate(rootRow,
+                                                                    recorder);
+            if (tree != null)
+                rootExpression = (OperatorExpression)tree.getRootExpression();
+        }
+        catch (RuntimeException e) {
+            /**
+             * While the user is editing, a row might not be finished
+             * yet, (e.g. it has no attribute operator), and can't be
+             * translated.  getExpressionTree() returns null until
+             * it is, and every change until then translates the
+             * whole tree.
+             */
+            nodes.clear();
+        }
+    }
+
+
+    /**
+     * Change the part of the tree that belongs to the passed in row.
+     *
+     * @return false if the change could not be made, and the whole
+     * tree needs to be translated again.
+     */
+    private boolean update(RowData rowData, int changeType) {
+
+        Node node = nodes.get(rowData);
+        if ((rootExpression == null) || (node == null))
+            return(false);
+
+        if (((changeType == RowDataEvent.TYPE_CHILD_ADD) ||
+             (changeType == RowDataEvent.TYPE_CHILD_DELETE)) &&
+            (node.childOperator != null)) {
+            return(updateChildren(rowData, node));
+        }
+
+        /**
+         * The root row's expression is the root of the tree.
+         */
+        if (rowData == rootRow)
+            return(false);
+
+        return(retranslate(rowData, node));
+    }
+
+
+    /**
+     * Make the child expressions of the passed in row match its
+     * child rows.  Child rows that we have already translated keep
+     * their expressions.  Only new child rows are translated.
+     *
+     * This handles a child being added or removed anywhere in the
+     * list, and the events that do not say which child was added.
+     */
+    private boolean updateChildren(RowData rowData, Node node) {
+
+        List<RowData> childRows = rowData.getChildRows();
+
+        Set<RowData> current = Collections.newSetFromMap(
+            new IdentityHashMap<RowData, Boolean>());
+        current.addAll(childRows);
+        for (RowData oldChild : node.childRows) {
+            if (!current.contains(oldChild))
+                forget(oldChild);
+        }
+
+        /**
+         * The child expressions are the last operands of
+         * childOperator.  Copy the operands before them, and add
+         * the child expressions in the new order.
+         */
+        List<IExpression> oldOperands = node.childOperator.getOperandList();
+        int start = oldOperands.size()-node.childRows.length;
+        List<IExpression> operands = new ArrayList<IExpression>(
+            oldOperands.subList(0, start));
+
+        for (RowData childRow : childRows) {
+            Node childNode = nodes.get(childRow);
+            if (childNode == null) {
+                RowDataToExpressionTree.createExpression(childRow, recorder);
+                childNode = nodes.get(childRow);
+            }
+            childNode.parentRow = rowData;
+            operands.add(childNode.expression);
+        }
+        node.childRows = childRows.toArray(new RowData[childRows.size()]);
+        return(replaceChildOperator(rowData, node, operands));
+    }
+
+
+    /**
+     * Translate the passed in row, (and its child rows), again, and
+     * put the new expression where the old one was.
+     */
+    private boolean retranslate(RowData rowData, Node node) {
+
+        Node parentNode = nodes.get(node.parentRow);
+        if ((parentNode == null) || (parentNode.childOperator == null))
+            return(false);
+
+        List<IExpression> operands = new ArrayList<IExpression>(
+            parentNode.childOperator.getOperandList());
+        int index = indexOf(operands, node.expression);
+        if (index < 0)
+            return(false);
+
+        for (RowData childRow : node.childRows)
+            forget(childRow);
+
+        OperatorExpression expression =
+            RowDataToExpressionTree.createExpression(rowData, recorder);
+        nodes.get(rowData).parentRow = node.parentRow;
+        operands.set(index, expression);
+        return(replaceChildOperator(node.parentRow, parentNode, operands));
+    }
+
+
+    /**
+     * Give the passed in row a new childOperator with the passed in
+     * operands.  The row's expression is copied down to its
+     * childOperator, and the new expression replaces the old one in
+     * the parent row's childOperator, which is copied the same way,
+     * and so on up to the root.
+     *
+     * @return false if a row's expression could not be found in its
+     * parent's operands.  The old tree is untouched, so the whole
+     * tree can still be translated again.
+     */
+    private boolean replaceChildOperator(RowData rowData, Node node,
+                                         List<IExpression> operands) {
+
+        while (true) {
+
+            OperatorExpression childOperator = new OperatorExpression(
+                node.childOperator.getOperatorName(), operands);
+            OperatorExpression expression = copyPath(node.expression,
+                node.childOperator, childOperator);
+            if (expression == null)
+                return(false);
+
+            OperatorExpression oldExpression = node.expression;
+            node.expression = expression;
+            node.childOperator = childOperator;
+
+            if (rowData == rootRow) {
+                rootExpression = expression;
+                return(true);
+            }
+
+            Node parentNode = nodes.get(node.parentRow);
+            if ((parentNode == null) || (parentNode.childOperator == null))
+                return(false);
+
+            operands = new ArrayList<IExpression>(
+                parentNode.childOperator.getOperandList());
+            int index = indexOf(operands, oldExpression);
+            if (index < 0)
+                return(false);
+            operands.set(index, expression);
+
+            rowData = node.parentRow;
+            node = parentNode;
+        }
+    }
+
+
+    /**
+     * Copy the operators on the path from root down to target, with
+     * replacement in target's place.  The search does not go below
+     * target, so it only looks at the nodes of one row, not at the
+     * expressions of its child rows.
+     *
+     * @return The copy of root, or null if target is not in root.
+     */
+    private static OperatorExpression copyPath(OperatorExpression root,
+        OperatorExpression target, OperatorExpression replacement) {
+
+        if (root == target)
+            return(replacement);
+
+        List<IExpression> operands = root.getOperandList();
+        for (int index = 0; index < operands.size(); index++) {
+
+            IExpression operand = operands.get(index);
+            if (!(operand instanceof OperatorExpression))
+                continue;
+
+            OperatorExpression copy = copyPath((OperatorExpression)operand,
+                                               target, replacement);
+            if (copy != null) {
+                List<IExpression> copies = new ArrayList<IExpression>(
+                    operands);
+                copies.set(index, copy);
+                return(new OperatorExpression(root.getOperatorName(),
+                                              copies));
+            }
+        }
+        return(null);
+    }
+
+
+    /**
+     * Forget the passed in row and its descendents.
+     */
+    private void forget(RowData rowData) {
+
+        Node node = nodes.remove(rowData);
+        if (node != null) {
+            for (RowData childRow : node.childRows)
+                forget(childRow);
+        }
+    }
+
+
+    /**
+     * Find an operand by identity.  Equal expressions, (e.g. two
+     * rows that say the same thing), are different nodes.
+     */
+    private static int indexOf(List<IExpression> operands,
+                               IExpression expression) {
+
+        for (int index = 0; index < operands.size(); index++) {
+            if (operands.get(index) == expression)
+                return(index);
+        }
+        return(-1);
+    }
+
+
+    private void fireStateChanged() {
+
+        ChangeEvent event = null;
+        for (ChangeListener listener :
+             changeListenerList.getListeners(ChangeListener.class)) {
+            if (event == null)
+                event = new ChangeEvent(this);
+            listener.stateChanged(event);
+        }
+    }
+
+
+    /**
+     * What we know about a row.
+     */
+    private static class Node {
+
+        /**
+         * The expression that was created for the row, or the copy
+         * that replaced it when a descendent row changed.
+         */
+        private OperatorExpression expression;
+
+        /**
+         * The operator whose last operands are the expressions of
+         * the row's child rows, or null if the row can't have
+         * child rows.
+         */
+        private OperatorExpression childOperator;
+
+        /**
+         * The row's child rows when the child expressions were
+         * last created, in the same order as the expressions.
+         */
+        private RowData[] childRows;
+
+        /**
+         * RowData does not let us ask a row for its parent.
+         * This is null for the root row.
+         */
+        private RowData parentRow;
+
+        private Node(OperatorExpression expression,
+                     OperatorExpression childOperator, RowData[] childRows) {
+            this.expression = expression;
+            this.childOperator = childOperator;
+            this.childRows = childRows;
+        }
+    }
+
+
+    /**
+     * Remembers the expression that RowDataToExpressionTree created
+     * for each row.  A row is recorded after its child rows, so
+     * this is where the child rows find out who their parent is.
+     */
+    private class Recorder
+        implements RowDataToExpressionTree.RowRecorder {
+
+        @Override
+        public void rowTranslated(RowData rowData,
+                                  OperatorExpression expression,
+                                  OperatorExpression childOperator) {
+
+            List<RowData> childRows = rowData.getChildRows();
+            RowData[] children = (childOperator == null) ? new RowData[0] :
+                childRows.toArray(new RowData[childRows.size()]);
+            for (RowData childRow : children)
+                nodes.get(childRow).parentRow = rowData;
+            nodes.put(rowData, new Node(expression, childOperator, children));
+        }
+    }
+}
@@ -0,0 +1,515 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator;
+
+import com.physion.ebuilder.expression.*;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class is used to translate PQL text, in the syntax written by
+ * ExpressionTreeToPQL, into an ExpressionTree.  See ExpressionTreeToPQL
+ * for a description of the syntax.
+ *
+ * The parser is a hand written recursive descent parser that never
+ * backs up.  It decides what to do next by looking at one character,
+ * (or, for an identifier, at the character after it), so it reads
+ * each character of the text once.  Whitespace between tokens is
+ * ignored.
+ *
+ * The translate() methods are thread safe.
+ *
+ * @see ExpressionTreeToPQL
+ */
+public class PQLToExpressionTree
+    implements Translator {
+
+    private static final DateTimeFormatter TIME_PARSER =
+        ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+    /**
+     * The comparison operators, longest first, so that e.g. "=~~"
+     * is found before "=~".
+     */
+    private static final String[] COMPARISON_OPERATORS = {
+        OE_MATCHES_CASE_INSENSITIVE, OE_DOES_NOT_MATCH_CASE_INSENSITIVE,
+        OE_EQUALS, OE_NOT_EQUALS, OE_LESS_THAN_EQUALS,
+        OE_GREATER_THAN_EQUALS, OE_MATCHES_CASE_SENSITIVE,
+        OE_DOES_NOT_MATCH_CASE_SENSITIVE, OE_LESS_THAN, OE_GREATER_THAN};
+
+    private final CharSequence text;
+    private final int length;
+    private int position;
+
+
+    private PQLToExpressionTree(CharSequence text) {
+        this.text = text;
+        this.length = text.length();
+    }
+
+
+    /**
+     * Create an ExpressionTree from the passed in PQL text.
+     *
+     * @throws IllegalArgumentException If the text is not valid PQL,
+     * or if it is not an operator, (the root of an ExpressionTree must
+     * be an operator).
+     */
+    public static ExpressionTree translate(String classUnderQualification,
+                                           CharSequence text) {
+
+        IExpression root = translate(text);
+        if (!(root instanceof IOperatorExpression)) {
+            throw(new IllegalArgumentException("The root of an "+
+                "ExpressionTree must be an operator: "+text));
+        }
+        return(new ExpressionTree(classUnderQualification,
+                                  (IOperatorExpression)root));
+    }
+
+
+    /**
+     * Create an expression from the passed in PQL text.
+     *
+     * @throws IllegalArgumentException If the text is not valid PQL.
+     * The message says where the problem is.
+     */
+    public static IExpression translate(CharSequence text) {
+
+        PQLToExpressionTree parser = new PQLToExpressionTree(text);
+        IExpression expression = parser.parseExpression();
+        parser.skipWhitespace();
+        if (parser.position != parser.length)
+            throw(parser.error("Unexpected text"));
+        return(expression);
+    }
+
+
+    /**
+     * expression := term [comparison-operator term]
+     */
+    private IExpression parseExpression() {
+
+        IExpression left = parseTerm();
+        skipWhitespace();
+        String operator = matchComparisonOperator();
+        if (operator == null)
+            return(left);
+
+        IExpression right = parseTerm();
+        List<IExpression> operands = new ArrayList<IExpression>(2);
+        operands.add(left);
+        operands.add(right);
+        return(new OperatorExpression(operator, operands));
+    }
+
+
+    /**
+     * term := primary ("." name)*
+     */
+    private IExpression parseTerm() {
+
+        IExpression expression = parsePrimary();
+        while (true) {
+
+            skipWhitespace();
+            if ((position+1 >= length) || (text.charAt(position) != '.'))
+                return(expression);
+            char next = text.charAt(position+1);
+            if (!ExpressionTreeToPQL.isIdentifierStart(next) && (next != '`'))
+                return(expression);
+
+            position++;
+            List<IExpression> operands = new ArrayList<IExpression>(2);
+            operands.add(expression);
+            operands.add(new AttributeExpression(parseName()));
+            expression = new OperatorExpression(OE_DOT, operands);
+        }
+    }
+
+
+    /**
+     * primary := "(" expression ")" | name "(" arguments ")" | name |
+     *            operator "(" arguments ")" | literal
+     */
+    private IExpression parsePrimary() {
+
+        skipWhitespace();
+        if (position >= length)
+            throw(error("Unexpected end of text"));
+
+        char c = text.charAt(position);
+        if (c == '(') {
+            position++;
+            IExpression expression = parseExpression();
+            expect(')');
+            return(expression);
+        }
+        else if (c == '"') {
+            return(new StringLiteralValueExpression(parseString()));
+        }
+        else if (c == '#') {
+            position++;
+            return(parseTime());
+        }
+        else if (c == '@') {
+            position++;
+            return(new ClassLiteralValueExpression(parseClassName()));
+        }
+        else if (((c >= '0') && (c <= '9')) || (c == '-')) {
+            return(parseNumber());
+        }
+        else if (ExpressionTreeToPQL.isIdentifierStart(c) || (c == '`')) {
+
+            boolean quoted = (c == '`');
+            String name = parseName();
+            skipWhitespace();
+            if ((position < length) && (text.charAt(position) == '('))
+                return(parseCall(name));
+
+            if (!quoted) {
+                if ("true".equals(name))
+                    return(new BooleanLiteralValueExpression(Boolean.TRUE));
+                else if ("false".equals(name))
+                    return(new BooleanLiteralValueExpression(Boolean.FALSE));
+                else if ("NaN".equals(name))
+                    return(new Float64LiteralValueExpression(Double.NaN));
+                else if ("Infinity".equals(name))
+                    return(new Float64LiteralValueExpression(
+                        Double.POSITIVE_INFINITY));
+            }
+            return(new AttributeExpression(name));
+        }
+        else if (c == '.') {
+            position++;
+            return(parseCall(OE_DOT));
+        }
+
+        String operator = matchComparisonOperator();
+        if (operator != null)
+            return(parseCall(operator));
+
+        throw(error("Unexpected character '"+c+"'"));
+    }
+
+
+    /**
+     * arguments := [expression ("," expression)*]
+     */
+    private IExpression parseCall(String operatorName) {
+
+        expect('(');
+        List<IExpression> operands = new ArrayList<IExpression>(4);
+        skipWhitespace();
+        if ((position < length) && (text.charAt(position) == ')')) {
+            position++;
+            return(new OperatorExpression(operatorName, operands));
+        }
+
+        while (true) {
+            operands.add(parseExpression());
+            skipWhitespace();
+            if (position >= length)
+                throw(error("Expected ',' or ')'"));
+            char c = text.charAt(position++);
+            if (c == ')')
+                return(new OperatorExpression(operatorName, operands));
+            if (c != ',') {
+                position--;
+                throw(error("Expected ',' or ')'"));
+            }
+        }
+    }
+
+
+    /**
+     * An identifier, or a name in back quotes.
+     */
+    private String parseName() {
+
+        int start = position;
+        if (text.charAt(position) != '`') {
+            position++;
+            while ((position < length) &&
+                   ExpressionTreeToPQL.isIdentifierPart(text.charAt(position)))
+                position++;
+            return(text.subSequence(start, position).toString());
+        }
+
+        position++;
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            if (position >= length) {
+                position = start;
+                throw(error("Unterminated name"));
+            }
+            char c = text.charAt(position++);
+            if (c == '`')
+                return(builder.toString());
+            if ((c == '\\') && (position < length))
+                c = text.charAt(position++);
+            builder.append(c);
+        }
+    }
+
+
+    private String parseString() {
+
+        int start = position;
+        position++;
+
+        /**
+         * Most strings have no escapes, so look for the closing quote
+         * first, and only use a StringBuilder if there is a backslash.
+         */
+        int end = position;
+        while ((end < length) && (text.charAt(end) != '"') &&
+               (text.charAt(end) != '\\'))
+            end++;
+        if ((end < length) && (text.charAt(end) == '"')) {
+            String value = text.subSequence(position, end).toString();
+            position = end+1;
+            return(value);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+
+            if (position >= length) {
+                position = start;
+                throw(error("Unterminated string"));
+            }
+
+            char c = text.charAt(position++);
+            if (c == '"')
+                return(builder.toString());
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+
+            if (position >= length) {
+                position = start;
+                throw(error("Unterminated string"));
+            }
+            c = text.charAt(position++);
+            switch (c) {
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'u':
+                    if (position+4 > length)
+                        throw(error("Bad \\u escape"));
+                    int value = 0;
+                    for (int index = 0; index < 4; index++) {
+                        int digit = Character.digit(text.charAt(position++),
+                                                    16);
+                        if (digit < 0) {
+                            position--;
+                            throw(error("Bad \\u escape"));
+                        }
+                        value = value*16+digit;
+                    }
+                    builder.append((char)value);
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+
+
+    /**
+     * #"2011-01-01T00:00:00.000-05:00[America/New_York]"
+     *
+     * The time zone in brackets is optional.  If it is missing,
+     * the offset is used as the time zone.
+     */
+    private IExpression parseTime() {
+
+        int start = position;
+        if ((position >= length) || (text.charAt(position) != '"'))
+            throw(error("Expected '\"'"));
+        String value = parseString();
+
+        try {
+            int bracket = value.indexOf('[');
+            if (bracket < 0)
+                return(new TimeLiteralValueExpression(
+                    TIME_PARSER.parseDateTime(value)));
+
+            if (!value.endsWith("]"))
+                throw(new IllegalArgumentException("Missing ']'"));
+            DateTimeZone zone = DateTimeZone.forID(
+                value.substring(bracket+1, value.length()-1));
+            long millis = TIME_PARSER.parseMillis(value.substring(0, bracket));
+            return(new TimeLiteralValueExpression(millis, zone));
+        }
+        catch (IllegalArgumentException e) {
+            position = start;
+            throw(error("Bad time \""+value+"\": "+e.getMessage()));
+        }
+    }
+
+
+    /**
+     * ovation.FloatingPointValue or "ovation.FloatingPointValue"
+     */
+    private String parseClassName() {
+
+        if ((position < length) && (text.charAt(position) == '"'))
+            return(parseString());
+
+        int start = position;
+        while ((position < length) &&
+               (ExpressionTreeToPQL.isIdentifierPart(text.charAt(position)) ||
+                ((text.charAt(position) == '.') && (position > start))))
+            position++;
+
+        /**
+         * A trailing "." is not part of the name.
+         */
+        if ((position > start) && (text.charAt(position-1) == '.'))
+            position--;
+
+        String name = text.subSequence(start, position).toString();
+        if (!ExpressionTreeToPQL.isQualifiedName(name)) {
+            position = start;
+            throw(error("Expected a class name"));
+        }
+        return(name);
+    }
+
+
+    /**
+     * An Int32 if there is no "." and no exponent, otherwise a
+     * Float64.
+     */
+    private IExpression parseNumber() {
+
+        int start = position;
+        if (text.charAt(position) == '-') {
+            position++;
+            if ((position < length) && (text.charAt(position) == 'I')) {
+                String name = parseName();
+                if (!"Infinity".equals(name)) {
+                    position = start;
+                    throw(error("Expected a number"));
+                }
+                return(new Float64LiteralValueExpression(
+                    Double.NEGATIVE_INFINITY));
+            }
+        }
+
+        int digitStart = position;
+        long intValue = 0;
+        boolean overflow = false;
+        while ((position < length) && isDigit(text.charAt(position))) {
+            intValue = intValue*10+(text.charAt(position++)-'0');
+            if (intValue > (long)Integer.MAX_VALUE+1)
+                overflow = true;
+        }
+        if (position == digitStart) {
+            position = start;
+            throw(error("Expected a number"));
+        }
+
+        boolean isFloat = false;
+        if ((position+1 < length) && (text.charAt(position) == '.') &&
+            isDigit(text.charAt(position+1))) {
+            isFloat = true;
+            position++;
+            while ((position < length) && isDigit(text.charAt(position)))
+                position++;
+        }
+        if ((position < length) && ((text.charAt(position) == 'e') ||
+                                    (text.charAt(position) == 'E'))) {
+            int exponent = position+1;
+            if ((exponent < length) && ((text.charAt(exponent) == '-') ||
+                                        (text.charAt(exponent) == '+')))
+                exponent++;
+            if ((exponent < length) && isDigit(text.charAt(exponent))) {
+                isFloat = true;
+                position = exponent;
+                while ((position < length) && isDigit(text.charAt(position)))
+                    position++;
+            }
+        }
+
+        if (isFloat) {
+            return(new Float64LiteralValueExpression(Double.parseDouble(
+                text.subSequence(start, position).toString())));
+        }
+
+        if (text.charAt(start) == '-')
+            intValue = -intValue;
+        if (overflow || (intValue > Integer.MAX_VALUE) ||
+            (intValue < Integer.MIN_VALUE)) {
+            position = start;
+            throw(error("Integer out of range"));
+        }
+        return(new Int32LiteralValueExpression((int)intValue));
+    }
+
+
+    /**
+     * If the text at the current position is a comparison operator,
+     * skip over it and return it.  Otherwise return null.
+     */
+    private String matchComparisonOperator() {
+
+        if (position >= length)
+            return(null);
+        char c = text.charAt(position);
+        if ((c != '=') && (c != '!') && (c != '<') && (c != '>'))
+            return(null);
+
+        for (String operator : COMPARISON_OPERATORS) {
+            int end = position+operator.length();
+            if (end > length)
+                continue;
+            boolean match = true;
+            for (int index = 0; match && (index < operator.length()); index++)
+                match = (text.charAt(position+index) == operator.charAt(index));
+            if (match) {
+                position = end;
+                return(operator);
+            }
+        }
+        return(null);
+    }
+
+
+    private void expect(char c) {
+
+        skipWhitespace();
+        if ((position >= length) || (text.charAt(position) != c))
+            throw(error("Expected '"+c+"'"));
+        position++;
+    }
+
+
+    private void skipWhitespace() {
+        while ((position < length) &&
+               Character.isWhitespace(text.charAt(position)))
+            position++;
+    }
+
+
+    private static boolean isDigit(char c) {
+        return((c >= '0') && (c <= '9'));
+    }
+
+
+    private IllegalArgumentException error(String message) {
+        return(new IllegalArgumentException(message+" at position "+
+            position+" in PQL: "+text));
+    }
+}
@@ -45,6 +45,19 @@ public class RowDataToExpressionTree
      * into an ExpressionTree object.
      */
     public static ExpressionTree translate(RowData rootRow) {
+        return(translate(rootRow, null));
+    }
+
+
+    /**
+     * This is the same as translate(RowData), but it also tells the
+     * passed in recorder what expression it created for each row.
+     * LiveExpressionTree uses this to find the part of the tree that
+     * belongs to a row that changes.
+     *
+     * @param recorder This can be null.
+     */
+    static ExpressionTree translate(RowData rootRow, RowRecorder recorder) {
 
         if (rootRow == null) {
             return(null);
@@ -90,8 +103,10 @@ public class RowDataToExpressionTree
          * that is a child of the rootRow.
          */
         for (RowData childRow : rootRow.getChildRows()) {
-            lastExpression.addOperand(createExpression(childRow));
+            lastExpression.addOperand(createExpression(childRow, recorder));
         }
+        if (recorder != null)
+            recorder.rowTranslated(rootRow, rootExpression, lastExpression);
 
         ExpressionTree expressionTree = new ExpressionTree(
             rootRow.getClassUnderQualification().getName(), rootExpression);
@@ -275,12 +290,22 @@ public class RowDataToExpressionTree
      * object.
      *
      * Please note, this method calls itself recursively.
+     *
+     * @param recorder If this is not null, it is told about the
+     * expression created for rowData, and for each of its descendents.
      */
-    private static OperatorExpression createExpression(RowData rowData) {
+    static OperatorExpression createExpression(RowData rowData,
+                                               RowRecorder recorder) {
 
         OperatorExpression expression;
         OperatorExpression lastOperator;
 
+        /**
+         * The operator that the child rows' expressions are added to,
+         * if this row has child rows.
+         */
+        OperatorExpression childOperator = null;
+
         Attribute childmostAttribute = rowData.getChildmostAttribute();
 
         /**
@@ -329,10 +354,12 @@ public class RowDataToExpressionTree
                 lastOperator.addOperand(op);
 
                 lastOperator = getLastOperator(op);
+                childOperator = lastOperator;
 
                 for (RowData childRow : rowData.getChildRows()) {
                     //System.out.println("Add an operand");
-                    lastOperator.addOperand(createExpression(childRow));
+                    lastOperator.addOperand(createExpression(childRow,
+                                                             recorder));
                 }
         }
         else if (rowData.getCollectionOperator() != null) {
@@ -358,9 +385,11 @@ public class RowDataToExpressionTree
                         createExpressionPath(rowData.getAttributePath(),
                             rowData));
                 }
+                childOperator = lastOperator;
                 for (RowData childRow : rowData.getChildRows()) {
                     //System.out.println("Add an operand");
-                    lastOperator.addOperand(createExpression(childRow));
+                    lastOperator.addOperand(createExpression(childRow,
+                                                             recorder));
                 }
             }
         }
@@ -379,6 +408,8 @@ public class RowDataToExpressionTree
             (new Exception(s)).printStackTrace();
         }
 
+        if (recorder != null)
+            recorder.rowTranslated(rowData, expression, childOperator);
         return(expression);
     }
 
@@ -984,4 +1015,24 @@ public class RowDataToExpressionTree
             }
         }
     }
+
+
+    /**
+     * Told about the expression that was created for each row.
+     */
+    interface RowRecorder {
+
+        /**
+         * @param rowData The row that was translated.
+         *
+         * @param expression The expression that was created for the row.
+         * For the root row, this is the root of the tree.
+         *
+         * @param childOperator The operator whose last operands are
+         * the expressions for the row's child rows, in the same order,
+         * or null if the row has no child rows.
+         */
+        void rowTranslated(RowData rowData, OperatorExpression expression,
+                           OperatorExpression childOperator);
+    }
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator;
+
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IBooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.IFloat64LiteralValueExpression;
+import com.physion.ebuilder.expression.IInt32LiteralValueExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.ITimeLiteralValueExpression;
+import com.physion.ebuilder.expression.QueryShape;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The SQL that ExpressionTreeToSQL created for a query shape.  The
+ * SQL selects the "id" of the records that satisfy a query of that
+ * shape, and has a "?" for each of the query's binds, (see
+ * QueryShape), in the order QueryShape.getBinds() returns them.
+ *
+ * Every query of the shape has the same SQL, so a PreparedStatement
+ * created from getSQL() can be reused for all of them:  pass each
+ * query to setBinds().
+ *
+ * A SQLStatement is immutable.
+ *
+ * Example of use:
+ *
+ *      SQLStatement sql = ExpressionTreeToSQL.translate(tree);
+ *      PreparedStatement statement = myStatements.get(sql.getSQL());
+ *      if (statement == null) {
+ *          statement = connection.prepareStatement(sql.getSQL());
+ *          myStatements.put(sql.getSQL(), statement);
+ *      }
+ *      sql.setBinds(statement, tree);
+ *      ResultSet ids = statement.executeQuery();
+ *
+ * @see ExpressionTreeToSQL
+ */
+public final class SQLStatement {
+
+    private final QueryShape shape;
+    private final String fromClause;
+    private final String whereClause;
+
+
+    SQLStatement(QueryShape shape, String fromClause, String whereClause) {
+
+        this.shape = shape;
+        this.fromClause = fromClause;
+        this.whereClause = whereClause;
+    }
+
+
+    /**
+     * Get the shape of the queries this SQL is for.
+     */
+    public QueryShape getShape() {
+        return(shape);
+    }
+
+
+    /**
+     * Get the SELECT statement.
+     */
+    public String getSQL() {
+        return("SELECT t0.\"id\" FROM "+fromClause+" WHERE "+whereClause);
+    }
+
+
+    /**
+     * Get the FROM clause, without the word FROM.  The table of the
+     * Class Under Qualification is "t0".
+     */
+    public String getFromClause() {
+        return(fromClause);
+    }
+
+
+    /**
+     * Get the WHERE clause, without the word WHERE.
+     */
+    public String getWhereClause() {
+        return(whereClause);
+    }
+
+
+    /**
+     * Get the number of "?"s in the SQL.
+     */
+    public int getBindCount() {
+        return(shape.getBindCount());
+    }
+
+
+    /**
+     * Get the values of the "?"s in the SQL for the passed in query,
+     * in order.  A time is a java.sql.Timestamp, and the other values
+     * are Booleans, Integers, Doubles, and Strings.
+     *
+     * @throws IllegalArgumentException If the query is not of this
+     * shape.
+     */
+    public List<Object> getBindValues(ExpressionTree expressionTree) {
+
+        QueryShape other = QueryShape.of(expressionTree);
+        if (!shape.equals(other)) {
+            throw(new IllegalArgumentException("The query is of shape "+
+                other+", but the SQL is for "+shape+"."));
+        }
+
+        List<ILiteralValueExpression> binds = other.getBinds();
+        List<Object> values = new ArrayList<Object>(binds.size());
+        for (ILiteralValueExpression bind : binds)
+            values.add(getBindValue(bind));
+        return(values);
+    }
+
+
+    /**
+     * Set the parameters of a PreparedStatement created from getSQL()
+     * to the binds of the passed in query.
+     *
+     * @throws IllegalArgumentException If the query is not of this
+     * shape.
+     */
+    public void setBinds(PreparedStatement statement,
+                         ExpressionTree expressionTree)
+        throws SQLException {
+
+        List<Object> values = getBindValues(expressionTree);
+        for (int index = 0; index < values.size(); index++)
+            statement.setObject(index+1, values.get(index));
+    }
+
+
+    @Override
+    public String toString() {
+        return(getSQL());
+    }
+
+
+    /**
+     * Get the JDBC value of the passed in bind.
+     */
+    private static Object getBindValue(ILiteralValueExpression bind) {
+
+        switch (bind.getLiteralKind()) {
+            case BOOLEAN:
+                return(Boolean.valueOf(((IBooleanLiteralValueExpression)bind).
+                    getBooleanValue()));
+            case INT32:
+                return(Integer.valueOf(((IInt32LiteralValueExpression)bind).
+                    getIntValue()));
+            case FLOAT64:
+                return(Double.valueOf(((IFloat64LiteralValueExpression)bind).
+                    getDoubleValue()));
+            case TIME:
+                return(new Timestamp(((ITimeLiteralValueExpression)bind).
+                    getMillis()));
+            default:
+                return(bind.getValue());
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.datamodel.test;
+
+import com.physion.ebuilder.datamodel.RowData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A simple benchmark that compares the RowData getRows() and
+ * getIndex() methods with the original implementation that did
+ * not cache the size of each row's subtree.
+ *
+ * This is not a unit test, (the name does not end with "Test" or
+ * "Tests"), so it is not run by "mvn test".  Run its main() method
+ * by hand.  It simulates what the ExpressionPanel does every
+ * time the user adds or deletes a row:  add a row, then flatten
+ * the tree with getRows() and look up the index of a row.
+ */
+public class RowDataBenchmark {
+
+    private static final int ROW_COUNT = 10000;
+    private static final int ROWS_PER_COMPOUND_ROW = 100;
+    private static final int EDIT_COUNT = 5;
+
+
+    /**
+     * Create a tree with ROW_COUNT rows below the root row.
+     * The root row has compound rows as children, and each
+     * compound row has ROWS_PER_COMPOUND_ROW-1 children.
+     */
+    private static RowData createTree() {
+
+        RowData rootRow = new RowData();
+        RowData compoundRow = null;
+        for (int count = 0; count < ROW_COUNT; count++) {
+            if ((count % ROWS_PER_COMPOUND_ROW) == 0) {
+                compoundRow = new RowData();
+                rootRow.addChildRow(compoundRow);
+            }
+            else {
+                compoundRow.addChildRow(new RowData());
+            }
+        }
+        return(rootRow);
+    }
+
+
+    /**
+     * The original, uncached RowData.getDescendentCount().
+     */
+    private static int oldGetDescendentCount(RowData rowData) {
+
+        int count = rowData.getChildRows().size();
+        for (RowData childRow : rowData.getChildRows()) {
+            count += oldGetDescendentCount(childRow);
+        }
+        return(count);
+    }
+
+
+    /**
+     * The original, uncached RowData.getChild().
+     */
+    private static RowData oldGetChild(RowData rowData, int index) {
+
+        if (index == 0)
+            return(rowData);
+
+        for (RowData childRow : rowData.getChildRows()) {
+
+            index--;
+            RowData rd = oldGetChild(childRow, index);
+            if (rd != null)
+                return(rd);
+
+            index -= oldGetDescendentCount(childRow);
+
+            if (index == 0)
+                return(childRow);
+        }
+
+        return(null);
+    }
+
+
+    /**
+     * The original, uncached RowData.getRows().
+     */
+    private static List<RowData> oldGetRows(RowData rowData) {
+
+        int count = oldGetDescendentCount(rowData)+1;
+
+        List<RowData> rows = new ArrayList<RowData>();
+        for (int index = 0; index < count; index++)
+            rows.add(oldGetChild(rowData, index));
+
+        return(rows);
+    }
+
+
+    /**
+     * The original, uncached RowData.getIndex().
+     */
+    private static int oldGetIndex(RowData rootRow, RowData rowData) {
+
+        List<RowData> rows = oldGetRows(rootRow);
+        int index = 0;
+        for (RowData rd : rows) {
+            if (rd == rowData)
+                return(index);
+            index++;
+        }
+        return(-1);
+    }
+
+
+    /**
+     * Time EDIT_COUNT "edits" of the tree, where each edit adds a
+     * row to the middle of the tree, and then calls getRows()
+     * and getIndex() the way ExpressionPanel does.
+     *
+     * @return The number of nanoseconds the edits took.
+     */
+    private static long timeEdits(boolean useOldCode) {
+
+        RowData rootRow = createTree();
+        RowData middleRow = rootRow.getChildRows().get(
+            rootRow.getChildRows().size()/2);
+
+        long start = System.nanoTime();
+        int total = 0;
+        for (int count = 0; count < EDIT_COUNT; count++) {
+
+            RowData newRow = new RowData();
+            middleRow.addChildRow(newRow);
+
+            if (useOldCode) {
+                total += oldGetRows(rootRow).size();
+                total += oldGetIndex(rootRow, newRow);
+            }
+            else {
+                total += rootRow.getRows().size();
+                total += rootRow.getIndex(newRow);
+            }
+        }
+        long elapsed = System.nanoTime()-start;
+
+        /**
+         * Use the total so the JIT cannot throw the work away.
+         */
+        if (total == 0)
+            System.out.println("total = 0");
+
+        return(elapsed);
+    }
+
+
+    public static void main(String[] args) {
+
+        System.out.println("RowDataBenchmark is starting...");
+        System.out.println(ROW_COUNT+" rows, "+EDIT_COUNT+
+                           " edits, each followed by getRows() and "+
+                           "getIndex().");
+
+        /**
+         * Run each version once to warm up the JIT.
+         */
+        timeEdits(true);
+        timeEdits(false);
+
+        long oldTime = timeEdits(true);
+        long newTime = timeEdits(false);
+
+        System.out.println("Uncached: "+(oldTime/1000000)+" ms, "+
+                           (oldTime/EDIT_COUNT/1000)+" us per edit");
+        System.out.println("Cached:   "+(newTime/1000000)+" ms, "+
+                           (newTime/EDIT_COUNT/1000)+" us per edit");
+        System.out.println("Speedup:  "+(oldTime/Math.max(newTime, 1))+"x");
+
+        System.out.println("RowDataBenchmark is ending.");
+    }
+}
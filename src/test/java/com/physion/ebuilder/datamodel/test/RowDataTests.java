@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.datamodel.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Tests for the RowData "index" methods:  getChild(), getIndex(),
+ * getRows(), and getDescendentCount().
+ *
+ * RowData caches the size of each row's subtree, so these tests
+ * build trees, change them, and compare the results of those
+ * methods with a simple walk of the tree done using getChildRows().
+ */
+public class RowDataTests extends TestCase {
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+
+
+    /**
+     * Check the index methods on the example tree that
+     * RowData.createTestRowData() creates.
+     */
+    @Test
+    public void testTestRowData() {
+
+        RowData rootRow = RowData.createTestRowData();
+        checkIndexes(rootRow);
+    }
+
+
+    /**
+     * Build a random tree one row at a time, and randomly delete
+     * rows, checking the index methods after every change.
+     */
+    @Test
+    public void testAddAndDelete() {
+
+        Random random = new Random(27);
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        for (int count = 0; count < 500; count++) {
+
+            List<RowData> rows = rootRow.getRows();
+            RowData rowData = rows.get(random.nextInt(rows.size()));
+
+            if ((rowData != rootRow) && (random.nextInt(4) == 0)) {
+                rowData.removeFromParent();
+            }
+            else {
+                rowData.addChildRow(new RowData());
+            }
+
+            checkIndexes(rootRow);
+        }
+    }
+
+
+    /**
+     * Changing a compound row into a Count row throws away its
+     * children without calling removeChildRow().  Make sure the
+     * cached counts notice that.
+     */
+    @Test
+    public void testClearChildRows() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ANY);
+
+        RowData compoundRow = new RowData();
+        compoundRow.setCollectionOperator(CollectionOperator.ALL);
+        rootRow.addChildRow(compoundRow);
+        compoundRow.addChildRow(new RowData());
+        compoundRow.addChildRow(new RowData());
+        rootRow.addChildRow(new RowData());
+
+        assertEquals(4, rootRow.getDescendentCount());
+        checkIndexes(rootRow);
+
+        compoundRow.setCollectionOperator(CollectionOperator.COUNT);
+
+        assertEquals(2, rootRow.getDescendentCount());
+        checkIndexes(rootRow);
+    }
+
+
+    /**
+     * Rows that are not in the tree, (including a row that was
+     * removed from the tree), do not have an index.
+     */
+    @Test
+    public void testIndexOfRowNotInTree() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+
+        RowData rowData = new RowData();
+        rootRow.addChildRow(rowData);
+        assertEquals(1, rootRow.getIndex(rowData));
+
+        rootRow.removeChildRow(rowData);
+        assertEquals(-1, rootRow.getIndex(rowData));
+        assertEquals(-1, rootRow.getIndex(new RowData()));
+        assertEquals(-1, rootRow.getIndex(null));
+        assertNull(rootRow.getChild(1));
+        assertNull(rootRow.getChild(-1));
+    }
+
+
+    /**
+     * A RowData that was read in from a file has no cached values.
+     */
+    @Test
+    public void testSerializedRowData() {
+
+        RowData rootRow = RowData.createTestRowData();
+        rootRow.getRows();
+        rootRow.writeRowData("temp.rowData");
+        RowData readRow = RowData.readRowData("temp.rowData");
+
+        assertEquals(rootRow.getDescendentCount(),
+                     readRow.getDescendentCount());
+        checkIndexes(readRow);
+    }
+
+
+    /**
+     * Compare getRows(), getChild(), getIndex(), and getDescendentCount()
+     * for every row in the tree with a simple recursive walk of the tree.
+     */
+    private static void checkIndexes(RowData rootRow) {
+
+        List<RowData> expected = new ArrayList<RowData>();
+        addRows(rootRow, expected);
+
+        assertEquals(expected, rootRow.getRows());
+        assertEquals(expected.size()-1, rootRow.getDescendentCount());
+
+        for (int index = 0; index < expected.size(); index++) {
+            RowData rowData = expected.get(index);
+            assertSame(rowData, rootRow.getChild(index));
+            assertEquals(index, rootRow.getIndex(rowData));
+        }
+        assertNull(rootRow.getChild(expected.size()));
+    }
+
+
+    private static void addRows(RowData rowData, List<RowData> rows) {
+
+        rows.add(rowData);
+        for (RowData childRow : rowData.getChildRows())
+            addRows(childRow, rows);
+    }
+}
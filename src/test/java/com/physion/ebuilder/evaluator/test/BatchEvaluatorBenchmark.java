@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.evaluator.BatchEvaluator;
+import com.physion.ebuilder.evaluator.ColumnBatch;
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.RecordAccessor;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * A simple benchmark that compares evaluating a query one record at
+ * a time, with the interpreted and the compiled ExpressionEvaluator,
+ * with evaluating it one column at a time with the BatchEvaluator.
+ *
+ * The records are the same synthetic Epochs the EvaluatorBenchmark
+ * uses, stored both as objects and as ColumnBatches of BATCH_SIZE
+ * records.  The time to build the batches is not counted.  In real
+ * life the columns would come from the database that way.
+ *
+ * This is not a unit test, so it is not run by "mvn test".
+ * Run its main() method by hand.
+ */
+public class BatchEvaluatorBenchmark {
+
+    private static final int RECORD_COUNT = 1000000;
+    private static final int BATCH_SIZE = 65536;
+    private static final int PASS_COUNT = 20;
+    private static final int WARM_UP_PASS_COUNT = 5;
+
+    private static final String[] PROTOCOL_IDS =
+        {"protocol.0", "protocol.1", "protocol.2", "protocol.3"};
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+
+
+    private static List<EvaluatorBenchmark.Epoch> createEpochs() {
+
+        Random random = new Random(27);
+        long start = new DateTime(2011, 1, 1, 0, 0).getMillis();
+
+        List<EvaluatorBenchmark.Epoch> epochs =
+            new ArrayList<EvaluatorBenchmark.Epoch>(RECORD_COUNT);
+        for (int count = 0; count < RECORD_COUNT; count++) {
+
+            EvaluatorBenchmark.Epoch epoch = new EvaluatorBenchmark.Epoch();
+            epoch.protocolID = PROTOCOL_IDS[random.nextInt(4)];
+            epoch.startTime = new DateTime(start+
+                (long)random.nextInt(365)*24*60*60*1000);
+            epoch.excludeFromAnalysis = (random.nextInt(10) == 0) ? null :
+                                        Boolean.valueOf(random.nextInt(10) == 0);
+            epochs.add(epoch);
+        }
+        return(epochs);
+    }
+
+
+    /**
+     * Store the Epochs by column, BATCH_SIZE at a time.
+     */
+    private static List<ColumnBatch> createBatches(
+        List<EvaluatorBenchmark.Epoch> epochs) {
+
+        List<ColumnBatch> batches = new ArrayList<ColumnBatch>();
+        for (int first = 0; first < epochs.size(); first += BATCH_SIZE) {
+
+            int rowCount = Math.min(BATCH_SIZE, epochs.size()-first);
+            int[] codes = new int[rowCount];
+            long[] millis = new long[rowCount];
+            long[] excluded = ColumnBatch.createBitmap(rowCount);
+            long[] excludedNulls = ColumnBatch.createBitmap(rowCount);
+
+            for (int row = 0; row < rowCount; row++) {
+
+                EvaluatorBenchmark.Epoch epoch = epochs.get(first+row);
+                codes[row] = epoch.protocolID.charAt(9)-'0';
+                millis[row] = epoch.startTime.getMillis();
+                if (epoch.excludeFromAnalysis == null)
+                    ColumnBatch.setBit(excludedNulls, row);
+                else if (epoch.excludeFromAnalysis)
+                    ColumnBatch.setBit(excluded, row);
+            }
+
+            ColumnBatch batch = new ColumnBatch(rowCount);
+            batch.addStringColumn("protocolID", PROTOCOL_IDS, codes, null);
+            batch.addTimeColumn("startTime", millis, null);
+            batch.addBooleanColumn("excludeFromAnalysis", excluded,
+                                   excludedNulls);
+            batches.add(batch);
+        }
+        return(batches);
+    }
+
+
+    /**
+     *      Epoch | Any
+     *        Epoch | All
+     *          Epoch | protocolID == "protocol.1"
+     *          Epoch | startTime >= 2011-06-01
+     *        Epoch | All
+     *          Epoch | excludeFromAnalysis is false
+     *          Epoch | startTime < 2011-02-01
+     */
+    private static ExpressionTree createExpressionTree() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ANY);
+
+        RowData allRow = new RowData();
+        allRow.setCollectionOperator(CollectionOperator.ALL);
+        rootRow.addChildRow(allRow);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolID"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue("protocol.1");
+        allRow.addChildRow(rowData);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("startTime"));
+        rowData.setAttributeOperator(Operator.GREATER_THAN_EQUALS);
+        rowData.setAttributeValue(new DateTime(2011, 6, 1, 0, 0));
+        allRow.addChildRow(rowData);
+
+        allRow = new RowData();
+        allRow.setCollectionOperator(CollectionOperator.ALL);
+        rootRow.addChildRow(allRow);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("excludeFromAnalysis"));
+        rowData.setAttributeOperator(Operator.IS_FALSE);
+        allRow.addChildRow(rowData);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("startTime"));
+        rowData.setAttributeOperator(Operator.LESS_THAN);
+        rowData.setAttributeValue(new DateTime(2011, 2, 1, 0, 0));
+        allRow.addChildRow(rowData);
+
+        return(RowDataToExpressionTree.translate(rootRow));
+    }
+
+
+    private static long timeRows(ExpressionEvaluator evaluator,
+                                 List<EvaluatorBenchmark.Epoch> epochs,
+                                 int passCount) {
+
+        RecordAccessor accessor = new EvaluatorBenchmark.EpochAccessor();
+        long start = System.nanoTime();
+        long matches = 0;
+        for (int pass = 0; pass < passCount; pass++) {
+            for (EvaluatorBenchmark.Epoch epoch : epochs) {
+                if (evaluator.evaluate(epoch, accessor))
+                    matches++;
+            }
+        }
+        long elapsed = System.nanoTime()-start;
+
+        if (passCount == PASS_COUNT)
+            System.out.println("Row matches:       "+matches/passCount);
+        return(elapsed);
+    }
+
+
+    private static long timeBatches(BatchEvaluator evaluator,
+                                    List<ColumnBatch> batches,
+                                    int passCount) {
+
+        long start = System.nanoTime();
+        long matches = 0;
+        for (int pass = 0; pass < passCount; pass++) {
+            for (ColumnBatch batch : batches)
+                matches += ColumnBatch.getCardinality(evaluator.evaluate(batch));
+        }
+        long elapsed = System.nanoTime()-start;
+
+        if (passCount == PASS_COUNT)
+            System.out.println("Batch matches:     "+matches/passCount);
+        return(elapsed);
+    }
+
+
+    private static void report(String name, long nanos) {
+
+        long evaluations = (long)RECORD_COUNT*PASS_COUNT;
+        System.out.println(name+(nanos/1000000)+" ms, "+
+                           (long)(evaluations*1.0e9/Math.max(nanos, 1))+
+                           " records/second, "+
+                           (nanos*1.0/evaluations)+" ns/record");
+    }
+
+
+    public static void main(String[] args) {
+
+        System.out.println("BatchEvaluatorBenchmark is starting...");
+        List<EvaluatorBenchmark.Epoch> epochs = createEpochs();
+        List<ColumnBatch> batches = createBatches(epochs);
+        ExpressionTree tree = createExpressionTree();
+        System.out.println(tree);
+
+        ExpressionEvaluator interpreted = new ExpressionEvaluator(tree,
+            ExpressionEvaluator.NEVER_COMPILE);
+        ExpressionEvaluator compiled = new ExpressionEvaluator(tree, 0);
+        BatchEvaluator batchEvaluator = new BatchEvaluator(tree);
+
+        timeRows(interpreted, epochs, WARM_UP_PASS_COUNT);
+        timeRows(compiled, epochs, WARM_UP_PASS_COUNT);
+        timeBatches(batchEvaluator, batches, WARM_UP_PASS_COUNT);
+
+        long interpretedTime = timeRows(interpreted, epochs, PASS_COUNT);
+        long compiledTime = timeRows(compiled, epochs, PASS_COUNT);
+        long batchTime = timeBatches(batchEvaluator, batches, PASS_COUNT);
+
+        report("Row (interpreted): ", interpretedTime);
+        report("Row (compiled):    ", compiledTime);
+        report("Batch:             ", batchTime);
+        System.out.println("Speedup:           "+
+            (interpretedTime*100/Math.max(batchTime, 1))/100.0+
+            "x over interpreted, "+
+            (compiledTime*100/Math.max(batchTime, 1))/100.0+
+            "x over compiled");
+
+        System.out.println("BatchEvaluatorBenchmark is ending.");
+    }
+}
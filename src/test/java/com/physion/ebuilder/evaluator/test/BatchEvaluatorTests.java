@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.BatchEvaluator;
+import com.physion.ebuilder.evaluator.ColumnBatch;
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.BooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.Float64LiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.Int32LiteralValueExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.expression.StringLiteralValueExpression;
+import com.physion.ebuilder.expression.TimeLiteralValueExpression;
+import com.physion.ebuilder.translator.Translator;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for the BatchEvaluator.
+ *
+ * Each test evaluates ExpressionTrees against a ColumnBatch of random
+ * values, (with some nulls), and checks that the selection bitmap has
+ * the same bits that the ExpressionEvaluator gets by testing the same
+ * records one at a time.  The row count is not a multiple of 64, so
+ * the last word of the bitmaps is only partly used.
+ */
+public class BatchEvaluatorTests extends TestCase {
+
+    private static final int ROW_COUNT = 1000;
+
+    private static final String[] NAMES = {"alpha", "beta", "Gamma", "delta9"};
+    private static final DateTime START = new DateTime(2011, 1, 1, 0, 0);
+
+    private static MapRecordAccessor accessor = new MapRecordAccessor();
+
+    private ColumnBatch batch;
+    private List<Map<String,Object>> records;
+
+
+    @Override
+    protected void setUp() {
+
+        Random random = new Random(13);
+
+        int[] counts = new int[ROW_COUNT];
+        double[] rates = new double[ROW_COUNT];
+        long[] starts = new long[ROW_COUNT];
+        long[] flags = ColumnBatch.createBitmap(ROW_COUNT);
+        int[] codes = new int[ROW_COUNT];
+        long[][] nulls = new long[5][];
+        for (int index = 0; index < nulls.length; index++)
+            nulls[index] = ColumnBatch.createBitmap(ROW_COUNT);
+
+        records = new ArrayList<Map<String,Object>>();
+        for (int row = 0; row < ROW_COUNT; row++) {
+
+            counts[row] = random.nextInt(20)-10;
+            rates[row] = random.nextInt(40)/4.0;
+            if (row%97 == 0)
+                rates[row] = Double.NaN;
+            starts[row] = START.getMillis()+
+                random.nextInt(100)*24L*60*60*1000;
+            if (random.nextBoolean())
+                ColumnBatch.setBit(flags, row);
+            codes[row] = random.nextInt(NAMES.length);
+
+            Map<String,Object> record = record(
+                "count", counts[row],
+                "rate", rates[row],
+                "start", new DateTime(starts[row]),
+                "flag", ColumnBatch.getBit(flags, row),
+                "name", NAMES[codes[row]]);
+
+            String[] columns = {"count", "rate", "start", "flag", "name"};
+            for (int index = 0; index < columns.length; index++) {
+                if (random.nextInt(10) == 0) {
+                    ColumnBatch.setBit(nulls[index], row);
+                    record.remove(columns[index]);
+                }
+            }
+            records.add(record);
+        }
+
+        batch = new ColumnBatch(ROW_COUNT);
+        batch.addIntColumn("count", counts, nulls[0]);
+        batch.addDoubleColumn("rate", rates, nulls[1]);
+        batch.addTimeColumn("start", starts, nulls[2]);
+        batch.addBooleanColumn("flag", flags, nulls[3]);
+        batch.addStringColumn("name", NAMES, codes, nulls[4]);
+    }
+
+
+    /**
+     * Every comparison operator against every kind of column,
+     * with literals of the same type and of other types.
+     */
+    @Test
+    public void testComparisons() {
+
+        String[] operators = {Translator.OE_EQUALS, Translator.OE_NOT_EQUALS,
+            Translator.OE_LESS_THAN, Translator.OE_GREATER_THAN,
+            Translator.OE_LESS_THAN_EQUALS,
+            Translator.OE_GREATER_THAN_EQUALS};
+
+        IExpression[][] columnsAndLiterals = {
+            {new AttributeExpression("count"),
+             new Int32LiteralValueExpression(3),
+             new Float64LiteralValueExpression(2.5),
+             new Float64LiteralValueExpression(-4.0),
+             new StringLiteralValueExpression("3")},
+            {new AttributeExpression("rate"),
+             new Float64LiteralValueExpression(4.25),
+             new Float64LiteralValueExpression(Double.NaN),
+             new Int32LiteralValueExpression(5),
+             new BooleanLiteralValueExpression(true)},
+            {new AttributeExpression("start"),
+             new TimeLiteralValueExpression(START.plusDays(50)),
+             new Int32LiteralValueExpression(5)},
+            {new AttributeExpression("flag"),
+             new BooleanLiteralValueExpression(true),
+             new BooleanLiteralValueExpression(false),
+             new StringLiteralValueExpression("true")},
+            {new AttributeExpression("name"),
+             new StringLiteralValueExpression("beta"),
+             new StringLiteralValueExpression("b"),
+             new Int32LiteralValueExpression(1)},
+            {new AttributeExpression("missing"),
+             new Int32LiteralValueExpression(1)}};
+
+        for (String operator : operators) {
+            for (IExpression[] columnAndLiterals : columnsAndLiterals) {
+                for (int index = 1; index < columnAndLiterals.length;
+                     index++) {
+                    check(operator(operator, columnAndLiterals[0],
+                                   columnAndLiterals[index]));
+                    check(operator(operator, columnAndLiterals[index],
+                                   columnAndLiterals[0]));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * "and", "or", "not", "isnull", =~, and a boolean attribute
+     * used as a condition.
+     */
+    @Test
+    public void testLogic() {
+
+        IExpression countLess = operator(Translator.OE_LESS_THAN,
+            new AttributeExpression("count"),
+            new Int32LiteralValueExpression(0));
+        IExpression nameMatches = operator(
+            Translator.OE_MATCHES_CASE_INSENSITIVE,
+            new AttributeExpression("name"),
+            new StringLiteralValueExpression("^g|a$"));
+        IExpression nameDoesNotMatch = operator(
+            Translator.OE_DOES_NOT_MATCH_CASE_SENSITIVE,
+            new AttributeExpression("name"),
+            new StringLiteralValueExpression("[0-9]"));
+        IExpression rateIsNull = operator(Translator.OE_IS_NULL,
+            new AttributeExpression("rate"));
+        IExpression flag = new AttributeExpression("flag");
+
+        check(nameMatches);
+        check(nameDoesNotMatch);
+        check(rateIsNull);
+        check(flag);
+        check(operator(Translator.OE_NOT, flag));
+        check(operator(Translator.OE_AND, countLess, nameMatches, flag));
+        check(operator(Translator.OE_OR, countLess, rateIsNull));
+        check(operator(Translator.OE_NOT, operator(Translator.OE_OR,
+            operator(Translator.OE_AND, countLess, nameDoesNotMatch),
+            operator(Translator.OE_NOT, rateIsNull))));
+        check(operator(Translator.OE_IS_NULL,
+                       new AttributeExpression("missing")));
+        check(new BooleanLiteralValueExpression(true));
+    }
+
+
+    /**
+     * An "and" with no operands selects every row, and an "or" with
+     * no operands selects none.  E.g. an empty "All" or "None" row.
+     */
+    @Test
+    public void testEmpty() {
+
+        check(operator(Translator.OE_AND));
+        check(operator(Translator.OE_OR));
+        check(operator(Translator.OE_NOT, operator(Translator.OE_OR)));
+    }
+
+
+    /**
+     * Paths and collection operators cannot be evaluated against
+     * a ColumnBatch.
+     */
+    @Test
+    public void testUnsupported() {
+
+        IExpression path = operator(Translator.OE_DOT,
+            new AttributeExpression("owner"), new AttributeExpression("name"));
+        IExpression any = operator(Translator.OE_ANY,
+            new AttributeExpression("responses"),
+            operator(Translator.OE_IS_NULL, new AttributeExpression("units")));
+
+        for (IExpression root : new IExpression[] {
+            operator(Translator.OE_EQUALS, path,
+                     new StringLiteralValueExpression("n")),
+            any,
+            operator(Translator.OE_EQUALS, new AttributeExpression("count"),
+                     new AttributeExpression("rate"))}) {
+            try {
+                new BatchEvaluator(new ExpressionTree(null,
+                    (IOperatorExpression)root));
+                fail("Expected an IllegalArgumentException.");
+            }
+            catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+
+    /**
+     * Check that the BatchEvaluator selects the records that the
+     * ExpressionEvaluator accepts, and no others.  The root of an
+     * ExpressionTree must be an operator, so anything else is
+     * wrapped in an "and" of one operand.
+     */
+    private void check(IExpression root) {
+
+        if (!(root instanceof IOperatorExpression))
+            root = operator(Translator.OE_AND, root);
+        ExpressionTree tree = new ExpressionTree(null,
+                                                 (IOperatorExpression)root);
+        long[] selected = new BatchEvaluator(tree).evaluate(batch);
+        ExpressionEvaluator evaluator = new ExpressionEvaluator(tree,
+            ExpressionEvaluator.NEVER_COMPILE);
+
+        assertEquals(ColumnBatch.getWordCount(ROW_COUNT), selected.length);
+        for (int row = 0; row < ROW_COUNT; row++) {
+            assertEquals(tree+" row "+row,
+                         evaluator.evaluate(records.get(row), accessor),
+                         ColumnBatch.getBit(selected, row));
+        }
+
+        /**
+         * The bits past the last row must be clear.
+         */
+        assertEquals(0, selected[selected.length-1] >>> (ROW_COUNT & 63));
+    }
+
+
+    private static IExpression operator(String name,
+                                        IExpression... operands) {
+
+        OperatorExpression oe = new OperatorExpression(name);
+        for (IExpression operand : operands)
+            oe.addOperand(operand);
+        return(oe);
+    }
+}
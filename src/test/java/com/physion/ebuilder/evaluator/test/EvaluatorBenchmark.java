@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.RecordAccessor;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * A simple benchmark that compares the throughput of the interpreted
+ * ExpressionEvaluator, (the tree of nodes), with the bytecode that the
+ * BytecodeCompiler generates.  It also times how long the compile
+ * takes.
+ *
+ * This is not a unit test, (the name does not end with "Test" or
+ * "Tests"), so it is not run by "mvn test".  Run its main() method
+ * by hand.  It evaluates a typical query 10,000,000 times:
+ * RECORD_COUNT synthetic Epochs, PASS_COUNT times.
+ */
+public class EvaluatorBenchmark {
+
+    private static final int RECORD_COUNT = 250000;
+    private static final int PASS_COUNT = 40;
+    private static final int WARM_UP_PASS_COUNT = 10;
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+    private static ClassDescription responseCD =
+            DataModel.getClassDescription("Response");
+
+
+    /**
+     * A synthetic Epoch with the attributes the query uses.
+     */
+    static class Epoch {
+        String protocolID;
+        DateTime startTime;
+        Boolean excludeFromAnalysis;
+        Map<String,Object> protocolParameters;
+        List<Response> responses;
+    }
+
+
+    static class Response {
+        String units;
+    }
+
+
+    /**
+     * A RecordAccessor that reads the fields of the synthetic
+     * classes directly, the way a real accessor on top of an
+     * object cache would.
+     */
+    static class EpochAccessor implements RecordAccessor {
+
+        public Object getAttribute(Object record, String attributeName) {
+
+            if (record instanceof Response) {
+                if ("units".equals(attributeName))
+                    return(((Response)record).units);
+                return(null);
+            }
+
+            Epoch epoch = (Epoch)record;
+            switch (attributeName) {
+                case "protocolID":
+                    return(epoch.protocolID);
+                case "startTime":
+                    return(epoch.startTime);
+                case "excludeFromAnalysis":
+                    return(epoch.excludeFromAnalysis);
+                default:
+                    return(null);
+            }
+        }
+
+        public Object getReference(Object record, String attributeName) {
+            return(null);
+        }
+
+        public Iterable<?> getCollection(Object record,
+                                         String attributeName) {
+            if ("responses".equals(attributeName))
+                return(((Epoch)record).responses);
+            return(Collections.emptyList());
+        }
+
+        public Object getParameter(Object record, String mapName,
+                                   String key) {
+            if ("protocolParameters".equals(mapName))
+                return(((Epoch)record).protocolParameters.get(key));
+            return(null);
+        }
+
+        public Iterable<?> getPerUserParameters(Object record,
+                                                String mapName, String key) {
+            return(Collections.emptyList());
+        }
+    }
+
+
+    private static List<Epoch> createEpochs() {
+
+        Random random = new Random(27);
+        String[] units = {"mV", "pA", "V"};
+        long start = new DateTime(2011, 1, 1, 0, 0).getMillis();
+
+        List<Epoch> epochs = new ArrayList<Epoch>(RECORD_COUNT);
+        for (int count = 0; count < RECORD_COUNT; count++) {
+
+            Epoch epoch = new Epoch();
+            epoch.protocolID = "protocol."+random.nextInt(4);
+            epoch.startTime = new DateTime(start+
+                (long)random.nextInt(365)*24*60*60*1000);
+            epoch.excludeFromAnalysis = random.nextInt(10) == 0;
+            epoch.protocolParameters = new HashMap<String,Object>();
+            epoch.protocolParameters.put("amplitude", random.nextDouble());
+
+            epoch.responses = new ArrayList<Response>();
+            for (int index = random.nextInt(4); index > 0; index--) {
+                Response response = new Response();
+                response.units = units[random.nextInt(units.length)];
+                epoch.responses.add(response);
+            }
+            epochs.add(epoch);
+        }
+        return(epochs);
+    }
+
+
+    /**
+     *      Epoch | Any
+     *        Epoch | All
+     *          Epoch | protocolID == "protocol.1"
+     *          Epoch | startTime >= 2011-06-01
+     *        Epoch | All
+     *          Epoch | excludeFromAnalysis is false
+     *          Epoch | protocolParameters.amplitude(float) > 0.75
+     *          Epoch | responses Any have Any
+     *            Response | units =~ "^m"
+     */
+    private static ExpressionTree createExpressionTree() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ANY);
+
+        RowData allRow = new RowData();
+        allRow.setCollectionOperator(CollectionOperator.ALL);
+        rootRow.addChildRow(allRow);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolID"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue("protocol.1");
+        allRow.addChildRow(rowData);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("startTime"));
+        rowData.setAttributeOperator(Operator.GREATER_THAN_EQUALS);
+        rowData.setAttributeValue(new DateTime(2011, 6, 1, 0, 0));
+        allRow.addChildRow(rowData);
+
+        allRow = new RowData();
+        allRow.setCollectionOperator(CollectionOperator.ALL);
+        rootRow.addChildRow(allRow);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("excludeFromAnalysis"));
+        rowData.setAttributeOperator(Operator.IS_FALSE);
+        allRow.addChildRow(rowData);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolParameters"));
+        rowData.setPropName("amplitude");
+        rowData.setPropType(Type.FLOAT_64);
+        rowData.setAttributeOperator(Operator.GREATER_THAN);
+        rowData.setAttributeValue(new Double(0.75));
+        allRow.addChildRow(rowData);
+
+        RowData responsesRow = new RowData();
+        responsesRow.addAttribute(epochCD.getAttribute("responses"));
+        responsesRow.setCollectionOperator(CollectionOperator.ANY);
+        allRow.addChildRow(responsesRow);
+
+        rowData = new RowData();
+        rowData.addAttribute(responseCD.getAttribute("units"));
+        rowData.setAttributeOperator(Operator.MATCHES_CASE_SENSITIVE);
+        rowData.setAttributeValue("^m");
+        responsesRow.addChildRow(rowData);
+
+        return(RowDataToExpressionTree.translate(rootRow));
+    }
+
+
+    /**
+     * Evaluate the ExpressionTree against every Epoch, passCount times.
+     *
+     * @return The number of nanoseconds it took.
+     */
+    private static long time(ExpressionEvaluator evaluator,
+                             List<Epoch> epochs, int passCount) {
+
+        RecordAccessor accessor = new EpochAccessor();
+        long start = System.nanoTime();
+        int matches = 0;
+        for (int pass = 0; pass < passCount; pass++) {
+            for (Epoch epoch : epochs) {
+                if (evaluator.evaluate(epoch, accessor))
+                    matches++;
+            }
+        }
+        long elapsed = System.nanoTime()-start;
+
+        /**
+         * Use the result so the JIT cannot throw the work away.
+         */
+        if (matches == 0)
+            System.out.println("matches = 0");
+
+        return(elapsed);
+    }
+
+
+    private static void report(String name, long nanos) {
+
+        long evaluations = (long)RECORD_COUNT*PASS_COUNT;
+        System.out.println(name+(nanos/1000000)+" ms, "+
+                           (long)(evaluations*1.0e9/Math.max(nanos, 1))+
+                           " records/second, "+
+                           (nanos/evaluations)+" ns/record");
+    }
+
+
+    public static void main(String[] args) {
+
+        System.out.println("EvaluatorBenchmark is starting...");
+        List<Epoch> epochs = createEpochs();
+        ExpressionTree tree = createExpressionTree();
+        System.out.println(tree);
+
+        ExpressionEvaluator interpreted = new ExpressionEvaluator(tree,
+            ExpressionEvaluator.NEVER_COMPILE);
+        ExpressionEvaluator compiled = new ExpressionEvaluator(tree,
+            ExpressionEvaluator.NEVER_COMPILE);
+
+        /**
+         * Time the first compile, (which loads the BytecodeCompiler
+         * class), and a later one.
+         */
+        long start = System.nanoTime();
+        compiled.compile();
+        long firstCompile = System.nanoTime()-start;
+        start = System.nanoTime();
+        new ExpressionEvaluator(tree, ExpressionEvaluator.NEVER_COMPILE).
+            compile();
+        long secondCompile = System.nanoTime()-start;
+        System.out.println("Compile:     first "+(firstCompile/1000)+
+                           " us, second "+(secondCompile/1000)+" us");
+
+        time(interpreted, epochs, WARM_UP_PASS_COUNT);
+        time(compiled, epochs, WARM_UP_PASS_COUNT);
+
+        long interpretedTime = time(interpreted, epochs, PASS_COUNT);
+        long compiledTime = time(compiled, epochs, PASS_COUNT);
+
+        report("Interpreted: ", interpretedTime);
+        report("Compiled:    ", compiledTime);
+        System.out.println("Speedup:     "+
+            (interpretedTime*100/Math.max(compiledTime, 1))/100.0+"x");
+
+        System.out.println("EvaluatorBenchmark is ending.");
+    }
+}
@@ -0,0 +1,637 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.BooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.Float64LiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.Int32LiteralValueExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.expression.StringLiteralValueExpression;
+import com.physion.ebuilder.expression.TimeLiteralValueExpression;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.list;
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for the ExpressionEvaluator.
+ *
+ * Each test builds a RowData the way the GUI would, translates it
+ * into an ExpressionTree with RowDataToExpressionTree, and then
+ * checks which records, (Maps read by the MapRecordAccessor), the
+ * ExpressionTree accepts.
+ *
+ * Every record is tested with both the interpreted tree of nodes
+ * and the bytecode the BytecodeCompiler generates, and the two
+ * results must be the same.
+ */
+public class ExpressionEvaluatorTests extends TestCase {
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+    private static ClassDescription epochGroupCD =
+            DataModel.getClassDescription("EpochGroup");
+    private static ClassDescription sourceCD =
+            DataModel.getClassDescription("Source");
+    private static ClassDescription responseCD =
+            DataModel.getClassDescription("Response");
+    private static ClassDescription keywordTagCD =
+            DataModel.getClassDescription("KeywordTag");
+
+    private static MapRecordAccessor accessor = new MapRecordAccessor();
+
+
+    /**
+     *      Epoch | All
+     *        Epoch | protocolID == "p1"
+     *        Epoch | startTime < 2011-01-01
+     *        Epoch | excludeFromAnalysis is false
+     */
+    @Test
+    public void testAttributes() {
+
+        RowData rootRow = createRootRow(epochCD, CollectionOperator.ALL);
+        addRow(rootRow, Operator.EQUALS, "p1", epochCD, "protocolID");
+        addRow(rootRow, Operator.LESS_THAN, new DateTime(2011, 1, 1, 0, 0),
+               epochCD, "startTime");
+        addRow(rootRow, Operator.IS_FALSE, null,
+               epochCD, "excludeFromAnalysis");
+        Predicate<Object> predicate = createPredicate(rootRow);
+
+        Map<String,Object> epoch = record(
+            "protocolID", "p1",
+            "startTime", new DateTime(2010, 6, 1, 0, 0),
+            "excludeFromAnalysis", Boolean.FALSE);
+        assertTrue(predicate.test(epoch));
+
+        epoch.put("startTime", new DateTime(2011, 6, 1, 0, 0));
+        assertFalse(predicate.test(epoch));
+
+        epoch.put("startTime", new DateTime(2010, 6, 1, 0, 0).toDate());
+        assertTrue(predicate.test(epoch));
+
+        epoch.put("protocolID", "p2");
+        assertFalse(predicate.test(epoch));
+
+        epoch.put("protocolID", null);
+        assertFalse(predicate.test(epoch));
+        assertFalse(predicate.test(null));
+    }
+
+
+    /**
+     * Compare values of different numeric types.
+     *
+     *      Response | Any
+     *        Response | samplingRate >= 10.5
+     *        Response | dateType == 3
+     */
+    @Test
+    public void testNumbers() {
+
+        RowData rootRow = createRootRow(responseCD, CollectionOperator.ANY);
+        addRow(rootRow, Operator.GREATER_THAN_EQUALS, new Double(10.5),
+               responseCD, "samplingRate");
+        addRow(rootRow, Operator.EQUALS, new Short((short)3),
+               responseCD, "dateType");
+        Predicate<Object> predicate = createPredicate(rootRow);
+
+        assertTrue(predicate.test(record("samplingRate", 10.5)));
+        assertTrue(predicate.test(record("samplingRate", 11)));
+        assertFalse(predicate.test(record("samplingRate", 10.4)));
+        assertTrue(predicate.test(record("dateType", (short)3)));
+        assertTrue(predicate.test(record("dateType", 3L)));
+        assertFalse(predicate.test(record("dateType", "3")));
+        assertFalse(predicate.test(record()));
+    }
+
+
+    /**
+     *      Epoch | None
+     *        Epoch | protocolID =~~ "^test"
+     *        Epoch | uuid !~ "[0-9]"
+     */
+    @Test
+    public void testMatches() {
+
+        RowData rootRow = createRootRow(epochCD, CollectionOperator.NONE);
+        addRow(rootRow, Operator.MATCHES_CASE_INSENSITIVE, "^test",
+               epochCD, "protocolID");
+        addRow(rootRow, Operator.DOES_NOT_MATCH_CASE_SENSITIVE, "[0-9]",
+               epochCD, "uuid");
+        Predicate<Object> predicate = createPredicate(rootRow);
+
+        assertFalse(predicate.test(record("protocolID", "TEST 27",
+                                          "uuid", "27")));
+        assertTrue(predicate.test(record("protocolID", "a test",
+                                         "uuid", "27")));
+        assertFalse(predicate.test(record("protocolID", "a test",
+                                          "uuid", "abc")));
+        assertTrue(predicate.test(record()));
+    }
+
+
+    /**
+     *      Epoch | All
+     *        Epoch | epochGroup.source.label == "s1"
+     *        Epoch | owner is not null
+     *        Epoch | nextEpoch is null
+     */
+    @Test
+    public void testReferences() {
+
+        RowData rootRow = createRootRow(epochCD, CollectionOperator.ALL);
+        addRow(rootRow, Operator.EQUALS, "s1", epochCD, "epochGroup",
+               epochGroupCD, "source", sourceCD, "label");
+
+        addRow(rootRow, Operator.IS_NOT_NULL, null, epochCD, "owner");
+        addRow(rootRow, Operator.IS_NULL, null, epochCD, "nextEpoch");
+
+        Predicate<Object> predicate = createPredicate(rootRow);
+
+        Map<String,Object> source = record("label", "s1");
+        Map<String,Object> epochGroup = record("source", source);
+        Map<String,Object> epoch = record("epochGroup", epochGroup,
+                                          "owner", record());
+        assertTrue(predicate.test(epoch));
+
+        source.put("label", "s2");
+        assertFalse(predicate.test(epoch));
+
+        source.put("label", "s1");
+        epoch.put("nextEpoch", record());
+        assertFalse(predicate.test(epoch));
+
+        epoch.remove("nextEpoch");
+        epoch.remove("owner");
+        assertFalse(predicate.test(epoch));
+
+        epoch.put("owner", record());
+        epochGroup.remove("source");
+        assertFalse(predicate.test(epoch));
+    }
+
+
+    /**
+     *      Epoch | All
+     *        Epoch | responses All have Any
+     *          Response | units == "mV"
+     *        Epoch | responses Count >= 2
+     */
+    @Test
+    public void testCollections() {
+
+        RowData rootRow = createRootRow(epochCD, CollectionOperator.ALL);
+        RowData rowData = addRow(rootRow, null, null, epochCD, "responses");
+        rowData.setCollectionOperator(CollectionOperator.ALL);
+        addRow(rowData, Operator.EQUALS, "mV", responseCD, "units");
+
+        rowData = addRow(rootRow, null, null, epochCD, "responses");
+        rowData.setCollectionOperator(CollectionOperator.COUNT);
+        rowData.setAttributeOperator(Operator.GREATER_THAN_EQUALS);
+        rowData.setAttributeValue(new Integer(2));
+
+        Predicate<Object> predicate = createPredicate(rootRow);
+
+        Map<String,Object> epoch = record("responses", list(
+            record("units", "mV"), record("units", "mV")));
+        assertTrue(predicate.test(epoch));
+
+        epoch.put("responses", list(record("units", "mV"),
+                                    record("units", "pA")));
+        assertFalse(predicate.test(epoch));
+
+        epoch.put("responses", list(record("units", "mV")));
+        assertFalse(predicate.test(epoch));
+
+        epoch.put("responses", list());
+        assertFalse(predicate.test(epoch));
+    }
+
+
+    /**
+     * Collections are streamed, and any, all, none, and a count
+     * compared with a literal stop as soon as they know the answer.
+     */
+    @Test
+    public void testStreamingCollections() {
+
+        Object[][] cases = {
+            {"any(responses, units == \"mV\")", true, 1},
+            {"all(responses, units == \"pA\")", false, 1},
+            {"not(any(responses, units == \"mV\"))", false, 1},
+            {"count(responses) > 5", true, 6},
+            {"count(responses) >= 5", true, 5},
+            {"3 < count(responses)", true, 4},
+            {"count(responses) == 2", false, 3},
+            {"count(responses) < 2.5", false, 3},
+            {"count(responses) > -1", true, 0},
+            {"count(responses) <= 20000", true, 10000}};
+
+        for (Object[] c : cases) {
+            ExpressionTree tree = PQLToExpressionTree.translate("Epoch",
+                (String)c[0]);
+            for (int threshold : new int[] {ExpressionEvaluator.NEVER_COMPILE,
+                                            0}) {
+                ExpressionEvaluator evaluator = new ExpressionEvaluator(tree,
+                    threshold);
+                CountingIterable responses = new CountingIterable(10000);
+                assertEquals((String)c[0], c[1], Boolean.valueOf(
+                    evaluator.evaluate(record("responses", responses),
+                                       accessor)));
+                assertEquals((String)c[0], c[2],
+                             Integer.valueOf(responses.nextCount));
+            }
+        }
+    }
+
+
+    /**
+     *      Epoch | All
+     *        Epoch | My Keywords None have Any
+     *          KeywordTag | tag == "bad"
+     *        Epoch | epochGroup.My Keywords Count == 1
+     */
+    @Test
+    public void testPerUserReferences() {
+
+        RowData rootRow = createRootRow(epochCD, CollectionOperator.ALL);
+        RowData rowData = addRow(rootRow, null, null, epochCD, "mykeywords");
+        rowData.setCollectionOperator(CollectionOperator.NONE);
+        addRow(rowData, Operator.EQUALS, "bad", keywordTagCD, "tag");
+
+        rowData = addRow(rootRow, null, null,
+                         epochCD, "epochGroup", epochGroupCD, "mykeywords");
+        rowData.setCollectionOperator(CollectionOperator.COUNT);
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue(new Integer(1));
+
+        Predicate<Object> predicate = createPredicate(rootRow);
+
+        Map<String,Object> epochGroup = record("mykeywords",
+                                               list(record("tag", "x")));
+        Map<String,Object> epoch = record("epochGroup", epochGroup,
+            "mykeywords", list(record("tag", "good"), record("tag", "ok")));
+        assertTrue(predicate.test(epoch));
+
+        epoch.put("mykeywords", list(record("tag", "good"),
+                                     record("tag", "bad")));
+        assertFalse(predicate.test(epoch));
+
+        epoch.remove("mykeywords");
+        assertTrue(predicate.test(epoch));
+
+        epochGroup.put("mykeywords", list());
+        assertFalse(predicate.test(epoch));
+    }
+
+
+    /**
+     *      Epoch | Any
+     *        Epoch | protocolParameters.amplitude(float) > 1.5
+     *        Epoch | nextEpoch.protocolParameters.label(string) == "x"
+     */
+    @Test
+    public void testParametersMap() {
+
+        RowData rootRow = createRootRow(epochCD, CollectionOperator.ANY);
+        RowData rowData = addRow(rootRow, Operator.GREATER_THAN,
+                                 new Double(1.5),
+                                 epochCD, "protocolParameters");
+        rowData.setPropName("amplitude");
+        rowData.setPropType(Type.FLOAT_64);
+
+        rowData = addRow(rootRow, Operator.EQUALS, "x",
+                         epochCD, "nextEpoch", epochCD, "protocolParameters");
+        rowData.setPropName("label");
+        rowData.setPropType(Type.UTF_8_STRING);
+
+        Predicate<Object> predicate = createPredicate(rootRow);
+
+        assertTrue(predicate.test(record("protocolParameters",
+                                         record("amplitude", 2.0))));
+        assertFalse(predicate.test(record("protocolParameters",
+                                          record("amplitude", 1.0))));
+
+        /**
+         * The "as" operator only accepts values of the requested type.
+         */
+        assertFalse(predicate.test(record("protocolParameters",
+                                          record("amplitude", 2))));
+        assertFalse(predicate.test(record("protocolParameters", record())));
+        assertFalse(predicate.test(record()));
+
+        Map<String,Object> nextEpoch = record("protocolParameters",
+                                              record("label", "x"));
+        assertTrue(predicate.test(record("nextEpoch", nextEpoch)));
+    }
+
+
+    /**
+     *      Epoch | All
+     *        Epoch | Any properties.rating(int) >= 3
+     */
+    @Test
+    public void testPerUserParametersMap() {
+
+        RowData rootRow = createRootRow(epochCD, CollectionOperator.ALL);
+        RowData rowData = addRow(rootRow, Operator.GREATER_THAN_EQUALS,
+                                 new Integer(3), epochCD, "properties");
+        rowData.setPropName("rating");
+        rowData.setPropType(Type.INT_32);
+
+        Predicate<Object> predicate = createPredicate(rootRow);
+
+        assertTrue(predicate.test(record("properties",
+            record("rating", list(1, 4)))));
+        assertFalse(predicate.test(record("properties",
+            record("rating", list(1, 2)))));
+        assertFalse(predicate.test(record("properties",
+            record("rating", list("5", 4.0)))));
+        assertFalse(predicate.test(record("properties", record())));
+    }
+
+
+    /**
+     * An ExpressionTree whose Class Under Qualification is not in the
+     * DataModel still works.  The evaluator treats the last attribute
+     * of a path as a value and the others as references.
+     */
+    @Test
+    public void testUnknownClass() {
+
+        OperatorExpression dot = new OperatorExpression(".");
+        dot.addOperand(new AttributeExpression("parent"));
+        dot.addOperand(new AttributeExpression("name"));
+        OperatorExpression isNull = new OperatorExpression("isnull");
+        isNull.addOperand(dot);
+        OperatorExpression root = new OperatorExpression("not");
+        root.addOperand(isNull);
+
+        ExpressionEvaluator evaluator = new ExpressionEvaluator(
+            new ExpressionTree(null, root));
+
+        assertTrue(evaluator.evaluate(
+            record("parent", record("name", "n")), accessor));
+        assertFalse(evaluator.evaluate(record("parent", record()), accessor));
+        assertFalse(evaluator.evaluate(record(), accessor));
+    }
+
+
+    /**
+     * Unknown operators and badly formed trees are reported
+     * when the ExpressionTree is compiled.
+     */
+    @Test
+    public void testBadTree() {
+
+        OperatorExpression root = new OperatorExpression("and");
+        root.addOperand(new OperatorExpression("count"));
+
+        try {
+            new ExpressionEvaluator(new ExpressionTree("Epoch", root));
+            fail("Expected an IllegalArgumentException.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     * The evaluator uses the tree of nodes for the first
+     * compileThreshold records, and the bytecode after that.
+     */
+    @Test
+    public void testTieredCompilation() {
+
+        RowData rootRow = createRootRow(epochCD, CollectionOperator.ALL);
+        addRow(rootRow, Operator.EQUALS, "p1", epochCD, "protocolID");
+        ExpressionTree tree = RowDataToExpressionTree.translate(rootRow);
+
+        ExpressionEvaluator evaluator = new ExpressionEvaluator(tree, 3);
+        Map<String,Object> epoch = record("protocolID", "p1");
+        for (int count = 0; count < 3; count++) {
+            assertTrue(evaluator.evaluate(epoch, accessor));
+            assertFalse(evaluator.isCompiled());
+        }
+        assertTrue(evaluator.evaluate(epoch, accessor));
+        assertTrue(evaluator.isCompiled());
+        assertFalse(evaluator.evaluate(record("protocolID", "p2"), accessor));
+
+        evaluator = new ExpressionEvaluator(tree,
+                                            ExpressionEvaluator.NEVER_COMPILE);
+        for (int count = 0; count < 2000; count++)
+            assertTrue(evaluator.evaluate(epoch, accessor));
+        assertFalse(evaluator.isCompiled());
+
+        evaluator = new ExpressionEvaluator(tree, 0);
+        assertTrue(evaluator.isCompiled());
+    }
+
+
+    /**
+     * The compiled code calls a different comparison method for
+     * each type of literal.  Compare the results with the
+     * interpreted code for a mix of literals and record values.
+     * Both compare the value with the primitive form of a literal on
+     * the right, so also check them against the same comparison with
+     * the literal on the left, which compares the two Objects.
+     */
+    @Test
+    public void testCompiledComparisons() {
+
+        Object[] literals = {new Integer(3), new Short((short)3),
+            new Double(3.0), new Double(2.5), "b", new DateTime(3L),
+            Boolean.TRUE, Double.NaN};
+        Object[] values = {null, 2, 3, 4, (short)3, 3L, 2.5, 3.0,
+            Double.NaN, "a", "b", "c", new DateTime(3L), new DateTime(4L),
+            new java.util.Date(2L), Boolean.TRUE, Boolean.FALSE};
+        Operator[] operators = {Operator.EQUALS, Operator.NOT_EQUALS,
+            Operator.LESS_THAN, Operator.GREATER_THAN,
+            Operator.LESS_THAN_EQUALS, Operator.GREATER_THAN_EQUALS};
+
+        for (Object literal : literals) {
+            for (Operator operator : operators) {
+
+                OperatorExpression compare = new OperatorExpression(
+                    operator.toString());
+                compare.addOperand(new AttributeExpression("value"));
+                compare.addOperand(createLiteral(literal));
+                OperatorExpression root = new OperatorExpression("and");
+                root.addOperand(compare);
+
+                OperatorExpression reversed = new OperatorExpression(
+                    reverse(operator).toString());
+                reversed.addOperand(createLiteral(literal));
+                reversed.addOperand(new AttributeExpression("value"));
+                OperatorExpression reversedRoot =
+                    new OperatorExpression("and");
+                reversedRoot.addOperand(reversed);
+
+                Predicate<Object> predicate = createPredicate(
+                    new ExpressionTree(null, root));
+                Predicate<Object> reversedPredicate = createPredicate(
+                    new ExpressionTree(null, reversedRoot));
+                for (Object value : values) {
+                    assertEquals(value+" "+operator+" "+literal,
+                        predicate.test(record("value", value)),
+                        reversedPredicate.test(record("value", value)));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * An Iterable of size Responses, that are only created when they
+     * are asked for, (like the results of a database cursor), and
+     * that counts how many were.  It is not a Collection, so count()
+     * can't just call size().
+     */
+    private static class CountingIterable implements Iterable<Object> {
+
+        private final int size;
+        private int nextCount;
+
+        private CountingIterable(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return(new Iterator<Object>() {
+                @Override
+                public boolean hasNext() {
+                    return(nextCount < size);
+                }
+
+                @Override
+                public Object next() {
+                    nextCount++;
+                    return(record("units", "mV"));
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Get the operator that gives the same result with the operands
+     * swapped.
+     */
+    private static Operator reverse(Operator operator) {
+
+        switch (operator) {
+            case LESS_THAN:
+                return(Operator.GREATER_THAN);
+            case GREATER_THAN:
+                return(Operator.LESS_THAN);
+            case LESS_THAN_EQUALS:
+                return(Operator.GREATER_THAN_EQUALS);
+            case GREATER_THAN_EQUALS:
+                return(Operator.LESS_THAN_EQUALS);
+            default:
+                return(operator);
+        }
+    }
+
+
+    private static IExpression createLiteral(Object value) {
+
+        if (value instanceof Double)
+            return(new Float64LiteralValueExpression((Double)value));
+        else if (value instanceof Number)
+            return(new Int32LiteralValueExpression(
+                ((Number)value).intValue()));
+        else if (value instanceof String)
+            return(new StringLiteralValueExpression((String)value));
+        else if (value instanceof DateTime)
+            return(new TimeLiteralValueExpression((DateTime)value));
+        else
+            return(new BooleanLiteralValueExpression((Boolean)value));
+    }
+
+
+    private static Predicate<Object> createPredicate(RowData rootRow) {
+        return(createPredicate(RowDataToExpressionTree.translate(rootRow)));
+    }
+
+
+    /**
+     * Create a Predicate that tests each record with both the
+     * interpreted and the compiled versions of the ExpressionTree,
+     * and checks that they get the same result.
+     */
+    private static Predicate<Object> createPredicate(ExpressionTree tree) {
+
+        final ExpressionEvaluator interpreted = new ExpressionEvaluator(
+            tree, ExpressionEvaluator.NEVER_COMPILE);
+        final ExpressionEvaluator compiled = new ExpressionEvaluator(tree, 0);
+        assertTrue(compiled.isCompiled());
+
+        return(new Predicate<Object>() {
+            @Override
+            public boolean test(Object record) {
+                boolean result = interpreted.evaluate(record, accessor);
+                assertEquals("Compiled result differs for "+record,
+                             result, compiled.evaluate(record, accessor));
+                return(result);
+            }
+        });
+    }
+
+
+    private static RowData createRootRow(ClassDescription cuq,
+                                         CollectionOperator co) {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(cuq);
+        rootRow.setCollectionOperator(co);
+        return(rootRow);
+    }
+
+
+    /**
+     * Add a row to the passed in parent row.
+     *
+     * @param path Pairs of ClassDescription and attribute name.
+     * E.g. epochCD, "epochGroup", epochGroupCD, "label".
+     */
+    private static RowData addRow(RowData parentRow, Operator operator,
+                                  Object value, Object... path) {
+
+        RowData rowData = new RowData();
+        for (int index = 0; index < path.length; index += 2) {
+            ClassDescription cd = (ClassDescription)path[index];
+            rowData.addAttribute(cd.getAttribute((String)path[index+1]));
+        }
+        if (operator != null)
+            rowData.setAttributeOperator(operator);
+        if (value != null)
+            rowData.setAttributeValue(value);
+        parentRow.addChildRow(rowData);
+        return(rowData);
+    }
+}
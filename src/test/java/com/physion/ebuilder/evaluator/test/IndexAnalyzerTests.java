@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.IndexAnalyzer;
+import com.physion.ebuilder.evaluator.IndexPlan;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.translator.ExpressionTreeToPQL;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.list;
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for the IndexAnalyzer and IndexPlan.
+ */
+public class IndexAnalyzerTests extends TestCase {
+
+    private static final String MARCH = "#\"2011-03-01T00:00:00.000Z[UTC]\"";
+    private static final String JUNE = "#\"2011-06-01T00:00:00.000Z[UTC]\"";
+
+    private static final String[] QUERIES = {
+        "and(protocolID == \"p3\", any(responses, units == \"mV\"), "+
+            "startTime >= "+MARCH+", "+JUNE+" > startTime, "+
+            "epochGroup.label == \"g1\")",
+        "or(protocolID == \"p3\", startTime < "+MARCH+")",
+        "and(not(startTime < "+MARCH+"), protocolID != \"p3\")",
+        "and(excludeFromAnalysis, count(responses) > 1, "+
+            "protocolID < \"p3\")",
+        "and(startTime > "+JUNE+", startTime <= "+MARCH+")",
+        "and(startTime > "+MARCH+", or(epochGroup.label == \"g0\", "+
+            "isnull(epochGroup)), and(startTime > "+JUNE+", "+
+            "\"p1\" == protocolID))",
+        "and(epochGroup.label =~ \"g\", startTime <= "+JUNE+")"};
+
+
+    private static IndexAnalyzer createAnalyzer() {
+
+        IndexAnalyzer analyzer = new IndexAnalyzer();
+        analyzer.addIndex("Epoch", "protocolID", false);
+        analyzer.addIndex("Epoch", "startTime", true);
+        analyzer.addIndex("Epoch", "epochGroup.label", true);
+        analyzer.addIndex("Epoch", "excludeFromAnalysis", false);
+        analyzer.addIndex("Epoch", "responses", true);
+        return(analyzer);
+    }
+
+
+    /**
+     * The conditions on indexed attributes are answered by Scans,
+     * and the rest is the residual.
+     */
+    @Test
+    public void testSplit() {
+
+        IndexAnalyzer analyzer = createAnalyzer();
+        IndexPlan plan = analyzer.analyze(PQLToExpressionTree.translate(
+            "Epoch", QUERIES[0]));
+
+        assertFalse(plan.isFullScan());
+        assertFalse(plan.isEmpty());
+        assertEquals(3, plan.getScans().size());
+        assertEquals(
+            "index Epoch.protocolID == \"p3\"\n"+
+            "index Epoch.startTime in ["+MARCH+", "+JUNE+")\n"+
+            "index Epoch.epochGroup.label == \"g1\"\n"+
+            "filter any(responses, units == \"mV\")\n",
+            plan.toString());
+
+        IndexPlan.Scan scan = plan.getScans().get(1);
+        assertEquals("startTime", scan.getAttributePath());
+        assertEquals(2, scan.getConditions().size());
+        assertTrue(scan.isLowInclusive());
+        assertFalse(scan.isHighInclusive());
+        assertFalse(scan.isEquality());
+        assertTrue(scan.contains(new DateTime(2011, 3, 1, 0, 0, 0, 0,
+                                              DateTimeZone.UTC)));
+        assertFalse(scan.contains(new DateTime(2011, 6, 1, 0, 0, 0, 0,
+                                               DateTimeZone.UTC)));
+        assertFalse(scan.contains(null));
+        assertTrue(plan.getScans().get(0).isEquality());
+
+        /**
+         * A BOOLEAN attribute on its own is == true, and the hash
+         * index on protocolID can't answer "<".
+         */
+        plan = analyzer.analyze(PQLToExpressionTree.translate("Epoch",
+                                                              QUERIES[3]));
+        assertEquals(
+            "index Epoch.excludeFromAnalysis == true\n"+
+            "filter and(count(responses) > 1, protocolID < \"p3\")\n",
+            plan.toString());
+
+        /**
+         * Nested "and" operators are flattened, a literal on the left
+         * is moved to the right, and the "or" is the residual.
+         */
+        plan = analyzer.analyze(PQLToExpressionTree.translate("Epoch",
+                                                              QUERIES[5]));
+        assertEquals(
+            "index Epoch.startTime > "+JUNE+"\n"+
+            "index Epoch.protocolID == \"p1\"\n"+
+            "filter or(epochGroup.label == \"g0\", isnull(epochGroup))\n",
+            plan.toString());
+
+        /**
+         * The indexes answer the whole query.
+         */
+        plan = analyzer.analyze(PQLToExpressionTree.translate("Epoch",
+            "and(protocolID == \"p3\", epochGroup.label > \"g\")"));
+        assertNull(plan.getResidual());
+        assertEquals(2, plan.getScans().size());
+    }
+
+
+    /**
+     * "or", "not", "!=", collections, and classes with no indexes
+     * are left to the residual.
+     */
+    @Test
+    public void testBoundaries() {
+
+        IndexAnalyzer analyzer = createAnalyzer();
+        for (int index : new int[] {1, 2}) {
+            ExpressionTree tree = PQLToExpressionTree.translate("Epoch",
+                QUERIES[index]);
+            IndexPlan plan = analyzer.analyze(tree);
+            assertTrue(QUERIES[index], plan.isFullScan());
+            assertSame(tree, plan.getResidual());
+            assertEquals("scan Epoch\nfilter "+
+                         ExpressionTreeToPQL.translate(tree)+"\n",
+                         plan.toString());
+        }
+
+        ExpressionTree tree = PQLToExpressionTree.translate("EpochGroup",
+            "label == \"g1\"");
+        assertTrue(analyzer.analyze(tree).isFullScan());
+        assertFalse(analyzer.hasIndex("EpochGroup", "label"));
+        assertTrue(analyzer.hasIndex("Epoch", "epochGroup.label"));
+
+        /**
+         * The conditions contradict each other.
+         */
+        IndexPlan plan = analyzer.analyze(PQLToExpressionTree.translate(
+            "Epoch", QUERIES[4]));
+        assertTrue(plan.isEmpty());
+        assertNull(plan.getResidual());
+
+        /**
+         * A regular expression is not answered by the index.
+         */
+        plan = analyzer.analyze(PQLToExpressionTree.translate("Epoch",
+                                                              QUERIES[6]));
+        assertEquals(
+            "index Epoch.startTime <= "+JUNE+"\n"+
+            "filter epochGroup.label =~ \"g\"\n",
+            plan.toString());
+
+        try {
+            analyzer.addIndex("Epoch", "", true);
+            fail("An index must be on an attribute path.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     * The records in all the Scans that satisfy the residual are the
+     * records that satisfy the query.
+     */
+    @Test
+    public void testSameRecords() {
+
+        Random random = new Random(1);
+        List<Map<String,Object>> records = new ArrayList<Map<String,Object>>();
+        for (int index = 0; index < 1000; index++)
+            records.add(randomEpoch(random));
+
+        MapRecordAccessor accessor = new MapRecordAccessor();
+        IndexAnalyzer analyzer = createAnalyzer();
+        int selected = 0;
+        for (String query : QUERIES) {
+
+            ExpressionTree tree = PQLToExpressionTree.translate("Epoch",
+                                                                query);
+            IndexPlan plan = analyzer.analyze(tree);
+            ExpressionEvaluator original = new ExpressionEvaluator(tree,
+                ExpressionEvaluator.NEVER_COMPILE);
+            ExpressionEvaluator residual = (plan.getResidual() == null) ?
+                null : new ExpressionEvaluator(plan.getResidual(),
+                ExpressionEvaluator.NEVER_COMPILE);
+
+            for (Map<String,Object> record : records) {
+
+                boolean candidate = true;
+                for (IndexPlan.Scan scan : plan.getScans()) {
+                    candidate &= scan.contains(getPathValue(record,
+                        scan.getAttributePath(), accessor));
+                }
+                boolean expected = original.evaluate(record, accessor);
+                assertEquals(query+" "+record, Boolean.valueOf(expected),
+                    Boolean.valueOf(candidate && ((residual == null) ||
+                        residual.evaluate(record, accessor))));
+                if (expected)
+                    selected++;
+            }
+        }
+        assertTrue(selected > 0);
+    }
+
+
+    /**
+     * Get the value of a path like "epochGroup.label" the way an
+     * index on it would.
+     */
+    private static Object getPathValue(Object record, String path,
+                                       MapRecordAccessor accessor) {
+
+        String[] names = path.split("\\.");
+        for (int index = 0; (record != null) && (index < names.length-1);
+             index++)
+            record = accessor.getReference(record, names[index]);
+        if (record == null)
+            return(null);
+        return(accessor.getAttribute(record, names[names.length-1]));
+    }
+
+
+    private static Map<String,Object> randomEpoch(Random random) {
+
+        Map<String,Object> epoch = record(
+            "excludeFromAnalysis", Boolean.valueOf(random.nextBoolean()));
+        if (random.nextInt(10) != 0) {
+            epoch.put("startTime", new DateTime(2011, 1, 1, 0, 0, 0, 0,
+                DateTimeZone.UTC).plusDays(random.nextInt(365)));
+        }
+        if (random.nextInt(4) != 0)
+            epoch.put("protocolID", "p"+random.nextInt(5));
+        if (random.nextInt(4) != 0) {
+            epoch.put("epochGroup", record("label",
+                (random.nextInt(4) == 0) ? null : "g"+random.nextInt(3)));
+        }
+
+        List<Object> responses = list();
+        for (int count = random.nextInt(4); count > 0; count--) {
+            responses.add(record("units",
+                random.nextBoolean() ? "mV" : "pA"));
+        }
+        epoch.put("responses", responses);
+        return(epoch);
+    }
+}
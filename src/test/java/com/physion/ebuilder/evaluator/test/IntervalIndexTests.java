@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.ColumnBatch;
+import com.physion.ebuilder.evaluator.IntervalIndex;
+import com.physion.ebuilder.evaluator.SortedColumnIndex;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Tests for IntervalIndex and SortedColumnIndex.
+ */
+public class IntervalIndexTests extends TestCase {
+
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+
+    @Test
+    public void testFind() {
+
+        IntervalIndex.Builder<String> builder =
+            new IntervalIndex.Builder<String>();
+        builder.add(10, true, 20, false, "[10,20)");
+        builder.add(5, false, INF, false, "x>5");
+        builder.add(-INF, false, 10, true, "x<=10");
+        builder.add(1, false, 2, false, "(1,2)");
+        builder.add(3, false, 3, false, "empty");
+        builder.add(3, true, 3, true, "[3,3]");
+        IntervalIndex<String> index = builder.build();
+
+        assertEquals(6, index.size());
+        assertEquals(list("[10,20)", "x<=10", "x>5"), sorted(index.find(10)));
+        assertEquals(list("[10,20)", "x>5"), sorted(index.find(19.5)));
+        assertEquals(list("x>5"), sorted(index.find(20)));
+        assertEquals(list("[3,3]", "x<=10"), sorted(index.find(3)));
+        assertEquals(list("(1,2)", "x<=10"), sorted(index.find(1.5)));
+        assertEquals(list("x<=10"), sorted(index.find(-1e300)));
+        assertEquals(0, index.find(Double.NaN).size());
+
+        /**
+         * A new index with one fewer, and one more.
+         */
+        IntervalIndex.Builder<String> changed = index.toBuilder();
+        assertEquals(1, changed.remove("x>5"));
+        changed.add(0, true, 0, true, "zero");
+        index = changed.build();
+        assertEquals(list("[10,20)"), sorted(index.find(15)));
+        assertEquals(list("x<=10", "zero"), sorted(index.find(-0.0)));
+
+        try {
+            builder.add(Double.NaN, true, 1, true, "nan");
+            fail("A NaN end is not allowed.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     * The index finds the same intervals as checking every one.
+     */
+    @Test
+    public void testAgainstEveryInterval() {
+
+        Random random = new Random(1);
+        for (int size : new int[] {0, 1, 2, 17, 1000}) {
+
+            IntervalIndex.Builder<Integer> builder =
+                new IntervalIndex.Builder<Integer>();
+            double[][] ends = new double[size][];
+            boolean[][] inclusive = new boolean[size][];
+            for (int i = 0; i < size; i++) {
+                double low = (random.nextInt(8) == 0) ? -INF :
+                             random.nextInt(100);
+                double high = (random.nextInt(8) == 0) ? INF :
+                              low+random.nextInt(30)-2;
+                ends[i] = new double[] {low, high};
+                inclusive[i] = new boolean[] {random.nextBoolean(),
+                                              random.nextBoolean()};
+                builder.add(low, inclusive[i][0], high, inclusive[i][1],
+                            Integer.valueOf(i));
+            }
+            IntervalIndex<Integer> index = builder.build();
+
+            for (double value = -5; value <= 135; value += 0.5) {
+                List<Integer> expected = new ArrayList<Integer>();
+                for (int i = 0; i < size; i++) {
+                    boolean aboveLow = (value > ends[i][0]) ||
+                        ((value == ends[i][0]) && inclusive[i][0]);
+                    boolean belowHigh = (value < ends[i][1]) ||
+                        ((value == ends[i][1]) && inclusive[i][1]);
+                    if (aboveLow && belowHigh)
+                        expected.add(Integer.valueOf(i));
+                }
+                assertEquals("size "+size+" value "+value, expected,
+                             sorted(index.find(value)));
+            }
+        }
+    }
+
+
+    @Test
+    public void testSortedColumnIndex() {
+
+        int[] ints = {5, 3, 9, 3, 7, 1};
+        long[] nulls = ColumnBatch.createBitmap(ints.length);
+        ColumnBatch.setBit(nulls, 4);
+        SortedColumnIndex index = SortedColumnIndex.forInts(ints, nulls);
+
+        assertEquals(6, index.getRowCount());
+        assertEquals(5, index.size());
+        assertEquals(rows(0, 1, 3), rows(index.select(3, true, 5, true),
+                                         ints.length));
+        assertEquals(rows(0), rows(index.select(3, false, 5, true),
+                                   ints.length));
+        assertEquals(rows(2), rows(index.select(5, false, INF, false),
+                                   ints.length));
+        assertEquals(0, index.count(5, false, 5, true));
+        assertEquals(0, index.count(8, true, 2, true));
+        assertEquals(5, index.count(-INF, false, INF, false));
+
+        double[] doubles = {2.5, Double.NaN, -1.0, 0.0};
+        index = SortedColumnIndex.forDoubles(doubles, null);
+        assertEquals(3, index.size());
+        assertEquals(rows(2, 3), rows(index.select(-INF, false, 0, true),
+                                      doubles.length));
+
+        long[] millis = {1300000000000L, 1200000000000L, 1310000000000L};
+        index = SortedColumnIndex.forTimes(millis, null);
+        assertEquals(rows(0, 2), rows(index.select(1300000000000L, true,
+            INF, false), millis.length));
+
+        try {
+            SortedColumnIndex.forInts(new int[100], new long[1]);
+            fail("The null bitmap is too short.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        /**
+         * Against looking at every record.
+         */
+        Random random = new Random(2);
+        double[] values = new double[1000];
+        for (int row = 0; row < values.length; row++)
+            values[row] = random.nextInt(200)/4.0;
+        index = SortedColumnIndex.forDoubles(values, null);
+        for (int i = 0; i < 200; i++) {
+            double low = random.nextInt(220)/4.0-2;
+            double high = low+random.nextInt(40)/4.0;
+            boolean lowInclusive = random.nextBoolean();
+            boolean highInclusive = random.nextBoolean();
+
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int row = 0; row < values.length; row++) {
+                if (((values[row] > low) ||
+                     ((values[row] == low) && lowInclusive)) &&
+                    ((values[row] < high) ||
+                     ((values[row] == high) && highInclusive)))
+                    expected.add(Integer.valueOf(row));
+            }
+            assertEquals(expected, rows(index.select(low, lowInclusive,
+                high, highInclusive), values.length));
+            assertEquals(expected.size(), index.count(low, lowInclusive,
+                                                      high, highInclusive));
+        }
+    }
+
+
+    private static List<Integer> rows(long[] bitmap, int rowCount) {
+
+        List<Integer> rows = new ArrayList<Integer>();
+        for (int row = 0; row < rowCount; row++) {
+            if (ColumnBatch.getBit(bitmap, row))
+                rows.add(Integer.valueOf(row));
+        }
+        return(rows);
+    }
+
+
+    private static List<Integer> rows(int... rows) {
+
+        List<Integer> list = new ArrayList<Integer>();
+        for (int row : rows)
+            list.add(Integer.valueOf(row));
+        return(list);
+    }
+
+
+    private static <T extends Comparable<T>> List<T> sorted(List<T> list) {
+        Collections.sort(list);
+        return(list);
+    }
+
+
+    @SafeVarargs
+    private static <T> List<T> list(T... values) {
+
+        List<T> list = new ArrayList<T>();
+        for (T value : values)
+            list.add(value);
+        return(list);
+    }
+}
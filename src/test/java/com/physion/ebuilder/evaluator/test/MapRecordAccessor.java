@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.RecordAccessor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A RecordAccessor for the evaluator tests and benchmarks.
+ * Each record is a Map from attribute name to value:
+ *
+ *      primitive attribute     the value
+ *      to-one reference        another record Map
+ *      to-many reference       a List of record Maps
+ *      per-user operator       a List of record Maps, (e.g. "mykeywords")
+ *      parameters map          a Map from key to value
+ *      per-user parameters map a Map from key to a List of values
+ */
+public class MapRecordAccessor
+    implements RecordAccessor {
+
+    /**
+     * Create an empty record.
+     */
+    public static Map<String,Object> record() {
+        return(new HashMap<String,Object>());
+    }
+
+
+    /**
+     * Create a record with the passed in attribute name/value pairs.
+     * E.g. record("protocolID", "p1", "excludeFromAnalysis", true).
+     */
+    public static Map<String,Object> record(Object... namesAndValues) {
+
+        Map<String,Object> record = record();
+        for (int index = 0; index < namesAndValues.length; index += 2)
+            record.put((String)namesAndValues[index], namesAndValues[index+1]);
+        return(record);
+    }
+
+
+    /**
+     * Create a List of the passed in values.
+     */
+    public static List<Object> list(Object... values) {
+
+        List<Object> list = new ArrayList<Object>();
+        for (Object value : values)
+            list.add(value);
+        return(list);
+    }
+
+
+    @Override
+    public Object getAttribute(Object record, String attributeName) {
+        return(((Map<?,?>)record).get(attributeName));
+    }
+
+
+    @Override
+    public Object getReference(Object record, String attributeName) {
+        return(((Map<?,?>)record).get(attributeName));
+    }
+
+
+    @Override
+    public Iterable<?> getCollection(Object record, String attributeName) {
+        return((Iterable<?>)((Map<?,?>)record).get(attributeName));
+    }
+
+
+    @Override
+    public Object getParameter(Object record, String mapName, String key) {
+
+        Map<?,?> map = (Map<?,?>)((Map<?,?>)record).get(mapName);
+        if (map == null)
+            return(null);
+        return(map.get(key));
+    }
+
+
+    @Override
+    public Iterable<?> getPerUserParameters(Object record, String mapName,
+                                            String key) {
+
+        Map<?,?> map = (Map<?,?>)((Map<?,?>)record).get(mapName);
+        if (map == null)
+            return(null);
+        return((Iterable<?>)map.get(key));
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.ParallelEvaluator;
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.Int32LiteralValueExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.expression.StringLiteralValueExpression;
+import com.physion.ebuilder.translator.Translator;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.list;
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for the ParallelEvaluator.
+ */
+public class ParallelEvaluatorTests extends TestCase {
+
+    private static MapRecordAccessor accessor = new MapRecordAccessor();
+
+
+    /**
+     * The parallel results must be the same records, in the same order,
+     * as testing the records one at a time.  The records have very
+     * different numbers of responses, so some partitions take much
+     * longer than others.
+     *
+     *      or(any(responses, ==(units, "mV")), <(index, 50))
+     */
+    @Test
+    public void testFilter() {
+
+        OperatorExpression equals = new OperatorExpression(
+            Translator.OE_EQUALS);
+        equals.addOperand(new AttributeExpression("units"));
+        equals.addOperand(new StringLiteralValueExpression("mV"));
+        OperatorExpression any = new OperatorExpression(Translator.OE_ANY);
+        any.addOperand(new AttributeExpression("responses"));
+        any.addOperand(equals);
+        OperatorExpression lessThan = new OperatorExpression(
+            Translator.OE_LESS_THAN);
+        lessThan.addOperand(new AttributeExpression("index"));
+        lessThan.addOperand(new Int32LiteralValueExpression(50));
+        OperatorExpression root = new OperatorExpression(Translator.OE_OR);
+        root.addOperand(any);
+        root.addOperand(lessThan);
+        ExpressionTree tree = new ExpressionTree(null, root);
+
+        Random random = new Random(5);
+        List<Map<String,Object>> records =
+            new LinkedList<Map<String,Object>>();
+        for (int index = 0; index < 10001; index++) {
+
+            List<Object> responses = list();
+            int count = (random.nextInt(100) == 0) ? 500 : random.nextInt(3);
+            for (int response = 0; response < count; response++)
+                responses.add(record("units", (response == 400) ? "mV" : "pA"));
+            if (random.nextInt(4) == 0)
+                responses.add(record("units", "mV"));
+
+            records.add(record("index", index, "responses", responses));
+        }
+
+        ExpressionEvaluator sequential = new ExpressionEvaluator(tree);
+        List<Map<String,Object>> expected = new ArrayList<Map<String,Object>>();
+        for (Map<String,Object> record : records) {
+            if (sequential.evaluate(record, accessor))
+                expected.add(record);
+        }
+
+        ParallelEvaluator evaluator = new ParallelEvaluator(tree, 4, 100);
+        assertEquals(4, evaluator.getParallelism());
+        assertEquals(128, evaluator.getMinimumPartitionSize());
+        assertEquals(expected, evaluator.filter(records, accessor));
+        assertEquals(expected.size(), evaluator.count(records, accessor));
+
+        assertEquals(expected, new ParallelEvaluator(tree).filter(records,
+                                                                  accessor));
+        assertTrue(evaluator.filter(new ArrayList<Map<String,Object>>(),
+                                    accessor).isEmpty());
+        evaluator.shutdown();
+    }
+
+
+    /**
+     * shutdown() stops a pool the ParallelEvaluator created, and
+     * leaves a pool that was passed in running.  A huge minimum
+     * partition size is clamped rather than overflowing.
+     */
+    @Test
+    public void testPool() {
+
+        ExpressionTree tree = new ExpressionTree(null,
+            new OperatorExpression(Translator.OE_AND));
+        List<Map<String,Object>> records = new ArrayList<Map<String,Object>>();
+        for (int index = 0; index < 200; index++)
+            records.add(record("index", index));
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        ParallelEvaluator evaluator = new ParallelEvaluator(
+            new ExpressionEvaluator(tree), pool, Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE & ~63,
+                     evaluator.getMinimumPartitionSize());
+        assertEquals(200, evaluator.count(records, accessor));
+        evaluator.shutdown();
+        assertFalse(pool.isShutdown());
+        pool.shutdown();
+
+        evaluator = new ParallelEvaluator(tree, 2, Integer.MAX_VALUE-1);
+        assertEquals(200, evaluator.count(records, accessor));
+        evaluator.shutdown();
+        try {
+            evaluator.count(records, accessor);
+            fail("The pool was shut down.");
+        }
+        catch (RejectedExecutionException e) {
+            // Expected.
+        }
+    }
+
+
+    @Test
+    public void testBadArguments() {
+
+        ExpressionTree tree = new ExpressionTree(null,
+            new OperatorExpression(Translator.OE_AND));
+
+        try {
+            new ParallelEvaluator(tree, 0, 100);
+            fail("Expected an IllegalArgumentException.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        try {
+            new ParallelEvaluator(tree, 2, 0);
+            fail("Expected an IllegalArgumentException.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.ParameterMap;
+import com.physion.ebuilder.evaluator.ParameterMapAccessor;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for ParameterMap, and for evaluating parameter comparisons
+ * with a ParameterMapAccessor.
+ */
+public class ParameterMapTests extends TestCase {
+
+    private static final String[] QUERIES = {
+        "as(parameter(protocolParameters, \"a\"), "+
+            "@ovation.FloatingPointValue).value > 2.5",
+        "as(parameter(protocolParameters, \"a\"), "+
+            "@ovation.IntegerValue).value == 3",
+        "as(parameter(protocolParameters, \"a\"), "+
+            "@ovation.IntegerValue).value != 2.0",
+        "2 < as(parameter(protocolParameters, \"b\"), "+
+            "@ovation.FloatingPointValue).value",
+        "as(parameter(protocolParameters, \"b\"), "+
+            "@ovation.IntegerValue).value <= 2",
+        "as(parameter(protocolParameters, \"b\"), "+
+            "@ovation.IntegerValue).value >= 2000000000",
+        "as(parameter(protocolParameters, \"c\"), "+
+            "@ovation.StringValue).value == \"x\"",
+        "as(parameter(protocolParameters, \"c\"), "+
+            "@ovation.StringValue).value != \"x\"",
+        "as(parameter(protocolParameters, \"d\"), "+
+            "@ovation.DateValue).value < "+
+            "#\"2011-06-01T00:00:00.000Z[UTC]\"",
+        "as(parameter(protocolParameters, \"d\"), "+
+            "@ovation.BooleanValue).value == true",
+        "and(as(parameter(protocolParameters, \"missing\"), "+
+            "@ovation.IntegerValue).value != 1, "+
+            "parameter(protocolParameters, \"c\") == \"y\")",
+        "parameter(protocolParameters, \"a\") == 3",
+        "parameter(protocolParameters, \"b\") >= 1.5",
+        "and(as(parameter(protocolParameters, \"a\"), "+
+            "@ovation.IntegerValue).value > 1, "+
+            "as(parameter(nextEpoch.protocolParameters, \"a\"), "+
+            "@ovation.IntegerValue).value < 3)",
+        "as(parameter(protocolParameters, \"a\"), "+
+            "@ovation.FloatingPointValue).value == "+
+            "as(parameter(protocolParameters, \"b\"), "+
+            "@ovation.FloatingPointValue).value"};
+
+
+    @Test
+    public void testParameterMap() {
+
+        DateTime time = new DateTime(2011, 10, 1, 12, 0, 0, 0,
+                                     DateTimeZone.UTC);
+        ParameterMap map = new ParameterMap.Builder().
+            putDouble("amplitude", 2.5).
+            putInt("stimFrequency", 10).
+            putString("label", "control").
+            putBoolean("enabled", true).
+            put("start", time).
+            put("stimFrequency", Short.valueOf((short)20)).
+            build();
+
+        assertEquals(5, map.size());
+        int slot = map.find(ParameterMap.getKeyCode("amplitude"));
+        assertEquals(Type.FLOAT_64, map.getType(slot));
+        assertEquals(2.5, map.getDouble(slot), 0.0);
+        assertEquals(Double.valueOf(2.5), map.get(slot));
+
+        slot = map.find("stimFrequency");
+        assertTrue(map.isOfType(slot, Type.INT_16));
+        assertEquals(20, map.getLong(slot));
+        assertEquals(Integer.valueOf(20), map.get(slot));
+
+        assertEquals("control", map.get("label"));
+        assertEquals(Boolean.TRUE, map.get("enabled"));
+        assertEquals(time.getMillis(), map.getMillis(map.find("start")));
+        assertEquals("label", map.getKeyAt(map.find("label")));
+        assertEquals(-1, map.find("noSuchKey"));
+        assertNull(map.get("noSuchKey"));
+        assertEquals("amplitude", ParameterMap.getKey(
+            ParameterMap.getKeyCode("amplitude")));
+
+        assertEquals(Long.valueOf(3000000000L), new ParameterMap.Builder().
+            putInt("x", 3000000000L).build().get("x"));
+
+        try {
+            map.getLong(map.find("amplitude"));
+            fail("amplitude is not an integer.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        try {
+            new ParameterMap.Builder().put("x", new ArrayList<Object>());
+            fail("A parameters map cannot hold a List.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     * A ParameterMapAccessor gets the same answers as a RecordAccessor
+     * whose parameters maps are Maps.
+     */
+    @Test
+    public void testAgainstMapRecords() {
+
+        Random random = new Random(1);
+        List<Map<String,Object>> mapRecords =
+            new ArrayList<Map<String,Object>>();
+        List<Map<String,Object>> parameterMapRecords =
+            new ArrayList<Map<String,Object>>();
+
+        for (int index = 0; index < 500; index++) {
+            Map<String,Object> parameters = randomParameters(random);
+            Map<String,Object> nextParameters = randomParameters(random);
+            mapRecords.add(record("protocolParameters", parameters,
+                "nextEpoch", record("protocolParameters", nextParameters)));
+            parameterMapRecords.add(record(
+                "protocolParameters", ParameterMap.of(parameters),
+                "nextEpoch", record("protocolParameters",
+                                    ParameterMap.of(nextParameters))));
+        }
+        mapRecords.add(record());
+        parameterMapRecords.add(record());
+
+        MapRecordAccessor mapAccessor = new MapRecordAccessor();
+        ParameterMapRecordAccessor parameterMapAccessor =
+            new ParameterMapRecordAccessor();
+
+        for (String query : QUERIES) {
+            ExpressionTree tree = PQLToExpressionTree.translate("Epoch", query);
+            for (int threshold : new int[] {ExpressionEvaluator.NEVER_COMPILE,
+                                            0}) {
+                ExpressionEvaluator evaluator = new ExpressionEvaluator(tree,
+                    threshold);
+                assertEquals(query, Boolean.valueOf(threshold == 0),
+                             Boolean.valueOf(evaluator.isCompiled()));
+                int count = 0;
+                for (int index = 0; index < mapRecords.size(); index++) {
+                    boolean expected = evaluator.evaluate(
+                        mapRecords.get(index), mapAccessor);
+                    assertEquals(query+" "+mapRecords.get(index),
+                        Boolean.valueOf(expected), Boolean.valueOf(
+                        evaluator.evaluate(parameterMapRecords.get(index),
+                                           parameterMapAccessor)));
+                    if (expected)
+                        count++;
+                }
+                assertTrue(query, (count > 0) && (count < mapRecords.size()));
+            }
+        }
+    }
+
+
+    private static Map<String,Object> randomParameters(Random random) {
+
+        Map<String,Object> parameters = new HashMap<String,Object>();
+        for (String key : new String[] {"a", "b", "c", "d"}) {
+            switch (random.nextInt(10)) {
+                case 0:
+                    break;
+                case 1:
+                    parameters.put(key, Integer.valueOf(random.nextInt(5)));
+                    break;
+                case 2:
+                    parameters.put(key, Long.valueOf(random.nextBoolean() ?
+                        random.nextInt(5) : 3000000000L));
+                    break;
+                case 3:
+                    parameters.put(key, Short.valueOf(
+                        (short)random.nextInt(5)));
+                    break;
+                case 4:
+                    parameters.put(key, Double.valueOf(random.nextInt(10)/2.0));
+                    break;
+                case 5:
+                    parameters.put(key, (random.nextInt(4) == 0) ?
+                        Double.valueOf(Double.NaN) :
+                        Float.valueOf(random.nextInt(10)/2.0f));
+                    break;
+                case 6:
+                    parameters.put(key, random.nextBoolean() ? "x" : "y");
+                    break;
+                case 7:
+                    parameters.put(key, Boolean.valueOf(random.nextBoolean()));
+                    break;
+                case 8:
+                    parameters.put(key, new DateTime(2011, 1+random.nextInt(12),
+                        1, 0, 0, 0, 0, DateTimeZone.UTC));
+                    break;
+                default:
+                    parameters.put(key, new Date(1300000000000L+
+                        random.nextInt(10)*1000000000L));
+                    break;
+            }
+        }
+        return(parameters);
+    }
+
+
+    /**
+     * A MapRecordAccessor whose parameters maps are ParameterMaps.
+     */
+    private static class ParameterMapRecordAccessor
+        extends MapRecordAccessor implements ParameterMapAccessor {
+
+        @Override
+        public ParameterMap getParameterMap(Object record, String mapName) {
+            return((ParameterMap)((Map<?,?>)record).get(mapName));
+        }
+
+        @Override
+        public Object getParameter(Object record, String mapName,
+                                   String key) {
+
+            ParameterMap map = getParameterMap(record, mapName);
+            return((map == null) ? null : map.get(key));
+        }
+    }
+}
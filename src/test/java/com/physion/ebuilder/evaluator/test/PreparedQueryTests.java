@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.PreparedQuery;
+import com.physion.ebuilder.evaluator.ShapeCache;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.QueryShape;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.list;
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for PreparedQuery and ShapeCache.
+ */
+public class PreparedQueryTests extends TestCase {
+
+    /**
+     * Each row is queries of one shape.
+     */
+    private static final String[][] QUERIES = {
+        {"and(protocolID == \"p1\", "+
+             "startTime >= #\"2011-03-01T00:00:00.000Z[UTC]\")",
+         "and(protocolID == \"p3\", "+
+             "startTime >= #\"2011-09-15T00:00:00.000Z[UTC]\")",
+         "and(protocolID == \"none\", "+
+             "startTime >= #\"2010-01-01T00:00:00.000Z[UTC]\")"},
+        {"or(count(responses) > 2, any(responses, units == \"mV\"), "+
+             "epochGroup.label == \"g1\")",
+         "or(count(responses) > 0, any(responses, units == \"pA\"), "+
+             "epochGroup.label == \"g0\")",
+         "or(count(responses) > 9, any(responses, units == \"V\"), "+
+             "epochGroup.label == \"g2\")"},
+        {"and(not(excludeFromAnalysis == true), duration < 2.5, "+
+             "protocolID =~ \"p[12]\")",
+         "and(not(excludeFromAnalysis == false), duration < 0.5, "+
+             "protocolID =~ \"p[034]\")",
+         "and(not(excludeFromAnalysis == true), duration < 9.0, "+
+             "protocolID =~ \"x\")"}};
+
+
+    /**
+     * The evaluators created by a PreparedQuery select the records the
+     * query with those binds does, and share one generated class.
+     */
+    @Test
+    public void testSameRecords() {
+
+        Random random = new Random(1);
+        List<Map<String,Object>> records = new ArrayList<Map<String,Object>>();
+        for (int index = 0; index < 500; index++)
+            records.add(randomEpoch(random));
+
+        MapRecordAccessor accessor = new MapRecordAccessor();
+        for (String[] queries : QUERIES) {
+
+            QueryShape shape = QueryShape.of(PQLToExpressionTree.translate(
+                "Epoch", queries[0]));
+            PreparedQuery prepared = new PreparedQuery(shape);
+            assertTrue(queries[0], prepared.isPlanShared());
+            assertEquals(0, prepared.getCompiledClassCount());
+
+            int selected = 0;
+            for (String query : queries) {
+
+                ExpressionTree tree = PQLToExpressionTree.translate("Epoch",
+                                                                    query);
+                QueryShape other = QueryShape.of(tree);
+                assertEquals(query, shape, other);
+
+                ExpressionEvaluator expected = new ExpressionEvaluator(tree,
+                    ExpressionEvaluator.NEVER_COMPILE);
+                ExpressionEvaluator evaluator = prepared.createEvaluator(
+                    other.getBinds());
+                assertTrue(query, evaluator.compile());
+
+                for (Map<String,Object> record : records) {
+                    boolean result = expected.evaluate(record, accessor);
+                    assertEquals(query+" "+record, Boolean.valueOf(result),
+                        Boolean.valueOf(evaluator.evaluate(record,
+                                                           accessor)));
+                    if (result)
+                        selected++;
+                }
+            }
+            assertTrue(queries[0], selected > 0);
+            assertEquals(queries[0], 1, prepared.getCompiledClassCount());
+        }
+    }
+
+
+    /**
+     * If the normalizer drops a bind, each query is planned again.
+     */
+    @Test
+    public void testPlanNotShared() {
+
+        String query = "and(protocolID == \"p1\", protocolID == \"p1\")";
+        QueryShape shape = QueryShape.of(PQLToExpressionTree.translate(
+            "Epoch", query));
+        PreparedQuery prepared = new PreparedQuery(shape);
+        assertFalse(prepared.isPlanShared());
+
+        String other = "and(protocolID == \"p1\", protocolID == \"p2\")";
+        ExpressionEvaluator expected = new ExpressionEvaluator(
+            PQLToExpressionTree.translate("Epoch", other),
+            ExpressionEvaluator.NEVER_COMPILE);
+        ExpressionEvaluator evaluator = prepared.createEvaluator(
+            QueryShape.of(PQLToExpressionTree.translate("Epoch",
+                                                        other)).getBinds());
+
+        MapRecordAccessor accessor = new MapRecordAccessor();
+        for (String protocolID : new String[] {"p1", "p2", null}) {
+            Map<String,Object> record = record("protocolID", protocolID);
+            assertEquals(Boolean.valueOf(expected.evaluate(record, accessor)),
+                Boolean.valueOf(evaluator.evaluate(record, accessor)));
+        }
+
+        try {
+            prepared.createEvaluator(shape.getBinds().subList(0, 1));
+            fail("A query of this shape has 2 binds.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     * The ShapeCache finds the value for a query of the same shape,
+     * and throws away the least recently used value when it is full.
+     */
+    @Test
+    public void testShapeCache() {
+
+        QueryShape[] shapes = new QueryShape[QUERIES.length];
+        for (int index = 0; index < QUERIES.length; index++) {
+            shapes[index] = QueryShape.of(PQLToExpressionTree.translate(
+                "Epoch", QUERIES[index][0]));
+        }
+
+        ShapeCache<PreparedQuery> cache = new ShapeCache<PreparedQuery>(2);
+        assertNull(cache.get(shapes[0]));
+        cache.put(shapes[0], new PreparedQuery(shapes[0]));
+        cache.put(shapes[1], new PreparedQuery(shapes[1]));
+
+        QueryShape same = QueryShape.of(PQLToExpressionTree.translate(
+            "Epoch", QUERIES[0][1]));
+        assertSame(shapes[0], cache.get(same).getShape());
+
+        /**
+         * shapes[0] was used more recently than shapes[1].
+         */
+        cache.put(shapes[2], new PreparedQuery(shapes[2]));
+        assertEquals(2, cache.size());
+        assertNull(cache.get(shapes[1]));
+        assertNotNull(cache.get(shapes[0]));
+        assertNotNull(cache.get(shapes[2]));
+        assertEquals("2 shapes, 3 hits, 2 misses, 1 evicted.",
+                     cache.getReport());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+
+        try {
+            new ShapeCache<PreparedQuery>(0);
+            fail("A ShapeCache must hold at least one value.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    private static Map<String,Object> randomEpoch(Random random) {
+
+        Map<String,Object> epoch = record(
+            "excludeFromAnalysis", Boolean.valueOf(random.nextBoolean()));
+        if (random.nextInt(10) != 0) {
+            epoch.put("startTime", new DateTime(2011, 1, 1, 0, 0, 0, 0,
+                DateTimeZone.UTC).plusDays(random.nextInt(365)));
+        }
+        if (random.nextInt(10) != 0)
+            epoch.put("duration", Double.valueOf(random.nextDouble()*10));
+        if (random.nextInt(4) != 0)
+            epoch.put("protocolID", "p"+random.nextInt(5));
+        if (random.nextInt(4) != 0) {
+            epoch.put("epochGroup", record("label",
+                (random.nextInt(4) == 0) ? null : "g"+random.nextInt(3)));
+        }
+
+        List<Object> responses = list();
+        for (int count = random.nextInt(4); count > 0; count--) {
+            responses.add(record("units",
+                random.nextBoolean() ? "mV" : "pA"));
+        }
+        epoch.put("responses", responses);
+        return(epoch);
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.evaluator.AttributeStatistics;
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.QueryPlanner;
+import com.physion.ebuilder.expression.ExpressionNormalizer;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.translator.ExpressionTreeToPQL;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.list;
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for the QueryPlanner.
+ */
+public class QueryPlannerTests extends TestCase {
+
+    private static final String[] QUERIES = {
+        "and(any(myderivedResponses, name == \"y\"), protocolID == \"x\")",
+        "or(any(responses, units == \"mV\"), excludeFromAnalysis)",
+        "and(count(responses) > 2, epochGroup.label =~ \"^g[0-9]\", "+
+            "protocolID != \"x\", not(isnull(epochGroup)))",
+        "or(and(all(responses, units =~~ \"v\"), protocolID == \"y\"), "+
+            "not(or(\"x\" == protocolID, epochGroup.label == \"g1\")))",
+        "and(any(responses, and(units == \"mV\", "+
+            "count(myderivedResponses) == 0)), excludeFromAnalysis, "+
+            "isnull(protocolID))"};
+
+
+    /**
+     *      and(any(myderivedResponses, name == "y"), protocolID == "x")
+     *
+     * becomes:
+     *
+     *      and(protocolID == "x", any(myderivedResponses, name == "y"))
+     */
+    @Test
+    public void testReorder() {
+
+        ExpressionTree tree = PQLToExpressionTree.translate("Epoch",
+            QUERIES[0]);
+        String before = ExpressionTreeToPQL.translate(tree);
+
+        QueryPlanner planner = new QueryPlanner();
+        ExpressionTree planned = planner.plan(tree);
+        assertEquals("and(protocolID == \"x\", "+
+                     "any(myderivedResponses, name == \"y\"))",
+                     ExpressionTreeToPQL.translate(planned));
+        assertEquals(before, ExpressionTreeToPQL.translate(tree));
+        assertEquals("Epoch", planned.getClassUnderQualification());
+        assertEquals(1, planner.getReorderedCount());
+        assertTrue(planner.getCostAfter() < planner.getCostBefore());
+
+        assertEquals(
+            "and  cost=4.05 selectivity=0.0651\n"+
+            "    protocolID == \"x\"  cost=2.00 selectivity=0.1000\n"+
+            "    any(myderivedResponses)  cost=20.54 selectivity=0.6513\n"+
+            "        name == \"y\"  cost=2.00 selectivity=0.1000\n",
+            planner.explain(planned));
+
+        /**
+         * The cheap boolean attribute goes first in an "or", too.
+         */
+        planned = planner.plan(PQLToExpressionTree.translate("Epoch",
+                                                              QUERIES[1]));
+        assertEquals("or(excludeFromAnalysis, "+
+                     "any(responses, units == \"mV\"))",
+                     ExpressionTreeToPQL.translate(planned));
+
+        /**
+         * Operands with the same estimate keep their order, and a tree
+         * that does not need reordering is not copied.
+         */
+        tree = PQLToExpressionTree.translate("Epoch",
+            "and(protocolID == \"b\", protocolID == \"a\")");
+        planned = planner.plan(tree);
+        assertSame(tree.getRootExpression(), planned.getRootExpression());
+        assertEquals(0, planner.getReorderedCount());
+        assertEquals("Reordered 0 operators.  Estimated cost 2.20 before, "+
+                     "2.20 after.", planner.getReport());
+    }
+
+
+    /**
+     * The statistics say that almost every Epoch has protocolID "x",
+     * and almost no EpochGroup has the label "y", so the longer path
+     * is tested first.
+     */
+    @Test
+    public void testStatistics() {
+
+        ExpressionTree tree = PQLToExpressionTree.translate("Epoch",
+            "and(\"x\" == protocolID, epochGroup.label == \"y\")");
+        assertEquals("and(\"x\" == protocolID, epochGroup.label == \"y\")",
+            ExpressionTreeToPQL.translate(new QueryPlanner().plan(tree)));
+
+        StubStatistics statistics = new StubStatistics();
+        QueryPlanner planner = new QueryPlanner(statistics);
+        assertEquals("and(epochGroup.label == \"y\", \"x\" == protocolID)",
+                     ExpressionTreeToPQL.translate(planner.plan(tree)));
+        assertTrue(statistics.requests.contains("Epoch.protocolID == x"));
+        assertTrue(statistics.requests.contains("EpochGroup.label == y"));
+
+        /**
+         * Without statistics, 5% of protocolIDs are null, and the "any"
+         * is more likely to be true.  But the statistics say that half
+         * of the protocolIDs are null, and that an Epoch has no
+         * responses, so the "any" is never true.
+         */
+        tree = PQLToExpressionTree.translate("Epoch",
+            "or(any(responses, units == \"mV\"), isnull(protocolID))");
+        assertEquals("or(any(responses, units == \"mV\"), isnull(protocolID))",
+            ExpressionTreeToPQL.translate(new QueryPlanner().plan(tree)));
+        assertEquals("or(isnull(protocolID), any(responses, units == \"mV\"))",
+            ExpressionTreeToPQL.translate(planner.plan(tree)));
+        assertTrue(planner.explain(tree).contains(
+            "isnull(protocolID)  cost=2.00 selectivity=0.5000"));
+        assertTrue(planner.explain(tree).contains(
+            "any(responses)  cost=1.00 selectivity=0.0000"));
+    }
+
+
+    /**
+     * The planned tree selects the same records as the original.
+     */
+    @Test
+    public void testSameRecords() {
+
+        Random random = new Random(1);
+        List<Map<String,Object>> records = new ArrayList<Map<String,Object>>();
+        for (int index = 0; index < 500; index++)
+            records.add(randomEpoch(random));
+        records.add(record());
+
+        MapRecordAccessor accessor = new MapRecordAccessor();
+        QueryPlanner planner = new QueryPlanner();
+        int reorderedCount = 0;
+        for (String query : QUERIES) {
+
+            ExpressionTree tree = PQLToExpressionTree.translate("Epoch", query);
+            ExpressionTree planned = planner.plan(
+                new ExpressionNormalizer().normalize(tree));
+            reorderedCount += planner.getReorderedCount();
+
+            ExpressionEvaluator original = new ExpressionEvaluator(tree,
+                ExpressionEvaluator.NEVER_COMPILE);
+            ExpressionEvaluator evaluator = new ExpressionEvaluator(planned,
+                ExpressionEvaluator.NEVER_COMPILE);
+            for (Map<String,Object> record : records) {
+                assertEquals(query+" "+record,
+                    Boolean.valueOf(original.evaluate(record, accessor)),
+                    Boolean.valueOf(evaluator.evaluate(record, accessor)));
+            }
+        }
+        assertTrue(reorderedCount >= QUERIES.length);
+    }
+
+
+    private static Map<String,Object> randomEpoch(Random random) {
+
+        Map<String,Object> epoch = record(
+            "excludeFromAnalysis", Boolean.valueOf(random.nextBoolean()));
+        if (random.nextInt(4) != 0)
+            epoch.put("protocolID", random.nextBoolean() ? "x" : "y");
+        if (random.nextInt(4) != 0) {
+            epoch.put("epochGroup", record("label",
+                (random.nextInt(4) == 0) ? null : "g"+random.nextInt(3)));
+        }
+
+        List<Object> responses = list();
+        for (int count = random.nextInt(5); count > 0; count--) {
+            responses.add(record("units",
+                random.nextBoolean() ? "mV" : "pA"));
+        }
+        epoch.put("responses", responses);
+
+        List<Object> derivedResponses = list();
+        for (int count = random.nextInt(3); count > 0; count--) {
+            derivedResponses.add(record("name",
+                random.nextBoolean() ? "y" : "z"));
+        }
+        epoch.put("myderivedResponses", derivedResponses);
+        return(epoch);
+    }
+
+
+    /**
+     * Statistics that know about protocolID, the EpochGroup label,
+     * and responses.  It remembers the selectivities it was asked for.
+     */
+    private static class StubStatistics
+        implements AttributeStatistics {
+
+        List<Object> requests = list();
+
+        @Override
+        public double getSelectivity(ClassDescription classDescription,
+                                     String attributeName, Operator operator,
+                                     Object value) {
+
+            requests.add(classDescription.getName()+"."+attributeName+
+                         " "+operator+" "+value);
+            if ("protocolID".equals(attributeName))
+                return(0.99);
+            else if ("label".equals(attributeName))
+                return(0.01);
+            return(UNKNOWN);
+        }
+
+        @Override
+        public double getNullFraction(ClassDescription classDescription,
+                                      String attributeName) {
+            return("protocolID".equals(attributeName) ? 0.5 : UNKNOWN);
+        }
+
+        @Override
+        public double getFanOut(ClassDescription classDescription,
+                                String attributeName) {
+            return("responses".equals(attributeName) ? 0.0 : UNKNOWN);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.QueryResultCache;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+
+/**
+ * Tests for QueryResultCache.
+ */
+public class QueryResultCacheTests extends TestCase {
+
+    private static final long MINUTE = 60*1000;
+
+
+    /**
+     * Queries that normalize to the same tree share a result.
+     */
+    @Test
+    public void testKeys() {
+
+        QueryResultCache<String> cache = new TestCache(10, MINUTE);
+
+        cache.put(query("Epoch", "or(protocolID == \"p1\")"), "result");
+        assertEquals("result", cache.get(query("Epoch",
+            "protocolID == \"p1\"")));
+        assertEquals("result", cache.get(query("Epoch",
+            "not(not(or(protocolID == \"p1\", protocolID == \"p1\")))")));
+        assertEquals(QueryResultCache.getKey(query("Epoch",
+                         "or(protocolID == \"p1\")")),
+                     QueryResultCache.getKey(query("Epoch",
+                         "protocolID == \"p1\"")));
+
+        assertNull(cache.get(query("Source", "protocolID == \"p1\"")));
+        assertNull(cache.get(query("Epoch", "protocolID == \"p2\"")));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        try {
+            cache.put(query("Epoch", "a == 1"), null);
+            fail("A null result is not allowed.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     * The least recently used result is thrown away when the cache
+     * is full.
+     */
+    @Test
+    public void testEviction() {
+
+        QueryResultCache<String> cache = new TestCache(2, MINUTE);
+
+        cache.put(query("Epoch", "a == 1"), "a");
+        cache.put(query("Epoch", "b == 1"), "b");
+        assertEquals("a", cache.get(query("Epoch", "a == 1")));
+        cache.put(query("Epoch", "c == 1"), "c");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals("a", cache.get(query("Epoch", "a == 1")));
+        assertNull(cache.get(query("Epoch", "b == 1")));
+        assertEquals("c", cache.get(query("Epoch", "c == 1")));
+
+        /**
+         * Putting a result for a query that is already in the cache
+         * replaces it, and does not evict anything.
+         */
+        cache.put(query("Epoch", "c == 1"), "c2");
+        assertEquals("c2", cache.get(query("Epoch", "c == 1")));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+
+    /**
+     * A result is not returned after its time to live.
+     */
+    @Test
+    public void testTimeToLive() {
+
+        TestCache cache = new TestCache(10, MINUTE);
+
+        cache.put(query("Epoch", "a == 1"), "a");
+        cache.put(query("Epoch", "b == 1"), "b", 5*MINUTE);
+
+        cache.now += MINUTE-1;
+        assertEquals("a", cache.get(query("Epoch", "a == 1")));
+        cache.now += 1;
+        assertNull(cache.get(query("Epoch", "a == 1")));
+        assertEquals("b", cache.get(query("Epoch", "b == 1")));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(1, cache.size());
+
+        cache.now += 4*MINUTE;
+        assertNull(cache.get(query("Epoch", "b == 1")));
+        assertEquals(0, cache.size());
+
+        /**
+         * A huge time to live does not overflow into the past.
+         */
+        cache.put(query("Epoch", "c == 1"), "c", Long.MAX_VALUE);
+        cache.now += 1000*MINUTE;
+        assertEquals("c", cache.get(query("Epoch", "c == 1")));
+    }
+
+
+    /**
+     * invalidate() throws away the results of a query, or the results
+     * that depend on an entity.
+     */
+    @Test
+    public void testInvalidate() {
+
+        QueryResultCache<String> cache = new TestCache(10, MINUTE);
+
+        cache.put(query("Epoch", "a == 1"), "epoch");
+        cache.put(query("Epoch", "any(responses, units == \"mV\")"),
+                  "responses", MINUTE, "Response");
+        cache.put(query("Source", "label == \"x\""), "source");
+        cache.put(query("Source", "label == \"y\""), "source2");
+
+        assertEquals(1, cache.invalidate("Response"));
+        assertNull(cache.get(query("Epoch",
+            "any(responses, units == \"mV\")")));
+        assertEquals("epoch", cache.get(query("Epoch", "a == 1")));
+
+        assertEquals(1, cache.invalidate("Epoch"));
+        assertEquals(0, cache.invalidate("Epoch"));
+        assertNull(cache.get(query("Epoch", "a == 1")));
+
+        cache.invalidate(query("Source", "or(label == \"x\")"));
+        assertNull(cache.get(query("Source", "label == \"x\"")));
+        assertEquals("source2", cache.get(query("Source",
+                                                "label == \"y\"")));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.invalidate("Source"));
+        assertEquals(4, cache.getInvalidationCount());
+    }
+
+
+    private static ExpressionTree query(String cuq, String pql) {
+        return(PQLToExpressionTree.translate(cuq, pql));
+    }
+
+
+    /**
+     * A cache whose clock only moves when the test says so.
+     */
+    private static class TestCache extends QueryResultCache<String> {
+
+        private long now = 1000000;
+
+        private TestCache(int maximumSize, long timeToLiveMillis) {
+            super(maximumSize, timeToLiveMillis);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return(now);
+        }
+    }
+}
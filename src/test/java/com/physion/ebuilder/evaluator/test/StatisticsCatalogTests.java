@@ -0,0 +1,373 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.evaluator.AttributeStatistics;
+import com.physion.ebuilder.evaluator.AttributeSummary;
+import com.physion.ebuilder.evaluator.EquiDepthHistogram;
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.HyperLogLog;
+import com.physion.ebuilder.evaluator.QueryPlanner;
+import com.physion.ebuilder.evaluator.StatisticsCatalog;
+import com.physion.ebuilder.translator.ExpressionTreeToPQL;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.list;
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for HyperLogLog, EquiDepthHistogram, AttributeSummary, and
+ * StatisticsCatalog.
+ */
+public class StatisticsCatalogTests extends TestCase {
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+    private static ClassDescription epochGroupCD =
+            DataModel.getClassDescription("EpochGroup");
+
+    private static final long START = new DateTime(2011, 1, 1, 0, 0, 0, 0,
+        DateTimeZone.UTC).getMillis();
+    private static final long DAY = 24L*60*60*1000;
+
+    /**
+     * Comparisons we check the estimated selectivity of, against the
+     * fraction of the random Epochs that the ExpressionEvaluator says
+     * satisfy them.
+     */
+    private static final String[] QUERIES = {
+        "protocolID == \"p3\"",
+        "protocolID != \"p3\"",
+        "excludeFromAnalysis == true",
+        "startTime < #\"2011-03-01T00:00:00.000Z[UTC]\"",
+        "startTime >= #\"2011-06-01T00:00:00.000Z[UTC]\"",
+        "incomplete == false",
+        "isnull(protocolID)",
+        "isnull(epochGroup)"};
+
+
+    @Test
+    public void testHyperLogLog() {
+
+        HyperLogLog all = new HyperLogLog();
+        HyperLogLog even = new HyperLogLog();
+        HyperLogLog odd = new HyperLogLog();
+        for (int index = 0; index < 100000; index++) {
+            String value = "protocol-"+index;
+            all.add(value);
+            all.add(value);
+            if ((index % 2) == 0)
+                even.add(value);
+            else
+                odd.add(value);
+        }
+        assertEquals(100000.0, all.getEstimate(), 5000.0);
+        assertEquals(50000.0, even.getEstimate(), 2500.0);
+
+        even.merge(odd);
+        assertEquals(all.getEstimate(), even.getEstimate());
+
+        /**
+         * Numbers are counted by value.
+         */
+        HyperLogLog small = new HyperLogLog();
+        small.add(3);
+        small.add(3.0);
+        small.add((short)3);
+        small.add(-0.0);
+        small.add(0.0);
+        small.add("3");
+        assertEquals(3, small.getEstimate());
+        assertEquals(0, new HyperLogLog().getEstimate());
+
+        try {
+            small.merge(new HyperLogLog(HyperLogLog.DEFAULT_PRECISION+1));
+            fail("Sketches of different precisions can't be merged.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    @Test
+    public void testHistogram() {
+
+        Random random = new Random(1);
+        EquiDepthHistogram histogram = new EquiDepthHistogram();
+        EquiDepthHistogram first = new EquiDepthHistogram();
+        EquiDepthHistogram second = new EquiDepthHistogram();
+        double[] values = new double[20000];
+        for (int index = 0; index < values.length; index++) {
+
+            /**
+             * A quarter of the values are 7, the rest are skewed
+             * toward 0.
+             */
+            double value = (random.nextInt(4) == 0) ? 7.0 :
+                Math.pow(random.nextDouble(), 3)*1000.0;
+            values[index] = value;
+            histogram.add(value);
+            if (index < values.length/2)
+                first.add(value);
+            else
+                second.add(value);
+        }
+        histogram.add(Double.NaN);
+        first.merge(second);
+        Arrays.sort(values);
+
+        for (EquiDepthHistogram h : new EquiDepthHistogram[] {histogram,
+                                                               first}) {
+            assertEquals(values.length, h.getCount());
+            assertTrue(h.getBucketCount() <=
+                       EquiDepthHistogram.DEFAULT_BUCKET_COUNT);
+            assertEquals(values[0], h.getMin(), 0.0);
+            assertEquals(values[values.length-1], h.getMax(), 0.0);
+
+            double total = 0.0;
+            for (int bucket = 0; bucket < h.getBucketCount(); bucket++) {
+                total += h.getWeight(bucket);
+                assertTrue(h.getLow(bucket) <= h.getHigh(bucket));
+                if (bucket > 0)
+                    assertTrue(h.getHigh(bucket-1) <= h.getLow(bucket));
+            }
+            assertEquals(values.length, total, 0.001);
+
+            for (double value : new double[] {0.5, 7.0, 50.0, 300.0}) {
+                int below = 0;
+                while ((below < values.length) && (values[below] < value))
+                    below++;
+                assertEquals(Double.toString(value),
+                             (double)below/values.length,
+                             h.getFractionBelow(value, false), 0.03);
+            }
+
+            /**
+             * 7 has buckets to itself.
+             */
+            assertEquals(0.25, h.getFractionEqual(7.0), 0.03);
+            assertEquals(0.0, h.getFractionBelow(-1.0, true), 0.0);
+            assertEquals(1.0, h.getFractionBelow(1000.0, true), 0.0);
+        }
+    }
+
+
+    /**
+     * The estimated selectivities are close to the real ones.
+     */
+    @Test
+    public void testCatalog() {
+
+        List<Map<String,Object>> epochs = randomEpochs(new Random(1), 4000);
+        MapRecordAccessor accessor = new MapRecordAccessor();
+
+        StatisticsCatalog catalog = new StatisticsCatalog();
+        catalog.collect(epochCD, epochs, accessor);
+        assertEquals(4000, catalog.getRecordCount(epochCD));
+        assertEquals(0, catalog.getRecordCount(epochGroupCD));
+        checkSelectivities(catalog, epochs);
+
+        AttributeSummary protocolID = catalog.getSummary(epochCD,
+                                                         "protocolID");
+        assertEquals(Type.UTF_8_STRING, protocolID.getType());
+        assertEquals(20.0, protocolID.getDistinctCount(), 1.0);
+        assertEquals(1.5, catalog.getFanOut(epochCD, "responses"), 0.1);
+        assertEquals(0.8, catalog.getFanOut(epochCD, "epochGroup"), 0.03);
+        assertNull(catalog.getSummary(epochCD, "protocolParameters"));
+        assertNull(catalog.getSummary(epochCD, "myderivedResponses"));
+        assertEquals(AttributeStatistics.UNKNOWN,
+            catalog.getNullFraction(epochGroupCD, "label"), 0.0);
+        assertEquals(AttributeStatistics.UNKNOWN,
+            catalog.getSelectivity(epochCD, "protocolID",
+                Operator.MATCHES_CASE_SENSITIVE, "^p"), 0.0);
+
+        /**
+         * Collecting in two partitions and merging them, or adding the
+         * records one at a time, gives about the same statistics.
+         */
+        StatisticsCatalog first = new StatisticsCatalog();
+        StatisticsCatalog second = new StatisticsCatalog();
+        first.collect(epochCD, epochs.subList(0, 1500), accessor);
+        second.collect(epochCD, epochs.subList(1500, 4000), accessor);
+        first.merge(second);
+        assertEquals(4000, first.getRecordCount(epochCD));
+        checkSelectivities(first, epochs);
+
+        StatisticsCatalog incremental = new StatisticsCatalog();
+        for (Map<String,Object> epoch : epochs)
+            incremental.add(epochCD, epoch, accessor);
+        assertEquals(4000, incremental.getRecordCount(epochCD));
+        checkSelectivities(incremental, epochs);
+    }
+
+
+    /**
+     * A catalog can be written to a file and read back.
+     */
+    @Test
+    public void testWriteAndRead()
+        throws IOException {
+
+        StatisticsCatalog catalog = new StatisticsCatalog();
+        catalog.collect(epochCD, randomEpochs(new Random(2), 1000),
+                        new MapRecordAccessor());
+        catalog.collect(epochGroupCD, list(record("label", "g1"),
+                                           record("label", "g2"), record()),
+                        new MapRecordAccessor());
+
+        byte[] bytes = toBytes(catalog);
+        StatisticsCatalog copy = StatisticsCatalog.read(new DataInputStream(
+            new ByteArrayInputStream(bytes)));
+        assertTrue(Arrays.equals(bytes, toBytes(copy)));
+        assertEquals(catalog.toString(), copy.toString());
+        assertEquals(1.0/3.0, copy.getNullFraction(epochGroupCD, "label"),
+                     0.0001);
+
+        File file = File.createTempFile("statistics", ".bin");
+        try {
+            catalog.write(file);
+            assertTrue(file.length() < 32*1024);
+            assertTrue(Arrays.equals(bytes,
+                                     toBytes(StatisticsCatalog.read(file))));
+        }
+        finally {
+            file.delete();
+        }
+
+        bytes[0] = 0;
+        try {
+            StatisticsCatalog.read(new DataInputStream(
+                new ByteArrayInputStream(bytes)));
+            fail("That is not a statistics file.");
+        }
+        catch (IOException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     * The statistics change the QueryPlanner's mind.
+     */
+    @Test
+    public void testPlanner() {
+
+        List<Map<String,Object>> epochs = randomEpochs(new Random(3), 1000);
+        StatisticsCatalog catalog = new StatisticsCatalog();
+        catalog.collect(epochCD, epochs, new MapRecordAccessor());
+
+        /**
+         * Without statistics, "==" is assumed to be more selective
+         * than "<".  But a third of the Epochs are incomplete, and few
+         * Epochs start before March.
+         */
+        String query = "and(incomplete == false, "+
+            "startTime < #\"2011-03-01T00:00:00.000Z[UTC]\")";
+        assertEquals(query, ExpressionTreeToPQL.translate(new QueryPlanner().
+            plan(PQLToExpressionTree.translate("Epoch", query))));
+        assertEquals("and(startTime < #\"2011-03-01T00:00:00.000Z[UTC]\", "+
+                     "incomplete == false)",
+                     ExpressionTreeToPQL.translate(new QueryPlanner(catalog).
+                     plan(PQLToExpressionTree.translate("Epoch", query))));
+
+        try {
+            new AttributeSummary(Type.PARAMETERS_MAP, Cardinality.N_A);
+            fail("Parameters maps are not summarized.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    private static void checkSelectivities(AttributeStatistics statistics,
+                                           List<Map<String,Object>> epochs) {
+
+        MapRecordAccessor accessor = new MapRecordAccessor();
+        for (String query : QUERIES) {
+
+            ExpressionEvaluator evaluator = new ExpressionEvaluator(
+                PQLToExpressionTree.translate("Epoch", query),
+                ExpressionEvaluator.NEVER_COMPILE);
+            int count = 0;
+            for (Map<String,Object> epoch : epochs) {
+                if (evaluator.evaluate(epoch, accessor))
+                    count++;
+            }
+
+            QueryPlanner planner = new QueryPlanner(statistics);
+            String explain = planner.explain(PQLToExpressionTree.translate(
+                "Epoch", query));
+            double estimate = Double.parseDouble(explain.substring(
+                explain.lastIndexOf('=')+1).trim());
+            assertEquals(query, (double)count/epochs.size(), estimate, 0.03);
+        }
+    }
+
+
+    /**
+     * Epochs with 20 protocols, a start time spread over 2011, (more
+     * of them early in the year), and an epochGroup 80% of the time.
+     */
+    private static List<Map<String,Object>> randomEpochs(Random random,
+                                                         int count) {
+
+        List<Map<String,Object>> epochs = new ArrayList<Map<String,Object>>();
+        for (int index = 0; index < count; index++) {
+
+            Map<String,Object> epoch = record(
+                "excludeFromAnalysis", Boolean.valueOf(
+                    random.nextInt(5) == 0),
+                "incomplete", Boolean.valueOf(random.nextInt(3) == 0),
+                "startTime", new DateTime(START+(long)(Math.sqrt(
+                    random.nextDouble())*365*DAY), DateTimeZone.UTC));
+            if (random.nextInt(10) != 0)
+                epoch.put("protocolID", "p"+random.nextInt(20));
+            if (random.nextInt(5) != 0)
+                epoch.put("epochGroup", record("label", "g"));
+
+            List<Object> responses = list();
+            for (int response = random.nextInt(4); response > 0; response--)
+                responses.add(record("units", "mV"));
+            epoch.put("responses", responses);
+            epochs.add(epoch);
+        }
+        return(epochs);
+    }
+
+
+    private static byte[] toBytes(StatisticsCatalog catalog)
+        throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        catalog.write(out);
+        out.flush();
+        return(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.SubscriptionMatcher;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * A simple benchmark that measures how many records per second the
+ * SubscriptionMatcher can match against QUERY_COUNT standing queries,
+ * and compares it with testing every query.
+ *
+ * The queries are a mix of what users save as alerts: a protocolID,
+ * a protocolID and a time range, a numeric threshold, and a few "or"
+ * queries that have no anchor.
+ *
+ * This is not a unit test, so it is not run by "mvn test".  Run its
+ * main() method by hand.
+ */
+public class SubscriptionMatcherBenchmark {
+
+    private static final int QUERY_COUNT = 10000;
+    private static final int PROTOCOL_COUNT = 2000;
+    private static final int RECORD_COUNT = 10000;
+    private static final int PASS_COUNT = 5;
+
+
+    public static void main(String[] args) {
+
+        Random random = new Random(1);
+        MapRecordAccessor accessor = new MapRecordAccessor();
+
+        List<ExpressionTree> queries = new ArrayList<ExpressionTree>();
+        for (int index = 0; index < QUERY_COUNT; index++) {
+            String pql;
+            switch (index%10) {
+                case 0: case 1: case 2: case 3:
+                    pql = "protocolID == \"p"+
+                        random.nextInt(PROTOCOL_COUNT)+"\"";
+                    break;
+                case 4: case 5: case 6:
+                    pql = "and(protocolID == \"p"+
+                        random.nextInt(PROTOCOL_COUNT)+"\", startTime > "+
+                        "#\"2011-0"+(random.nextInt(9)+1)+
+                        "-01T00:00:00.000Z[UTC]\")";
+                    break;
+                case 7: case 8:
+                    pql = "and(amplitude > "+(random.nextInt(1000000)/10.0)+
+                        ", excludeFromAnalysis == false)";
+                    break;
+                default:
+                    pql = "or(label == \"l"+random.nextInt(1000)+
+                        "\", label == \"m"+random.nextInt(1000)+"\")";
+            }
+            queries.add(PQLToExpressionTree.translate("Epoch", pql));
+        }
+
+        List<Map<String,Object>> records = new ArrayList<Map<String,Object>>();
+        for (int index = 0; index < RECORD_COUNT; index++) {
+            records.add(MapRecordAccessor.record(
+                "protocolID", "p"+random.nextInt(PROTOCOL_COUNT),
+                "startTime", new DateTime(2011, random.nextInt(12)+1, 15,
+                                          0, 0, DateTimeZone.UTC),
+                "amplitude", random.nextInt(1000),
+                "excludeFromAnalysis", random.nextBoolean(),
+                "label", "l"+random.nextInt(1000)));
+        }
+
+        long start = System.nanoTime();
+        SubscriptionMatcher<Integer> matcher =
+            new SubscriptionMatcher<Integer>();
+        for (int index = 0; index < QUERY_COUNT; index++)
+            matcher.register(Integer.valueOf(index), queries.get(index));
+        System.out.println("Registered "+QUERY_COUNT+" queries in "+
+            Math.round((System.nanoTime()-start)/1e6)+" ms");
+
+        long candidates = 0;
+        for (Map<String,Object> record : records)
+            candidates += matcher.countCandidates("Epoch", record, accessor);
+        System.out.println("Candidates per record: "+
+                           (candidates/RECORD_COUNT));
+
+        for (int pass = 0; pass < PASS_COUNT; pass++) {
+            start = System.nanoTime();
+            long matches = 0;
+            for (Map<String,Object> record : records)
+                matches += matcher.match("Epoch", record, accessor).size();
+            report("SubscriptionMatcher", start, RECORD_COUNT, matches);
+        }
+
+        /**
+         * Testing every query is much slower, so test fewer records.
+         */
+        List<ExpressionEvaluator> evaluators =
+            new ArrayList<ExpressionEvaluator>();
+        for (ExpressionTree query : queries)
+            evaluators.add(new ExpressionEvaluator(query));
+        int recordCount = RECORD_COUNT/20;
+        for (int pass = 0; pass < PASS_COUNT; pass++) {
+            start = System.nanoTime();
+            long matches = 0;
+            for (int index = 0; index < recordCount; index++) {
+                for (ExpressionEvaluator evaluator : evaluators) {
+                    if (evaluator.evaluate(records.get(index), accessor))
+                        matches++;
+                }
+            }
+            report("Every query", start, recordCount, matches);
+        }
+    }
+
+
+    private static void report(String label, long start, int recordCount,
+                               long matches) {
+
+        double seconds = (System.nanoTime()-start)/1e9;
+        System.out.println(label+": "+Math.round(recordCount/seconds)+
+                           " records/second, "+Math.round(matches/seconds)+
+                           " matches/second");
+    }
+}
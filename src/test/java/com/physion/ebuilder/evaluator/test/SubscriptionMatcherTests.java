@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.SubscriptionMatcher;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for SubscriptionMatcher.
+ */
+public class SubscriptionMatcherTests extends TestCase {
+
+    private static final MapRecordAccessor ACCESSOR = new MapRecordAccessor();
+
+
+    /**
+     * Records only look at the queries whose anchors they satisfy.
+     */
+    @Test
+    public void testAnchors() {
+
+        SubscriptionMatcher<String> matcher = new SubscriptionMatcher<String>();
+        matcher.register("protocol", query("Epoch",
+            "and(protocolID == \"p1\", excludeFromAnalysis == false)"));
+        matcher.register("recent", query("Epoch",
+            "startTime > #\"2011-01-01T00:00:00.000Z[UTC]\""));
+        matcher.register("either", query("Epoch",
+            "or(protocolID == \"p2\", protocolID == \"p3\")"));
+        matcher.register("range", query("Epoch", "and(10 <= x, x < 20)"));
+        matcher.register("three", query("Epoch", "x == 3"));
+        matcher.register("source", query("Source", "label == \"p1\""));
+        assertEquals(6, matcher.size());
+
+        Map<String,Object> epoch = record("protocolID", "p1",
+            "excludeFromAnalysis", false,
+            "startTime", new DateTime(2010, 6, 1, 0, 0, DateTimeZone.UTC),
+            "x", 15);
+
+        /**
+         * "protocol" and "range".  "either" is filed under "p2" and "p3".
+         */
+        assertEquals(2, matcher.countCandidates("Epoch", epoch, ACCESSOR));
+        assertEquals(set("protocol", "range"),
+                     set(matcher.match("Epoch", epoch, ACCESSOR)));
+
+        /**
+         * The two bounds of "range" are one range, [10, 20], so a
+         * record above it does not look at it.
+         */
+        epoch.put("x", 50);
+        assertEquals(1, matcher.countCandidates("Epoch", epoch, ACCESSOR));
+
+        epoch.put("startTime", new DateTime(2011, 6, 1, 0, 0,
+                                            DateTimeZone.UTC));
+        epoch.put("x", Double.valueOf(3.0));
+        assertEquals(set("protocol", "recent", "three"),
+                     set(matcher.match("Epoch", epoch, ACCESSOR)));
+
+        epoch.put("protocolID", "p3");
+        assertEquals(set("recent", "either", "three"),
+                     set(matcher.match("Epoch", epoch, ACCESSOR)));
+
+        /**
+         * A query whose anchors are both satisfied is only matched once.
+         */
+        matcher.register("twice", query("Epoch", "or(x == 3, x >= 2)"));
+        assertEquals(1, Collections.frequency(
+            matcher.match("Epoch", epoch, ACCESSOR), "twice"));
+        assertTrue(matcher.unregister("twice"));
+
+        /**
+         * A query with no anchor is a candidate for every record.
+         */
+        matcher.register("any", query("Epoch",
+            "any(responses, units == \"mV\")"));
+        assertEquals(1, matcher.countCandidates("Epoch", record(),
+                                                ACCESSOR));
+        assertTrue(matcher.unregister("any"));
+
+        assertEquals(set("source"), set(matcher.match("Source",
+            record("label", "p1"), ACCESSOR)));
+        assertEquals(0, matcher.match("Response", epoch, ACCESSOR).size());
+
+        /**
+         * Replacing and removing queries.
+         */
+        matcher.register("three", query("Epoch", "x == 4"));
+        assertEquals(set("recent", "either"),
+                     set(matcher.match("Epoch", epoch, ACCESSOR)));
+        assertTrue(matcher.unregister("either"));
+        assertFalse(matcher.unregister("either"));
+        assertTrue(matcher.unregister("recent"));
+        assertEquals(0, matcher.match("Epoch", epoch, ACCESSOR).size());
+        assertEquals(4, matcher.size());
+    }
+
+
+    /**
+     * The matcher finds the same queries as testing every query.
+     */
+    @Test
+    public void testAgainstEveryQuery() {
+
+        Random random = new Random(1);
+        String[] templates = {
+            "protocolID == \"p%d\"",
+            "and(protocolID == \"p%d\", x > %d)",
+            "x >= %d",
+            "and(x < %d, y == %d.0)",
+            "y <= %d.5",
+            "or(x == %d, y == %d)",
+            "and(startTime < #\"2011-01-%02dT00:00:00.000Z[UTC]\", " +
+                "x != %d)",
+            "%d > x"};
+
+        SubscriptionMatcher<Integer> matcher =
+            new SubscriptionMatcher<Integer>();
+        List<ExpressionEvaluator> evaluators =
+            new ArrayList<ExpressionEvaluator>();
+        for (int index = 0; index < 400; index++) {
+            String pql = String.format(templates[index%templates.length],
+                random.nextInt(10)+1, random.nextInt(10)+1);
+            ExpressionTree tree = query("Epoch", pql);
+            matcher.register(Integer.valueOf(index), tree);
+            evaluators.add(new ExpressionEvaluator(tree));
+        }
+
+        for (int index = 0; index < 500; index++) {
+
+            Map<String,Object> epoch = record(
+                "protocolID", "p"+random.nextInt(12),
+                "x", random.nextBoolean() ? (Object)random.nextInt(12) :
+                     (Object)(random.nextInt(24)/2.0),
+                "y", random.nextInt(12),
+                "startTime", new DateTime(2011, 1, random.nextInt(12)+1,
+                                          0, 0, DateTimeZone.UTC));
+            if (random.nextInt(10) == 0)
+                epoch.remove("x");
+
+            Set<Integer> expected = new HashSet<Integer>();
+            for (int query = 0; query < evaluators.size(); query++) {
+                if (evaluators.get(query).evaluate(epoch, ACCESSOR))
+                    expected.add(Integer.valueOf(query));
+            }
+            assertEquals(epoch.toString(), expected,
+                         set(matcher.match("Epoch", epoch, ACCESSOR)));
+            assertTrue(matcher.countCandidates("Epoch", epoch, ACCESSOR) <
+                       evaluators.size());
+
+            /**
+             * Remove and add back queries as we go, so the indexes
+             * are changed, and rebuilt, along the way.
+             */
+            Integer query = Integer.valueOf(random.nextInt(
+                evaluators.size()));
+            assertTrue(matcher.unregister(query));
+            if (random.nextInt(4) == 0) {
+                evaluators.set(query.intValue(), new ExpressionEvaluator(
+                    query("Epoch", "x == 1000")));
+            }
+            matcher.register(query, evaluators.get(query.intValue()).
+                getExpressionTree());
+        }
+    }
+
+
+    /**
+     * A query or a record without a class is rejected, rather than
+     * filed under, or looked up by, null.
+     */
+    @Test
+    public void testNullClass() {
+
+        SubscriptionMatcher<String> matcher = new SubscriptionMatcher<String>();
+        ExpressionTree tree = new ExpressionTree(null, (IOperatorExpression)
+            query("Epoch", "x == 3").getRootExpression());
+        assertTrue(new ExpressionEvaluator(tree).evaluate(record("x", 3),
+                                                          ACCESSOR));
+
+        try {
+            matcher.register("null", tree);
+            fail("The query has no Class Under Qualification.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        assertEquals(0, matcher.size());
+
+        try {
+            matcher.match(null, record("x", 3), ACCESSOR);
+            fail("The record has no class.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    private static ExpressionTree query(String cuq, String pql) {
+        return(PQLToExpressionTree.translate(cuq, pql));
+    }
+
+
+    private static <T> Set<T> set(List<T> list) {
+        return(new HashSet<T>(list));
+    }
+
+
+    /**
+     * Copy the values one at a time, rather than passing the varargs
+     * array on, which javac warns could cause heap pollution.
+     */
+    @SafeVarargs
+    private static <T> Set<T> set(T... values) {
+
+        Set<T> set = new HashSet<T>();
+        for (T value : values)
+            set.add(value);
+        return(set);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.PatternCache;
+import com.physion.ebuilder.evaluator.TextMatcher;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+
+/**
+ * A simple benchmark that compares a TextMatcher with the Pattern it
+ * stands in for, and with compiling the Pattern for every string,
+ * (which is what a regular expression that is not a literal used
+ * to cost), on the kind of labels and protocol IDs users search.
+ *
+ * This is not a unit test, so it is not run by "mvn test".  Run its
+ * main() method by hand.
+ */
+public class TextMatcherBenchmark {
+
+    private static final int STRING_COUNT = 100000;
+    private static final int PASS_COUNT = 5;
+
+    private static final String[] REGEXES = {"stimulus", "^protocol-1",
+        "-ab$", ".*rig 12.*"};
+
+
+    public static void main(String[] args) {
+
+        Random random = new Random(1);
+        String[] strings = new String[STRING_COUNT];
+        for (int index = 0; index < STRING_COUNT; index++) {
+            strings[index] = "protocol-"+random.nextInt(2000)+" rig "+
+                random.nextInt(40)+(random.nextBoolean() ? " Stimulus" :
+                " recording")+"-"+(char)('a'+random.nextInt(3))+"b";
+        }
+
+        int flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        for (String regex : REGEXES) {
+            Pattern pattern = Pattern.compile(regex, flags);
+            TextMatcher matcher = TextMatcher.compile(regex, flags);
+            System.out.println("\""+regex+"\"");
+
+            for (int pass = 0; pass < PASS_COUNT; pass++) {
+
+                long start = System.nanoTime();
+                int count = 0;
+                for (String s : strings) {
+                    if (pattern.matcher(s).find())
+                        count++;
+                }
+                report("    Pattern", start, count);
+
+                start = System.nanoTime();
+                count = 0;
+                for (String s : strings) {
+                    if (matcher.find(s))
+                        count++;
+                }
+                report("    TextMatcher", start, count);
+
+                start = System.nanoTime();
+                count = 0;
+                for (String s : strings) {
+                    if (Pattern.compile(regex, flags).matcher(s).find())
+                        count++;
+                }
+                report("    Compile each time", start, count);
+
+                start = System.nanoTime();
+                count = 0;
+                for (String s : strings) {
+                    if (PatternCache.getShared().get(regex, flags).find(s))
+                        count++;
+                }
+                report("    PatternCache", start, count);
+            }
+        }
+    }
+
+
+    private static void report(String label, long start, int count) {
+
+        double seconds = (System.nanoTime()-start)/1e9;
+        System.out.println(label+": "+Math.round(STRING_COUNT/seconds)+
+                           " strings/second, "+count+" found");
+    }
+}
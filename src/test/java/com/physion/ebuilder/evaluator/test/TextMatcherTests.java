@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.evaluator.PatternCache;
+import com.physion.ebuilder.evaluator.TextMatcher;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+
+/**
+ * Tests for TextMatcher and PatternCache.
+ */
+public class TextMatcherTests extends TestCase {
+
+    private static final int[] FLAGS = {0, Pattern.CASE_INSENSITIVE,
+        Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE};
+
+
+    /**
+     * Literal text does not use the regular expression engine.
+     */
+    @Test
+    public void testLiteral() {
+
+        String[] literals = {"abc", "^abc", "abc$", "^abc$", "a\\.b",
+            "\\Qa.b\\E", "\\Qa.b", ".*abc.*", "^.*", "", "a\\$", "x-1 y"};
+        for (String regex : literals) {
+            for (int flags : FLAGS) {
+                assertTrue(regex, TextMatcher.compile(regex, flags).
+                    isLiteral());
+            }
+        }
+
+        String[] patterns = {"a.c", "a|b", "ab*", "\\d+", "[abc]", "a\\.*",
+            "^abc$$", "(abc)", "a{2}", ".*+abc", "abc\\n"};
+        for (String regex : patterns) {
+            assertFalse(regex, TextMatcher.compile(regex, 0).isLiteral());
+        }
+
+        /**
+         * Case insensitive non-ASCII text, and other flags, use the
+         * Pattern.
+         */
+        assertFalse(TextMatcher.compile("\u00e9t\u00e9",
+            Pattern.CASE_INSENSITIVE).isLiteral());
+        assertTrue(TextMatcher.compile("\u00e9t\u00e9", 0).isLiteral());
+        assertFalse(TextMatcher.compile("abc", Pattern.MULTILINE).
+            isLiteral());
+
+        try {
+            TextMatcher.compile("a(b", 0);
+            fail("An invalid regular expression is an error.");
+        }
+        catch (PatternSyntaxException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     * Every matcher finds the same thing as its Pattern.
+     */
+    @Test
+    public void testAgainstPattern() {
+
+        String[] regexes = {"abc", "^abc", "abc$", "^abc$", "a\\.b",
+            "\\Qa.b\\E", ".*abc.*", "^.*", "", "$", "^$", "k", "ss",
+            "I", "ABC", "a\\$", "^A", "C$", "a.c", "[ab]c"};
+        String[] texts = {"", "abc", "ABC", "xabcx", "xAbC", "abc\n",
+            "abc\r\n", "abc\u2028", "abc\nx", "\nabc", "a.b", "axb",
+            "a$", "\u212a", "\u00df", "SS", "\u0130", "i", "\u0131",
+            "ab", "c", "\n", "\r\n", "xyzABC\u0085", "\ud801\udc00abc"};
+
+        for (String regex : regexes) {
+            for (int flags : FLAGS) {
+                Pattern pattern = Pattern.compile(regex, flags);
+                TextMatcher matcher = TextMatcher.compile(regex, flags);
+                for (String text : texts) {
+                    assertEquals("\""+regex+"\" "+flags+" \""+text+"\"",
+                                 pattern.matcher(text).find(),
+                                 matcher.find(text));
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testPatternCache() {
+
+        PatternCache cache = new PatternCache(2);
+
+        TextMatcher abc = cache.get("abc", 0);
+        assertSame(abc, cache.get("abc", 0));
+        assertNotSame(abc, cache.get("abc", Pattern.CASE_INSENSITIVE));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        cache.get("def", 0);
+        assertTrue(cache.size() <= 2);
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertNotSame(abc, cache.get("abc", 0));
+
+        try {
+            new PatternCache(0);
+            fail("The cache must hold at least one matcher.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.ExpressionFactory;
+import com.physion.ebuilder.expression.ExpressionNormalizer;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import com.physion.ebuilder.translator.Translator;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+
+/**
+ * Tests for the ExpressionFactory.
+ */
+public class ExpressionFactoryTests extends TestCase {
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+
+
+    /**
+     * Two trees that test the same parameter share the nodes of
+     * the parameter path, and equal trees intern to the same node.
+     */
+    @Test
+    public void testSharing() {
+
+        ExpressionTree tree1 = createTree("amplitude", Operator.EQUALS, 2.0);
+        ExpressionTree tree2 = createTree("amplitude", Operator.LESS_THAN, 3.0);
+
+        ExpressionFactory factory = new ExpressionFactory();
+        ExpressionTree interned1 = factory.intern(tree1);
+        ExpressionTree interned2 = factory.intern(tree2);
+
+        assertEquals(tree1.toString(), interned1.toString());
+        assertEquals(tree2.toString(), interned2.toString());
+
+        /**
+         * or(==(.(as(parameter(protocolParameters, "amplitude"), float),
+         *         value), 2.0))
+         */
+        IExpression path1 = getOperand(getOperand(
+            interned1.getRootExpression(), 0), 0);
+        IExpression path2 = getOperand(getOperand(
+            interned2.getRootExpression(), 0), 0);
+        assertEquals(Translator.OE_DOT,
+                     ((IOperatorExpression)path1).getOperatorName());
+        assertSame(path1, path2);
+
+        /**
+         * Only the roots, the comparisons, and the literals are
+         * not shared.
+         */
+        int nodeCount = ExpressionNormalizer.countNodes(tree1.
+            getRootExpression())+ExpressionNormalizer.countNodes(tree2.
+            getRootExpression());
+        assertTrue(factory.size()+" < "+nodeCount, factory.size() < nodeCount);
+
+        assertSame(interned1.getRootExpression(), factory.intern(
+            createTree("amplitude", Operator.EQUALS, 2.0)).
+            getRootExpression());
+        assertSame(interned1.getRootExpression(),
+                   factory.intern(interned1.getRootExpression()));
+        assertNotSame(interned1.getRootExpression(), factory.intern(
+            createTree("duration", Operator.EQUALS, 2.0)).
+            getRootExpression());
+
+        assertSame(factory.createAttribute("value"),
+                   factory.intern(new AttributeExpression("value")));
+        assertSame(factory.createInt32(3), factory.createInt32(3));
+        assertNotSame(factory.createInt32(3), factory.createFloat64(3));
+        assertSame(factory.createOperator(Translator.OE_NOT,
+                       factory.createBoolean(true)),
+                   factory.createOperator(Translator.OE_NOT,
+                       factory.createBoolean(true)));
+    }
+
+
+    /**
+     * Interned nodes are shared, so they cannot be changed.
+     */
+    @Test
+    public void testImmutable() {
+
+        ExpressionFactory factory = new ExpressionFactory();
+        OperatorExpression and = (OperatorExpression)factory.createOperator(
+            Translator.OE_AND, factory.createAttribute("a"));
+
+        try {
+            and.addOperand(factory.createAttribute("b"));
+            fail("Expected an UnsupportedOperationException.");
+        }
+        catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+        assertEquals(1, and.getOperandList().size());
+    }
+
+
+    /**
+     *      Epoch | Any
+     *        Epoch | protocolParameters.key(float) operator value
+     */
+    private static ExpressionTree createTree(String key, Operator operator,
+                                             double value) {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ANY);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolParameters"));
+        rowData.setPropName(key);
+        rowData.setPropType(Type.FLOAT_64);
+        rowData.setAttributeOperator(operator);
+        rowData.setAttributeValue(new Double(value));
+        rootRow.addChildRow(rowData);
+
+        return(RowDataToExpressionTree.translate(rootRow));
+    }
+
+
+    private static IExpression getOperand(IExpression expression, int index) {
+        return(((IOperatorExpression)expression).getOperandList().get(index));
+    }
+}
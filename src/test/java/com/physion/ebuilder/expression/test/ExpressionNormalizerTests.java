@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.test.MapRecordAccessor;
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.BooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.ExpressionNormalizer;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.Int32LiteralValueExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import com.physion.ebuilder.translator.Translator;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.list;
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for the ExpressionNormalizer.
+ */
+public class ExpressionNormalizerTests extends TestCase {
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+    private static ClassDescription responseCD =
+            DataModel.getClassDescription("Response");
+
+
+    /**
+     *      or(a, or(b, and(c)), false, a)
+     *
+     * becomes:
+     *
+     *      or(a, b, c)
+     */
+    @Test
+    public void testFlattenAndFold() {
+
+        IExpression input = operator(Translator.OE_OR, compare("a"),
+            operator(Translator.OE_OR, compare("b"),
+                     operator(Translator.OE_AND, compare("c"))),
+            new BooleanLiteralValueExpression(false), compare("a"));
+        IExpression expected = operator(Translator.OE_OR, compare("a"),
+            compare("b"), compare("c"));
+
+        ExpressionNormalizer normalizer = new ExpressionNormalizer();
+        assertEquals(expected.toString(),
+                     normalizer.normalize(input).toString());
+        assertEquals(16, normalizer.getNodeCountBefore());
+        assertEquals(10, normalizer.getNodeCountAfter());
+        assertEquals("Normalized 16 nodes into 10 nodes.",
+                     normalizer.getReport());
+
+        input = operator(Translator.OE_OR, compare("a"),
+                         new BooleanLiteralValueExpression(true));
+        assertEquals(new BooleanLiteralValueExpression(true).toString(),
+                     normalizer.normalize(input).toString());
+    }
+
+
+    /**
+     *      not(or(==(a, 1), not(isnull(b)), and(<(c, 2), true)))
+     *
+     * becomes:
+     *
+     *      and(!=(a, 1), isnull(b), not(<(c, 2)))
+     */
+    @Test
+    public void testDeMorgan() {
+
+        IExpression input = operator(Translator.OE_NOT,
+            operator(Translator.OE_OR, compare("a"),
+                operator(Translator.OE_NOT, operator(Translator.OE_IS_NULL,
+                    new AttributeExpression("b"))),
+                operator(Translator.OE_AND,
+                    operator(Translator.OE_LESS_THAN,
+                             new AttributeExpression("c"),
+                             new Int32LiteralValueExpression(2)),
+                    new BooleanLiteralValueExpression(true))));
+
+        IExpression expected = operator(Translator.OE_AND,
+            operator(Translator.OE_NOT_EQUALS, new AttributeExpression("a"),
+                     new Int32LiteralValueExpression(1)),
+            operator(Translator.OE_IS_NULL, new AttributeExpression("b")),
+            operator(Translator.OE_NOT, operator(Translator.OE_LESS_THAN,
+                new AttributeExpression("c"),
+                new Int32LiteralValueExpression(2))));
+
+        assertEquals(expected.toString(),
+                     new ExpressionNormalizer().normalize(input).toString());
+    }
+
+
+    /**
+     * and(a, not(a)) is always false.  The root of the tree must
+     * stay an operator.
+     */
+    @Test
+    public void testContradiction() {
+
+        OperatorExpression root = (OperatorExpression)operator(
+            Translator.OE_AND, compare("a"),
+            operator(Translator.OE_NOT, compare("a")));
+        ExpressionTree tree = new ExpressionNormalizer().normalize(
+            new ExpressionTree("Epoch", root));
+
+        assertEquals("Epoch", tree.getClassUnderQualification());
+        assertEquals(operator(Translator.OE_AND,
+                              new BooleanLiteralValueExpression(false)).
+                     toString(), tree.getRootExpression().toString());
+    }
+
+
+    /**
+     * Normalize a tree the way the GUI builds it, and check that the
+     * normalized tree accepts the same records as the original.
+     *
+     *      Epoch | None
+     *        Epoch | Any
+     *          Epoch | protocolID == "p1"
+     *          Epoch | Any
+     *            Epoch | startTime < 2011-01-01
+     *        Epoch | responses None have Any
+     *          Response | units == "mV"
+     *        Epoch | protocolID == "p1"
+     */
+    @Test
+    public void testSemantics() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.NONE);
+
+        RowData anyRow = new RowData();
+        anyRow.setCollectionOperator(CollectionOperator.ANY);
+        rootRow.addChildRow(anyRow);
+        anyRow.addChildRow(createRow(epochCD, "protocolID",
+                                     Operator.EQUALS, "p1"));
+        RowData nestedRow = new RowData();
+        nestedRow.setCollectionOperator(CollectionOperator.ANY);
+        anyRow.addChildRow(nestedRow);
+        nestedRow.addChildRow(createRow(epochCD, "startTime",
+            Operator.LESS_THAN, new DateTime(2011, 1, 1, 0, 0)));
+
+        RowData responsesRow = new RowData();
+        responsesRow.addAttribute(epochCD.getAttribute("responses"));
+        responsesRow.setCollectionOperator(CollectionOperator.NONE);
+        responsesRow.setCollectionOperator2(CollectionOperator.ANY);
+        rootRow.addChildRow(responsesRow);
+        responsesRow.addChildRow(createRow(responseCD, "units",
+                                           Operator.EQUALS, "mV"));
+
+        rootRow.addChildRow(createRow(epochCD, "protocolID",
+                                      Operator.EQUALS, "p1"));
+
+        ExpressionTree tree = RowDataToExpressionTree.translate(rootRow);
+        ExpressionNormalizer normalizer = new ExpressionNormalizer();
+        ExpressionTree normalized = normalizer.normalize(tree);
+        assertTrue(normalizer.getReport(), normalizer.getNodeCountAfter() <
+                   normalizer.getNodeCountBefore());
+
+        ExpressionEvaluator original = new ExpressionEvaluator(tree,
+            ExpressionEvaluator.NEVER_COMPILE);
+        ExpressionEvaluator rewritten = new ExpressionEvaluator(normalized,
+            ExpressionEvaluator.NEVER_COMPILE);
+        MapRecordAccessor accessor = new MapRecordAccessor();
+
+        Object[] protocolIDs = {"p1", "p2", null};
+        Object[] startTimes = {new DateTime(2010, 1, 1, 0, 0),
+                               new DateTime(2012, 1, 1, 0, 0), null};
+        Object[] responses = {list(), list(record("units", "mV")),
+                              list(record("units", "pA")), null};
+        int accepted = 0;
+        for (Object protocolID : protocolIDs) {
+            for (Object startTime : startTimes) {
+                for (Object response : responses) {
+                    Map<String,Object> epoch = record(
+                        "protocolID", protocolID, "startTime", startTime,
+                        "responses", response);
+                    boolean result = original.evaluate(epoch, accessor);
+                    assertEquals(epoch.toString(), result,
+                                 rewritten.evaluate(epoch, accessor));
+                    if (result)
+                        accepted++;
+                }
+            }
+        }
+        assertTrue(accepted > 0);
+    }
+
+
+    private static RowData createRow(ClassDescription cd,
+                                     String attributeName,
+                                     Operator operator, Object value) {
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(cd.getAttribute(attributeName));
+        rowData.setAttributeOperator(operator);
+        rowData.setAttributeValue(value);
+        return(rowData);
+    }
+
+
+    /**
+     * ==(name, 1)
+     */
+    private static IExpression compare(String name) {
+        return(operator(Translator.OE_EQUALS, new AttributeExpression(name),
+                        new Int32LiteralValueExpression(1)));
+    }
+
+
+    private static IExpression operator(String name,
+                                        IExpression... operands) {
+
+        OperatorExpression oe = new OperatorExpression(name);
+        for (IExpression operand : operands)
+            oe.addOperand(operand);
+        return(oe);
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.BooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.ClassLiteralValueExpression;
+import com.physion.ebuilder.expression.ExpressionFactory;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.Fingerprint;
+import com.physion.ebuilder.expression.Float64LiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.Int32LiteralValueExpression;
+import com.physion.ebuilder.expression.LiteralKind;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.expression.StringLiteralValueExpression;
+import com.physion.ebuilder.expression.TimeLiteralValueExpression;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import com.physion.ebuilder.translator.Translator;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Tests for the structural equals(), hashCode(), and Fingerprint
+ * of ExpressionTrees and the expression classes.
+ */
+public class ExpressionTreeEqualityTests extends TestCase {
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+
+    /**
+     * The fingerprint of and(a, b).  If this changes, fingerprints
+     * that were stored by an older version no longer match.
+     */
+    private static final String FINGERPRINT_AND_A_B =
+        "9091049da88e0e2d2367a554a8f365ef";
+
+
+    /**
+     * Trees that are translated from the same rows are equal, and
+     * have the same fingerprint, even though they are different
+     * objects.  Changing any value changes the fingerprint.
+     */
+    @Test
+    public void testTreeEquality() {
+
+        ExpressionTree tree1 = createTree("amplitude", Operator.EQUALS, 2.0);
+        ExpressionTree tree2 = createTree("amplitude", Operator.EQUALS, 2.0);
+
+        assertNotSame(tree1.getRootExpression(), tree2.getRootExpression());
+        assertEquals(tree1, tree2);
+        assertEquals(tree1.hashCode(), tree2.hashCode());
+        assertEquals(tree1.getFingerprint(), tree2.getFingerprint());
+        assertSame(tree1.getFingerprint(), tree1.getFingerprint());
+        assertEquals(32, tree1.getFingerprint().toString().length());
+
+        ExpressionTree[] others = {
+            createTree("amplitude", Operator.EQUALS, 3.0),
+            createTree("amplitude", Operator.LESS_THAN, 2.0),
+            createTree("duration", Operator.EQUALS, 2.0),
+            new ExpressionTree("EpochGroup", (IOperatorExpression)
+                               tree1.getRootExpression())};
+        for (ExpressionTree other : others) {
+            assertFalse(other.toString(), tree1.equals(other));
+            assertFalse(other.toString(), tree1.getFingerprint().equals(
+                other.getFingerprint()));
+        }
+
+        /**
+         * An interned tree is equal to the tree it was made from.
+         */
+        ExpressionTree interned = new ExpressionFactory().intern(tree1);
+        assertEquals(tree1, interned);
+        assertEquals(tree1.getFingerprint(), interned.getFingerprint());
+
+        Map<ExpressionTree,String> map = new HashMap<ExpressionTree,String>();
+        map.put(tree1, "tree1");
+        assertEquals("tree1", map.get(tree2));
+
+        assertTrue(tree1.testSerialization());
+    }
+
+
+    /**
+     * The leaves compare their classes as well as their values, and
+     * operators compare their operands in order.
+     */
+    /**
+     * A time literal is milliseconds and a time zone, but still
+     * serializes as the DateTime it used to hold.
+     */
+    @Test
+    public void testTimeLiteral()
+        throws IOException, ClassNotFoundException {
+
+        DateTimeZone zone = DateTimeZone.forID("America/New_York");
+        TimeLiteralValueExpression time = new TimeLiteralValueExpression(
+            new DateTime(2011, 6, 1, 12, 0, zone));
+        assertEquals(new DateTime(2011, 6, 1, 12, 0, zone).getMillis(),
+                     time.getMillis());
+        assertEquals(zone, time.getZone());
+        assertEquals(new DateTime(2011, 6, 1, 12, 0, zone),
+                     time.getTimeValue());
+        assertEquals(time.getTimeValue(), time.getValue());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(time);
+        out.writeObject(new TimeLiteralValueExpression(null));
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(time, in.readObject());
+
+        TimeLiteralValueExpression nullTime =
+            (TimeLiteralValueExpression)in.readObject();
+        assertNull(nullTime.getZone());
+        assertNull(nullTime.getTimeValue());
+    }
+
+
+    /**
+     * Each literal reports its kind, and its value without boxing.
+     */
+    @Test
+    public void testLiteralKind() {
+
+        assertEquals(LiteralKind.INT32,
+                     new Int32LiteralValueExpression(7).getLiteralKind());
+        assertEquals(7, new Int32LiteralValueExpression(7).getIntValue());
+        assertEquals(LiteralKind.FLOAT64,
+                     new Float64LiteralValueExpression(2.5).getLiteralKind());
+        assertEquals(2.5, new Float64LiteralValueExpression(2.5).
+            getDoubleValue(), 0.0);
+        assertEquals(LiteralKind.BOOLEAN, new BooleanLiteralValueExpression(
+            Boolean.TRUE).getLiteralKind());
+        assertTrue(new BooleanLiteralValueExpression(Boolean.TRUE).
+            getBooleanValue());
+        assertEquals(LiteralKind.STRING,
+                     new StringLiteralValueExpression("x").getLiteralKind());
+        assertEquals(LiteralKind.TIME, new TimeLiteralValueExpression(
+            new DateTime(0L)).getLiteralKind());
+        assertEquals(LiteralKind.CLASS, new ClassLiteralValueExpression(
+            Translator.CLVE_FLOAT).getLiteralKind());
+    }
+
+
+    @Test
+    public void testExpressionEquality() {
+
+        assertEquals(new Int32LiteralValueExpression(1),
+                     new Int32LiteralValueExpression(1));
+        assertFalse(new Int32LiteralValueExpression(1).equals(
+                    new Float64LiteralValueExpression(1)));
+        assertFalse(new AttributeExpression("x").equals(
+                    new StringLiteralValueExpression("x")));
+        assertFalse(Fingerprint.of(new AttributeExpression("x")).equals(
+                    Fingerprint.of(new StringLiteralValueExpression("x"))));
+
+        DateTime time = new DateTime(2011, 1, 1, 0, 0, DateTimeZone.UTC);
+        assertEquals(new TimeLiteralValueExpression(time),
+                     new TimeLiteralValueExpression(new DateTime(
+                         time.getMillis(), DateTimeZone.UTC)));
+        assertEquals(new TimeLiteralValueExpression(time),
+                     new TimeLiteralValueExpression(time.getMillis(),
+                                                    DateTimeZone.UTC));
+        assertFalse(new TimeLiteralValueExpression(time).equals(
+                    new TimeLiteralValueExpression(time.withZone(
+                        DateTimeZone.forID("America/New_York")))));
+        assertFalse(Fingerprint.of(new TimeLiteralValueExpression(time)).
+            equals(Fingerprint.of(new TimeLiteralValueExpression(
+                time.withZone(DateTimeZone.forID("America/New_York"))))));
+
+        OperatorExpression ab = operator(Translator.OE_AND, "a", "b");
+        assertEquals(ab, operator(Translator.OE_AND, "a", "b"));
+        assertEquals(ab.hashCode(),
+                     operator(Translator.OE_AND, "a", "b").hashCode());
+        assertEquals(Fingerprint.of(ab),
+                     Fingerprint.of(operator(Translator.OE_AND, "a", "b")));
+        assertFalse(ab.equals(operator(Translator.OE_AND, "b", "a")));
+        assertFalse(ab.equals(operator(Translator.OE_OR, "a", "b")));
+
+        /**
+         * and(or(a, b), c) is not and(or(a), b, c).
+         */
+        OperatorExpression nested1 = new OperatorExpression(Translator.OE_AND);
+        nested1.addOperand(operator(Translator.OE_OR, "a", "b"));
+        nested1.addOperand(new AttributeExpression("c"));
+        OperatorExpression nested2 = new OperatorExpression(Translator.OE_AND);
+        nested2.addOperand(operator(Translator.OE_OR, "a"));
+        nested2.addOperand(new AttributeExpression("b"));
+        nested2.addOperand(new AttributeExpression("c"));
+        assertFalse(nested1.equals(nested2));
+        assertFalse(Fingerprint.of(nested1).equals(Fingerprint.of(nested2)));
+    }
+
+
+    /**
+     * The fingerprint does not depend on the JVM, so it can be stored.
+     */
+    @Test
+    public void testStableFingerprint() {
+
+        Fingerprint fingerprint = Fingerprint.of(
+            operator(Translator.OE_AND, "a", "b"));
+        assertEquals(new Fingerprint(fingerprint.getHigh(),
+                                     fingerprint.getLow()), fingerprint);
+        assertEquals(FINGERPRINT_AND_A_B, fingerprint.toString());
+    }
+
+
+    /**
+     *      Epoch | Any
+     *        Epoch | protocolParameters.key(float) operator value
+     */
+    private static ExpressionTree createTree(String key, Operator operator,
+                                             double value) {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ANY);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolParameters"));
+        rowData.setPropName(key);
+        rowData.setPropType(Type.FLOAT_64);
+        rowData.setAttributeOperator(operator);
+        rowData.setAttributeValue(new Double(value));
+        rootRow.addChildRow(rowData);
+
+        return(RowDataToExpressionTree.translate(rootRow));
+    }
+
+
+    private static OperatorExpression operator(String name,
+                                               String... attributeNames) {
+
+        OperatorExpression oe = new OperatorExpression(name);
+        for (String attributeName : attributeNames)
+            oe.addOperand(new AttributeExpression(attributeName));
+        return(oe);
+    }
+}
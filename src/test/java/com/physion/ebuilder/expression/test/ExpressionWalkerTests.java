@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression.test;
+
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.ExpressionVisitorAdapter;
+import com.physion.ebuilder.expression.ExpressionWalker;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IBooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.IClassLiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.IExpressionVisitor;
+import com.physion.ebuilder.expression.IFloat64LiteralValueExpression;
+import com.physion.ebuilder.expression.IInt32LiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.IStringLiteralValueExpression;
+import com.physion.ebuilder.expression.ITimeLiteralValueExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.translator.Translator;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+
+/**
+ * Tests for IExpression.accept() and the ExpressionWalker.
+ */
+public class ExpressionWalkerTests extends TestCase {
+
+    /**
+     * accept() and the walker visit the same nodes in the same order,
+     * and every kind of node calls its own visit method.
+     */
+    @Test
+    public void testOrder() {
+
+        ExpressionTree tree = FlatExpressionTreeTests.createTree();
+
+        RecordingVisitor recursive = new RecordingVisitor();
+        tree.getRootExpression().accept(recursive);
+
+        RecordingVisitor iterative = new RecordingVisitor();
+        ExpressionWalker walker = new ExpressionWalker();
+        walker.walk(tree, iterative);
+        assertEquals(recursive.toString(), iterative.toString());
+
+        /**
+         * The walker can be used again.
+         */
+        iterative = new RecordingVisitor();
+        walker.walk(tree, iterative);
+        assertEquals(recursive.toString(), iterative.toString());
+
+        String events = recursive.toString();
+        assertTrue(events, events.startsWith("(and "));
+        assertTrue(events, events.endsWith(") "));
+        for (String kind : new String[] {"attribute:", "boolean:", "int32:",
+                                         "float64:", "string:", "time:",
+                                         "class:"}) {
+            assertTrue(kind+" "+events, events.contains(kind));
+        }
+    }
+
+
+    /**
+     * If visitOperator() returns false, the operands are skipped,
+     * but endOperator() is still called.
+     */
+    @Test
+    public void testSkipOperands() {
+
+        OperatorExpression inner = new OperatorExpression(Translator.OE_OR);
+        inner.addOperand(new AttributeExpression("b"));
+        OperatorExpression root = new OperatorExpression(Translator.OE_AND);
+        root.addOperand(new AttributeExpression("a"));
+        root.addOperand(inner);
+        root.addOperand(new AttributeExpression("c"));
+
+        RecordingVisitor visitor = new RecordingVisitor() {
+            @Override
+            public boolean visitOperator(IOperatorExpression e) {
+                super.visitOperator(e);
+                return(!Translator.OE_OR.equals(e.getOperatorName()));
+            }
+        };
+        new ExpressionWalker().walk(root, visitor);
+        assertEquals("(and attribute:a (or ) attribute:c ) ",
+                     visitor.toString());
+    }
+
+
+    /**
+     * The walker does not recurse, so it can walk a tree that is far
+     * too deep for accept().
+     */
+    @Test
+    public void testDeepTree() {
+
+        int depth = 200000;
+        IExpression expression = new AttributeExpression("a");
+        for (int index = 0; index < depth; index++) {
+            OperatorExpression not = new OperatorExpression(
+                Translator.OE_NOT);
+            not.addOperand(expression);
+            expression = not;
+        }
+
+        final int[] counts = new int[3];
+        new ExpressionWalker().walk(expression, new ExpressionVisitorAdapter() {
+
+            @Override
+            public boolean visitOperator(IOperatorExpression e) {
+                counts[0]++;
+                return(true);
+            }
+
+            @Override
+            public void endOperator(IOperatorExpression e) {
+                counts[1]++;
+            }
+
+            @Override
+            public void visitAttributeValue(IAttributeExpression e) {
+                counts[2]++;
+            }
+        });
+
+        assertEquals(depth, counts[0]);
+        assertEquals(depth, counts[1]);
+        assertEquals(1, counts[2]);
+    }
+
+
+    /**
+     * A visitor that records the nodes it sees in a String like:
+     *
+     *      (and (== attribute:a int32:1 ) )
+     */
+    private static class RecordingVisitor implements IExpressionVisitor {
+
+        private StringBuilder events = new StringBuilder();
+
+        public boolean visitOperator(IOperatorExpression e) {
+            events.append("(").append(e.getOperatorName()).append(" ");
+            return(true);
+        }
+
+        public void endOperator(IOperatorExpression e) {
+            events.append(") ");
+        }
+
+        public void visitAttributeValue(IAttributeExpression e) {
+            add("attribute", e.getAttributeName());
+        }
+
+        public void visitBooleanLiteralValue(
+            IBooleanLiteralValueExpression e) {
+            add("boolean", e.getValue());
+        }
+
+        public void visitInt32LiteralValue(IInt32LiteralValueExpression e) {
+            add("int32", e.getValue());
+        }
+
+        public void visitFloat64LiteralValue(
+            IFloat64LiteralValueExpression e) {
+            add("float64", e.getValue());
+        }
+
+        public void visitStringLiteralValue(IStringLiteralValueExpression e) {
+            add("string", e.getValue());
+        }
+
+        public void visitTimeLiteralValue(ITimeLiteralValueExpression e) {
+            add("time", e.getValue());
+        }
+
+        public void visitClassLiteralValue(IClassLiteralValueExpression e) {
+            add("class", e.getValue());
+        }
+
+        private void add(String kind, Object value) {
+            events.append(kind).append(":").append(value).append(" ");
+        }
+
+        @Override
+        public String toString() {
+            return(events.toString());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression.test;
+
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.FlatExpressionTree;
+
+
+/**
+ * A simple benchmark that compares the heap used by a library of
+ * ExpressionTrees with the heap used by the same library stored as
+ * FlatExpressionTrees, and the time it takes to convert between them.
+ *
+ * This is not a unit test, so it is not run by "mvn test".  Run its
+ * main() method by hand.  The heap numbers are measured with
+ * Runtime.totalMemory()-freeMemory() after a few System.gc() calls,
+ * so they are approximate, but the difference is large.
+ */
+public class FlatExpressionTreeBenchmark {
+
+    private static final int TREE_COUNT = 100000;
+
+
+    public static void main(String[] args) {
+
+        long baseline = getUsedMemory();
+        ExpressionTree[] trees = new ExpressionTree[TREE_COUNT];
+        for (int index = 0; index < TREE_COUNT; index++)
+            trees[index] = FlatExpressionTreeTests.createTree();
+        long treeBytes = getUsedMemory()-baseline;
+
+        /**
+         * Warm up the JIT compiler.
+         */
+        for (int index = 0; index < TREE_COUNT; index++)
+            new FlatExpressionTree(trees[index]).toExpressionTree();
+
+        long start = System.nanoTime();
+        FlatExpressionTree[] flats = new FlatExpressionTree[TREE_COUNT];
+        for (int index = 0; index < TREE_COUNT; index++)
+            flats[index] = new FlatExpressionTree(trees[index]);
+        long flattenNanos = System.nanoTime()-start;
+
+        start = System.nanoTime();
+        int check = 0;
+        for (int index = 0; index < TREE_COUNT; index++)
+            check += flats[index].toExpressionTree().
+                getClassUnderQualification().length();
+        long expandNanos = System.nanoTime()-start;
+
+        trees = null;
+        long flatBytes = getUsedMemory()-baseline;
+
+        System.out.println("Nodes per tree:       "+flats[0].getNodeCount());
+        System.out.println("ExpressionTree:       "+(treeBytes/TREE_COUNT)+
+                           " bytes per tree");
+        System.out.println("FlatExpressionTree:   "+(flatBytes/TREE_COUNT)+
+                           " bytes per tree");
+        System.out.println("Flatten:              "+
+                           (flattenNanos/TREE_COUNT)+" ns per tree");
+        System.out.println("Expand:               "+
+                           (expandNanos/TREE_COUNT)+" ns per tree ("+check+
+                           ")");
+    }
+
+
+    private static long getUsedMemory() {
+
+        Runtime runtime = Runtime.getRuntime();
+        for (int index = 0; index < 4; index++)
+            System.gc();
+        return(runtime.totalMemory()-runtime.freeMemory());
+    }
+}
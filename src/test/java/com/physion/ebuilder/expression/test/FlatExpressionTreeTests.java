@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.Expression;
+import com.physion.ebuilder.expression.ExpressionNormalizer;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.FlatExpressionTree;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import com.physion.ebuilder.translator.Translator;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+
+/**
+ * Tests for the FlatExpressionTree.
+ */
+public class FlatExpressionTreeTests extends TestCase {
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+    private static ClassDescription responseCD =
+            DataModel.getClassDescription("Response");
+
+
+    /**
+     * A tree with every kind of literal survives the trip to the
+     * flat form and back, and the nodes are in postfix order.
+     */
+    @Test
+    public void testRoundTrip() {
+
+        ExpressionTree tree = createTree();
+        FlatExpressionTree flat = new FlatExpressionTree(tree);
+
+        assertEquals(ExpressionNormalizer.countNodes(tree.getRootExpression()),
+                     flat.getNodeCount());
+        ExpressionTree copy = flat.toExpressionTree();
+        assertEquals(tree, copy);
+        assertEquals(tree.getFingerprint(), copy.getFingerprint());
+        assertEquals(flat, new FlatExpressionTree(copy));
+        assertEquals(flat.hashCode(), new FlatExpressionTree(copy).hashCode());
+
+        /**
+         * Walk the nodes with a stack of subtree sizes.  Every operator
+         * must find its operands on the stack, and exactly one subtree,
+         * the root, must be left at the end.
+         */
+        int[] stack = new int[flat.getNodeCount()];
+        int top = 0;
+        int timeCount = 0;
+        for (int node = 0; node < flat.getNodeCount(); node++) {
+
+            int size = 1;
+            if (flat.getOpcode(node) == FlatExpressionTree.OPERATOR) {
+                int count = flat.getOperandCount(node);
+                assertTrue(count <= top);
+                for (int index = 0; index < count; index++)
+                    size += stack[--top];
+            }
+            else if (flat.getOpcode(node) == FlatExpressionTree.TIME) {
+                assertEquals(new DateTime(2011, 1, 1, 0, 0,
+                    DateTimeZone.UTC).getMillis(), flat.getMillis(node));
+                assertEquals(DateTimeZone.UTC, flat.getZone(node));
+                timeCount++;
+            }
+            stack[top++] = size;
+        }
+        assertEquals(1, top);
+        assertEquals(flat.getNodeCount(), stack[0]);
+        assertEquals(1, timeCount);
+        assertEquals(tree.getClassUnderQualification(),
+                     flat.getClassUnderQualification());
+        assertEquals(FlatExpressionTree.OPERATOR,
+                     flat.getOpcode(flat.getNodeCount()-1));
+    }
+
+
+    /**
+     * Flattening walks the tree once, without recursion, so a tree
+     * that is far too deep for accept() can be flattened, and an
+     * unknown kind of node is still caught.
+     */
+    @Test
+    public void testDeepTree() {
+
+        int depth = 200000;
+        IExpression expression = new AttributeExpression("a");
+        for (int index = 0; index < depth; index++) {
+            OperatorExpression not = new OperatorExpression(
+                Translator.OE_NOT);
+            not.addOperand(expression);
+            expression = not;
+        }
+
+        FlatExpressionTree flat = new FlatExpressionTree(new ExpressionTree(
+            "Epoch", (IOperatorExpression)expression));
+        assertEquals(depth+1, flat.getNodeCount());
+        assertEquals(FlatExpressionTree.ATTRIBUTE, flat.getOpcode(0));
+        assertEquals(Translator.OE_NOT, flat.getString(depth));
+        assertEquals(1, flat.getOperandCount(depth));
+
+        OperatorExpression and = new OperatorExpression(Translator.OE_AND);
+        and.addOperand(new AttributeExpression("a"));
+        and.addOperand(new Expression());
+        try {
+            new FlatExpressionTree(new ExpressionTree("Epoch", and));
+            fail("Expected an IllegalArgumentException.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     * The flat form serializes into fewer bytes than the tree of
+     * objects, because the repeated operator and attribute names are
+     * only stored once, and there is no per-node class information.
+     */
+    @Test
+    public void testSize() throws IOException {
+
+        ExpressionTree tree = createTree();
+        int treeBytes = getSerializedSize(tree);
+        int flatBytes = getSerializedSize(new FlatExpressionTree(tree));
+        assertTrue(flatBytes+" < "+treeBytes, flatBytes < treeBytes);
+    }
+
+
+    private static int getSerializedSize(Serializable object)
+        throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(bytes);
+        outputStream.writeObject(object);
+        outputStream.close();
+        return(bytes.size());
+    }
+
+
+    /**
+     *      Epoch | All
+     *        Epoch | protocolID == "p1"
+     *        Epoch | startTime < 2011-01-01
+     *        Epoch | excludeFromAnalysis is true
+     *        Epoch | protocolParameters.stimFrequency(int) == 10
+     *        Epoch | protocolParameters.amplitude(float) > 2.5
+     *        Epoch | responses Any have Any
+     *          Response | units == "mV"
+     */
+    static ExpressionTree createTree() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        rootRow.addChildRow(createRow(epochCD, "protocolID",
+                                      Operator.EQUALS, "p1"));
+        rootRow.addChildRow(createRow(epochCD, "startTime",
+            Operator.LESS_THAN, new DateTime(2011, 1, 1, 0, 0,
+                                             DateTimeZone.UTC)));
+        rootRow.addChildRow(createRow(epochCD, "excludeFromAnalysis",
+                                      Operator.IS_TRUE, null));
+        rootRow.addChildRow(createParameterRow("stimFrequency", Type.INT_32,
+            Operator.EQUALS, Integer.valueOf(10)));
+        rootRow.addChildRow(createParameterRow("amplitude", Type.FLOAT_64,
+            Operator.GREATER_THAN, Double.valueOf(2.5)));
+
+        RowData responsesRow = new RowData();
+        responsesRow.addAttribute(epochCD.getAttribute("responses"));
+        responsesRow.setCollectionOperator(CollectionOperator.ANY);
+        responsesRow.setCollectionOperator2(CollectionOperator.ANY);
+        rootRow.addChildRow(responsesRow);
+        responsesRow.addChildRow(createRow(responseCD, "units",
+                                           Operator.EQUALS, "mV"));
+
+        return(RowDataToExpressionTree.translate(rootRow));
+    }
+
+
+    private static RowData createRow(ClassDescription cd,
+                                     String attributeName,
+                                     Operator operator, Object value) {
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(cd.getAttribute(attributeName));
+        rowData.setAttributeOperator(operator);
+        if (value != null)
+            rowData.setAttributeValue(value);
+        return(rowData);
+    }
+
+
+    private static RowData createParameterRow(String key, Type type,
+                                              Operator operator,
+                                              Object value) {
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolParameters"));
+        rowData.setPropName(key);
+        rowData.setPropType(type);
+        rowData.setAttributeOperator(operator);
+        rowData.setAttributeValue(value);
+        return(rowData);
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.expression.test;
+
+import com.physion.ebuilder.expression.BooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.Int32LiteralValueExpression;
+import com.physion.ebuilder.expression.LiteralKind;
+import com.physion.ebuilder.expression.QueryShape;
+import com.physion.ebuilder.expression.StringLiteralValueExpression;
+import com.physion.ebuilder.expression.TimeLiteralValueExpression;
+import com.physion.ebuilder.translator.ExpressionTreeToPQL;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Tests for QueryShape.
+ */
+public class QueryShapeTests extends TestCase {
+
+    private static final String QUERY =
+        "and(protocolID == \"p1\", "+
+            "startTime > #\"2011-03-01T00:00:00.000Z[UTC]\", "+
+            "count(responses) > 2, "+
+            "as(parameter(protocolParameters, \"a\"), "+
+            "@ovation.IntegerValue).value == 3)";
+
+
+    private static QueryShape shape(String pql) {
+        return(QueryShape.of(PQLToExpressionTree.translate("Epoch", pql)));
+    }
+
+
+    /**
+     * Queries that only differ in their literals have the same shape.
+     */
+    @Test
+    public void testSameShape() {
+
+        QueryShape shape = shape(QUERY);
+        QueryShape other = shape(
+            "and(protocolID == \"p7\", "+
+                "startTime > #\"2011-06-30T12:00:00.000Z[UTC]\", "+
+                "count(responses) > 0, "+
+                "as(parameter(protocolParameters, \"b\"), "+
+                "@ovation.IntegerValue).value == -1)");
+
+        assertEquals(shape, other);
+        assertEquals(shape.hashCode(), other.hashCode());
+        assertEquals(shape.getFingerprint(), other.getFingerprint());
+        assertEquals(shape.getShapeTree().getFingerprint(),
+                     shape.getFingerprint());
+        assertEquals("and(protocolID == \"\", "+
+            "startTime > #\"1970-01-01T00:00:00.000Z[UTC]\", "+
+            "count(responses) > 0, "+
+            "as(parameter(protocolParameters, \"\"), "+
+            "@ovation.IntegerValue).value == 0)",
+            ExpressionTreeToPQL.translate(shape.getShapeTree()));
+
+        /**
+         * A different kind of literal, a different operator, or a
+         * different Class Under Qualification is a different shape.
+         */
+        String[] different = {
+            QUERY.replace("> 2", "> 2.5"),
+            QUERY.replace("count(responses) > 2", "count(responses) >= 2"),
+            QUERY.replace("@ovation.IntegerValue", "@ovation.StringValue")};
+        for (String pql : different)
+            assertFalse(pql, shape.equals(shape(pql)));
+
+        ExpressionTree tree = PQLToExpressionTree.translate("Epoch",
+                                                            "label == \"x\"");
+        ExpressionTree group = PQLToExpressionTree.translate("EpochGroup",
+                                                             "label == \"x\"");
+        assertFalse(QueryShape.of(tree).equals(QueryShape.of(group)));
+    }
+
+
+    /**
+     * The binds are the literals, other than class literals, in order.
+     */
+    @Test
+    public void testBinds() {
+
+        QueryShape shape = shape(QUERY);
+
+        assertEquals(5, shape.getBindCount());
+        List<Object> values = new ArrayList<Object>();
+        for (ILiteralValueExpression bind : shape.getBinds())
+            values.add(bind.getValue());
+        assertEquals(Arrays.<Object>asList("p1",
+            new DateTime(2011, 3, 1, 0, 0, 0, 0, DateTimeZone.UTC),
+            Integer.valueOf(2), "a", Integer.valueOf(3)), values);
+        assertEquals(LiteralKind.TIME, shape.getBindKind(1));
+        assertEquals(LiteralKind.INT32, shape.getBindKind(4));
+        assertEquals(0, shape("isnull(epochGroup)").getBindCount());
+
+        try {
+            shape.getBinds().clear();
+            fail("The binds can't be changed.");
+        }
+        catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     * bind() creates the query of the shape with other binds.
+     */
+    @Test
+    public void testBind() {
+
+        QueryShape shape = shape(QUERY);
+
+        ExpressionTree same = shape.bind(shape.getBinds());
+        assertEquals(PQLToExpressionTree.translate("Epoch", QUERY), same);
+
+        List<ILiteralValueExpression> binds =
+            new ArrayList<ILiteralValueExpression>(shape.getBinds());
+        binds.set(0, new StringLiteralValueExpression("p9"));
+        binds.set(1, new TimeLiteralValueExpression(
+            new DateTime(2011, 7, 4, 0, 0, 0, 0, DateTimeZone.UTC)));
+        binds.set(2, new Int32LiteralValueExpression(0));
+        ExpressionTree other = shape.bind(binds);
+        assertEquals(QUERY.replace("p1", "p9").replace("03-01", "07-04").
+                     replace("> 2", "> 0"),
+                     ExpressionTreeToPQL.translate(other));
+        assertEquals(shape, QueryShape.of(other));
+
+        /**
+         * The query this shape was created from is not changed.
+         */
+        assertEquals(PQLToExpressionTree.translate("Epoch", QUERY), same);
+
+        try {
+            shape.bind(binds.subList(0, 4));
+            fail("A query of this shape has 5 binds.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        binds.set(2, new BooleanLiteralValueExpression(true));
+        try {
+            shape.bind(binds);
+            fail("Bind 2 must be an INT32.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.evaluator.ExpressionEvaluator;
+import com.physion.ebuilder.evaluator.ShapeCache;
+import com.physion.ebuilder.evaluator.test.MapRecordAccessor;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.translator.ExpressionTreeToSQL;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import com.physion.ebuilder.translator.SQLStatement;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.list;
+import static com.physion.ebuilder.evaluator.test.MapRecordAccessor.record;
+
+
+/**
+ * Tests for ExpressionTreeToSQL and SQLStatement.
+ */
+public class ExpressionTreeToSQLTests extends TestCase {
+
+    private static final String MARCH = "#\"2011-03-01T00:00:00.000Z[UTC]\"";
+
+    private static final String[] QUERIES = {
+        "protocolID == \"p1\"",
+        "protocolID != \"p1\"",
+        "not(protocolID == \"p1\")",
+        "not(protocolID == \"p2\")",
+        "and(startTime >= "+MARCH+", \"p2\" > protocolID)",
+        "or(excludeFromAnalysis, isnull(startTime))",
+        "not(excludeFromAnalysis == false)",
+        "epochGroup.label == \"g1\"",
+        "not(epochGroup.label != \"g1\")",
+        "or(isnull(epochGroup), epochGroup.source.label =~~ \"S\")",
+        "epochGroup.label !~ \"1\"",
+        "not(protocolID !~~ \"P\")",
+        "all(responses, units !~ \"V\")",
+        "protocolID == epochGroup.label",
+        "protocolID != epochGroup.label",
+        "any(responses, units == \"mV\")",
+        "not(any(responses, and(units == \"mV\", samplingRate > 5.5)))",
+        "all(responses, units == \"mV\")",
+        "all(responses, not(isnull(units)))",
+        "any(responses)",
+        "count(responses) >= 2",
+        "and(count(responses) < 3, any(epochGroup.epochs, "+
+            "protocolID == \"p0\"))",
+        "or(false, 1 == count(epochGroup.epochs))"};
+
+
+    /**
+     * Paths are joined once, collections are subqueries, and every
+     * literal is a "?".
+     */
+    @Test
+    public void testSQL() {
+
+        ExpressionTree tree = PQLToExpressionTree.translate("Epoch",
+            "and(protocolID != \"p1\", epochGroup.label =~~ \"g\", "+
+            "isnull(epochGroup.source), any(responses, units == \"mV\"), "+
+            "count(responses) > 2)");
+        SQLStatement sql = ExpressionTreeToSQL.translate(tree, null);
+
+        assertEquals("\"Epoch\" t0 "+
+            "LEFT JOIN \"EpochGroup\" t1 ON t1.\"id\" = t0.\"epochGroup_id\"",
+            sql.getFromClause());
+        assertEquals("("+
+            "(t0.\"protocolID\" IS NULL OR t0.\"protocolID\" <> ?) AND "+
+            "(t1.\"label\" IS NOT NULL AND REGEXP_LIKE(t1.\"label\", ?, 'i')) "+
+            "AND t1.\"source_id\" IS NULL AND "+
+            "EXISTS (SELECT 1 FROM \"Epoch_responses\" t2 "+
+            "JOIN \"Response\" t3 ON t3.\"id\" = t2.\"element_id\" "+
+            "WHERE t2.\"owner_id\" = t0.\"id\" AND "+
+            "(t3.\"units\" IS NOT NULL AND t3.\"units\" = ?)) AND "+
+            "(SELECT COUNT(*) FROM \"Epoch_responses\" t4 "+
+            "WHERE t4.\"owner_id\" = t0.\"id\") > ?)",
+            sql.getWhereClause());
+        assertTrue(sql.getSQL().startsWith("SELECT t0.\"id\" FROM \"Epoch\""));
+        assertEquals(4, sql.getBindCount());
+        assertEquals(Arrays.<Object>asList("p1", "g", "mV",
+                                           Integer.valueOf(2)),
+                     sql.getBindValues(tree));
+
+        tree = PQLToExpressionTree.translate("Epoch",
+            "startTime < "+MARCH);
+        assertEquals(Arrays.<Object>asList(new Timestamp(new DateTime(
+            2011, 3, 1, 0, 0, 0, 0, DateTimeZone.UTC).getMillis())),
+            ExpressionTreeToSQL.translate(tree, null).getBindValues(tree));
+
+        /**
+         * A table for each class and to-many reference.
+         */
+        List<String> statements = ExpressionTreeToSQL.
+            getCreateTableStatements(DataModel.getClassDescription(
+                "EpochGroup"));
+        assertTrue(statements.get(0).startsWith(
+            "CREATE TABLE \"EpochGroup\" (\"id\" VARCHAR(64) PRIMARY KEY"));
+        assertTrue(statements.get(0).contains(", \"label\" VARCHAR"));
+        assertTrue(statements.get(0).contains(
+            ", \"startTime\" TIMESTAMP"));
+        assertTrue(statements.get(0).contains(
+            ", \"source_id\" VARCHAR(64)"));
+        assertTrue(statements.contains("CREATE TABLE \"EpochGroup_epochs\" "+
+            "(\"owner_id\" VARCHAR(64) NOT NULL, "+
+            "\"element_id\" VARCHAR(64) NOT NULL)"));
+    }
+
+
+    /**
+     * Queries of the same shape share their SQL.
+     */
+    @Test
+    public void testShapeCache() {
+
+        ShapeCache<SQLStatement> cache = new ShapeCache<SQLStatement>(10);
+        ExpressionTree p1 = PQLToExpressionTree.translate("Epoch",
+            "and(protocolID == \"p1\", count(responses) > 2)");
+        ExpressionTree p7 = PQLToExpressionTree.translate("Epoch",
+            "and(protocolID == \"p7\", count(responses) > 0)");
+
+        SQLStatement sql = ExpressionTreeToSQL.translate(p1, cache);
+        assertSame(sql, ExpressionTreeToSQL.translate(p7, cache));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(Arrays.<Object>asList("p7", Integer.valueOf(0)),
+                     sql.getBindValues(p7));
+
+        ExpressionTree other = PQLToExpressionTree.translate("Epoch",
+            "and(protocolID == \"p1\", count(responses) >= 2)");
+        assertNotSame(sql, ExpressionTreeToSQL.translate(other, cache));
+        try {
+            sql.getBindValues(other);
+            fail("The query is of another shape.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        /**
+         * Parameters maps and per-user attributes are not in the
+         * relational copy.
+         */
+        String[] untranslatable = {
+            "as(parameter(protocolParameters, \"a\"), "+
+                "@ovation.IntegerValue).value == 3",
+            "any(keywords, tag == \"x\")",
+            "noSuchAttribute == 1",
+            "isnull(responses)"};
+        for (String pql : untranslatable) {
+            try {
+                ExpressionTreeToSQL.translate(PQLToExpressionTree.translate(
+                    "Epoch", pql), cache);
+                fail(pql);
+            }
+            catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+
+    /**
+     * The database selects the records the ExpressionEvaluator does.
+     */
+    @Test
+    public void testSameRecords() throws SQLException {
+
+        Random random = new Random(1);
+        List<Map<String,Object>> epochs = new ArrayList<Map<String,Object>>();
+        List<Map<String,Object>> groups = new ArrayList<Map<String,Object>>();
+        for (int index = 0; index < 3; index++) {
+            Map<String,Object> source = record("id", "s"+index,
+                "label", (index == 0) ? null : "Source"+index);
+            groups.add(record("id", "g"+index, "label", "g"+index,
+                "source", (index == 2) ? null : source, "epochs", list()));
+        }
+        groups.add(record("id", "g3", "epochs", list()));
+
+        for (int index = 0; index < 300; index++) {
+
+            Map<String,Object> epoch = record("id", "e"+index,
+                "excludeFromAnalysis", (random.nextInt(5) == 0) ? null :
+                Boolean.valueOf(random.nextBoolean()));
+            if (random.nextInt(10) != 0) {
+                epoch.put("startTime", new DateTime(2011, 1, 1, 0, 0, 0, 0,
+                    DateTimeZone.UTC).plusDays(random.nextInt(120)));
+            }
+            if (random.nextInt(4) != 0)
+                epoch.put("protocolID", "p"+random.nextInt(4));
+            if (random.nextInt(4) != 0) {
+                Map<String,Object> group = groups.get(random.nextInt(4));
+                epoch.put("epochGroup", group);
+                asList(group.get("epochs")).add(epoch);
+            }
+
+            List<Object> responses = list();
+            for (int count = random.nextInt(4); count > 0; count--) {
+                responses.add(record("id", "r"+index+"_"+count,
+                    "units", (random.nextInt(5) == 0) ? null :
+                    (random.nextBoolean() ? "mV" : "pA"),
+                    "samplingRate", Double.valueOf(random.nextInt(10))));
+            }
+            epoch.put("responses", responses);
+            epochs.add(epoch);
+        }
+
+        Connection connection = DriverManager.getConnection(
+            "jdbc:h2:mem:ExpressionTreeToSQLTests");
+        try {
+            createDatabase(connection, groups, epochs);
+
+            MapRecordAccessor accessor = new MapRecordAccessor();
+            Map<String,PreparedStatement> statements =
+                new HashMap<String,PreparedStatement>();
+            int selected = 0;
+            for (String query : QUERIES) {
+
+                ExpressionTree tree = PQLToExpressionTree.translate("Epoch",
+                                                                    query);
+                ExpressionEvaluator evaluator = new ExpressionEvaluator(tree,
+                    ExpressionEvaluator.NEVER_COMPILE);
+                Set<String> expected = new TreeSet<String>();
+                for (Map<String,Object> epoch : epochs) {
+                    if (evaluator.evaluate(epoch, accessor))
+                        expected.add((String)epoch.get("id"));
+                }
+
+                SQLStatement sql = ExpressionTreeToSQL.translate(tree);
+                PreparedStatement statement = statements.get(sql.getSQL());
+                if (statement == null) {
+                    statement = connection.prepareStatement(sql.getSQL());
+                    statements.put(sql.getSQL(), statement);
+                }
+                sql.setBinds(statement, tree);
+
+                Set<String> ids = new TreeSet<String>();
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next())
+                    ids.add(resultSet.getString(1));
+                resultSet.close();
+
+                assertEquals(query+"\n"+sql, expected, ids);
+                selected += expected.size();
+            }
+            assertTrue(selected > 0);
+
+            /**
+             * "not(protocolID == \"p1\")" and "not(protocolID == \"p2\")"
+             * reuse the same PreparedStatement.
+             */
+            assertTrue(statements.size() < QUERIES.length);
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+
+    private static void createDatabase(Connection connection,
+                                       List<Map<String,Object>> groups,
+                                       List<Map<String,Object>> epochs)
+        throws SQLException {
+
+        Statement statement = connection.createStatement();
+        for (String name : new String[] {"Epoch", "EpochGroup", "Source",
+                                         "Response"}) {
+            for (String sql : ExpressionTreeToSQL.getCreateTableStatements(
+                     DataModel.getClassDescription(name)))
+                statement.execute(sql);
+        }
+        statement.close();
+
+        for (Map<String,Object> group : groups) {
+            Map<String,Object> source = asRecord(group.get("source"));
+            if (source != null) {
+                insert(connection, "INSERT INTO \"Source\" (\"id\", "+
+                    "\"label\") VALUES (?, ?)", source.get("id"),
+                    source.get("label"));
+            }
+            insert(connection, "INSERT INTO \"EpochGroup\" (\"id\", "+
+                "\"label\", \"source_id\") VALUES (?, ?, ?)", group.get("id"),
+                group.get("label"), (source == null) ? null : source.get("id"));
+            for (Object epoch : asList(group.get("epochs"))) {
+                insert(connection, "INSERT INTO \"EpochGroup_epochs\" "+
+                    "(\"owner_id\", \"element_id\") VALUES (?, ?)",
+                    group.get("id"), asRecord(epoch).get("id"));
+            }
+        }
+
+        for (Map<String,Object> epoch : epochs) {
+
+            DateTime startTime = (DateTime)epoch.get("startTime");
+            Map<String,Object> group = asRecord(epoch.get("epochGroup"));
+            insert(connection, "INSERT INTO \"Epoch\" (\"id\", "+
+                "\"protocolID\", \"startTime\", \"excludeFromAnalysis\", "+
+                "\"epochGroup_id\") VALUES (?, ?, ?, ?, ?)", epoch.get("id"),
+                epoch.get("protocolID"), (startTime == null) ? null :
+                new Timestamp(startTime.getMillis()),
+                epoch.get("excludeFromAnalysis"),
+                (group == null) ? null : group.get("id"));
+
+            for (Object object : asList(epoch.get("responses"))) {
+                Map<String,Object> response = asRecord(object);
+                insert(connection, "INSERT INTO \"Response\" (\"id\", "+
+                    "\"units\", \"samplingRate\") VALUES (?, ?, ?)",
+                    response.get("id"), response.get("units"),
+                    response.get("samplingRate"));
+                insert(connection, "INSERT INTO \"Epoch_responses\" "+
+                    "(\"owner_id\", \"element_id\") VALUES (?, ?)",
+                    epoch.get("id"), response.get("id"));
+            }
+        }
+    }
+
+
+    /**
+     * The records are Maps and Lists of Objects, (see
+     * MapRecordAccessor), so these casts are unchecked.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String,Object> asRecord(Object value) {
+        return((Map<String,Object>)value);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object value) {
+        return((List<Object>)value);
+    }
+
+
+    private static void insert(Connection connection, String sql,
+                               Object... values)
+        throws SQLException {
+
+        PreparedStatement statement = connection.prepareStatement(sql);
+        for (int index = 0; index < values.length; index++)
+            statement.setObject(index+1, values[index]);
+        statement.executeUpdate();
+        statement.close();
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.translator.LiveExpressionTree;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+
+
+/**
+ * A simple benchmark that compares the time it takes to translate a
+ * large RowData tree after every keystroke with the time it takes a
+ * LiveExpressionTree to update itself.  The query has ROW_COUNT
+ * compound rows, each with an attribute row, and the "keystrokes"
+ * change the value of an attribute row in the middle.
+ *
+ * This is not a unit test, so it is not run by "mvn test".  Run its
+ * main() method by hand.
+ */
+public class LiveExpressionTreeBenchmark {
+
+    private static final int ROW_COUNT = 2000;
+    private static final int EDIT_COUNT = 2000;
+    private static final int PASS_COUNT = 5;
+
+
+    public static void main(String[] args) {
+
+        ClassDescription epochCD = DataModel.getClassDescription("Epoch");
+        ClassDescription responseCD =
+            DataModel.getClassDescription("Response");
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        RowData editedRow = null;
+        for (int index = 0; index < ROW_COUNT; index++) {
+
+            RowData responsesRow = new RowData();
+            responsesRow.addAttribute(epochCD.getAttribute("responses"));
+            responsesRow.setCollectionOperator(CollectionOperator.ANY);
+            responsesRow.setCollectionOperator2(CollectionOperator.ANY);
+            rootRow.addChildRow(responsesRow);
+
+            RowData unitsRow = new RowData();
+            unitsRow.addAttribute(responseCD.getAttribute("units"));
+            unitsRow.setAttributeOperator(Operator.EQUALS);
+            unitsRow.setAttributeValue("u"+index);
+            responsesRow.addChildRow(unitsRow);
+            if (index == ROW_COUNT/2)
+                editedRow = unitsRow;
+        }
+
+        for (int pass = 0; pass < PASS_COUNT; pass++) {
+
+            long start = System.nanoTime();
+            long check = 0;
+            for (int index = 0; index < EDIT_COUNT; index++) {
+                editedRow.setAttributeValue("v"+index);
+                if (RowDataToExpressionTree.translate(rootRow) != null)
+                    check++;
+            }
+            report("Full translation", start, check);
+        }
+
+        LiveExpressionTree live = new LiveExpressionTree(rootRow);
+        for (int pass = 0; pass < PASS_COUNT; pass++) {
+
+            long start = System.nanoTime();
+            long check = 0;
+            for (int index = 0; index < EDIT_COUNT; index++) {
+                editedRow.setAttributeValue("w"+index);
+                if (live.getExpressionTree() != null)
+                    check++;
+            }
+            report("LiveExpressionTree", start, check);
+        }
+        live.dispose();
+    }
+
+
+    private static void report(String label, long start, long check) {
+
+        double micros = (System.nanoTime()-start)/1e3/EDIT_COUNT;
+        System.out.println(label+": "+Math.round(micros)+
+                           " microseconds/edit ("+check+")");
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.translator.LiveExpressionTree;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+
+/**
+ * Tests for LiveExpressionTree.  After every change to the RowData
+ * tree, the live tree must be equal to a tree translated from scratch.
+ */
+public class LiveExpressionTreeTests extends TestCase {
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+    private static ClassDescription responseCD =
+            DataModel.getClassDescription("Response");
+
+
+    /**
+     * Changes below the root row only translate the rows that changed.
+     */
+    @Test
+    public void testRowChanges() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        RowData protocolRow = createRow(epochCD, "protocolID",
+                                        Operator.EQUALS, "p1");
+        rootRow.addChildRow(protocolRow);
+
+        RowData responsesRow = new RowData();
+        responsesRow.addAttribute(epochCD.getAttribute("responses"));
+        responsesRow.setCollectionOperator(CollectionOperator.ANY);
+        responsesRow.setCollectionOperator2(CollectionOperator.ANY);
+        rootRow.addChildRow(responsesRow);
+        RowData unitsRow = createRow(responseCD, "units",
+                                     Operator.EQUALS, "mV");
+        responsesRow.addChildRow(unitsRow);
+
+        LiveExpressionTree live = new LiveExpressionTree(rootRow);
+        final int[] changes = new int[1];
+        live.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                changes[0]++;
+            }
+        });
+        assertLive(live);
+
+        ExpressionTree before = live.getExpressionTree();
+        assertSame(before, live.getExpressionTree());
+        ExpressionTree original = RowDataToExpressionTree.translate(rootRow);
+        before.getFingerprint();
+
+        protocolRow.setAttributeValue("p2");
+        assertLive(live);
+        assertNotSame(before, live.getExpressionTree());
+
+        unitsRow.setAttributeOperator(Operator.NOT_EQUALS);
+        assertLive(live);
+
+        /**
+         * The tree from before the changes is a snapshot.  Its nodes
+         * were copied, not changed, so it and its cached fingerprint
+         * still describe the original rows.
+         */
+        assertEquals(original, before);
+        assertEquals(original.getFingerprint(), before.getFingerprint());
+        assertFalse(before.equals(live.getExpressionTree()));
+
+        /**
+         * A child added to the end, a child that the event does not
+         * name, and a compound row with its own children.
+         */
+        responsesRow.addChildRow(createRow(responseCD, "units",
+                                           Operator.EQUALS, "pA"));
+        assertLive(live);
+
+        /**
+         * A new attribute row can't be translated until it has an
+         * attribute operator.
+         */
+        rootRow.createAttributeRow();
+        assertNull(live.getExpressionTree());
+        RowData newRow = rootRow.getChildRows().get(
+            rootRow.getChildRows().size()-1);
+        newRow.setAttribute(0, epochCD.getAttribute("excludeFromAnalysis"));
+        newRow.setAttributeOperator(Operator.IS_TRUE);
+        assertLive(live);
+        int rebuildCount = live.getRebuildCount();
+
+        rootRow.createCompoundRow();
+        assertLive(live);
+        RowData compoundRow = rootRow.getChildRows().get(
+            rootRow.getChildRows().size()-1);
+        compoundRow.addChildRow(createRow(epochCD, "protocolID",
+                                          Operator.NOT_EQUALS, "p3"));
+        assertLive(live);
+
+        /**
+         * Removing a row, and making a row that had children into
+         * one that can't have them.
+         */
+        responsesRow.removeChildRow(unitsRow);
+        assertLive(live);
+        unitsRow.setAttributeValue("ignored");
+        assertLive(live);
+
+        compoundRow.setCollectionOperator(CollectionOperator.NONE);
+        assertLive(live);
+        responsesRow.setCollectionOperator(CollectionOperator.COUNT);
+        assertLive(live);
+        responsesRow.setCollectionOperator(CollectionOperator.ALL);
+        assertLive(live);
+
+        protocolRow.removeFromParent();
+        assertLive(live);
+
+        assertEquals(rebuildCount, live.getRebuildCount());
+        assertTrue(live.getUpdateCount() >= 10);
+        assertEquals(live.getUpdateCount()+live.getRebuildCount()-1,
+                     changes[0]);
+    }
+
+
+    /**
+     * Changes to the root row translate the whole tree, and
+     * dispose() stops the updates.
+     */
+    @Test
+    public void testRootChanges() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+        rootRow.addChildRow(createRow(epochCD, "protocolID",
+                                      Operator.EQUALS, "p1"));
+
+        LiveExpressionTree live = new LiveExpressionTree(rootRow);
+        assertLive(live);
+
+        rootRow.setCollectionOperator(CollectionOperator.NONE);
+        assertLive(live);
+        assertEquals(2, live.getRebuildCount());
+
+        rootRow.setClassUnderQualification(responseCD);
+        assertLive(live);
+        assertEquals(0, rootRow.getChildRows().size());
+
+        live.dispose();
+        ExpressionTree disposed = live.getExpressionTree();
+        rootRow.addChildRow(createRow(responseCD, "units",
+                                      Operator.EQUALS, "mV"));
+        assertSame(disposed, live.getExpressionTree());
+        assertFalse(disposed.equals(
+            RowDataToExpressionTree.translate(rootRow)));
+
+        try {
+            new LiveExpressionTree(rootRow.getChildRows().get(0));
+            fail("A LiveExpressionTree needs the root row.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    private static void assertLive(LiveExpressionTree live) {
+        assertEquals(RowDataToExpressionTree.translate(live.getRootRow()),
+                     live.getExpressionTree());
+    }
+
+
+    private static RowData createRow(ClassDescription cd,
+                                     String attributeName,
+                                     Operator operator, Object value) {
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(cd.getAttribute(attributeName));
+        rowData.setAttributeOperator(operator);
+        if (value != null)
+            rowData.setAttributeValue(value);
+        return(rowData);
+    }
+}
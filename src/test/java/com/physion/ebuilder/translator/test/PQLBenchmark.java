@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator.test;
+
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.translator.ExpressionTreeToPQL;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+
+import java.io.IOException;
+
+
+/**
+ * A simple benchmark that measures how many queries per second
+ * ExpressionTreeToPQL can write, and PQLToExpressionTree can parse.
+ * The query is the typical GUI query in PQLTranslatorTests.createTree().
+ *
+ * This is not a unit test, so it is not run by "mvn test".  Run its
+ * main() method by hand.
+ */
+public class PQLBenchmark {
+
+    private static final int QUERY_COUNT = 1000000;
+    private static final int PASS_COUNT = 5;
+
+
+    public static void main(String[] args) throws IOException {
+
+        ExpressionTree tree = PQLTranslatorTests.createTree();
+        IExpression root = tree.getRootExpression();
+        String pql = ExpressionTreeToPQL.translate(tree);
+        System.out.println("Query: "+pql.length()+" characters");
+
+        /**
+         * Write into one StringBuilder that is reused, the way a
+         * tool writing to a buffered file would.
+         */
+        StringBuilder builder = new StringBuilder(pql.length()*2);
+        for (int pass = 0; pass < PASS_COUNT; pass++) {
+
+            long start = System.nanoTime();
+            long characters = 0;
+            for (int index = 0; index < QUERY_COUNT; index++) {
+                builder.setLength(0);
+                ExpressionTreeToPQL.translate(root, builder);
+                characters += builder.length();
+            }
+            report("Render", start, characters);
+        }
+
+        for (int pass = 0; pass < PASS_COUNT; pass++) {
+
+            long start = System.nanoTime();
+            long check = 0;
+            for (int index = 0; index < QUERY_COUNT; index++)
+                check += PQLToExpressionTree.translate(pql).hashCode();
+            report("Parse", start, check);
+        }
+    }
+
+
+    private static void report(String label, long start, long check) {
+
+        double seconds = (System.nanoTime()-start)/1e9;
+        System.out.println(label+": "+Math.round(QUERY_COUNT/seconds)+
+                           " queries/second ("+check+")");
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.BooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.ClassLiteralValueExpression;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.Float64LiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.Int32LiteralValueExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.expression.StringLiteralValueExpression;
+import com.physion.ebuilder.expression.TimeLiteralValueExpression;
+import com.physion.ebuilder.translator.ExpressionTreeToPQL;
+import com.physion.ebuilder.translator.PQLToExpressionTree;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import com.physion.ebuilder.translator.Translator;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+
+/**
+ * Tests for ExpressionTreeToPQL and PQLToExpressionTree.
+ */
+public class PQLTranslatorTests extends TestCase {
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+    private static ClassDescription responseCD =
+            DataModel.getClassDescription("Response");
+
+
+    /**
+     * The PQL for a tree that the GUI built, and back again.
+     */
+    @Test
+    public void testGUITree() throws IOException {
+
+        ExpressionTree tree = createTree();
+        String pql = ExpressionTreeToPQL.translate(tree);
+        assertEquals("and(protocolID == \"p1\", " +
+            "startTime < #\"2011-01-01T00:00:00.000Z[UTC]\", " +
+            "excludeFromAnalysis == true, " +
+            "as(parameter(protocolParameters, \"stimFrequency\"), " +
+            "@ovation.IntegerValue).value == 10, " +
+            "as(parameter(protocolParameters, \"amplitude\"), " +
+            "@ovation.FloatingPointValue).value > 2.5, " +
+            "any(responses, or(units == \"mV\")))", pql);
+
+        ExpressionTree parsed = PQLToExpressionTree.translate("Epoch", pql);
+        assertEquals(tree, parsed);
+
+        StringWriter writer = new StringWriter();
+        ExpressionTreeToPQL.translate(tree.getRootExpression(), writer);
+        assertEquals(pql, writer.toString());
+    }
+
+
+    /**
+     * Trees that the GUI does not build still survive the round trip.
+     */
+    @Test
+    public void testRoundTrip() {
+
+        IExpression[] expressions = {
+            operator(Translator.OE_OR),
+            operator(Translator.OE_OR, attribute("a")),
+            operator(Translator.OE_EQUALS, attribute("a")),
+            operator(Translator.OE_EQUALS,
+                     operator(Translator.OE_LESS_THAN, attribute("a"),
+                              new Int32LiteralValueExpression(-1)),
+                     operator(Translator.OE_EQUALS, attribute("b"),
+                              new BooleanLiteralValueExpression(false))),
+            operator(Translator.OE_DOT, operator(Translator.OE_DOT,
+                attribute("epochGroup"), attribute("source")),
+                attribute("label")),
+            operator(Translator.OE_DOT, new ClassLiteralValueExpression(
+                Translator.CLVE_DATE), attribute("value")),
+            operator(Translator.OE_DOT, attribute("a"), attribute("my key")),
+            operator(Translator.OE_DOT, attribute("a"),
+                     new Int32LiteralValueExpression(1)),
+            operator(Translator.OE_DOT, operator(Translator.OE_EQUALS,
+                attribute("a"), attribute("b")), attribute("c")),
+            operator("my op", attribute("true"), attribute("`odd\\name`")),
+            operator(Translator.OE_NOT, operator(Translator.OE_IS_NULL,
+                attribute("this"))),
+            operator(Translator.OE_MATCHES_CASE_INSENSITIVE, attribute("a"),
+                     new StringLiteralValueExpression(
+                         "quote \" slash \\ tab \t line\n bell \u0007")),
+            operator(Translator.OE_AND,
+                new Int32LiteralValueExpression(Integer.MIN_VALUE),
+                new Int32LiteralValueExpression(Integer.MAX_VALUE),
+                new Float64LiteralValueExpression(-0.0),
+                new Float64LiteralValueExpression(1.0e-10),
+                new Float64LiteralValueExpression(Double.NaN),
+                new Float64LiteralValueExpression(Double.NEGATIVE_INFINITY),
+                new Float64LiteralValueExpression(Double.POSITIVE_INFINITY),
+                new ClassLiteralValueExpression("not a class name"),
+                new TimeLiteralValueExpression(new DateTime(2011, 6, 1,
+                    12, 30, 15, 250, DateTimeZone.forID("America/New_York"))),
+                new TimeLiteralValueExpression(new DateTime(2011, 6, 1,
+                    12, 30, DateTimeZone.forOffsetHours(-3))))};
+
+        for (IExpression expression : expressions) {
+            String pql = ExpressionTreeToPQL.translate(expression);
+            assertEquals(pql, expression, PQLToExpressionTree.translate(pql));
+        }
+
+        /**
+         * Whitespace is ignored, and the time zone of a time is
+         * optional.
+         */
+        assertEquals(operator(Translator.OE_AND,
+                operator(Translator.OE_GREATER_THAN_EQUALS, attribute("a"),
+                         new Float64LiteralValueExpression(2.5)),
+                new TimeLiteralValueExpression(new DateTime(2011, 1, 1, 0, 0,
+                    DateTimeZone.forOffsetHours(1)))),
+            PQLToExpressionTree.translate(" and ( a>=2.5 ,\n" +
+                "#\"2011-01-01T00:00:00+01:00\" ) "));
+    }
+
+
+    /**
+     * Bad PQL is reported with an IllegalArgumentException.
+     */
+    @Test
+    public void testErrors() {
+
+        String[] bad = {"", "and(a", "and(a b)", "a == b == c", "a ==",
+                        "\"abc", "@", "#\"not a time\"", "2147483648",
+                        "a.", "`abc", "and(a,)", ")", "a $ b"};
+        for (String pql : bad) {
+            try {
+                PQLToExpressionTree.translate(pql);
+                fail("Expected an IllegalArgumentException for: "+pql);
+            }
+            catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+
+        try {
+            PQLToExpressionTree.translate("Epoch", "a == 1");
+        }
+        catch (IllegalArgumentException e) {
+            fail("A comparison is an operator.");
+        }
+        try {
+            PQLToExpressionTree.translate("Epoch", "a");
+            fail("The root of an ExpressionTree must be an operator.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+
+    /**
+     *      Epoch | All
+     *        Epoch | protocolID == "p1"
+     *        Epoch | startTime < 2011-01-01
+     *        Epoch | excludeFromAnalysis is true
+     *        Epoch | protocolParameters.stimFrequency(int) == 10
+     *        Epoch | protocolParameters.amplitude(float) > 2.5
+     *        Epoch | responses Any have Any
+     *          Response | units == "mV"
+     */
+    static ExpressionTree createTree() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        rootRow.addChildRow(createRow(epochCD, "protocolID",
+                                      Operator.EQUALS, "p1"));
+        rootRow.addChildRow(createRow(epochCD, "startTime",
+            Operator.LESS_THAN, new DateTime(2011, 1, 1, 0, 0,
+                                             DateTimeZone.UTC)));
+        rootRow.addChildRow(createRow(epochCD, "excludeFromAnalysis",
+                                      Operator.IS_TRUE, null));
+        rootRow.addChildRow(createParameterRow("stimFrequency", Type.INT_32,
+            Operator.EQUALS, Integer.valueOf(10)));
+        rootRow.addChildRow(createParameterRow("amplitude", Type.FLOAT_64,
+            Operator.GREATER_THAN, Double.valueOf(2.5)));
+
+        RowData responsesRow = new RowData();
+        responsesRow.addAttribute(epochCD.getAttribute("responses"));
+        responsesRow.setCollectionOperator(CollectionOperator.ANY);
+        responsesRow.setCollectionOperator2(CollectionOperator.ANY);
+        rootRow.addChildRow(responsesRow);
+        responsesRow.addChildRow(createRow(responseCD, "units",
+                                           Operator.EQUALS, "mV"));
+
+        return(RowDataToExpressionTree.translate(rootRow));
+    }
+
+
+    private static RowData createRow(ClassDescription cd,
+                                     String attributeName,
+                                     Operator operator, Object value) {
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(cd.getAttribute(attributeName));
+        rowData.setAttributeOperator(operator);
+        if (value != null)
+            rowData.setAttributeValue(value);
+        return(rowData);
+    }
+
+
+    private static RowData createParameterRow(String key, Type type,
+                                              Operator operator,
+                                              Object value) {
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolParameters"));
+        rowData.setPropName(key);
+        rowData.setPropType(type);
+        rowData.setAttributeOperator(operator);
+        rowData.setAttributeValue(value);
+        return(rowData);
+    }
+
+
+    private static AttributeExpression attribute(String name) {
+        return(new AttributeExpression(name));
+    }
+
+
+    private static OperatorExpression operator(String name,
+                                               IExpression... operands) {
+
+        OperatorExpression oe = new OperatorExpression(name);
+        for (IExpression operand : operands)
+            oe.addOperand(operand);
+        return(oe);
+    }
+}
@@ -1669,7 +1669,7 @@ public class TranslatorTests extends TestCase {
                     translate(rootRow);
             s += "\nRowData Translated Back To Expression:\n"+newETree;
 
-            same = eTree.toString().equals(newETree.toString());
+            same = eTree.equals(newETree);
         }
 
         if (same)
@@ -1718,10 +1718,10 @@ public class TranslatorTests extends TestCase {
 
         s += "\nTest ExpressionTree Serialization: ";
         ExpressionTree eTree = RowDataToExpressionTree.translate(rootRow);
-        String origETree = eTree.toString();
+        ExpressionTree origETree = eTree;
         eTree.writeExpressionTree("temp.expTree");
         eTree = ExpressionTree.readExpressionTree("temp.expTree");
-        same = origETree.equals(eTree.toString());
+        same = origETree.equals(eTree);
         if (same)
             s += "ExpressionTree de/serialization succeed.";
         else